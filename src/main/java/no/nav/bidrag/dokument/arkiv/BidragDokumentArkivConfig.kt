@@ -1,5 +1,6 @@
 package no.nav.bidrag.dokument.arkiv
 
+import io.micrometer.core.instrument.MeterRegistry
 import io.swagger.v3.oas.annotations.OpenAPIDefinition
 import io.swagger.v3.oas.annotations.enums.SecuritySchemeType
 import io.swagger.v3.oas.annotations.info.Info
@@ -16,9 +17,12 @@ import no.nav.bidrag.commons.web.UserMdcFilter
 import no.nav.bidrag.dokument.arkiv.consumer.BidragOrganisasjonConsumer
 import no.nav.bidrag.dokument.arkiv.consumer.DokarkivConsumer
 import no.nav.bidrag.dokument.arkiv.consumer.DokarkivKnyttTilSakConsumer
+import no.nav.bidrag.dokument.arkiv.consumer.DokumentCache
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
 import no.nav.bidrag.dokument.arkiv.consumer.OppgaveConsumer
 import no.nav.bidrag.dokument.arkiv.consumer.PersonConsumer
 import no.nav.bidrag.dokument.arkiv.consumer.SafConsumer
+import no.nav.bidrag.dokument.arkiv.consumer.SingleFlight
 import no.nav.bidrag.dokument.arkiv.kafka.HendelserProducer
 import no.nav.bidrag.dokument.arkiv.model.Discriminator
 import no.nav.bidrag.dokument.arkiv.model.ResourceByDiscriminator
@@ -39,6 +43,8 @@ import org.springframework.http.client.observation.DefaultClientRequestObservati
 import org.springframework.retry.annotation.EnableRetry
 import org.springframework.web.util.DefaultUriBuilderFactory
 import tools.jackson.databind.json.JsonMapper
+import java.nio.file.Path
+import java.time.Duration
 
 @Configuration
 @EnableSecurityConfiguration
@@ -69,13 +75,16 @@ class BidragDokumentArkivConfig {
     fun baseSafConsumer(
         @Qualifier("base") httpHeaderRestTemplate: HttpHeaderRestTemplate,
         environmentProperties: EnvironmentProperties,
+        @Value("\${SAF_JOURNALPOST_BATCH_STORRELSE:20}") journalpostBatchStorrelse: Int,
+        meterRegistry: MeterRegistry,
+        objectMapper: JsonMapper,
     ): SafConsumer {
         httpHeaderRestTemplate.uriTemplateHandler =
             DefaultUriBuilderFactory(environmentProperties.safUrl)
         httpHeaderRestTemplate.addHeaderGenerator(
             HttpHeaders.CONTENT_TYPE,
         ) { MediaType.APPLICATION_JSON_VALUE }
-        return SafConsumer(httpHeaderRestTemplate)
+        return SafConsumer(httpHeaderRestTemplate, SingleFlight("saf", meterRegistry), objectMapper, journalpostBatchStorrelse)
     }
 
     @Bean
@@ -112,10 +121,11 @@ class BidragDokumentArkivConfig {
     fun basePersonConsumer(
         @Qualifier("base") httpHeaderRestTemplate: HttpHeaderRestTemplate,
         environmentProperties: EnvironmentProperties,
+        meterRegistry: MeterRegistry,
     ): PersonConsumer {
         httpHeaderRestTemplate.uriTemplateHandler =
             DefaultUriBuilderFactory(environmentProperties.bidragPersonUrl + "/bidrag-person")
-        return PersonConsumer(httpHeaderRestTemplate)
+        return PersonConsumer(httpHeaderRestTemplate, SingleFlight("bidrag-person", meterRegistry))
     }
 
     @Bean
@@ -144,14 +154,17 @@ class BidragDokumentArkivConfig {
     fun journalpostServices(
         safConsumers: ResourceByDiscriminator<SafConsumer>,
         personConsumers: ResourceByDiscriminator<PersonConsumer>,
+        @Value("\${PERSONOPPSLAG_PARALLELITET:8}") personoppslagParallelitet: Int,
     ): ResourceByDiscriminator<JournalpostService> {
         val journalpostServiceRegularUser = JournalpostService(
             safConsumers.get(Discriminator.REGULAR_USER),
             personConsumers.get(Discriminator.SERVICE_USER),
+            personoppslagParallelitet,
         )
         val journalpostServiceServiceUser = JournalpostService(
             safConsumers.get(Discriminator.SERVICE_USER),
             personConsumers.get(Discriminator.SERVICE_USER),
+            personoppslagParallelitet,
         )
         val journalpostServices = HashMap<Discriminator, JournalpostService>()
         journalpostServices[Discriminator.REGULAR_USER] =
@@ -160,16 +173,36 @@ class BidragDokumentArkivConfig {
         return ResourceByDiscriminator(journalpostServices)
     }
 
+    @Bean
+    fun journalpostCache(
+        @Value("\${JOURNALPOST_CACHE_AKTIV:true}") aktiv: Boolean,
+        @Value("\${JOURNALPOST_CACHE_MAKS_ANTALL:10000}") maksAntall: Long,
+        @Value("\${JOURNALPOST_CACHE_LEVETID:PT5M}") levetid: Duration,
+        meterRegistry: MeterRegistry,
+    ): JournalpostCache = JournalpostCache(aktiv, maksAntall, levetid, meterRegistry)
+
+    @Bean
+    fun dokumentCache(
+        @Value("\${DOKUMENT_CACHE_AKTIV:true}") aktiv: Boolean,
+        @Value("\${DOKUMENT_CACHE_KATALOG:\${java.io.tmpdir}}") katalog: Path,
+        @Value("\${DOKUMENT_CACHE_MAKS_STORRELSE:536870912}") maksStorrelse: Long,
+        meterRegistry: MeterRegistry,
+    ): DokumentCache = DokumentCache(aktiv, katalog, maksStorrelse, meterRegistry)
+
     @Bean
     fun safConsumers(
         safConsumerRegularUser: SafConsumer,
         safConsumerServiceUser: SafConsumer,
         securityTokenService: SecurityTokenService,
+        journalpostCache: JournalpostCache,
     ): ResourceByDiscriminator<SafConsumer> {
         safConsumerRegularUser.leggTilInterceptor(securityTokenService.authTokenInterceptor("saf"))
         safConsumerServiceUser.leggTilInterceptor(
             securityTokenService.clientCredentialsTokenInterceptor("saf")!!,
         )
+        safConsumerRegularUser.settDiscriminator(Discriminator.REGULAR_USER)
+        safConsumerServiceUser.settDiscriminator(Discriminator.SERVICE_USER)
+        safConsumerServiceUser.leggTilJournalpostCache(journalpostCache)
         val safConsumers = HashMap<Discriminator, SafConsumer>()
         safConsumers[Discriminator.REGULAR_USER] =
             safConsumerRegularUser
@@ -207,6 +240,8 @@ class BidragDokumentArkivConfig {
         personConsumerServiceUser.leggTilInterceptor(
             securityTokenService.clientCredentialsTokenInterceptor("bidrag-person"),
         )
+        personConsumerRegularUser.settDiscriminator(Discriminator.REGULAR_USER)
+        personConsumerServiceUser.settDiscriminator(Discriminator.SERVICE_USER)
         val personConsumers = HashMap<Discriminator, PersonConsumer>()
         personConsumers[Discriminator.REGULAR_USER] = personConsumerRegularUser
         personConsumers[Discriminator.SERVICE_USER] =
@@ -219,6 +254,7 @@ class BidragDokumentArkivConfig {
         @Qualifier("base") httpHeaderRestTemplate: HttpHeaderRestTemplate,
         environmentProperties: EnvironmentProperties,
         securityTokenService: SecurityTokenService,
+        journalpostCache: JournalpostCache,
     ): DokarkivKnyttTilSakConsumer {
         httpHeaderRestTemplate.uriTemplateHandler =
             DefaultUriBuilderFactory(environmentProperties.dokarkivKnyttTilSakUrl)
@@ -229,6 +265,7 @@ class BidragDokumentArkivConfig {
         dokarkivKnyttTilSakConsumer.leggTilInterceptor(
             securityTokenService.authTokenInterceptor("dokarkiv"),
         )
+        dokarkivKnyttTilSakConsumer.leggTilJournalpostCache(journalpostCache)
         return dokarkivKnyttTilSakConsumer
     }
 
@@ -237,6 +274,7 @@ class BidragDokumentArkivConfig {
         dokarkivConsumerRegularUser: DokarkivConsumer,
         dokarkivConsumerServiceUser: DokarkivConsumer,
         securityTokenService: SecurityTokenService,
+        journalpostCache: JournalpostCache,
     ): ResourceByDiscriminator<DokarkivConsumer> {
         dokarkivConsumerRegularUser.leggTilInterceptor(
             securityTokenService.authTokenInterceptor("dokarkiv"),
@@ -244,6 +282,8 @@ class BidragDokumentArkivConfig {
         dokarkivConsumerServiceUser.leggTilInterceptor(
             securityTokenService.clientCredentialsTokenInterceptor("dokarkiv"),
         )
+        dokarkivConsumerRegularUser.leggTilJournalpostCache(journalpostCache)
+        dokarkivConsumerServiceUser.leggTilJournalpostCache(journalpostCache)
         val dokarkivConsumers = HashMap<Discriminator, DokarkivConsumer>()
         dokarkivConsumers[Discriminator.REGULAR_USER] = dokarkivConsumerRegularUser
         dokarkivConsumers[Discriminator.SERVICE_USER] = dokarkivConsumerServiceUser
@@ -255,6 +295,7 @@ class BidragDokumentArkivConfig {
         httpHeaderRestTemplate: HttpHeaderRestTemplate,
         securityTokenService: SecurityTokenService,
         environmentProperties: EnvironmentProperties,
+        meterRegistry: MeterRegistry,
     ): BidragOrganisasjonConsumer {
         httpHeaderRestTemplate.uriTemplateHandler = DefaultUriBuilderFactory(
             environmentProperties.bidragOrganisasjonUrl + "/bidrag-organisasjon",
@@ -262,7 +303,7 @@ class BidragDokumentArkivConfig {
         httpHeaderRestTemplate
             .interceptors
             .add(securityTokenService.clientCredentialsTokenInterceptor("bidrag-organisasjon")!!)
-        return BidragOrganisasjonConsumer(httpHeaderRestTemplate)
+        return BidragOrganisasjonConsumer(httpHeaderRestTemplate, SingleFlight("bidrag-organisasjon", meterRegistry))
     }
 
     @Bean
@@ -1,17 +1,44 @@
 package no.nav.bidrag.dokument.arkiv;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import java.util.concurrent.TimeUnit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.interceptor.KeyGenerator;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
 
+/**
+ * Caffeine-cachene for oppslag mot andre tjenester. Alle profiler har de samme cachene. Levetiden og maks vekt for hver cache
+ * settes med {@code <CACHE>_LEVETID} og {@code <CACHE>_MAKS_VEKT} i application.yaml. Vekten er et anslag av hvor mye minne
+ * verdien bruker, og regnes ut fra feltene i verdien uten å serialisere den.
+ *
+ * <p>Cachene i {@link #OPPFRISKEDE_CACHER} hentes på nytt i bakgrunnen etter {@code <CACHE>_OPPFRISKING}, slik at nøkler som
+ * brukes mye ikke blir liggende og vente på at verdien går ut. Metodene som fyller dem må bruke nøkkelgeneratoren
+ * {@link #OPPFRISKBAR_NOKKEL}. Feiler oppfriskingen brukes den gamle verdien til levetiden er ute.
+ */
 @Configuration
 @EnableCaching
-@Profile("nais")
 public class CacheConfig {
 
   public static final String STS_SERVICE_USER_TOKEN_CACHE = "STS_SERVICE_USER_TOKEN_CACHE";
@@ -21,28 +48,165 @@ public class CacheConfig {
   public static final String GEOGRAFISK_ENHET_CACHE = "GEOGRAFISK_ENHET_CACHE";
   public static final String GEOGRAFISK_ENHET_WITH_TEMA_CACHE = "GEOGRAFISK_ENHET_WITH_TEMA_CACHE";
   public static final String SAKSBEHANDLERINFO_CACHE = "SAKSBEHANDLERINFO_CACHE";
+  public static final String OPPFRISKBAR_NOKKEL = "oppfriskbarNokkel";
+  public static final String CACHE_OPPFRISKING_TIMER_NAME = "cache_oppfrisking";
+  public static final String CACHE_OPPFRISKING_FEIL_COUNTER_NAME = "cache_oppfrisking_feil";
+
+  private static final List<String> CACHER = List.of(
+      PERSON_CACHE,
+      PERSON_ADRESSE_CACHE,
+      GEOGRAFISK_ENHET_CACHE,
+      GEOGRAFISK_ENHET_WITH_TEMA_CACHE,
+      SAKSBEHANDLERINFO_CACHE,
+      DISTRIBUSJON_KANAL_CACHE);
+  private static final List<String> OPPFRISKEDE_CACHER = List.of(
+      SAKSBEHANDLERINFO_CACHE,
+      DISTRIBUSJON_KANAL_CACHE,
+      GEOGRAFISK_ENHET_WITH_TEMA_CACHE);
+  private static final Duration STANDARD_LEVETID = Duration.ofHours(24);
+  private static final DataSize STANDARD_MAKS_VEKT = DataSize.ofMegabytes(16);
+  private static final Duration STANDARD_OPPFRISKING = Duration.ofHours(12);
+  private static final int OBJEKT_OVERHEAD = 64;
+  private static final int MAKS_DYBDE = 4;
+  private static final ClassValue<List<Field>> FELTER = new ClassValue<>() {
+    @Override
+    protected List<Field> computeValue(Class<?> type) {
+      var felter = new ArrayList<Field>();
+      for (Class<?> klasse = type; klasse != null && klasse != Object.class; klasse = klasse.getSuperclass()) {
+        for (Field felt : klasse.getDeclaredFields()) {
+          if (!Modifier.isStatic(felt.getModifiers()) && !felt.getType().isPrimitive() && felt.trySetAccessible()) {
+            felter.add(felt);
+          }
+        }
+      }
+      return List.copyOf(felter);
+    }
+  };
+
+  @Bean(OPPFRISKBAR_NOKKEL)
+  public KeyGenerator oppfriskbarNokkel() {
+    return OppfriskbarNokkel.GENERATOR;
+  }
+
+  @Bean(destroyMethod = "close")
+  public ExecutorService cacheOppfriskingExecutor() {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("cache-oppfrisking-", 0).factory());
+  }
 
   @Bean
-  public CacheManager cacheManager() {
+  public CacheManager cacheManager(
+      Environment environment, MeterRegistry meterRegistry, ExecutorService cacheOppfriskingExecutor) {
     CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager();
-    caffeineCacheManager.registerCustomCache(
-        PERSON_CACHE,
-        Caffeine.newBuilder().expireAfterWrite(24, TimeUnit.HOURS).recordStats().build());
-    caffeineCacheManager.registerCustomCache(
-        PERSON_ADRESSE_CACHE,
-        Caffeine.newBuilder().expireAfterWrite(24, TimeUnit.HOURS).recordStats().build());
-    caffeineCacheManager.registerCustomCache(
-        GEOGRAFISK_ENHET_CACHE,
-        Caffeine.newBuilder().expireAfterWrite(24, TimeUnit.HOURS).recordStats().build());
-    caffeineCacheManager.registerCustomCache(
-        GEOGRAFISK_ENHET_WITH_TEMA_CACHE,
-        Caffeine.newBuilder().expireAfterWrite(24, TimeUnit.HOURS).recordStats().build());
-    caffeineCacheManager.registerCustomCache(
-        SAKSBEHANDLERINFO_CACHE,
-        Caffeine.newBuilder().expireAfterWrite(24, TimeUnit.HOURS).recordStats().build());
-    caffeineCacheManager.registerCustomCache(
-        DISTRIBUSJON_KANAL_CACHE,
-        Caffeine.newBuilder().expireAfterWrite(24, TimeUnit.HOURS).recordStats().build());
+    caffeineCacheManager.setCacheNames(List.of());
+    for (String navn : CACHER) {
+      var levetid = environment.getProperty(navn + "_LEVETID", Duration.class, STANDARD_LEVETID);
+      var maksVekt = environment.getProperty(navn + "_MAKS_VEKT", DataSize.class, STANDARD_MAKS_VEKT);
+      var builder = Caffeine.newBuilder()
+          .expireAfterWrite(levetid)
+          .maximumWeight(maksVekt.toBytes())
+          .weigher((Object nokkel, Object verdi) -> vekt(nokkel) + vekt(verdi))
+          .recordStats();
+      Cache<Object, Object> cache;
+      if (OPPFRISKEDE_CACHER.contains(navn)) {
+        var oppfrisking = environment.getProperty(navn + "_OPPFRISKING", Duration.class, STANDARD_OPPFRISKING);
+        cache = builder
+            .refreshAfterWrite(oppfrisking)
+            .executor(cacheOppfriskingExecutor)
+            .build(oppfriskingLaster(navn, meterRegistry));
+      } else {
+        cache = builder.build();
+      }
+      // Samme tagger som Spring Boot bruker når den binder cachene selv, slik at metrikkene ikke registreres to ganger
+      CaffeineCacheMetrics.monitor(meterRegistry, cache, navn, Tags.of("cache.manager", "cacheManager"));
+      caffeineCacheManager.registerCustomCache(navn, cache);
+    }
     return caffeineCacheManager;
   }
+
+  /**
+   * Laster ikke verdier som mangler, det gjør metoden med @Cacheable selv. Verdier som skal friskes opp hentes på nytt med
+   * {@link OppfriskbarNokkel#hent()}. Caffeine beholder den gamle verdien når oppfriskingen feiler.
+   */
+  static CacheLoader<Object, Object> oppfriskingLaster(String navn, MeterRegistry meterRegistry) {
+    var oppfriskingTid = Timer.builder(CACHE_OPPFRISKING_TIMER_NAME).tag("cache", navn).register(meterRegistry);
+    var oppfriskingFeil = Counter.builder(CACHE_OPPFRISKING_FEIL_COUNTER_NAME).tag("cache", navn).register(meterRegistry);
+    return new CacheLoader<>() {
+      @Override
+      public Object load(Object nokkel) {
+        return null;
+      }
+
+      @Override
+      public Object reload(Object nokkel, Object gammelVerdi) throws Exception {
+        if (!(nokkel instanceof OppfriskbarNokkel oppfriskbarNokkel)) {
+          return gammelVerdi;
+        }
+        var start = System.nanoTime();
+        try {
+          return oppfriskbarNokkel.hent();
+        } catch (Exception e) {
+          oppfriskingFeil.increment();
+          throw e;
+        } finally {
+          oppfriskingTid.record(Duration.ofNanos(System.nanoTime() - start));
+        }
+      }
+    };
+  }
+
+  /**
+   * Anslår hvor mange bytes verdien bruker på heap ut fra strukturen: et fast tillegg per objekt, lengden på tekst, og summen
+   * av feltene, elementene i lister og oppføringene i map. Feltene leses bare ned til {@value #MAKS_DYBDE} nivåer, så anslaget
+   * er billig nok til å regnes ut ved hver lagring.
+   */
+  public static int vekt(Object verdi) {
+    return vekt(verdi, 0);
+  }
+
+  private static int vekt(Object verdi, int dybde) {
+    if (verdi == null || dybde > MAKS_DYBDE) {
+      return OBJEKT_OVERHEAD;
+    }
+    if (verdi instanceof Optional<?> optional) {
+      return OBJEKT_OVERHEAD + optional.map(it -> vekt(it, dybde + 1)).orElse(0);
+    }
+    if (verdi instanceof OppfriskbarNokkel nokkel) {
+      return OBJEKT_OVERHEAD + vekt(nokkel.params(), dybde + 1);
+    }
+    if (verdi instanceof CharSequence tekst) {
+      return OBJEKT_OVERHEAD + tekst.length();
+    }
+    if (verdi instanceof byte[] bytes) {
+      return OBJEKT_OVERHEAD + bytes.length;
+    }
+    if (verdi instanceof Object[] tabell) {
+      return vekt(Arrays.asList(tabell), dybde);
+    }
+    if (verdi instanceof Collection<?> elementer) {
+      var sum = OBJEKT_OVERHEAD;
+      for (var element : elementer) {
+        sum += vekt(element, dybde + 1);
+      }
+      return sum;
+    }
+    if (verdi instanceof Map<?, ?> map) {
+      var sum = OBJEKT_OVERHEAD;
+      for (var oppforing : map.entrySet()) {
+        sum += vekt(oppforing.getKey(), dybde + 1) + vekt(oppforing.getValue(), dybde + 1);
+      }
+      return sum;
+    }
+    if (verdi.getClass().getName().startsWith("java.")) {
+      return OBJEKT_OVERHEAD;
+    }
+    var sum = OBJEKT_OVERHEAD;
+    for (var felt : FELTER.get(verdi.getClass())) {
+      try {
+        sum += vekt(felt.get(verdi), dybde + 1);
+      } catch (IllegalAccessException e) {
+        sum += OBJEKT_OVERHEAD;
+      }
+    }
+    return sum;
+  }
 }
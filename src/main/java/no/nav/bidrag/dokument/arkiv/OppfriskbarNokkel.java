@@ -0,0 +1,61 @@
+package no.nav.bidrag.dokument.arkiv;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Cachenøkkel som husker metoden og argumentene verdien ble hentet med, slik at cacher med refreshAfterWrite kan hente
+ * verdien på nytt uten at noen venter på den. Bare metoden og argumentene brukes i equals og hashCode.
+ */
+public final class OppfriskbarNokkel {
+
+  public static final KeyGenerator GENERATOR = (target, method, params) -> new OppfriskbarNokkel(target, method, params);
+
+  private final Object target;
+  private final Method method;
+  private final Object[] params;
+
+  private OppfriskbarNokkel(Object target, Method method, Object[] params) {
+    this.target = target;
+    this.method = method;
+    this.params = params.clone();
+  }
+
+  /**
+   * Kaller metoden direkte på bønnen bak proxyen, så verken cache eller @Retryable brukes. Feil fra metoden kastes videre.
+   */
+  public Object hent() throws Exception {
+    ReflectionUtils.makeAccessible(method);
+    try {
+      return method.invoke(target, params);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  public List<Object> params() {
+    return Arrays.asList(params);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof OppfriskbarNokkel annen && method.equals(annen.method) && Arrays.deepEquals(params, annen.params);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * method.hashCode() + Arrays.deepHashCode(params);
+  }
+
+  @Override
+  public String toString() {
+    return method.getName() + Arrays.deepToString(params);
+  }
+}
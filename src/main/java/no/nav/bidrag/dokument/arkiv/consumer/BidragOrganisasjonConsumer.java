@@ -2,8 +2,10 @@ package no.nav.bidrag.dokument.arkiv.consumer;
 
 import static no.nav.bidrag.dokument.arkiv.CacheConfig.GEOGRAFISK_ENHET_CACHE;
 import static no.nav.bidrag.dokument.arkiv.CacheConfig.GEOGRAFISK_ENHET_WITH_TEMA_CACHE;
+import static no.nav.bidrag.dokument.arkiv.CacheConfig.OPPFRISKBAR_NOKKEL;
 import static no.nav.bidrag.dokument.arkiv.CacheConfig.SAKSBEHANDLERINFO_CACHE;
 
+import java.util.Arrays;
 import no.nav.bidrag.commons.web.HttpHeaderRestTemplate;
 import no.nav.bidrag.dokument.arkiv.dto.GeografiskTilknytningResponse;
 import no.nav.bidrag.dokument.arkiv.dto.SaksbehandlerInfoResponse;
@@ -16,12 +18,14 @@ public class BidragOrganisasjonConsumer {
   public static final String ARBEIDSFORDELING_URL="/arbeidsfordeling/enhetsliste/geografisktilknytning/%s";
   public static final String SAKSBEHANDLER_INFO="/saksbehandler/info/%s";
   private final HttpHeaderRestTemplate restTemplate;
+  private final SingleFlight singleFlight;
 
-  public BidragOrganisasjonConsumer(HttpHeaderRestTemplate restTemplate) {
+  public BidragOrganisasjonConsumer(HttpHeaderRestTemplate restTemplate, SingleFlight singleFlight) {
     this.restTemplate = restTemplate;
+    this.singleFlight = singleFlight;
   }
 
-  @Cacheable(value = GEOGRAFISK_ENHET_WITH_TEMA_CACHE, unless="#result == null")
+  @Cacheable(value = GEOGRAFISK_ENHET_WITH_TEMA_CACHE, keyGenerator = OPPFRISKBAR_NOKKEL, unless="#result == null")
   public String hentGeografiskEnhet(String personId, String tema){
     if (Strings.isEmpty(personId)){
       return null;
@@ -30,14 +34,18 @@ public class BidragOrganisasjonConsumer {
     if (Strings.isNotEmpty(tema)){
       arbeidsfordelingUrl = arbeidsfordelingUrl+"?tema="+tema;
     }
-    var response = restTemplate.exchange(arbeidsfordelingUrl, HttpMethod.GET, null, GeografiskTilknytningResponse.class);
-    return response.getBody() == null ? null : response.getBody().getEnhetIdent();
+    var url = arbeidsfordelingUrl;
+    return singleFlight.utfor(Arrays.asList("hentGeografiskEnhet", personId, tema), () -> {
+      var response = restTemplate.exchange(url, HttpMethod.GET, null, GeografiskTilknytningResponse.class);
+      return response.getBody() == null ? null : response.getBody().getEnhetIdent();
+    });
   }
 
 
 
-  @Cacheable(SAKSBEHANDLERINFO_CACHE)
+  @Cacheable(value = SAKSBEHANDLERINFO_CACHE, keyGenerator = OPPFRISKBAR_NOKKEL)
   public SaksbehandlerInfoResponse hentSaksbehandlerInfo(String saksbehandlerIdent){
-    return restTemplate.exchange(String.format(SAKSBEHANDLER_INFO, saksbehandlerIdent), HttpMethod.GET, null, SaksbehandlerInfoResponse.class).getBody();
+    return singleFlight.utfor(Arrays.asList("hentSaksbehandlerInfo", saksbehandlerIdent), () ->
+        restTemplate.exchange(String.format(SAKSBEHANDLER_INFO, saksbehandlerIdent), HttpMethod.GET, null, SaksbehandlerInfoResponse.class).getBody());
   }
 }
@@ -18,10 +18,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestTemplate;
 import tools.jackson.core.JacksonException;
 import tools.jackson.databind.json.JsonMapper;
@@ -29,12 +32,31 @@ import tools.jackson.databind.json.JsonMapper;
 public class DokarkivConsumer extends AbstractConsumer {
   private static final Logger LOGGER = LoggerFactory.getLogger(DokarkivConsumer.class);
   private final JsonMapper objectMapper;
+  private final OpprettJournalpostRequestSkriver opprettJournalpostRequestSkriver;
+  private final RestTemplate strommendeRestTemplate;
+  private JournalpostCache journalpostCache;
   public static final String URL_JOURNALPOSTAPI_V1 = "/rest/journalpostapi/v1/journalpost";
   public static final String URL_JOURNALPOSTAPI_V1_FEILREGISTRER = "/rest/journalpostapi/v1/journalpost/%s/feilregistrer";
 
   public DokarkivConsumer(RestTemplate restTemplate, JsonMapper objectMapper) {
     super(restTemplate);
     this.objectMapper = objectMapper;
+    this.opprettJournalpostRequestSkriver = new OpprettJournalpostRequestSkriver(objectMapper);
+    this.strommendeRestTemplate = opprettStrommendeRestTemplate(restTemplate);
+  }
+
+  /**
+   * RestTemplate for requester som er for store til å bufres i minnet. Interceptorene legges til etter at consumeren er opprettet,
+   * så request factory er her fortsatt uten interceptorer. Interceptorene kjøres i stedet av {@link StrommendeRequestFactory}.
+   */
+  private static RestTemplate opprettStrommendeRestTemplate(RestTemplate restTemplate) {
+    var strommendeRestTemplate = new RestTemplate(new StrommendeRequestFactory(restTemplate.getRequestFactory(), restTemplate::getInterceptors));
+    strommendeRestTemplate.setUriTemplateHandler(restTemplate.getUriTemplateHandler());
+    strommendeRestTemplate.setMessageConverters(restTemplate.getMessageConverters());
+    strommendeRestTemplate.setErrorHandler(restTemplate.getErrorHandler());
+    strommendeRestTemplate.setObservationRegistry(restTemplate.getObservationRegistry());
+    strommendeRestTemplate.setObservationConvention(restTemplate.getObservationConvention());
+    return strommendeRestTemplate;
   }
   @Retryable(value = OppdaterJournalpostFeiletTekniskException.class, maxAttempts = 5, backoff = @Backoff(delay = 1000, maxDelay = 5000, multiplier = 2.0))
   public OppdaterJournalpostResponse endre(OppdaterJournalpostRequest oppdaterJournalpostRequest) {
@@ -50,19 +72,26 @@ public class DokarkivConsumer extends AbstractConsumer {
         throw new OppdaterJournalpostFeiletFunksjoneltException(String.format("Oppdatering av journalpost %s feilet med status %s og feilmelding: %s", oppdaterJournalpostRequest.hentJournalpostId(), e.getStatusCode(), errorMessage));
       }
       throw new OppdaterJournalpostFeiletTekniskException(String.format("Oppdatering av journalpost %s feilet med status %s og feilmelding: %s", oppdaterJournalpostRequest.hentJournalpostId(), e.getStatusCode(), errorMessage), e);
+    } finally {
+      fjernFraCache(oppdaterJournalpostRequest.hentJournalpostId());
     }
   }
 
   public JoarkOpprettJournalpostResponse opprett(JoarkOpprettJournalpostRequest joarkOpprettJournalpostRequest, boolean ferdigstill){
     try {
-      var response = restTemplate.exchange(URL_JOURNALPOSTAPI_V1+ String.format("?forsoekFerdigstill=%s", ferdigstill ? "true" : "false"), HttpMethod.POST, new HttpEntity<>(joarkOpprettJournalpostRequest), JoarkOpprettJournalpostResponse.class);
+      var response = strommendeRestTemplate.execute(URL_JOURNALPOSTAPI_V1+ String.format("?forsoekFerdigstill=%s", ferdigstill ? "true" : "false"), HttpMethod.POST, opprettRequestCallback(joarkOpprettJournalpostRequest), restTemplate.<JoarkOpprettJournalpostResponse>responseEntityExtractor(JoarkOpprettJournalpostResponse.class));
       var responseBody = response.getBody();
       LOGGER.info("Opprettet journalpost {} med status {}", responseBody.getJournalpostId(), responseBody.getJournalstatus());
+      fjernFraCache(responseBody.getJournalpostId());
       return response.getBody();
     } catch (HttpClientErrorException clientErrorException){
       if (clientErrorException.getStatusCode() == HttpStatus.CONFLICT){
         LOGGER.info("Journalpost med eksternReferanseId {} er allerede arkivert i Joark", joarkOpprettJournalpostRequest.getEksternReferanseId());
-        return handleConflictResponse(clientErrorException);
+        var conflictResponse = handleConflictResponse(clientErrorException);
+        if (conflictResponse != null) {
+          fjernFraCache(conflictResponse.getJournalpostId());
+        }
+        return conflictResponse;
       }
       throw clientErrorException;
     }
@@ -70,8 +99,12 @@ public class DokarkivConsumer extends AbstractConsumer {
 
   public HttpResponse<Void> ferdigstill(FerdigstillJournalpostRequest ferdigstillJournalpostRequest) {
     var oppdaterJoarnalpostApiUrl = URL_JOURNALPOSTAPI_V1 + '/' + ferdigstillJournalpostRequest.getJournalpostId() + "/ferdigstill";
-    var response = restTemplate.exchange(oppdaterJoarnalpostApiUrl, HttpMethod.PATCH, new HttpEntity<>(ferdigstillJournalpostRequest), Void.class);
-    return new HttpResponse<>(response);
+    try {
+      var response = restTemplate.exchange(oppdaterJoarnalpostApiUrl, HttpMethod.PATCH, new HttpEntity<>(ferdigstillJournalpostRequest), Void.class);
+      return new HttpResponse<>(response);
+    } finally {
+      fjernFraCache(ferdigstillJournalpostRequest.getJournalpostId());
+    }
 
   }
 
@@ -87,6 +120,8 @@ public class DokarkivConsumer extends AbstractConsumer {
         return HttpResponse.Companion.from(HttpStatus.OK);
       }
       throw e;
+    } finally {
+      fjernFraCache(journalpostId);
     }
   }
 
@@ -104,14 +139,48 @@ public class DokarkivConsumer extends AbstractConsumer {
         return HttpResponse.Companion.from(HttpStatus.OK);
       }
       throw clientErrorException;
+    } finally {
+      fjernFraCache(journalpostId);
     }
   }
 
   public HttpResponse<Void> opphevFeilregistrerSakstilknytning(Long journalpostId) {
     var oppdaterJoarnalpostApiUrl = String.format(URL_JOURNALPOSTAPI_V1_FEILREGISTRER + "/opphevFeilregistrertSakstilknytning", journalpostId);
-    var response = restTemplate.exchange(oppdaterJoarnalpostApiUrl, HttpMethod.PATCH, null, Void.class);
-    return new HttpResponse<>(response);
+    try {
+      var response = restTemplate.exchange(oppdaterJoarnalpostApiUrl, HttpMethod.PATCH, null, Void.class);
+      return new HttpResponse<>(response);
+    } finally {
+      fjernFraCache(journalpostId);
+    }
   }
+
+  public void leggTilJournalpostCache(JournalpostCache journalpostCache) {
+    this.journalpostCache = journalpostCache;
+  }
+
+  private void fjernFraCache(Long journalpostId) {
+    ForesporselMemo.fjernJournalpost(journalpostId);
+    if (journalpostCache != null) {
+      journalpostCache.fjern(journalpostId);
+    }
+  }
+  /**
+   * Skriver requesten direkte til http-forespørselen, slik at dokumenter som ligger på fil base64-kodes mens de sendes.
+   * Requesten sendes med {@link #strommendeRestTemplate}, så bodyen bufres ikke av interceptorene.
+   */
+  private RequestCallback opprettRequestCallback(JoarkOpprettJournalpostRequest joarkOpprettJournalpostRequest) {
+    var headerCallback = restTemplate.httpEntityCallback(HttpEntity.EMPTY, JoarkOpprettJournalpostResponse.class);
+    return request -> {
+      headerCallback.doWithRequest(request);
+      request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+      if (request instanceof StreamingHttpOutputMessage streamingRequest) {
+        streamingRequest.setBody(body -> opprettJournalpostRequestSkriver.skriv(joarkOpprettJournalpostRequest, body));
+      } else {
+        opprettJournalpostRequestSkriver.skriv(joarkOpprettJournalpostRequest, request.getBody());
+      }
+    };
+  }
+
   private JoarkOpprettJournalpostResponse handleConflictResponse(HttpClientErrorException clientErrorException){
     return convertStringToResponse(clientErrorException.getResponseBodyAsString());
   }
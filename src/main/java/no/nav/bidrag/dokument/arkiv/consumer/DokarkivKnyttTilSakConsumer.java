@@ -16,6 +16,7 @@ public class DokarkivKnyttTilSakConsumer {
 
   public static final String URL_KNYTT_TIL_ANNEN_SAK = "/rest/journalpostapi/v1/journalpost/%s/knyttTilAnnenSak";
   private final RestTemplate restTemplate;
+  private JournalpostCache journalpostCache;
 
   public DokarkivKnyttTilSakConsumer(RestTemplate restTemplate) {
     this.restTemplate = restTemplate;
@@ -34,6 +35,11 @@ public class DokarkivKnyttTilSakConsumer {
       var message = String.format("Det skjedde en feil ved tilknytting av sak %s til journalpost %s med tema %s",
           knyttTilAnnenSakRequest.getFagsakId(), journalpostId, knyttTilAnnenSakRequest.getTema());
       throw new KunneIkkeKnytteSakTilJournalpost(message, e);
+    } finally {
+      ForesporselMemo.fjernJournalpost(journalpostId);
+      if (journalpostCache != null) {
+        journalpostCache.fjern(journalpostId);
+      }
     }
   }
 
@@ -43,4 +49,8 @@ public class DokarkivKnyttTilSakConsumer {
     }
   }
 
+  public void leggTilJournalpostCache(JournalpostCache journalpostCache) {
+    this.journalpostCache = journalpostCache;
+  }
+
 }
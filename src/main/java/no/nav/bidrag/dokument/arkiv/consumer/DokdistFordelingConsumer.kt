@@ -98,6 +98,9 @@ class DokdistFordelingConsumer(
                 ),
                 e,
             )
+        } finally {
+            // Dokdist oppdaterer journalposten når distribusjonen bestilles
+            ForesporselMemo.fjernJournalpost(journalpostId)
         }
     }
 
@@ -1,5 +1,6 @@
 package no.nav.bidrag.dokument.arkiv.consumer
 
+import io.micrometer.core.instrument.MeterRegistry
 import mu.KotlinLogging
 import no.nav.bidrag.commons.web.client.AbstractRestClient
 import no.nav.bidrag.dokument.arkiv.CacheConfig
@@ -19,7 +20,9 @@ private val LOGGER = KotlinLogging.logger {}
 class DokdistKanalConsumer(
     @Value("\${DOKDISTKANAL_URL}") val url: URI,
     @Qualifier("azure") private val restTemplate: RestOperations,
+    meterRegistry: MeterRegistry,
 ) : AbstractRestClient(restTemplate, "dokdistkanal") {
+    private val singleFlight = SingleFlight("dokdistkanal", meterRegistry)
 
     private val dokdistkanalUrl
         get() =
@@ -27,21 +30,23 @@ class DokdistKanalConsumer(
                 .pathSegment("bestemDistribusjonskanal")
 
     @Retryable(backoff = Backoff(delay = 500, maxDelay = 2000, multiplier = 2.0))
-    @Cacheable(value = [CacheConfig.DISTRIBUSJON_KANAL_CACHE])
+    @Cacheable(value = [CacheConfig.DISTRIBUSJON_KANAL_CACHE], keyGenerator = CacheConfig.OPPFRISKBAR_NOKKEL)
     fun bestimDistribusjonsKanal(
         gjelderId: String,
         mottakerId: String? = null,
         tema: String = "BID",
         forsendelseStoerrelse: Int? = null,
-    ): BestemKanalResponse = postForNonNullEntity(
-        dokdistkanalUrl.build().toUri(),
-        BestemKanalRequest(
+    ): BestemKanalResponse {
+        val request = BestemKanalRequest(
             brukerId = gjelderId,
             mottakerId = mottakerId ?: "11111111111",
             tema = tema,
             forsendelseStoerrelse = forsendelseStoerrelse,
-        ),
-    )
+        )
+        return ForesporselMemo.hent(listOf("bestemDistribusjonskanal", request)) {
+            singleFlight.utfor(listOf(request)) { postForNonNullEntity<BestemKanalResponse>(dokdistkanalUrl.build().toUri(), request) }
+        }
+    }
 }
 
 data class BestemKanalRequest(
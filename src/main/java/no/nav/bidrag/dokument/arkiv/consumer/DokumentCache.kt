@@ -0,0 +1,125 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.github.benmanes.caffeine.cache.RemovalCause
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics
+import org.slf4j.LoggerFactory
+import java.io.OutputStream
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.security.DigestOutputStream
+import java.security.MessageDigest
+import java.util.HexFormat
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Cache på disk for arkivvarianten av dokumenter fra SAF. Arkivvarianten endres ikke etter at den er lagret, så dokumentene
+ * caches uten levetid med journalpostId og dokumentreferanse som nøkkel. Cachen deles mellom saksbehandlere, så kalleren må
+ * ha sjekket tilgangen til dokumentet mot SAF før det hentes herfra. Filene navngis etter sha-256 av innholdet, som også brukes
+ * som ETag.
+ * Den samlede størrelsen begrenses av [maksStorrelse], og dokumentene som er brukt minst fjernes først. Filene slettes på
+ * tråden som legger til dokumenter, slik at diskbruken ikke overstiger grensen i påvente av en bakgrunnsjobb. Dokumenter med
+ * samme innhold deler fil, så det telles hvor mange dokumenter som bruker hver fil, og filen slettes når ingen bruker den.
+ *
+ * Filene lagres i underkatalogen [KATALOGNAVN] av den konfigurerte katalogen. Underkatalogen eies av cachen og tømmes ved
+ * oppstart, mens resten av katalogen ikke røres.
+ *
+ * Dokumentet leses fra en åpen [FileChannel], slik at det kan sendes videre uten å lese det inn i minnet.
+ */
+class DokumentCache(
+    val aktiv: Boolean,
+    katalog: Path,
+    maksStorrelse: Long,
+    meterRegistry: MeterRegistry,
+) {
+    private val katalog = katalog.resolve(KATALOGNAVN)
+    private val antallReferanser = ConcurrentHashMap<Path, Int>()
+    private val singleFlight = SingleFlight("dokument-cache", meterRegistry)
+    private val cache: Cache<DokumentNokkel, CachetDokument> = Caffeine.newBuilder()
+        .maximumWeight(maksStorrelse)
+        .weigher { _: DokumentNokkel, dokument: CachetDokument -> dokument.storrelse.coerceAtMost(Int.MAX_VALUE.toLong()).toInt() }
+        .removalListener { _: DokumentNokkel?, dokument: CachetDokument?, _: RemovalCause -> fjernReferanse(dokument) }
+        .executor(Runnable::run)
+        .recordStats()
+        .build()
+
+    init {
+        if (aktiv) {
+            Files.createDirectories(this.katalog)
+            Files.list(this.katalog).use { filer -> filer.forEach { Files.deleteIfExists(it) } }
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, DOKUMENT_CACHE)
+        }
+    }
+
+    /**
+     * Gir dokumentet med [dokumentreferanse] i journalposten til [les]. Dokumentet lastes ned med [lastNed] når det ikke finnes
+     * i cachen, og [lastNed] skal skrive dokumentet til strømmen den får og returnere headerne fra SAF.
+     */
+    fun <T> hent(
+        journalpostId: Long,
+        dokumentreferanse: String,
+        lastNed: (OutputStream) -> DokumentHeadere,
+        les: (CachetDokument, FileChannel) -> T,
+    ): T {
+        val nokkel = DokumentNokkel(journalpostId, dokumentreferanse)
+        val dokument = cache.getIfPresent(nokkel)
+            ?: singleFlight.utfor(listOf(nokkel)) { cache.getIfPresent(nokkel) ?: lagre(nokkel, lastNed) }
+        return try {
+            FileChannel.open(dokument.fil).use { les(dokument, it) }
+        } catch (e: NoSuchFileException) {
+            LOGGER.warn("Fil for dokument $dokumentreferanse er slettet fra cachen, laster ned på nytt")
+            cache.asMap().remove(nokkel, dokument)
+            val nyttDokument = lagre(nokkel, lastNed)
+            FileChannel.open(nyttDokument.fil).use { les(nyttDokument, it) }
+        }
+    }
+
+    private fun lagre(nokkel: DokumentNokkel, lastNed: (OutputStream) -> DokumentHeadere): CachetDokument {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val midlertidigFil = Files.createTempFile(katalog, "nedlasting", ".tmp")
+        try {
+            val headere = DigestOutputStream(Files.newOutputStream(midlertidigFil), digest).use { lastNed(it) }
+            val hash = HexFormat.of().formatHex(digest.digest())
+            val fil = katalog.resolve(hash)
+            // Flyttingen gjøres i compute, slik at filen ikke kan slettes av fjernReferanse mellom flyttingen og tellingen
+            antallReferanser.compute(fil) { _, antall ->
+                Files.move(midlertidigFil, fil, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+                (antall ?: 0) + 1
+            }
+            val dokument = CachetDokument(fil, Files.size(fil), "\"$hash\"", headere.contentType, headere.contentDisposition)
+            cache.put(nokkel, dokument)
+            return dokument
+        } finally {
+            Files.deleteIfExists(midlertidigFil)
+        }
+    }
+
+    private fun fjernReferanse(dokument: CachetDokument?) {
+        if (dokument == null) return
+        antallReferanser.computeIfPresent(dokument.fil) { fil, antall ->
+            if (antall > 1) {
+                antall - 1
+            } else {
+                Files.deleteIfExists(fil)
+                null
+            }
+        }
+    }
+
+    private data class DokumentNokkel(val journalpostId: Long, val dokumentreferanse: String)
+
+    companion object {
+        const val DOKUMENT_CACHE = "DOKUMENT_CACHE"
+        const val KATALOGNAVN = "dokument-cache"
+        private val LOGGER = LoggerFactory.getLogger(DokumentCache::class.java)
+    }
+}
+
+data class DokumentHeadere(val contentType: String?, val contentDisposition: String?)
+
+data class CachetDokument(val fil: Path, val storrelse: Long, val etag: String, val contentType: String?, val contentDisposition: String?)
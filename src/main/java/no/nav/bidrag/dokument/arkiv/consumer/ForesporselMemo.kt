@@ -0,0 +1,49 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import org.springframework.web.context.request.RequestAttributes
+import org.springframework.web.context.request.RequestContextHolder
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Husker svar fra andre tjenester så lenge forespørselen varer, slik at samme journalpost, person eller distribusjonskanal bare
+ * hentes en gang selv om flyten slår den opp flere ganger. Svarene lagres i request-attributtene, så det virker både for
+ * http-forespørsler og for kafka-hendelser med [no.nav.bidrag.dokument.arkiv.aop.KafkaRequestScopeAttributes]. Uten
+ * request-attributter hentes verdien hver gang.
+ *
+ * Svar som gjelder en journalpost må fjernes med [fjernJournalpost] etter hver skriving mot dokarkiv eller dokdist, slik at
+ * oppslag etter skrivingen ser endringen. Verdiene deles mellom kallerne, så de må enten ikke endres eller leses på nytt
+ * for hvert oppslag, slik som json-tokens.
+ */
+object ForesporselMemo {
+    private const val ATTRIBUTT = "no.nav.bidrag.dokument.arkiv.ForesporselMemo"
+
+    @JvmStatic
+    fun <T : Any> hent(nokkel: List<Any?>, hentVerdi: () -> T): T {
+        val memo = memo() ?: return hentVerdi()
+        @Suppress("UNCHECKED_CAST")
+        return memo[nokkel] as T? ?: hentVerdi().let { memo.putIfAbsent(nokkel, it) as T? ?: it }
+    }
+
+    @JvmStatic
+    fun <T : Any> hentForJournalpost(journalpostId: Long, nokkel: List<Any?>, hentVerdi: () -> T): T = hent(listOf(JournalpostNokkel(journalpostId)) + nokkel, hentVerdi)
+
+    @JvmStatic
+    fun fjernJournalpost(journalpostId: Long?) {
+        if (journalpostId == null) return
+        memo()?.keys?.removeIf { it.firstOrNull() == JournalpostNokkel(journalpostId) }
+    }
+
+    /**
+     * Trådene fra [no.nav.bidrag.dokument.arkiv.utils.utforParallelt] deler request-attributtene, så memoet opprettes under lås.
+     */
+    private fun memo(): ConcurrentHashMap<List<Any?>, Any>? {
+        val attributter = RequestContextHolder.getRequestAttributes() ?: return null
+        @Suppress("UNCHECKED_CAST")
+        return synchronized(attributter) {
+            attributter.getAttribute(ATTRIBUTT, RequestAttributes.SCOPE_REQUEST) as ConcurrentHashMap<List<Any?>, Any>?
+                ?: ConcurrentHashMap<List<Any?>, Any>().also { attributter.setAttribute(ATTRIBUTT, it, RequestAttributes.SCOPE_REQUEST) }
+        }
+    }
+
+    private data class JournalpostNokkel(val journalpostId: Long)
+}
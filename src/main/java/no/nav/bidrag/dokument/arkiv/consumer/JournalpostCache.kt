@@ -0,0 +1,63 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics
+import tools.jackson.databind.util.TokenBuffer
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Cache for journalposter hentet fra SAF med servicebrukeren, med journalpostId som nøkkel. Oppslag med saksbehandlerens token
+ * caches ikke, siden SAF avgjør tilgangen for hver saksbehandler. Journalposten fjernes ved alle skriveoperasjoner mot dokarkiv
+ * og ved journalføringshendelser. Levetiden begrenser hvor gammel en journalpost kan være dersom den endres utenfor denne
+ * applikasjonen.
+ *
+ * Journalposten lagres som json-tokens, slik at hvert oppslag får en egen instans som kan endres uten å påvirke cachen.
+ *
+ * Lyttere lagt til med [leggTilInvalideringslytter] får beskjed når en journalpost fjernes med [fjern], slik at de andre
+ * instansene av applikasjonen kan fjerne den fra sine cacher med [fjernLokalt].
+ */
+class JournalpostCache(
+    private val aktiv: Boolean,
+    maksAntall: Long,
+    levetid: Duration,
+    meterRegistry: MeterRegistry,
+) {
+    private val cache: Cache<Long, TokenBuffer> = Caffeine.newBuilder()
+        .maximumSize(maksAntall)
+        .expireAfterWrite(levetid)
+        .recordStats()
+        .build()
+    private val invalideringslyttere = CopyOnWriteArrayList<(Long) -> Unit>()
+
+    init {
+        if (aktiv) CaffeineCacheMetrics.monitor(meterRegistry, cache, JOURNALPOST_CACHE)
+    }
+
+    fun hent(journalpostId: Long, hentFraSaf: () -> TokenBuffer): TokenBuffer = if (aktiv) {
+        cache.get(journalpostId) { hentFraSaf() }
+    } else {
+        hentFraSaf()
+    }
+
+    fun fjern(journalpostId: Long?) {
+        if (journalpostId == null) return
+        fjernLokalt(journalpostId)
+        if (aktiv) invalideringslyttere.forEach { it(journalpostId) }
+    }
+
+    fun fjernLokalt(journalpostId: Long?) {
+        if (journalpostId == null) return
+        cache.invalidate(journalpostId)
+    }
+
+    fun leggTilInvalideringslytter(lytter: (Long) -> Unit) {
+        invalideringslyttere.add(lytter)
+    }
+
+    companion object {
+        const val JOURNALPOST_CACHE = "JOURNALPOST_CACHE"
+    }
+}
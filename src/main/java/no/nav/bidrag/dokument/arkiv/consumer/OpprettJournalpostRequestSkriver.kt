@@ -0,0 +1,50 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import no.nav.bidrag.dokument.arkiv.dto.JoarkOpprettJournalpostRequest
+import tools.jackson.core.JsonGenerator
+import tools.jackson.core.StreamWriteFeature
+import tools.jackson.databind.BeanDescription
+import tools.jackson.databind.SerializationConfig
+import tools.jackson.databind.SerializationContext
+import tools.jackson.databind.json.JsonMapper
+import tools.jackson.databind.module.SimpleModule
+import tools.jackson.databind.ser.BeanPropertyWriter
+import tools.jackson.databind.ser.ValueSerializerModifier
+import java.io.OutputStream
+import java.nio.file.Files
+
+/**
+ * Skriver [JoarkOpprettJournalpostRequest] som json til en strøm. Dokumentvarianter med [JoarkOpprettJournalpostRequest.DokumentVariant.fysiskDokumentFil]
+ * base64-kodes fra filen mens de skrives, slik at dokumentene ikke må ligge i minnet. Resten av requesten skrives som Jackson ellers ville gjort.
+ */
+class OpprettJournalpostRequestSkriver(jsonMapper: JsonMapper) {
+    private val writer = jsonMapper.rebuild()
+        .addModule(SimpleModule("OpprettJournalpostRequestSkriver").setSerializerModifier(FysiskDokumentFraFil()))
+        .build()
+        .writer()
+        .without(StreamWriteFeature.AUTO_CLOSE_TARGET)
+
+    fun skriv(request: JoarkOpprettJournalpostRequest, ut: OutputStream) {
+        writer.writeValue(ut, request)
+    }
+
+    private class FysiskDokumentFraFil : ValueSerializerModifier() {
+        override fun changeProperties(
+            config: SerializationConfig,
+            beanDesc: BeanDescription.Supplier,
+            beanProperties: MutableList<BeanPropertyWriter>,
+        ): MutableList<BeanPropertyWriter> {
+            if (beanDesc.beanClass != JoarkOpprettJournalpostRequest.DokumentVariant::class.java) return beanProperties
+            return beanProperties.map { if (it.name == "fysiskDokument") FysiskDokumentSkriver(it) else it }.toMutableList()
+        }
+    }
+
+    private class FysiskDokumentSkriver(base: BeanPropertyWriter) : BeanPropertyWriter(base) {
+        override fun serializeAsProperty(bean: Any, generator: JsonGenerator, context: SerializationContext) {
+            val fil = (bean as JoarkOpprettJournalpostRequest.DokumentVariant).fysiskDokumentFil
+            if (fil == null) return super.serializeAsProperty(bean, generator, context)
+            generator.writeName(name)
+            Files.newInputStream(fil).use { generator.writeBinary(it, Files.size(fil).toInt()) }
+        }
+    }
+}
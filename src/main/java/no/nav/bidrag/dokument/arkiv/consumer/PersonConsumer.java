@@ -4,8 +4,11 @@ import static no.nav.bidrag.dokument.arkiv.BidragDokumentArkivKt.SECURE_LOGGER;
 import static no.nav.bidrag.dokument.arkiv.CacheConfig.PERSON_ADRESSE_CACHE;
 import static no.nav.bidrag.dokument.arkiv.CacheConfig.PERSON_CACHE;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import no.nav.bidrag.commons.web.HttpHeaderRestTemplate;
+import no.nav.bidrag.dokument.arkiv.model.Discriminator;
 import no.nav.bidrag.dokument.arkiv.model.PersonException;
 import no.nav.bidrag.domene.ident.Personident;
 import no.nav.bidrag.transport.person.PersonAdresseDto;
@@ -26,10 +29,13 @@ import org.springframework.web.client.RestTemplate;
 public class PersonConsumer {
 
   private final RestTemplate restTemplate;
+  private final SingleFlight singleFlight;
+  private Discriminator discriminator = Discriminator.REGULAR_USER;
   private static final Logger LOGGER = LoggerFactory.getLogger(PersonConsumer.class);
 
-  public PersonConsumer(RestTemplate restTemplate) {
+  public PersonConsumer(RestTemplate restTemplate, SingleFlight singleFlight) {
     this.restTemplate = restTemplate;
+    this.singleFlight = singleFlight;
   }
 
   @Cacheable(value = PERSON_CACHE, unless = "#result==null")
@@ -38,6 +44,10 @@ public class PersonConsumer {
       maxAttempts = 5,
       backoff = @Backoff(delay = 500, maxDelay = 3000, multiplier = 2.0))
   public Optional<PersonDto> hentPerson(String id) {
+    return ForesporselMemo.hent(List.of("hentPerson", id), () -> utforSammenslatt(List.of("hentPerson", id), () -> hentPersonFraBidragPerson(id)));
+  }
+
+  private Optional<PersonDto> hentPersonFraBidragPerson(String id) {
     try {
       var personResponse =
           restTemplate.exchange(
@@ -59,13 +69,25 @@ public class PersonConsumer {
 
   @Cacheable(value = PERSON_ADRESSE_CACHE, unless = "#result == null")
   public PersonAdresseDto hentAdresse(String id) {
-    return restTemplate
+    return utforSammenslatt(List.of("hentAdresse", id), () -> restTemplate
         .exchange(
             "/adresse/post",
             HttpMethod.POST,
             new HttpEntity<>(new PersonRequest(new Personident(id))),
             PersonAdresseDto.class)
-        .getBody();
+        .getBody());
+  }
+
+  /**
+   * Like kall slås bare sammen for servicebrukeren. Saksbehandlere kaller med sitt eget token, og skal ikke få svaret eller
+   * feilen fra et kall gjort med en annen saksbehandlers token.
+   */
+  private <T> T utforSammenslatt(List<?> nokkel, Supplier<T> kall) {
+    return discriminator == Discriminator.SERVICE_USER ? singleFlight.utfor(nokkel, kall::get) : kall.get();
+  }
+
+  public void settDiscriminator(Discriminator discriminator) {
+    this.discriminator = discriminator;
   }
 
   public void leggTilInterceptor(ClientHttpRequestInterceptor requestInterceptor) {
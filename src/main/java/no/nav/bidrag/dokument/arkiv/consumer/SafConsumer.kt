@@ -1,33 +1,51 @@
 package no.nav.bidrag.dokument.arkiv.consumer
 
-import com.netflix.graphql.dgs.client.CustomGraphQLClient
-import com.netflix.graphql.dgs.client.DgsCustomGraphQLClient
-import com.netflix.graphql.dgs.client.DgsGraphQLResponse
-import com.netflix.graphql.dgs.client.GraphQLError
-import com.netflix.graphql.dgs.client.GraphQLResponse
-import com.netflix.graphql.dgs.client.HttpResponse
 import no.nav.bidrag.commons.web.HttpHeaderRestTemplate
 import no.nav.bidrag.dokument.arkiv.dto.DistribusjonsInfo
+import no.nav.bidrag.dokument.arkiv.dto.DokumentTilgang
+import no.nav.bidrag.dokument.arkiv.dto.DokumentoversiktFagsakListe
 import no.nav.bidrag.dokument.arkiv.dto.Journalpost
 import no.nav.bidrag.dokument.arkiv.dto.TilknyttetJournalpost
+import no.nav.bidrag.dokument.arkiv.model.Discriminator
 import no.nav.bidrag.dokument.arkiv.model.JournalIkkeFunnetException
 import no.nav.bidrag.dokument.arkiv.model.JournalpostIkkeFunnetException
 import no.nav.bidrag.dokument.arkiv.model.ReasonToHttpStatus
 import no.nav.bidrag.dokument.arkiv.model.SafException
 import no.nav.bidrag.dokument.arkiv.query.DistribusjonInfoQuery
+import no.nav.bidrag.dokument.arkiv.query.DokumentTilgangQuery
 import no.nav.bidrag.dokument.arkiv.query.DokumentoversiktFagsakQuery
 import no.nav.bidrag.dokument.arkiv.query.GraphQuery
 import no.nav.bidrag.dokument.arkiv.query.JournalpostQuery
+import no.nav.bidrag.dokument.arkiv.query.JournalposterQuery
 import no.nav.bidrag.dokument.arkiv.query.TilknyttedeJournalposterQuery
 import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpMethod
 import org.springframework.http.HttpStatus
 import org.springframework.http.ResponseEntity
 import org.springframework.http.client.ClientHttpRequestInterceptor
+import org.springframework.http.client.ClientHttpResponse
+import org.springframework.web.client.ResponseExtractor
 import org.springframework.web.client.RestTemplate
-import org.springframework.web.client.exchange
+import tools.jackson.databind.JavaType
+import tools.jackson.databind.json.JsonMapper
+import tools.jackson.databind.util.TokenBuffer
+import java.io.InputStream
+
+open class SafConsumer(
+    private val restTemplate: RestTemplate,
+    private val singleFlight: SingleFlight,
+    jsonMapper: JsonMapper,
+    private val journalpostBatchStorrelse: Int = JOURNALPOST_BATCH_STORRELSE,
+) {
+    private val safResponsLeser = SafResponsLeser(jsonMapper)
+    private val journalpostType = safResponsLeser.type(Journalpost::class.java)
+    private val tokenBufferType = safResponsLeser.type(TokenBuffer::class.java)
+    private val dokumentoversiktType = safResponsLeser.type(DokumentoversiktFagsakListe::class.java)
+    private val dokumentTilgangType = safResponsLeser.type(DokumentTilgang::class.java)
+    private var journalpostCache: JournalpostCache? = null
+    private var discriminator = Discriminator.REGULAR_USER
 
-open class SafConsumer(private val restTemplate: RestTemplate) {
     fun hentDokument(journalpostId: Long, dokumentReferanse: Long): ResponseEntity<ByteArray> = restTemplate.exchange(
         String.format("/rest/hentdokument/%s/%s/ARKIV", journalpostId, dokumentReferanse),
         HttpMethod.GET,
@@ -35,62 +53,166 @@ open class SafConsumer(private val restTemplate: RestTemplate) {
         ByteArray::class.java,
     )
 
-    fun hentJournalpost(journalpostId: Long): Journalpost = consumeEnkelJournalpostQuery(JournalpostQuery(journalpostId))
+    /**
+     * Henter dokumentet og gir svaret fra SAF til [les] mens det fortsatt strømmer, slik at dokumentet ikke leses inn i minnet.
+     * [range] sendes videre til SAF som Range-header.
+     */
+    fun <T> hentDokument(journalpostId: Long, dokumentReferanse: Long, range: String?, les: (ClientHttpResponse) -> T): T {
+        val headers = HttpHeaders()
+        range?.let { headers.set(HttpHeaders.RANGE, it) }
+        val requestCallback = restTemplate.httpEntityCallback<Any>(HttpEntity<Any>(headers), ByteArray::class.java)
+        @Suppress("UNCHECKED_CAST")
+        return restTemplate.execute(
+            String.format("/rest/hentdokument/%s/%s/ARKIV", journalpostId, dokumentReferanse),
+            HttpMethod.GET,
+            requestCallback,
+            ResponseExtractor { les(it) },
+        ) as T
+    }
+
+    /**
+     * Henter med tokenet til konsumenten hvilke dokumenter journalposten har og om variantene av dem kan åpnes, uten å
+     * hente selve dokumentene.
+     */
+    fun hentDokumentTilgang(journalpostId: Long): DokumentTilgang = consumeQuery(
+        DokumentTilgangQuery(journalpostId),
+        listOf("journalpost"),
+        dokumentTilgangType,
+    ) { message: String? -> journalpostIkkeFunnetException(message) }
 
-    fun hentDistribusjonInfo(journalpostId: Long): DistribusjonsInfo {
-        val response = consumeQuery(DistribusjonInfoQuery(journalpostId.toString())) { message: String? -> journalpostIkkeFunnetException(message) }
-        return response.extractValueAsObject("journalpost", DistribusjonsInfo::class.java)
+    fun hentJournalpost(journalpostId: Long): Journalpost {
+        val query = JournalpostQuery(journalpostId)
+        val journalpost = ForesporselMemo.hentForJournalpost(journalpostId, listOf("hentJournalpost", discriminator)) {
+            journalpostCache?.hent(journalpostId) { hentJournalpostTokens(query) } ?: hentJournalpostTokens(query)
+        }
+        return safResponsLeser.les(journalpost, journalpostType)
     }
 
-    fun finnJournalposter(saksnummer: String, fagomrade: List<String> = listOf("BID")): List<Journalpost> {
-        val response = consumeQuery(DokumentoversiktFagsakQuery(saksnummer, fagomrade)) { message: String? -> journalIkkeFunnetException(message) }
-        return listOf(*response.extractValueAsObject("dokumentoversiktFagsak.journalposter", Array<Journalpost>::class.java))
+    /**
+     * Henter journalpostene i en spørring per [journalpostBatchStorrelse] id-er. Journalposter som ikke finnes
+     * rapporteres i [JournalposterResultat.ikkeFunnet] i stedet for å feile hele oppslaget.
+     */
+    fun hentJournalposter(journalpostIds: Collection<Long>): JournalposterResultat {
+        val journalposter = LinkedHashMap<Long, Journalpost>()
+        val ikkeFunnet = LinkedHashMap<Long, String>()
+        journalpostIds.distinct().chunked(journalpostBatchStorrelse).forEach { ids ->
+            val query = JournalposterQuery(ids)
+            val response = utforQuery(query) { safResponsLeser.lesFelter<Journalpost>(it, journalpostType) }
+            val feilPerAlias = hentIkkeFunnetFeilPerAlias(query, response.feil)
+            ids.forEachIndexed { index, journalpostId ->
+                val alias = JournalposterQuery.alias(index)
+                val journalpost = response.data[alias]
+                if (journalpost == null) {
+                    ikkeFunnet[journalpostId] = feilPerAlias[alias] ?: "Fant ikke journalpost med id $journalpostId"
+                } else {
+                    journalposter[journalpostId] = journalpost
+                }
+            }
+        }
+        return JournalposterResultat(journalposter, ikkeFunnet)
     }
 
-    fun finnTilknyttedeJournalposter(dokumentInfoId: String): List<TilknyttetJournalpost> {
-        val response = consumeQuery(TilknyttedeJournalposterQuery(dokumentInfoId)) { message: String? -> journalIkkeFunnetException(message) }
-        return listOf(*response.extractValueAsObject("tilknyttedeJournalposter", Array<TilknyttetJournalpost>::class.java))
+    fun hentDistribusjonInfo(journalpostId: Long): DistribusjonsInfo {
+        val distribusjonInfo = ForesporselMemo.hentForJournalpost(journalpostId, listOf("hentDistribusjonInfo", discriminator)) {
+            hentTokens(DistribusjonInfoQuery(journalpostId.toString()), listOf("journalpost")) { message: String? -> journalpostIkkeFunnetException(message) }
+        }
+        return safResponsLeser.les(distribusjonInfo, safResponsLeser.type(DistribusjonsInfo::class.java))
     }
 
-    private fun journalIkkeFunnetException(message: String?): RuntimeException = JournalIkkeFunnetException(message ?: "")
+    fun finnJournalposter(saksnummer: String, fagomrade: List<String> = listOf("BID")): List<Journalpost> = finnJournalposterSider(saksnummer, fagomrade).flatMap { it.journalposter }.toList()
 
-    private fun consumeEnkelJournalpostQuery(query: GraphQuery): Journalpost {
-        val response = consumeQuery(query) { message: String? -> journalpostIkkeFunnetException(message) }
-        return response.extractValueAsObject("journalpost", Journalpost::class.java)
+    /**
+     * Henter journalpostene i saken side for side ved å følge sluttpekeren fra SAF, med start etter [etter] hvis den er satt.
+     * Neste side hentes først når sekvensen leses videre.
+     */
+    fun finnJournalposterSider(
+        saksnummer: String,
+        fagomrade: List<String> = listOf("BID"),
+        etter: String? = null,
+        sideStorrelse: Int = DokumentoversiktFagsakQuery.SIDE_STORRELSE,
+    ): Sequence<DokumentoversiktFagsakListe> = sequence {
+        var peker = etter
+        do {
+            val side = consumeQuery<DokumentoversiktFagsakListe>(
+                DokumentoversiktFagsakQuery(saksnummer, fagomrade, sideStorrelse, peker),
+                listOf("dokumentoversiktFagsak"),
+                dokumentoversiktType,
+            ) { message: String? -> journalIkkeFunnetException(message) }
+            yield(side)
+            peker = side.nesteSidePeker()
+        } while (peker != null)
     }
 
+    fun finnTilknyttedeJournalposter(dokumentInfoId: String): List<TilknyttetJournalpost> = consumeQuery(
+        TilknyttedeJournalposterQuery(dokumentInfoId),
+        listOf("tilknyttedeJournalposter"),
+        safResponsLeser.listeType(TilknyttetJournalpost::class.java),
+    ) { message: String? -> journalIkkeFunnetException(message) }
+
+    private fun journalIkkeFunnetException(message: String?): RuntimeException = JournalIkkeFunnetException(message ?: "")
+
+    private fun hentJournalpostTokens(query: JournalpostQuery): TokenBuffer = hentTokens(query, listOf("journalpost")) { message: String? -> journalpostIkkeFunnetException(message) }
+
     private fun journalpostIkkeFunnetException(message: String?): RuntimeException = JournalpostIkkeFunnetException(message ?: "")
 
-    private fun consumeQuery(query: GraphQuery, notFoundException: NotFoundException): DgsGraphQLResponse {
-        val queryString = query.getQuery()
-        val graphQLClient = DgsCustomGraphQLClient("") { _: String, _: Map<String, List<String>>, body: String ->
-            val exchange = restTemplate.exchange<String>("/graphql", HttpMethod.POST, HttpEntity(body))
-            HttpResponse(exchange.statusCode.value(), exchange.body)
+    private fun <T> utforQuery(query: GraphQuery, lesRespons: (InputStream) -> SafRespons<T>): SafRespons<T> {
+        val request = HttpEntity(safResponsLeser.request(query.getQuery(), query.getVariables()))
+        val requestCallback = restTemplate.httpEntityCallback<Any>(request, String::class.java)
+        return restTemplate.execute("/graphql", HttpMethod.POST, requestCallback, ResponseExtractor { lesRespons(it.body) })!!
+    }
+
+    /**
+     * Feil som gjelder en enkelt journalpost (not_found med path lik aliaset) returneres per alias.
+     * Alle andre feil gjør at hele oppslaget feiler slik som i [hentTokens].
+     */
+    private fun hentIkkeFunnetFeilPerAlias(query: JournalposterQuery, feil: List<SafFeil>): Map<String, String> {
+        val feilPerAlias = HashMap<String, String>()
+        feil.forEach { error ->
+            val alias = error.path?.firstOrNull()?.toString()
+            val reasonToHttpStatus = ReasonToHttpStatus(error.code)
+            if (alias == null || reasonToHttpStatus.status != HttpStatus.NOT_FOUND) {
+                throw safException(query, error.message, reasonToHttpStatus.status)
+            }
+            feilPerAlias[alias] = error.message ?: ""
         }
-        val response = graphQLClient.executeQuery(queryString, query.getVariables())
-        if (response.hasErrors()) {
-            val message = response.errors.stream()
-                .findFirst()
-                .map(GraphQLError::message)
-                .orElseThrow()
-            val errorReason = response.parsed.read<Any>("errors[0].extensions.code")
-            val reasonToHttpStatus = ReasonToHttpStatus(errorReason)
+        return feilPerAlias
+    }
+
+    private fun <T> consumeQuery(query: GraphQuery, sti: List<String>, type: JavaType, notFoundException: NotFoundException): T = safResponsLeser.les(hentTokens(query, sti, notFoundException), type)
+
+    /**
+     * Henter verdien på stien som json-tokens. Like kall som pågår samtidig slås sammen for servicebrukeren, og hver kaller binder
+     * tokens til egne instanser slik at ingen deler muterbare dto-er.
+     */
+    private fun hentTokens(query: GraphQuery, sti: List<String>, notFoundException: NotFoundException): TokenBuffer = utforSammenslatt(listOf(query.javaClass.simpleName, query.getVariables(), sti)) {
+        val response = utforQuery(query) { safResponsLeser.les<TokenBuffer>(it, sti, tokenBufferType) }
+        if (response.feil.isNotEmpty()) {
+            val error = response.feil.first()
+            val reasonToHttpStatus = ReasonToHttpStatus(error.code)
             if (reasonToHttpStatus.status == HttpStatus.NOT_FOUND) {
-                throw notFoundException.init(message)!!
+                throw notFoundException.init(error.message)!!
             }
-            throw SafException(
-                String.format(
-                    "Query %s med variabler (%s) feilet med feilmelding: %s",
-                    query.javaClass.simpleName,
-                    query.getVariables(),
-                    message,
-                ),
-                reasonToHttpStatus.status,
-            )
+            throw safException(query, error.message, reasonToHttpStatus.status)
         }
-        return response
+        response.data ?: throw notFoundException.init("Fant ikke ${sti.joinToString(".")} i svar fra SAF")!!
     }
 
+    /**
+     * Saksbehandlere henter med sitt eget token og SAF avgjør tilgangen for hver av dem, så bare kall med servicebrukeren slås
+     * sammen. Ellers kunne en saksbehandler fått svaret, eller feilen, fra et kall gjort med en annen saksbehandlers token.
+     */
+    private fun <T> utforSammenslatt(nokkel: List<Any?>, kall: () -> T): T = if (discriminator == Discriminator.SERVICE_USER) singleFlight.utfor(nokkel, kall) else kall()
+
+    private fun safException(query: GraphQuery, message: String?, status: HttpStatus) = SafException(
+        String.format(
+            "Query %s med variabler (%s) feilet med feilmelding: %s",
+            query.javaClass.simpleName,
+            query.getVariables(),
+            message,
+        ),
+        status,
+    )
+
     private fun interface NotFoundException {
         fun init(message: String?): RuntimeException?
     }
@@ -98,4 +220,30 @@ open class SafConsumer(private val restTemplate: RestTemplate) {
     fun leggTilInterceptor(requestInterceptor: ClientHttpRequestInterceptor) {
         (restTemplate as? HttpHeaderRestTemplate)?.interceptors?.add(requestInterceptor)
     }
+
+    /**
+     * Skiller svarene til konsumenten fra svarene til konsumenter med andre tokens i [ForesporselMemo], og avgjør om like kall
+     * kan slås sammen.
+     */
+    fun settDiscriminator(discriminator: Discriminator) {
+        this.discriminator = discriminator
+    }
+
+    /**
+     * Journalpostene caches bare for servicebrukeren. Saksbehandlere henter med sitt eget token og SAF avgjør tilgangen for hver
+     * av dem, så oppslagene deres kan ikke deles.
+     */
+    fun leggTilJournalpostCache(journalpostCache: JournalpostCache) {
+        require(discriminator == Discriminator.SERVICE_USER) { "Journalpostcachen kan bare brukes av servicebrukeren" }
+        this.journalpostCache = journalpostCache
+    }
+
+    companion object {
+        const val JOURNALPOST_BATCH_STORRELSE = 20
+    }
 }
+
+data class JournalposterResultat(
+    val journalposter: Map<Long, Journalpost>,
+    val ikkeFunnet: Map<Long, String>,
+)
@@ -0,0 +1,97 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import no.nav.bidrag.dokument.arkiv.model.SafException
+import org.springframework.http.HttpStatus
+import tools.jackson.core.JsonParser
+import tools.jackson.core.JsonToken
+import tools.jackson.databind.DeserializationFeature
+import tools.jackson.databind.JavaType
+import tools.jackson.databind.ObjectReader
+import tools.jackson.databind.json.JsonMapper
+import tools.jackson.databind.util.TokenBuffer
+import java.io.InputStream
+
+/**
+ * Leser svar fra SAF sin graphql-tjeneste med en [JsonParser] i en gjennomgang. Feltene under `data` som etterspørres
+ * bindes direkte til dto-ene, og alt annet hoppes over uten at hele svaret bygges opp som et tre først.
+ *
+ * Verdiene bindes midt i svaret, så parseren står ikke på slutten etter en verdi. Derfor leses det med en [ObjectReader]
+ * uten `FAIL_ON_TRAILING_TOKENS`.
+ */
+class SafResponsLeser(private val jsonMapper: JsonMapper) {
+    private val reader: ObjectReader = jsonMapper.reader()
+        .without(DeserializationFeature.FAIL_ON_TRAILING_TOKENS, DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES)
+    private val feilListeType = listeType(SafFeil::class.java)
+
+    fun type(type: Class<*>): JavaType = jsonMapper.typeFactory.constructType(type)
+
+    fun listeType(elementType: Class<*>): JavaType = jsonMapper.typeFactory.constructCollectionType(List::class.java, elementType)
+
+    fun request(query: String, variables: Map<String, Any>): String = jsonMapper.writeValueAsString(mapOf("query" to query, "variables" to variables))
+
+    /**
+     * Binder verdien på stien under `data` (f.eks. `dokumentoversiktFagsak.journalposter`) til [type].
+     */
+    fun <T> les(input: InputStream, sti: List<String>, type: JavaType): SafRespons<T?> {
+        var verdi: T? = null
+        val feil = lesRespons(input) { parser -> verdi = lesSti(parser, sti, type) }
+        return SafRespons(verdi, feil)
+    }
+
+    /**
+     * Binder json-tokens som er lest tidligere (se [JournalpostCache]) til [type].
+     */
+    fun <T> les(tokens: TokenBuffer, type: JavaType): T = reader.forType(type).readValue(tokens)
+
+    /**
+     * Binder hvert felt direkte under `data` til [type]. Brukes for spørringer med aliaser.
+     */
+    fun <T> lesFelter(input: InputStream, type: JavaType): SafRespons<Map<String, T?>> {
+        val felter = HashMap<String, T?>()
+        val feil = lesRespons(input) { parser ->
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                val felt = parser.currentName()
+                felter[felt] = if (parser.nextToken() == JsonToken.VALUE_NULL) null else reader.forType(type).readValue(parser)
+            }
+        }
+        return SafRespons(felter, feil)
+    }
+
+    private fun lesRespons(input: InputStream, lesData: (JsonParser) -> Unit): List<SafFeil> = reader.createParser(input).use { parser ->
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw SafException("Svar fra SAF er ikke et json-objekt", HttpStatus.INTERNAL_SERVER_ERROR)
+        }
+        var feil = emptyList<SafFeil>()
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            val felt = parser.currentName()
+            val token = parser.nextToken()
+            when {
+                felt == "errors" && token == JsonToken.START_ARRAY -> feil = reader.forType(feilListeType).readValue(parser)
+                felt == "data" && token == JsonToken.START_OBJECT -> lesData(parser)
+                else -> parser.skipChildren()
+            }
+        }
+        feil
+    }
+
+    private fun <T> lesSti(parser: JsonParser, sti: List<String>, type: JavaType): T? {
+        var verdi: T? = null
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            val felt = parser.currentName()
+            val token = parser.nextToken()
+            verdi = when {
+                felt != sti.first() || token == JsonToken.VALUE_NULL -> parser.skipChildren().let { verdi }
+                sti.size == 1 -> reader.forType(type).readValue(parser)
+                token == JsonToken.START_OBJECT -> lesSti(parser, sti.drop(1), type)
+                else -> parser.skipChildren().let { verdi }
+            }
+        }
+        return verdi
+    }
+}
+
+data class SafRespons<T>(val data: T, val feil: List<SafFeil>)
+
+data class SafFeil(val message: String? = null, val path: List<Any>? = null, val extensions: Map<String, Any?>? = null) {
+    val code get() = extensions?.get("code")
+}
@@ -0,0 +1,43 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Slår sammen like kall som pågår samtidig. Den første tråden med en gitt nøkkel utfører kallet, og tråder som kommer
+ * mens kallet pågår venter på og får samme resultat eller samme exception. Nøkkelen fjernes når kallet er ferdig,
+ * så dette er ikke en cache.
+ */
+class SingleFlight(consumer: String, meterRegistry: MeterRegistry) {
+    private val pagaendeKall = ConcurrentHashMap<List<Any?>, CompletableFuture<Any?>>()
+    private val sammenslatteKall: Counter = meterRegistry.counter(COALESCED_CALLS_COUNTER_NAME, "consumer", consumer)
+
+    @Suppress("UNCHECKED_CAST")
+    fun <T> utfor(nokkel: List<Any?>, kall: () -> T): T {
+        val nyttKall = CompletableFuture<Any?>()
+        val pagaende = pagaendeKall.putIfAbsent(nokkel, nyttKall)
+        if (pagaende != null) {
+            sammenslatteKall.increment()
+            return try {
+                pagaende.join() as T
+            } catch (e: CompletionException) {
+                throw e.cause ?: e
+            }
+        }
+        try {
+            return kall().also { nyttKall.complete(it) }
+        } catch (e: Throwable) {
+            nyttKall.completeExceptionally(e)
+            throw e
+        } finally {
+            pagaendeKall.remove(nokkel, nyttKall)
+        }
+    }
+
+    companion object {
+        const val COALESCED_CALLS_COUNTER_NAME = "consumer_coalesced_calls"
+    }
+}
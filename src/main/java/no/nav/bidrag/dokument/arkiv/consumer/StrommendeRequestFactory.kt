@@ -0,0 +1,64 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.http.HttpRequest
+import org.springframework.http.StreamingHttpOutputMessage
+import org.springframework.http.client.ClientHttpRequest
+import org.springframework.http.client.ClientHttpRequestExecution
+import org.springframework.http.client.ClientHttpRequestFactory
+import org.springframework.http.client.ClientHttpRequestInterceptor
+import org.springframework.http.client.ClientHttpResponse
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.net.URI
+import java.util.function.Supplier
+
+/**
+ * Kjører interceptorene uten å bufre bodyen i minnet. En RestTemplate med interceptorer bufrer hele bodyen før interceptorene kjøres,
+ * også når den skrives med [StreamingHttpOutputMessage.setBody]. Her får interceptorene en tom body, og bodyen skrives rett til
+ * [requestFactory] når interceptorene er ferdige. Interceptorene kan derfor bare endre headere, slik tokeninterceptorene gjør.
+ */
+class StrommendeRequestFactory(
+    private val requestFactory: ClientHttpRequestFactory,
+    private val interceptors: Supplier<List<ClientHttpRequestInterceptor>>,
+) : ClientHttpRequestFactory {
+    override fun createRequest(uri: URI, httpMethod: HttpMethod): ClientHttpRequest = StrommendeRequest(uri, httpMethod)
+
+    private inner class StrommendeRequest(private val uri: URI, private val method: HttpMethod) :
+        ClientHttpRequest,
+        StreamingHttpOutputMessage {
+        private val headers = HttpHeaders()
+        private val attributes = LinkedHashMap<String, Any>()
+        private var body: StreamingHttpOutputMessage.Body? = null
+
+        override fun getMethod(): HttpMethod = method
+
+        override fun getURI(): URI = uri
+
+        override fun getHeaders(): HttpHeaders = headers
+
+        override fun getAttributes(): MutableMap<String, Any> = attributes
+
+        override fun setBody(body: StreamingHttpOutputMessage.Body) {
+            this.body = body
+        }
+
+        override fun getBody(): OutputStream = ByteArrayOutputStream().also { buffer -> body = StreamingHttpOutputMessage.Body { buffer.writeTo(it) } }
+
+        override fun execute(): ClientHttpResponse = Utforelse(interceptors.get().iterator()).execute(this, ByteArray(0))
+
+        private inner class Utforelse(private val gjenstaende: Iterator<ClientHttpRequestInterceptor>) : ClientHttpRequestExecution {
+            override fun execute(request: HttpRequest, ignorertBody: ByteArray): ClientHttpResponse {
+                if (gjenstaende.hasNext()) return gjenstaende.next().intercept(request, ByteArray(0), this)
+                val delegat = requestFactory.createRequest(request.uri, request.method)
+                delegat.headers.putAll(request.headers)
+                delegat.attributes.putAll(request.attributes)
+                body?.let { body ->
+                    if (delegat is StreamingHttpOutputMessage) delegat.setBody(body) else body.writeTo(delegat.body)
+                }
+                return delegat.execute()
+            }
+        }
+    }
+}
@@ -3,14 +3,18 @@ package no.nav.bidrag.dokument.arkiv.controller
 import io.swagger.v3.oas.annotations.Operation
 import io.swagger.v3.oas.annotations.responses.ApiResponse
 import io.swagger.v3.oas.annotations.responses.ApiResponses
+import jakarta.servlet.http.HttpServletResponse
 import no.nav.bidrag.commons.util.KildesystemIdenfikator
 import no.nav.bidrag.dokument.arkiv.SECURE_LOGGER
 import no.nav.bidrag.dokument.arkiv.consumer.BestemKanalResponse
 import no.nav.bidrag.dokument.arkiv.dto.BestemDistribusjonKanalRequest
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerBatchRequest
 import no.nav.bidrag.dokument.arkiv.dto.DistribuerJournalpostRequestInternal
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbDto
 import no.nav.bidrag.dokument.arkiv.service.DistribuerJournalpostService
+import no.nav.bidrag.dokument.arkiv.service.DistribusjonBatchService
+import no.nav.bidrag.dokument.arkiv.service.DistribusjonJobbService
 import no.nav.bidrag.transport.dokument.DistribuerJournalpostRequest
-import no.nav.bidrag.transport.dokument.DistribuerJournalpostResponse
 import no.nav.bidrag.transport.dokument.DistribusjonInfoDto
 import no.nav.bidrag.transport.dokument.JournalpostId
 import no.nav.security.token.support.core.api.Protected
@@ -18,6 +22,7 @@ import org.apache.logging.log4j.util.Strings
 import org.slf4j.LoggerFactory
 import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.PathVariable
@@ -26,17 +31,60 @@ import org.springframework.web.bind.annotation.RequestBody
 import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.ResponseBody
 import org.springframework.web.bind.annotation.RestController
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder
+import tools.jackson.databind.json.JsonMapper
 
 @RestController
 @Protected
-class DistribuerController(private val distribuerJournalpostService: DistribuerJournalpostService) : BaseController() {
+class DistribuerController(
+    private val distribuerJournalpostService: DistribuerJournalpostService,
+    private val distribusjonJobbService: DistribusjonJobbService,
+    private val distribusjonBatchService: DistribusjonBatchService,
+    private val jsonMapper: JsonMapper,
+) : BaseController() {
+    @PostMapping("$ROOT_JOURNAL/distribuer/batch", produces = [MediaType.APPLICATION_NDJSON_VALUE])
+    @Operation(
+        description = "Bestill distribusjon av flere journalposter i samme batch. Resultatet for hver journalpost skrives som en linje " +
+            "med json etter hvert som de blir ferdige, ikke i samme rekkefølge som i forespørselen",
+    )
+    @ApiResponses(
+        value = [
+            ApiResponse(
+                responseCode = "200",
+                description = "Batchen er behandlet. Journalposter som ikke kunne distribueres har status FEILET",
+            ), ApiResponse(
+                responseCode = "400",
+                description = "Batchen mangler batchId, er tom eller inneholder for mange journalposter",
+            ),
+        ],
+    )
+    fun distribuerBatch(@RequestBody request: DistribuerBatchRequest, response: HttpServletResponse) {
+        response.status = HttpStatus.OK.value()
+        response.contentType = MediaType.APPLICATION_NDJSON_VALUE
+        val utskrift = response.outputStream
+        distribusjonBatchService.distribuer(request) { resultat ->
+            utskrift.write(jsonMapper.writeValueAsBytes(resultat))
+            utskrift.write('\n'.code)
+            utskrift.flush()
+        }
+    }
+
     @PostMapping("$ROOT_JOURNAL/distribuer/{joarkJournalpostId}")
-    @Operation(description = "Bestill distribusjon av journalpost")
+    @Operation(
+        description = "Bestill distribusjon av journalpost. Med async=true bestilles distribusjonen i bakgrunnen, og statusen hentes fra " +
+            "$ROOT_JOURNAL/distribuer/jobb/{jobbId}",
+    )
     @ApiResponses(
         value = [
             ApiResponse(
                 responseCode = "200",
                 description = "Distribusjon av journalpost er bestilt",
+            ), ApiResponse(
+                responseCode = "202",
+                description = "Distribusjon av journalpost er lagt i kø",
+            ), ApiResponse(
+                responseCode = "503",
+                description = "Køen for asynkron distribusjon er full",
             ), ApiResponse(
                 responseCode = "400",
                 description = "Journalpost mangler mottakerid eller adresse er ikke oppgitt i kallet",
@@ -48,7 +96,8 @@ class DistribuerController(private val distribuerJournalpostService: DistribuerJ
         @RequestBody(required = false) distribuerJournalpostRequest: DistribuerJournalpostRequest?,
         @PathVariable joarkJournalpostId: String,
         @RequestParam(required = false, name = "batchId") batchIdHeader: String?,
-    ): ResponseEntity<DistribuerJournalpostResponse> {
+        @RequestParam(required = false, name = "async", defaultValue = "false") async: Boolean,
+    ): ResponseEntity<*> {
         val batchId = if (Strings.isEmpty(batchIdHeader)) null else batchIdHeader
         LOGGER.info(
             "Distribuerer journalpost {}{}",
@@ -65,6 +114,16 @@ class DistribuerController(private val distribuerJournalpostService: DistribuerJ
                 .build()
         }
         val journalpostId = kildesystemIdenfikator.hentJournalpostIdLong()
+        if (async) {
+            val jobb = distribusjonJobbService.bestillDistribusjon(
+                journalpostId!!,
+                batchId,
+                DistribuerJournalpostRequestInternal(distribuerJournalpostRequest),
+            )
+            return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath().path("$ROOT_JOURNAL/distribuer/jobb/{jobbId}").build(jobb.jobbId))
+                .body(jobb)
+        }
         return ResponseEntity.ok(
             distribuerJournalpostService.distribuerJournalpost(
                 journalpostId!!,
@@ -74,6 +133,19 @@ class DistribuerController(private val distribuerJournalpostService: DistribuerJ
         )
     }
 
+    @GetMapping("$ROOT_JOURNAL/distribuer/jobb/{jobbId}")
+    @Operation(description = "Hent status for distribusjon som er bestilt med async=true")
+    @ApiResponses(
+        value = [
+            ApiResponse(responseCode = "200", description = "Hentet status for distribusjonen"),
+            ApiResponse(responseCode = "404", description = "Fant ikke distribusjonen, eller statusen er for gammel"),
+        ],
+    )
+    @ResponseBody
+    fun hentDistribusjonJobb(@PathVariable jobbId: String): ResponseEntity<DistribusjonJobbDto> = distribusjonJobbService.hentJobb(jobbId)
+        ?.let { ResponseEntity.ok(it) }
+        ?: ResponseEntity.notFound().build()
+
     @GetMapping("$ROOT_JOURNAL/distribuer/{journalpostId}/enabled")
     @Operation(description = "Sjekk om distribusjon av journalpost kan bestilles")
     @ApiResponses(
@@ -157,6 +229,20 @@ class DistribuerController(private val distribuerJournalpostService: DistribuerJ
     @ResponseBody
     fun hentDistribusjonKanal(@RequestBody request: BestemDistribusjonKanalRequest): BestemKanalResponse = distribuerJournalpostService.hentDistribusjonKanal(request)
 
+    @PostMapping("$ROOT_JOURNAL/distribuer/kanal/batch")
+    @Operation(description = "Hent kanal for flere mottakere på en gang. Svarene kommer i samme rekkefølge som forespørslene")
+    @ApiResponses(
+        value = [
+            ApiResponse(
+                responseCode = "200",
+                description = "Hentet informasjon om hvilken kanal mottakerne vil motta forsendelse på",
+            ),
+            ApiResponse(responseCode = "400", description = "For mange forespørsler i samme kall"),
+        ],
+    )
+    @ResponseBody
+    fun hentDistribusjonKanaler(@RequestBody requests: List<BestemDistribusjonKanalRequest>): List<BestemKanalResponse> = distribuerJournalpostService.hentDistribusjonKanaler(requests)
+
     companion object {
         private val LOGGER = LoggerFactory.getLogger(DistribuerController::class.java)
     }
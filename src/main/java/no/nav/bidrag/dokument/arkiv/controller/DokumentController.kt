@@ -4,23 +4,38 @@ import io.swagger.v3.oas.annotations.Operation
 import io.swagger.v3.oas.annotations.responses.ApiResponse
 import io.swagger.v3.oas.annotations.responses.ApiResponses
 import io.swagger.v3.oas.annotations.security.SecurityRequirement
+import jakarta.servlet.http.HttpServletRequest
+import jakarta.servlet.http.HttpServletResponse
 import mu.KotlinLogging
 import no.nav.bidrag.commons.util.KildesystemIdenfikator
-import no.nav.bidrag.commons.web.WebUtil
+import no.nav.bidrag.dokument.arkiv.consumer.CachetDokument
 import no.nav.bidrag.dokument.arkiv.service.DokumentService
 import no.nav.bidrag.transport.dokument.DokumentMetadata
 import no.nav.security.token.support.core.api.Protected
 import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.http.HttpRange
 import org.springframework.http.HttpStatus
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.PathVariable
+import org.springframework.web.bind.annotation.RequestHeader
 import org.springframework.web.bind.annotation.RequestMapping
 import org.springframework.web.bind.annotation.RequestMethod
 import org.springframework.web.bind.annotation.RestController
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 
 private val LOGGER = KotlinLogging.logger {}
 
+private val VIDERESENDTE_HEADERE = listOf(
+    HttpHeaders.CONTENT_TYPE,
+    HttpHeaders.CONTENT_LENGTH,
+    HttpHeaders.CONTENT_DISPOSITION,
+    HttpHeaders.CONTENT_RANGE,
+    HttpHeaders.ACCEPT_RANGES,
+)
+
 @RestController
 @Protected
 class DokumentController(private val dokumentService: DokumentService) {
@@ -35,27 +50,89 @@ class DokumentController(private val dokumentService: DokumentService) {
                 responseCode = "200",
                 description = "OK - dokument returneres i form av base64 encoded string.",
             ),
+            ApiResponse(
+                responseCode = "206",
+                description = "Del av dokumentet som er angitt i Range-header",
+            ),
+            ApiResponse(
+                responseCode = "304",
+                description = "Dokumentet har samme ETag som i If-None-Match",
+            ),
             ApiResponse(
                 responseCode = "404",
                 description = "Fant ikke journalpost med oppgitt dokumentreferanse",
             ),
         ],
     )
-    fun hentDokument(@PathVariable journalpostId: String, @PathVariable dokumentreferanse: String): ResponseEntity<ByteArray> {
+    fun hentDokument(
+        @PathVariable journalpostId: String,
+        @PathVariable dokumentreferanse: String,
+        @RequestHeader(HttpHeaders.RANGE, required = false) range: String?,
+        @RequestHeader(HttpHeaders.IF_NONE_MATCH, required = false) ifNoneMatch: String?,
+        request: HttpServletRequest,
+        response: HttpServletResponse,
+    ) {
         val kildesystemIdenfikator = KildesystemIdenfikator(journalpostId)
-        return if (kildesystemIdenfikator.erUkjentPrefixEllerHarIkkeTallEtterPrefix()) {
-            ResponseEntity(
-                WebUtil.initHttpHeadersWith(
-                    HttpHeaders.WARNING,
-                    "Ugyldig prefix på journalpostId",
-                ),
-                HttpStatus.BAD_REQUEST,
-            )
-        } else {
-            dokumentService.hentDokument(
-                kildesystemIdenfikator.hentJournalpostIdLong()!!,
-                dokumentreferanse,
-            )
+        if (kildesystemIdenfikator.erUkjentPrefixEllerHarIkkeTallEtterPrefix()) {
+            response.status = HttpStatus.BAD_REQUEST.value()
+            response.setHeader(HttpHeaders.WARNING, "Ugyldig prefix på journalpostId")
+            return
+        }
+        val journalpostIdLong = kildesystemIdenfikator.hentJournalpostIdLong()!!
+        val ranges = range?.let { HttpRange.parseRanges(it) } ?: emptyList()
+        // Skrives på forespørselstråden fordi tokenet som brukes mot SAF hentes fra forespørselen
+        if (dokumentService.erDokumentCacheAktiv() && ranges.size <= 1) {
+            dokumentService.hentDokumentFraCache(journalpostIdLong, dokumentreferanse) { dokument, kanal ->
+                skrivFraCache(dokument, kanal, ranges.firstOrNull(), ifNoneMatch, request, response)
+            }
+            return
+        }
+        dokumentService.hentDokument(journalpostIdLong, dokumentreferanse, range) { dokument ->
+            response.status = dokument.statusCode.value()
+            VIDERESENDTE_HEADERE.forEach { header -> dokument.headers.getFirst(header)?.let { response.setHeader(header, it) } }
+            if (request.method != HttpMethod.HEAD.name()) {
+                dokument.body.transferTo(response.outputStream)
+            }
+        }
+    }
+
+    private fun skrivFraCache(
+        dokument: CachetDokument,
+        kanal: FileChannel,
+        range: HttpRange?,
+        ifNoneMatch: String?,
+        request: HttpServletRequest,
+        response: HttpServletResponse,
+    ) {
+        response.setHeader(HttpHeaders.ETAG, dokument.etag)
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes")
+        if (ifNoneMatch != null && (ifNoneMatch.trim() == "*" || ifNoneMatch.split(",").any { it.trim().removePrefix("W/") == dokument.etag })) {
+            response.status = HttpStatus.NOT_MODIFIED.value()
+            return
+        }
+        dokument.contentType?.let { response.setHeader(HttpHeaders.CONTENT_TYPE, it) }
+        dokument.contentDisposition?.let { response.setHeader(HttpHeaders.CONTENT_DISPOSITION, it) }
+        var start = 0L
+        var slutt = dokument.storrelse - 1
+        if (range != null) {
+            try {
+                start = range.getRangeStart(dokument.storrelse)
+                slutt = range.getRangeEnd(dokument.storrelse)
+            } catch (e: IllegalArgumentException) {
+                response.status = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */${dokument.storrelse}")
+                return
+            }
+            response.status = HttpStatus.PARTIAL_CONTENT.value()
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes $start-$slutt/${dokument.storrelse}")
+        }
+        response.setContentLengthLong(slutt - start + 1)
+        if (request.method != HttpMethod.HEAD.name()) {
+            val ut = Channels.newChannel(response.outputStream)
+            var posisjon = start
+            while (posisjon <= slutt) {
+                posisjon += kanal.transferTo(posisjon, slutt - posisjon + 1, ut)
+            }
         }
     }
 
@@ -1,16 +1,25 @@
 package no.nav.bidrag.dokument.arkiv.controller
 
 import io.swagger.v3.oas.annotations.Operation
+import io.swagger.v3.oas.annotations.Parameter
+import io.swagger.v3.oas.annotations.media.ArraySchema
+import io.swagger.v3.oas.annotations.media.Content
+import io.swagger.v3.oas.annotations.media.Schema
 import io.swagger.v3.oas.annotations.responses.ApiResponse
 import io.swagger.v3.oas.annotations.responses.ApiResponses
 import io.swagger.v3.oas.annotations.security.SecurityRequirement
+import jakarta.servlet.http.HttpServletRequest
+import jakarta.servlet.http.HttpServletResponse
 import no.nav.bidrag.commons.util.KildesystemIdenfikator
 import no.nav.bidrag.commons.web.EnhetFilter
 import no.nav.bidrag.dokument.arkiv.SECURE_LOGGER
+import no.nav.bidrag.dokument.arkiv.aop.HttpStatusRestControllerAdvice
 import no.nav.bidrag.dokument.arkiv.dto.EndreJournalpostCommandIntern
 import no.nav.bidrag.dokument.arkiv.dto.Journalpost
 import no.nav.bidrag.dokument.arkiv.model.Discriminator
+import no.nav.bidrag.dokument.arkiv.model.JournalStromAvbruttException
 import no.nav.bidrag.dokument.arkiv.model.ResourceByDiscriminator
+import no.nav.bidrag.dokument.arkiv.query.DokumentoversiktFagsakQuery
 import no.nav.bidrag.dokument.arkiv.service.EndreJournalpostService
 import no.nav.bidrag.dokument.arkiv.service.InnsendingService
 import no.nav.bidrag.dokument.arkiv.service.JournalpostService
@@ -18,9 +27,11 @@ import no.nav.bidrag.transport.dokument.EndreJournalpostCommand
 import no.nav.bidrag.transport.dokument.JournalpostDto
 import no.nav.bidrag.transport.dokument.JournalpostResponse
 import no.nav.security.token.support.core.api.Protected
+import org.eclipse.jetty.ee11.servlet.ServletContextRequest
 import org.slf4j.LoggerFactory
 import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.PatchMapping
@@ -29,6 +40,7 @@ import org.springframework.web.bind.annotation.RequestBody
 import org.springframework.web.bind.annotation.RequestHeader
 import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
+import tools.jackson.databind.json.JsonMapper
 
 @RestController
 @Protected
@@ -36,6 +48,7 @@ class JournalpostController(
     journalpostService: ResourceByDiscriminator<JournalpostService?>,
     private val endreJournalpostService: EndreJournalpostService,
     private val innsendingService: InnsendingService,
+    private val jsonMapper: JsonMapper,
 ) : BaseController() {
     private val journalpostService: JournalpostService
 
@@ -119,15 +132,85 @@ class JournalpostController(
             ApiResponse(
                 responseCode = "200",
                 description = "Liste over journalposter for saksnummer og fagområde",
+                content = [Content(array = ArraySchema(schema = Schema(implementation = JournalpostDto::class)))],
             ), ApiResponse(
                 responseCode = "404",
                 description = "Fant ikke journalposter for oppgitt sak og fagområde",
             ),
         ],
     )
-    fun hentJournal(@PathVariable saksnummer: String, @RequestParam fagomrade: List<String> = emptyList()): ResponseEntity<List<JournalpostDto>> {
+    fun hentJournal(
+        @PathVariable saksnummer: String,
+        @RequestParam fagomrade: List<String> = emptyList(),
+        @Parameter(description = "Maks antall journalposter i svaret. Henter hele journalen når den ikke er satt")
+        @RequestParam(required = false)
+        limit: Int?,
+        @Parameter(description = "Peker fra header $NESTE_SIDE_HEADER i forrige svar")
+        @RequestParam(required = false)
+        cursor: String?,
+        request: HttpServletRequest,
+        response: HttpServletResponse,
+    ) {
         LOGGER.info("Henter journal for saksnummer {} og tema {}", saksnummer, fagomrade)
-        return ResponseEntity.ok(journalpostService.finnJournalposter(saksnummer, fagomrade))
+        if (limit != null) {
+            skrivJournalSide(saksnummer, fagomrade, limit.coerceIn(1, DokumentoversiktFagsakQuery.SIDE_STORRELSE), cursor, response)
+        } else {
+            strommJournal(saksnummer, fagomrade, cursor, request, response)
+        }
+    }
+
+    /**
+     * Henter sider fra SAF til [limit] journalposter er funnet eller journalen er slutt. Hver side hentes med plass til bare
+     * de journalpostene som mangler, så svaret blir aldri større enn [limit] og pekeren fra SAF peker rett etter den siste
+     * journalposten i svaret. Svaret er lite, så det skrives først når alle sidene er hentet.
+     */
+    private fun skrivJournalSide(saksnummer: String, fagomrade: List<String>, limit: Int, cursor: String?, response: HttpServletResponse) {
+        val journalposter = ArrayList<JournalpostDto>()
+        var peker = cursor
+        do {
+            val side = journalpostService.finnJournalSider(saksnummer, fagomrade, peker, limit - journalposter.size).first()
+            journalposter.addAll(side.journalposter)
+            peker = side.nesteSide
+        } while (journalposter.size < limit && peker != null)
+        peker?.let { response.setHeader(NESTE_SIDE_HEADER, it) }
+        response.status = HttpStatus.OK.value()
+        response.contentType = MediaType.APPLICATION_JSON_VALUE
+        jsonMapper.writeValue(response.outputStream, journalposter)
+    }
+
+    /**
+     * Strømmer hele journalen side for side. Feiler en senere side er svaret allerede påbegynt, så arrayen avsluttes ikke og
+     * forbindelsen brytes med [avbryt]. Ellers ville klienten fått en avkortet journal som ser komplett ut.
+     */
+    private fun strommJournal(saksnummer: String, fagomrade: List<String>, cursor: String?, request: HttpServletRequest, response: HttpServletResponse) {
+        val sider = journalpostService.finnJournalSider(saksnummer, fagomrade, cursor).iterator()
+        // Første side hentes før noe skrives slik at feil fra SAF fortsatt gir riktig http-status
+        val forsteSide = sider.next()
+        response.status = HttpStatus.OK.value()
+        response.contentType = MediaType.APPLICATION_JSON_VALUE
+        // Generatoren lukkes bare når hele journalen er skrevet, siden den avslutter arrayen når den lukkes
+        val generator = jsonMapper.createGenerator(response.outputStream)
+        try {
+            generator.writeStartArray()
+            (sequenceOf(forsteSide) + sider.asSequence()).forEach { side ->
+                side.journalposter.forEach { generator.writePOJO(it) }
+                generator.flush()
+            }
+            generator.writeEndArray()
+        } catch (e: Exception) {
+            avbryt(request, JournalStromAvbruttException("Henting av journal for saksnummer $saksnummer feilet etter at svaret var påbegynt", e))
+            return
+        }
+        generator.close()
+    }
+
+    /**
+     * Bryter forbindelsen til klienten uten å avslutte svaret. Feilen kan ikke kastes videre, siden [HttpStatusRestControllerAdvice]
+     * da ville skrevet en tom feilrespons til det påbegynte svaret og avsluttet det som om det var komplett.
+     */
+    private fun avbryt(request: HttpServletRequest, feil: JournalStromAvbruttException) {
+        LOGGER.error(feil.message, feil)
+        ServletContextRequest.getServletContextRequest(request).servletChannel.abort(feil)
     }
 
     @PatchMapping("$ROOT_JOURNAL/{joarkJournalpostId}")
@@ -180,5 +263,6 @@ class JournalpostController(
 
     companion object {
         private val LOGGER = LoggerFactory.getLogger(JournalpostController::class.java)
+        const val NESTE_SIDE_HEADER = "X-Next-Cursor"
     }
 }
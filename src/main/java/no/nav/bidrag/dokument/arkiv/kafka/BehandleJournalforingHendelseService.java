@@ -15,9 +15,6 @@ import no.nav.bidrag.dokument.arkiv.service.JournalpostService;
 import no.nav.joarkjournalfoeringhendelser.JournalfoeringHendelseRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.retry.backoff.FixedBackOffPolicy;
-import org.springframework.retry.policy.SimpleRetryPolicy;
-import org.springframework.retry.support.RetryTemplate;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -27,17 +24,21 @@ public class BehandleJournalforingHendelseService {
       LoggerFactory.getLogger(BehandleJournalforingHendelseService.class);
   private static final String HENDELSE_COUNTER_NAME = "joark_hendelse";
   private static final String HENDELSE_NUMBER_OF_DOCS_COUNTER_NAME = "joark_antall_dokumenter";
+  public static final String HENDELSE_DUPLIKAT_COUNTER_NAME = "joark_hendelse_duplikat";
 
   private final MeterRegistry meterRegistry;
   private final HendelserProducer producer;
   private final JournalpostService journalpostService;
   private final DistributionSummary numberOfDocsDistribution;
+  private final BehandledeHendelser behandledeHendelser;
 
   public BehandleJournalforingHendelseService(
       HendelserProducer producer,
       MeterRegistry registry,
-      ResourceByDiscriminator<JournalpostService> journalpostServices) {
+      ResourceByDiscriminator<JournalpostService> journalpostServices,
+      BehandledeHendelser behandledeHendelser) {
     this.producer = producer;
+    this.behandledeHendelser = behandledeHendelser;
     this.meterRegistry = registry;
     this.journalpostService = journalpostServices.get(Discriminator.SERVICE_USER);
     this.numberOfDocsDistribution =
@@ -48,10 +49,29 @@ public class BehandleJournalforingHendelseService {
             .register(this.meterRegistry);
   }
 
-  public void behandleJournalforingHendelse(JournalfoeringHendelseRecord record) {
+  /**
+   * Kaster {@link JournalfortJournalpostManglerJournalfortAvIdent} hvis journalposten er journalført men saksbehandlerident
+   * ikke er lagret ennå, med mindre {@code godtaManglendeJournalfortAvIdent} er satt. Da behandles hendelsen uten
+   * saksbehandlerident.
+   *
+   * <p>Hendelser som allerede er behandlet hoppes over før journalposten hentes, og telles i {@link
+   * #HENDELSE_DUPLIKAT_COUNTER_NAME}. En hendelse regnes som behandlet først når behandlingen er fullført, slik at hendelser
+   * som feiler eller utsettes blir behandlet på nytt.
+   */
+  public void behandleJournalforingHendelse(
+      JournalfoeringHendelseRecord record, boolean godtaManglendeJournalfortAvIdent) {
     Long journalpostId = record.getJournalpostId();
+    if (behandledeHendelser.erBehandlet(record.getHendelsesId())) {
+      LOGGER.info(
+          "Journalføringshendelse {} for journalpost {} er allerede behandlet og hoppes over",
+          record.getHendelsesId(),
+          journalpostId);
+      meterRegistry.counter(HENDELSE_DUPLIKAT_COUNTER_NAME).increment();
+      return;
+    }
     var journalpost =
-        hentJournalpostMedSaksbehandlerIdent(journalpostId, record.getJournalpostStatus());
+        hentJournalpostMedSaksbehandlerIdent(
+            journalpostId, record.getJournalpostStatus(), godtaManglendeJournalfortAvIdent);
     SECURE_LOGGER.info("Mottok journalføringshendelse med id {} og journalpost {}", record, journalpost);
     if (erOpprettetAvNKS(journalpost)) {
       String brevKoder =
@@ -63,6 +83,7 @@ public class BehandleJournalforingHendelseService {
           record.getJournalpostId(),
           journalpost.getOpprettetAvNavn(),
           brevKoder);
+      behandledeHendelser.registrer(record.getHendelsesId());
       return;
     }
 
@@ -71,6 +92,7 @@ public class BehandleJournalforingHendelseService {
 
     producer.publishJournalpostHendelse(
         journalforingHendelseIntern.toJournalpostHendelse(journalpost));
+    behandledeHendelser.registrer(record.getHendelsesId());
     measureHendelse(record, journalpost);
     loggHendelse(record, journalpost);
   }
@@ -134,36 +156,40 @@ public class BehandleJournalforingHendelseService {
   }
 
   private Journalpost hentJournalpostMedSaksbehandlerIdent(
-      Long journalpostId, String journalpostStatus) {
+      Long journalpostId, String journalpostStatus, boolean godtaManglendeJournalfortAvIdent) {
     if ("JOURNALFOERT".equals(journalpostStatus)) {
-      return hentJournalfortJournalpost(journalpostId);
+      return hentJournalfortJournalpost(journalpostId, godtaManglendeJournalfortAvIdent);
     }
 
     return hentJournalpost(journalpostId);
   }
 
-  private Journalpost hentJournalfortJournalpost(Long journalpostId) {
+  private Journalpost hentJournalfortJournalpost(
+      Long journalpostId, boolean godtaManglendeJournalfortAvIdent) {
+    Journalpost journalpost;
     try {
-      return retryTemplate()
-          .execute(
-              arg0 -> {
-                Journalpost journalpost = hentJournalpostMedSaker(journalpostId);
-                if (journalpost.isStatusJournalfort()
-                    && journalpost.hentJournalfortAvIdent() == null) {
-                  LOGGER.warn(
-                      "Fant ingen saksbehandlerident lagret som tilleggsopplysning på journalført journalpost {}, venter før det forsøkes på nytt",
-                      journalpostId);
-                  throw new JournalfortJournalpostManglerJournalfortAvIdent(
-                      "Journalført journalpost mangler journaført av ident");
-                }
-                return journalpost;
-              });
+      journalpost = hentJournalpostMedSaker(journalpostId);
     } catch (Exception e) {
+      LOGGER.error(
+          "Kunne ikke hente journalført journalpost {} med tilknyttede saker. Fortsetter behandling uten saksbehandlerident.",
+          journalpostId,
+          e);
+      return hentJournalpost(journalpostId);
+    }
+
+    if (journalpost.isStatusJournalfort() && journalpost.hentJournalfortAvIdent() == null) {
+      if (!godtaManglendeJournalfortAvIdent) {
+        LOGGER.warn(
+            "Fant ingen saksbehandlerident lagret som tilleggsopplysning på journalført journalpost {}, utsetter behandlingen",
+            journalpostId);
+        throw new JournalfortJournalpostManglerJournalfortAvIdent(
+            "Journalført journalpost mangler journaført av ident");
+      }
       LOGGER.error(
           "Fant ingen saksbehandlerident lagret som tilleggsopplysning på journalført journalpost {}. Fortsetter behandling uten saksbehandlerident. Dette vil påvirke videre behandling i bidrag-arbeidsflyt.",
           journalpostId);
-      return hentJournalpost(journalpostId);
     }
+    return journalpost;
   }
 
   private Journalpost hentJournalpost(Long journalpostId) {
@@ -193,18 +219,4 @@ public class BehandleJournalforingHendelseService {
                         || "CRM_CHAT".equals(dokument.getBrevkode()));
     return brevkodeCRM || opprettetAvSalesforce || erKanalNavNoChat;
   }
-
-  private RetryTemplate retryTemplate() {
-    RetryTemplate retryTemplate = new RetryTemplate();
-
-    FixedBackOffPolicy fixedBackOffPolicy = new FixedBackOffPolicy();
-    fixedBackOffPolicy.setBackOffPeriod(2000L);
-    retryTemplate.setBackOffPolicy(fixedBackOffPolicy);
-
-    SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy();
-    retryPolicy.setMaxAttempts(3);
-    retryTemplate.setRetryPolicy(retryPolicy);
-
-    return retryTemplate;
-  }
 }
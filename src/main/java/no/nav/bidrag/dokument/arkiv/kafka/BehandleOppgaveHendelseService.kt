@@ -14,8 +14,6 @@ import no.nav.bidrag.dokument.arkiv.model.Discriminator
 import no.nav.bidrag.dokument.arkiv.model.JournalpostHarIkkeKommetIRetur
 import no.nav.bidrag.dokument.arkiv.model.ResourceByDiscriminator
 import no.nav.bidrag.dokument.arkiv.service.JournalpostService
-import org.springframework.retry.annotation.Backoff
-import org.springframework.retry.annotation.Retryable
 import org.springframework.stereotype.Service
 import java.time.LocalDate
 
@@ -39,12 +37,8 @@ class BehandleOppgaveHendelseService(
     }
 
     // Returoppgave opprettes før journalpost retur attributter oppdateres. Det kan derfor hende at
-    // journalpost ikke er markert at det har kommet i retur og må derfor prøves flere ganger
-    @Retryable(
-        value = [JournalpostHarIkkeKommetIRetur::class],
-        maxAttempts = 5,
-        backoff = Backoff(delay = 1000, maxDelay = 12000, multiplier = 2.0),
-    )
+    // journalpost ikke er markert at det har kommet i retur og må derfor prøves flere ganger.
+    // JournalpostHarIkkeKommetIRetur utsetter hendelsen med UtsattBehandling
     fun behandleReturOppgaveOpprettetHendelse(oppgaveHendelse: OppgaveKafkaHendelse) {
         val oppgave = validerOgHentOppgave(oppgaveHendelse) ?: return
         LOGGER.info {
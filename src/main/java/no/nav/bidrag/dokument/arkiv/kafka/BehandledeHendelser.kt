@@ -0,0 +1,96 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import io.micrometer.core.instrument.MeterRegistry
+import org.slf4j.LoggerFactory
+import java.io.BufferedWriter
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * Husker hendelsesId til journalføringshendelser som er behandlet, slik at hendelser som leses på nytt etter rebalansering
+ * eller nye forsøk fra feilhåndteringen ikke hentes fra SAF og publiseres en gang til. Det huskes maks [maksAntall]
+ * hendelser, og de eldste glemmes først siden det er de nyeste som leses på nytt.
+ *
+ * Når [fil] er satt, skrives hver hendelsesId også til slutten av filen, og de siste [maksAntall] leses inn igjen ved oppstart.
+ * Filen skrives på nytt med bare hendelsene som huskes når den har blitt dobbelt så lang.
+ */
+class BehandledeHendelser(
+    private val aktiv: Boolean,
+    private val maksAntall: Long,
+    private val fil: Path?,
+    meterRegistry: MeterRegistry,
+) : AutoCloseable {
+    private val hendelser = object : LinkedHashMap<String, Boolean>() {
+        override fun removeEldestEntry(eldste: MutableMap.MutableEntry<String, Boolean>): Boolean = size > maksAntall
+    }
+    private var skriver: BufferedWriter? = null
+    private var antallLinjer = 0L
+
+    init {
+        if (aktiv) {
+            fil?.let { lesFraFil(it) }
+            meterRegistry.gauge(BEHANDLEDE_HENDELSER_GAUGE_NAME, this) { synchronized(it) { it.hendelser.size.toDouble() } }
+        }
+    }
+
+    @Synchronized
+    fun erBehandlet(hendelsesId: String?): Boolean = aktiv && hendelsesId != null && hendelser.containsKey(hendelsesId)
+
+    @Synchronized
+    fun registrer(hendelsesId: String?) {
+        if (!aktiv || hendelsesId == null || hendelser.put(hendelsesId, true) != null) return
+        if (fil != null) skrivTilFil(hendelsesId)
+    }
+
+    @Synchronized
+    override fun close() {
+        skriver?.close()
+        skriver = null
+    }
+
+    private fun lesFraFil(fil: Path) {
+        Files.createDirectories(fil.toAbsolutePath().parent)
+        if (Files.exists(fil)) {
+            val sisteHendelser = ArrayDeque<String>()
+            Files.lines(fil).use { linjer ->
+                linjer.filter { it.isNotBlank() }.forEach {
+                    sisteHendelser.addLast(it)
+                    if (sisteHendelser.size > maksAntall) sisteHendelser.removeFirst()
+                }
+            }
+            sisteHendelser.forEach { hendelser.put(it, true) }
+            LOGGER.info("Leste {} behandlede hendelser fra {}", sisteHendelser.size, fil)
+        }
+        komprimer(fil)
+    }
+
+    private fun skrivTilFil(hendelsesId: String) {
+        val skriver = skriver ?: return
+        skriver.write(hendelsesId)
+        skriver.newLine()
+        skriver.flush()
+        antallLinjer++
+        if (antallLinjer > 2 * maksAntall) komprimer(fil!!)
+    }
+
+    private fun komprimer(fil: Path) {
+        skriver?.close()
+        val gjeldende = hendelser.keys.toList()
+        val midlertidigFil = Files.createTempFile(fil.toAbsolutePath().parent, "behandlede-hendelser", ".tmp")
+        try {
+            Files.write(midlertidigFil, gjeldende)
+            Files.move(midlertidigFil, fil, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            Files.deleteIfExists(midlertidigFil)
+        }
+        antallLinjer = gjeldende.size.toLong()
+        skriver = Files.newBufferedWriter(fil, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+    }
+
+    companion object {
+        const val BEHANDLEDE_HENDELSER_GAUGE_NAME = "joark_behandlede_hendelser"
+        private val LOGGER = LoggerFactory.getLogger(BehandledeHendelser::class.java)
+    }
+}
@@ -1,7 +1,9 @@
 package no.nav.bidrag.dokument.arkiv.kafka
 
+import io.micrometer.core.instrument.MeterRegistry
 import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivConfig
 import no.nav.bidrag.dokument.arkiv.SECURE_LOGGER
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
 import no.nav.bidrag.dokument.arkiv.model.Discriminator
 import no.nav.bidrag.dokument.arkiv.model.JournalpostHarIkkeKommetIRetur
 import no.nav.bidrag.dokument.arkiv.model.ResourceByDiscriminator
@@ -15,6 +17,8 @@ import org.apache.kafka.common.serialization.LongDeserializer
 import org.apache.kafka.common.serialization.StringDeserializer
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.kafka.autoconfigure.ConcurrentKafkaListenerContainerFactoryConfigurer
+import org.springframework.boot.kafka.autoconfigure.KafkaProperties
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import org.springframework.context.annotation.Lazy
@@ -26,10 +30,13 @@ import org.springframework.kafka.core.KafkaTemplate
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer
 import org.springframework.kafka.listener.ContainerProperties
 import org.springframework.kafka.listener.DefaultErrorHandler
+import org.springframework.kafka.listener.adapter.RecordFilterStrategy
 import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries
 import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer
 import org.springframework.util.backoff.ExponentialBackOff
+import org.springframework.util.backoff.FixedBackOff
 import tools.jackson.databind.json.JsonMapper
+import java.nio.file.Path
 import java.time.Duration
 
 @Configuration
@@ -50,13 +57,17 @@ class BidragDokumentArkivKafkaConfig {
         saksbehandlerInfoManager,
     )
 
+    @Bean
+    fun behandledeHendelser(
+        @Value("\${BEHANDLEDE_HENDELSER_AKTIV:true}") aktiv: Boolean,
+        @Value("\${BEHANDLEDE_HENDELSER_MAKS_ANTALL:100000}") maksAntall: Long,
+        @Value("\${BEHANDLEDE_HENDELSER_FIL:}") fil: String,
+        meterRegistry: MeterRegistry,
+    ): BehandledeHendelser = BehandledeHendelser(aktiv, maksAntall, fil.takeIf { it.isNotBlank() }?.let { Path.of(it) }, meterRegistry)
+
     @Bean
     fun defaultErrorHandler(@Value("\${KAFKA_MAX_RETRY:-1}") maxRetry: Int): DefaultErrorHandler {
-        // Max retry should not be set in production
-        val backoffPolicy =
-            if (maxRetry == -1) ExponentialBackOff() else ExponentialBackOffWithMaxRetries(maxRetry)
-        backoffPolicy.multiplier = 2.0
-        backoffPolicy.maxInterval = 1800000L // 30 mins
+        val backoffPolicy = backOff(maxRetry)
         LOGGER.info(
             "Initializing Kafka errorhandler with backoffpolicy {}, maxRetry={}",
             backoffPolicy,
@@ -85,6 +96,29 @@ class BidragDokumentArkivKafkaConfig {
         return errorHandler
     }
 
+    /**
+     * Hendelser som ikke er relevante leses bare delvis av [JournalfoeringHendelseDeserializer], og filtreres bort og kvitteres
+     * her uten å nå lytteren. Antall filtrerte og behandlede hendelser telles i [JOURNALFOERING_FILTRERING_COUNTER_NAME].
+     */
+    @Bean
+    fun journalfoeringListenerContainerFactory(
+        configurer: ConcurrentKafkaListenerContainerFactoryConfigurer,
+        kafkaProperties: KafkaProperties,
+        @Value("\${JOURNALFOERING_MAKS_UBEHANDLEDE}") maksUbehandlede: Int,
+        meterRegistry: MeterRegistry,
+        journalpostCache: JournalpostCache,
+    ): ConcurrentKafkaListenerContainerFactory<Any, Any> {
+        val props = kafkaProperties.buildConsumerProperties()
+        props[ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG] = ErrorHandlingDeserializer::class.java
+        props[ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS] = JournalfoeringHendelseDeserializer::class.java
+        val factory = ConcurrentKafkaListenerContainerFactory<Any, Any>()
+        configurer.configure(factory, DefaultKafkaConsumerFactory(props))
+        nokkelordnetBehandling(factory.containerProperties, maksUbehandlede)
+        factory.setRecordFilterStrategy(journalfoeringFilter(journalpostCache, meterRegistry))
+        factory.setAckDiscarded(true)
+        return factory
+    }
+
     @Bean
     fun oppgaveKafkaListenerContainerFactory(
         oppgaveConsumerFactory: ConsumerFactory<Long, String>,
@@ -92,7 +126,10 @@ class BidragDokumentArkivKafkaConfig {
     ): ConcurrentKafkaListenerContainerFactory<Long, String> {
         val factory = ConcurrentKafkaListenerContainerFactory<Long, String>()
         factory.setConsumerFactory(oppgaveConsumerFactory)
-        factory.containerProperties.ackMode = ContainerProperties.AckMode.RECORD
+        // Nesten alle oppgavehendelsene filtreres bort, så offset committes en gang per poll i stedet for per hendelse.
+        // Feil i én hendelse isoleres med BatchListenerFailedException fra OppgaveHendelseLytter
+        factory.setBatchListener(true)
+        factory.containerProperties.ackMode = ContainerProperties.AckMode.BATCH
         // Retry consumer/listener even if authorization fails
         factory.setContainerCustomizer { container: ConcurrentMessageListenerContainer<Long, String> ->
             container.containerProperties.setAuthExceptionRetryInterval(Duration.ofSeconds(10))
@@ -118,6 +155,108 @@ class BidragDokumentArkivKafkaConfig {
             ErrorHandlingDeserializer::class.java
         props["spring.deserializer.key.delegate.class"] = LongDeserializer::class.java
         props["spring.deserializer.value.delegate.class"] = StringDeserializer::class.java
+        leggTilSsl(props, keystorePath, trustStorePath, credstorePassword, environment)
+        return DefaultKafkaConsumerFactory(props)
+    }
+
+    @Bean
+    fun cacheInvalideringListenerContainerFactory(
+        @Value("\${KAFKA_BROKERS}") boostrapServer: String,
+        @Value("\${KAFKA_KEYSTORE_PATH}") keystorePath: String,
+        @Value("\${KAFKA_TRUSTSTORE_PATH}") trustStorePath: String,
+        @Value("\${KAFKA_CREDSTORE_PASSWORD}") credstorePassword: String,
+        @Value("\${CACHE_INVALIDERING_OFFSET_RESET:latest}") offsetReset: String,
+        environment: Environment,
+    ): ConcurrentKafkaListenerContainerFactory<String, String> {
+        val props = mutableMapOf<String, Any>()
+        props[ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG] = boostrapServer
+        // Cachene er tomme når applikasjonen starter, så eldre invalideringer trengs ikke.
+        // Lytteren tildeles partisjonene uten consumer group, så offset committes ikke
+        props[ConsumerConfig.AUTO_OFFSET_RESET_CONFIG] = offsetReset
+        props[ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG] = false
+        props[ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java
+        props[ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java
+        leggTilSsl(props, keystorePath, trustStorePath, credstorePassword, environment)
+        val factory = ConcurrentKafkaListenerContainerFactory<String, String>()
+        factory.setConsumerFactory(DefaultKafkaConsumerFactory(props))
+        factory.setContainerCustomizer { container: ConcurrentMessageListenerContainer<String, String> ->
+            container.containerProperties.setAuthExceptionRetryInterval(Duration.ofSeconds(10))
+        }
+        // En invalidering som ikke kan leses skal ikke stoppe de neste
+        factory.setCommonErrorHandler(DefaultErrorHandler(FixedBackOff(0, 0)))
+        return factory
+    }
+
+    @Bean
+    fun distribusjonJobbListenerContainerFactory(
+        @Value("\${KAFKA_BROKERS}") boostrapServer: String,
+        @Value("\${KAFKA_KEYSTORE_PATH}") keystorePath: String,
+        @Value("\${KAFKA_TRUSTSTORE_PATH}") trustStorePath: String,
+        @Value("\${KAFKA_CREDSTORE_PASSWORD}") credstorePassword: String,
+        environment: Environment,
+    ): ConcurrentKafkaListenerContainerFactory<String, String> {
+        val props = mutableMapOf<String, Any>()
+        props[ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG] = boostrapServer
+        // En ny instans skal også kjenne til jobber som ble bestilt før den startet. Eldre meldinger hoppes over av lytteren.
+        // Lytteren tildeles partisjonene uten consumer group, så offset committes ikke
+        props[ConsumerConfig.AUTO_OFFSET_RESET_CONFIG] = "earliest"
+        props[ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG] = false
+        props[ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java
+        props[ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java
+        leggTilSsl(props, keystorePath, trustStorePath, credstorePassword, environment)
+        val factory = ConcurrentKafkaListenerContainerFactory<String, String>()
+        factory.setConsumerFactory(DefaultKafkaConsumerFactory(props))
+        factory.setContainerCustomizer { container: ConcurrentMessageListenerContainer<String, String> ->
+            container.containerProperties.setAuthExceptionRetryInterval(Duration.ofSeconds(10))
+        }
+        // En status som ikke kan leses skal ikke stoppe de neste
+        factory.setCommonErrorHandler(DefaultErrorHandler(FixedBackOff(0, 0)))
+        return factory
+    }
+
+    @Bean
+    fun topicPartisjoner(
+        cacheInvalideringListenerContainerFactory: ConcurrentKafkaListenerContainerFactory<String, String>,
+    ): TopicPartisjoner = TopicPartisjoner(cacheInvalideringListenerContainerFactory.consumerFactory!!)
+
+    /**
+     * Hendelser på topicet for utsatt behandling kvitteres manuelt, slik at [HendelseListener.lesUtsattHendelse] kan vente på
+     * neste forsøk med nack uten at tråden blokkeres.
+     */
+    @Bean
+    fun utsattBehandlingListenerContainerFactory(
+        @Value("\${KAFKA_BROKERS}") boostrapServer: String,
+        @Value("\${KAFKA_KEYSTORE_PATH}") keystorePath: String,
+        @Value("\${KAFKA_TRUSTSTORE_PATH}") trustStorePath: String,
+        @Value("\${KAFKA_CREDSTORE_PASSWORD}") credstorePassword: String,
+        defaultErrorHandler: DefaultErrorHandler,
+        environment: Environment,
+    ): ConcurrentKafkaListenerContainerFactory<String, String> {
+        val props = mutableMapOf<String, Any>()
+        props[ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG] = boostrapServer
+        // Utsatte hendelser skal ikke hoppes over selv om consumer group er ny
+        props[ConsumerConfig.AUTO_OFFSET_RESET_CONFIG] = "earliest"
+        props[ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG] = false
+        props[ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java
+        props[ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java
+        leggTilSsl(props, keystorePath, trustStorePath, credstorePassword, environment)
+        val factory = ConcurrentKafkaListenerContainerFactory<String, String>()
+        factory.setConsumerFactory(DefaultKafkaConsumerFactory(props))
+        factory.containerProperties.ackMode = ContainerProperties.AckMode.MANUAL
+        factory.setContainerCustomizer { container: ConcurrentMessageListenerContainer<String, String> ->
+            container.containerProperties.setAuthExceptionRetryInterval(Duration.ofSeconds(10))
+        }
+        factory.setCommonErrorHandler(defaultErrorHandler)
+        return factory
+    }
+
+    private fun leggTilSsl(
+        props: MutableMap<String, Any>,
+        keystorePath: String,
+        trustStorePath: String,
+        credstorePassword: String,
+        environment: Environment,
+    ) {
         if (environment.activeProfiles.none { it.contains(BidragDokumentArkivConfig.PROFILE_KAFKA_TEST) }) {
             props[CommonClientConfigs.SECURITY_PROTOCOL_CONFIG] = "SSL"
             props[SslConfigs.SSL_TRUSTSTORE_LOCATION_CONFIG] = trustStorePath
@@ -127,10 +266,52 @@ class BidragDokumentArkivKafkaConfig {
             props[SslConfigs.SSL_KEYSTORE_TYPE_CONFIG] = "PKCS12"
             props[SslConfigs.SSL_KEYSTORE_PASSWORD_CONFIG] = credstorePassword
         }
-        return DefaultKafkaConsumerFactory(props)
     }
 
     companion object {
+        const val JOURNALFOERING_FILTRERING_COUNTER_NAME = "joark_hendelse_filtrering"
         private val LOGGER = LoggerFactory.getLogger(HendelseListener::class.java)
+
+        fun backOff(maxRetry: Int): ExponentialBackOff {
+            // Max retry should not be set in production
+            val backoffPolicy =
+                if (maxRetry == -1) ExponentialBackOff() else ExponentialBackOffWithMaxRetries(maxRetry)
+            backoffPolicy.multiplier = 2.0
+            backoffPolicy.maxInterval = 1800000L // 30 mins
+            return backoffPolicy
+        }
+
+        /**
+         * Filtrerer bort [FiltrertJournalfoeringHendelse]. Journalposten fjernes fra den lokale cachen også for disse hendelsene,
+         * siden journalposten kan være cachet selv om hendelsen ikke gjelder bidrag. Det sendes ikke invalidering til de andre
+         * instansene, siden nesten alle hendelsene på topicet filtreres bort og journalpostene sjelden er cachet. Levetiden til
+         * cachen begrenser hvor gammel journalposten kan være der.
+         */
+        fun journalfoeringFilter(journalpostCache: JournalpostCache, meterRegistry: MeterRegistry): RecordFilterStrategy<Any, Any> {
+            val filtrert = meterRegistry.counter(JOURNALFOERING_FILTRERING_COUNTER_NAME, "resultat", "filtrert")
+            val behandlet = meterRegistry.counter(JOURNALFOERING_FILTRERING_COUNTER_NAME, "resultat", "behandlet")
+            return RecordFilterStrategy { record ->
+                val hendelse = record.value()
+                if (hendelse is FiltrertJournalfoeringHendelse) {
+                    journalpostCache.fjernLokalt(hendelse.journalpostId)
+                    filtrert.increment()
+                    true
+                } else {
+                    behandlet.increment()
+                    false
+                }
+            }
+        }
+
+        /**
+         * Setter opp containeren for [NokkelordnetBehandler]. Med asyncAcks committes offset bare opp til meldingen der alle
+         * meldingene før er kvittert, og consumeren pauses til alle meldingene fra forrige poll er kvittert. Antall meldinger
+         * under behandling begrenses derfor av [maksUbehandlede] per consumer.
+         */
+        fun nokkelordnetBehandling(containerProperties: ContainerProperties, maksUbehandlede: Int) {
+            containerProperties.ackMode = ContainerProperties.AckMode.MANUAL
+            containerProperties.isAsyncAcks = true
+            containerProperties.kafkaConsumerProperties[ConsumerConfig.MAX_POLL_RECORDS_CONFIG] = maksUbehandlede.toString()
+        }
     }
 }
@@ -0,0 +1,88 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivConfig
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.cache.CacheManager
+import org.springframework.context.annotation.Profile
+import org.springframework.kafka.annotation.KafkaListener
+import org.springframework.kafka.annotation.TopicPartition
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.stereotype.Service
+import tools.jackson.databind.json.JsonMapper
+import java.time.Duration
+import java.util.UUID
+
+/**
+ * Sender beskjed til de andre instansene av applikasjonen når en verdi i en cache er endret, slik at de fjerner verdien fra sin
+ * egen cache. Meldingene har cachenavn og nøkkel som kafka-nøkkel, så topicet kan være compacted. Hver instans leser alle
+ * partisjonene i topicet uten consumer group, se [TopicPartisjoner], og hopper over sine egne meldinger.
+ *
+ * Forsinkelsen fra meldingen ble sendt til den er lest måles med [CACHE_INVALIDERING_FORSINKELSE_TIMER_NAME].
+ */
+@Service
+@Profile(BidragDokumentArkivConfig.PROFILE_KAFKA_TEST, BidragDokumentArkivConfig.PROFILE_LIVE)
+class CacheInvalidering(
+    private val kafkaTemplate: KafkaTemplate<String, String>,
+    private val jsonMapper: JsonMapper,
+    private val journalpostCache: JournalpostCache,
+    private val cacheManager: CacheManager,
+    @Value("\${TOPIC_CACHE_INVALIDERING}") private val topic: String,
+    private val meterRegistry: MeterRegistry,
+) {
+    private val avsender = UUID.randomUUID().toString()
+    private val forsinkelse: Timer = Timer.builder(CACHE_INVALIDERING_FORSINKELSE_TIMER_NAME)
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+
+    init {
+        journalpostCache.leggTilInvalideringslytter { publiser(JournalpostCache.JOURNALPOST_CACHE, it.toString()) }
+    }
+
+    fun publiser(cache: String, nokkel: String) {
+        try {
+            val melding = jsonMapper.writeValueAsString(CacheInvalideringMelding(cache, nokkel, avsender))
+            kafkaTemplate.send(topic, "$cache:$nokkel", melding)?.whenComplete { _, e ->
+                if (e != null) LOGGER.warn("Kunne ikke sende invalidering av $nokkel i $cache", e)
+            }
+        } catch (e: Exception) {
+            // Endringen er allerede gjort, så de andre instansene får heller gammel verdi til levetiden er ute
+            LOGGER.warn("Kunne ikke sende invalidering av $nokkel i $cache", e)
+        }
+    }
+
+    @KafkaListener(
+        containerFactory = "cacheInvalideringListenerContainerFactory",
+        topicPartitions = [
+            TopicPartition(
+                topic = "\${TOPIC_CACHE_INVALIDERING}",
+                partitions = ["#{@topicPartisjoner.alle('\${TOPIC_CACHE_INVALIDERING}')}"],
+            ),
+        ],
+    )
+    fun lesInvalidering(consumerRecord: ConsumerRecord<String?, String?>) {
+        val melding = jsonMapper.readValue(consumerRecord.value(), CacheInvalideringMelding::class.java)
+        forsinkelse.record(Duration.ofMillis(maxOf(0, System.currentTimeMillis() - consumerRecord.timestamp())))
+        if (melding.avsender == avsender) return
+        LOGGER.debug("Fjerner {} fra {} etter endring i en annen instans", melding.nokkel, melding.cache)
+        meterRegistry.counter(CACHE_INVALIDERING_COUNTER_NAME, "cache", melding.cache).increment()
+        if (melding.cache == JournalpostCache.JOURNALPOST_CACHE) {
+            journalpostCache.fjernLokalt(melding.nokkel.toLongOrNull())
+        } else {
+            cacheManager.getCache(melding.cache)?.evict(melding.nokkel)
+        }
+    }
+
+    companion object {
+        const val CACHE_INVALIDERING_FORSINKELSE_TIMER_NAME = "cache_invalidering_forsinkelse"
+        const val CACHE_INVALIDERING_COUNTER_NAME = "cache_invalidering"
+        private val LOGGER = LoggerFactory.getLogger(CacheInvalidering::class.java)
+    }
+}
+
+data class CacheInvalideringMelding(val cache: String, val nokkel: String, val avsender: String)
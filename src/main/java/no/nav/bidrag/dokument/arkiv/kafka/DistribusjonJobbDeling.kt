@@ -0,0 +1,74 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivConfig
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbDto
+import no.nav.bidrag.dokument.arkiv.service.DistribusjonJobbService
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.context.annotation.Profile
+import org.springframework.kafka.annotation.KafkaListener
+import org.springframework.kafka.annotation.TopicPartition
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.stereotype.Service
+import tools.jackson.databind.json.JsonMapper
+import java.time.Duration
+import java.util.UUID
+
+/**
+ * Deler statusen til distribusjonsjobbene mellom instansene av applikasjonen, slik at statusen kan hentes fra en annen instans
+ * enn den som kjører jobben. Hver endring sendes med jobbId som kafka-nøkkel, så topicet kan være compacted. En jobb som er
+ * fjernet sendes som tombstone. Hver instans leser alle partisjonene i topicet fra starten uten consumer group, se
+ * [TopicPartisjoner], og hopper over sine egne meldinger og meldinger som er eldre enn levetiden til jobbene.
+ */
+@Service
+@Profile(BidragDokumentArkivConfig.PROFILE_KAFKA_TEST, BidragDokumentArkivConfig.PROFILE_LIVE)
+class DistribusjonJobbDeling(
+    private val kafkaTemplate: KafkaTemplate<String, String>,
+    private val jsonMapper: JsonMapper,
+    private val distribusjonJobbService: DistribusjonJobbService,
+    @Value("\${TOPIC_DISTRIBUSJON_JOBB}") private val topic: String,
+    @Value("\${DISTRIBUSJON_JOBB_LEVETID:PT1H}") private val levetid: Duration,
+) {
+    private val avsender = UUID.randomUUID().toString()
+
+    init {
+        distribusjonJobbService.leggTilStatuslytter { jobbId, jobb -> publiser(jobbId, jobb) }
+    }
+
+    fun publiser(jobbId: String, jobb: DistribusjonJobbDto?) {
+        try {
+            val melding = jobb?.let { jsonMapper.writeValueAsString(DistribusjonJobbMelding(it, avsender)) }
+            kafkaTemplate.send(topic, jobbId, melding)?.whenComplete { _, e ->
+                if (e != null) LOGGER.warn("Kunne ikke dele status for distribusjonsjobb $jobbId", e)
+            }
+        } catch (e: Exception) {
+            // Jobben kjøres uansett, så de andre instansene finner bare ikke statusen
+            LOGGER.warn("Kunne ikke dele status for distribusjonsjobb $jobbId", e)
+        }
+    }
+
+    @KafkaListener(
+        containerFactory = "distribusjonJobbListenerContainerFactory",
+        topicPartitions = [
+            TopicPartition(
+                topic = "\${TOPIC_DISTRIBUSJON_JOBB}",
+                partitions = ["#{@topicPartisjoner.alle('\${TOPIC_DISTRIBUSJON_JOBB}')}"],
+            ),
+        ],
+    )
+    fun lesStatus(consumerRecord: ConsumerRecord<String?, String?>) {
+        val jobbId = consumerRecord.key() ?: return
+        if (System.currentTimeMillis() - consumerRecord.timestamp() > levetid.toMillis()) return
+        val melding = consumerRecord.value()?.let { jsonMapper.readValue(it, DistribusjonJobbMelding::class.java) }
+        if (melding?.avsender == avsender) return
+        LOGGER.debug("Lagrer status for distribusjonsjobb {} fra en annen instans", jobbId)
+        distribusjonJobbService.lagreFraAnnenInstans(jobbId, melding?.jobb)
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(DistribusjonJobbDeling::class.java)
+    }
+}
+
+data class DistribusjonJobbMelding(val jobb: DistribusjonJobbDto, val avsender: String)
@@ -1,15 +1,20 @@
 package no.nav.bidrag.dokument.arkiv.kafka
 
 import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivConfig
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
 import no.nav.bidrag.dokument.arkiv.dto.JournalpostKanal
+import no.nav.bidrag.dokument.arkiv.kafka.dto.OppgaveKafkaHendelse
+import no.nav.bidrag.dokument.arkiv.kafka.dto.UtsattHendelseType
 import no.nav.bidrag.dokument.arkiv.model.JournalpostTema
 import no.nav.joarkjournalfoeringhendelser.JournalfoeringHendelseRecord
 import org.apache.kafka.clients.consumer.ConsumerRecord
 import org.slf4j.LoggerFactory
 import org.springframework.context.annotation.Profile
 import org.springframework.kafka.annotation.KafkaListener
-import org.springframework.messaging.handler.annotation.Payload
+import org.springframework.kafka.support.Acknowledgment
 import org.springframework.stereotype.Service
+import java.time.Duration
+import java.time.Instant
 
 @Service
 @Profile(BidragDokumentArkivConfig.PROFILE_KAFKA_TEST, BidragDokumentArkivConfig.PROFILE_LIVE)
@@ -17,28 +22,31 @@ class HendelseListener(
     private val behandleJournalforingHendelseService: BehandleJournalforingHendelseService,
     private val behandleOppgaveHendelseService: BehandleOppgaveHendelseService,
     private val jsonMapperService: JsonMapperService,
+    private val journalpostCache: JournalpostCache,
+    private val utsattBehandling: UtsattBehandling,
 ) {
-    @KafkaListener(
-        containerFactory = "oppgaveKafkaListenerContainerFactory",
-        groupId = "\${NAIS_APP_NAME}",
-        topics = ["\${TOPIC_OPPGAVE_HENDELSE}"],
-    )
+    /**
+     * Leses fra topicet av [OppgaveHendelseLytter], som kaller denne for hver hendelse i en batch.
+     */
     fun lesOppgaveOpprettetHendelse(consumerRecord: ConsumerRecord<String?, String?>) {
+        val hendelse = consumerRecord.value()!!
+        if (!jsonMapperService.erReturOppgaveOpprettetForBidrag(hendelse)) return
         val oppgaveOpprettetHendelse =
-            jsonMapperService.mapOppgaveHendelse(consumerRecord.value()!!)
+            jsonMapperService.mapOppgaveHendelse(hendelse)
         if (oppgaveOpprettetHendelse.erTemaBIDEllerFAR() &&
             oppgaveOpprettetHendelse.erReturOppgave() &&
             oppgaveOpprettetHendelse.erOppgaveOpprettetHendelse
         ) {
             LOGGER.info("Mottatt retur oppgave opprettet hendelse {}", oppgaveOpprettetHendelse)
-            behandleOppgaveHendelseService.behandleReturOppgaveOpprettetHendelse(
-                oppgaveOpprettetHendelse,
-            )
+            behandleReturOppgaveOpprettetHendelse(hendelse, oppgaveOpprettetHendelse, 0)
         }
     }
 
-    @KafkaListener(groupId = "\${NAIS_APP_NAME}", topics = ["\${TOPIC_JOURNALFOERING}"])
-    fun listenJournalforingHendelse(@Payload journalfoeringHendelseRecord: JournalfoeringHendelseRecord) {
+    /**
+     * Leses fra topicet av [JournalforingHendelseLytter], som kaller denne fra en egen tråd per journalpost.
+     */
+    fun listenJournalforingHendelse(journalfoeringHendelseRecord: JournalfoeringHendelseRecord) {
+        journalpostCache.fjern(journalfoeringHendelseRecord.journalpostId)
         val journalpostTema = JournalpostTema(journalfoeringHendelseRecord)
         if (!journalpostTema.erOmhandlingAvBidrag()) {
             LOGGER.debug("JournalpostTema omhandler ikke bidrag")
@@ -49,11 +57,60 @@ class HendelseListener(
             return
         }
         LOGGER.info("Mottok journalføringshendelse {}", journalfoeringHendelseRecord)
-        behandleJournalforingHendelseService.behandleJournalforingHendelse(
-            journalfoeringHendelseRecord,
-        )
+        behandleJournalforingHendelse(journalfoeringHendelseRecord, 0)
+    }
+
+    /**
+     * Leser hendelser som er utsatt av [UtsattBehandling]. Er det ikke tid for neste forsøk ennå, leses hendelsen på nytt når
+     * ventetiden er ute. Consumeren pauses i mellomtiden, uten at tråden venter.
+     */
+    @KafkaListener(
+        containerFactory = "utsattBehandlingListenerContainerFactory",
+        groupId = "\${NAIS_APP_NAME}-utsatt-behandling",
+        topics = ["\${TOPIC_UTSATT_BEHANDLING}"],
+    )
+    fun lesUtsattHendelse(consumerRecord: ConsumerRecord<String?, String?>, acknowledgment: Acknowledgment) {
+        val utsattHendelse = utsattBehandling.les(consumerRecord.value()!!)
+        val ventetid = Duration.between(Instant.now(), utsattHendelse.behandlesEtter)
+        if (ventetid.isPositive) {
+            acknowledgment.nack(ventetid)
+            return
+        }
+        LOGGER.info("Prøver {} med nøkkel {} på nytt, forsøk {}", utsattHendelse.type, utsattHendelse.nokkel, utsattHendelse.forsok + 1)
+        when (utsattHendelse.type) {
+            UtsattHendelseType.JOURNALFOERING -> {
+                val record = UtsattBehandling.lesJournalfoeringHendelse(utsattHendelse.hendelse)
+                journalpostCache.fjernLokalt(record.journalpostId)
+                behandleJournalforingHendelse(record, utsattHendelse.forsok, utsattHendelse.id)
+            }
+
+            UtsattHendelseType.RETUR_OPPGAVE -> behandleReturOppgaveOpprettetHendelse(
+                utsattHendelse.hendelse,
+                jsonMapperService.mapOppgaveHendelse(utsattHendelse.hendelse),
+                utsattHendelse.forsok,
+                utsattHendelse.id,
+            )
+        }
+        acknowledgment.acknowledge()
     }
 
+    private fun behandleJournalforingHendelse(record: JournalfoeringHendelseRecord, forsok: Int, id: String? = null) = utsattBehandling.behandle(
+        UtsattHendelseType.JOURNALFOERING,
+        record.journalpostId.toString(),
+        forsok,
+        hendelse = { UtsattBehandling.skrivJournalfoeringHendelse(record) },
+        vedBruktOpp = { behandleJournalforingHendelseService.behandleJournalforingHendelse(record, true) },
+        id = id,
+    ) { behandleJournalforingHendelseService.behandleJournalforingHendelse(record, false) }
+
+    private fun behandleReturOppgaveOpprettetHendelse(hendelse: String, oppgaveHendelse: OppgaveKafkaHendelse, forsok: Int, id: String? = null) = utsattBehandling.behandle(
+        UtsattHendelseType.RETUR_OPPGAVE,
+        oppgaveHendelse.oppgaveId.toString(),
+        forsok,
+        hendelse = { hendelse },
+        id = id,
+    ) { behandleOppgaveHendelseService.behandleReturOppgaveOpprettetHendelse(oppgaveHendelse) }
+
     private fun erOpprettetAvNKS(record: JournalfoeringHendelseRecord): Boolean = JournalpostKanal.NAV_NO_CHAT.name == record.mottaksKanal
 
     companion object {
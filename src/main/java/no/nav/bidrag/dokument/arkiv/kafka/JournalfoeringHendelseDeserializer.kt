@@ -0,0 +1,72 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import io.confluent.kafka.serializers.KafkaAvroDeserializer
+import no.nav.bidrag.dokument.arkiv.dto.JournalpostKanal
+import no.nav.bidrag.dokument.arkiv.model.JournalpostTema
+import org.apache.avro.Schema
+import org.apache.avro.generic.GenericDatumReader
+import org.apache.avro.generic.GenericRecord
+import org.apache.avro.io.DecoderFactory
+import org.apache.kafka.common.header.Headers
+import org.slf4j.LoggerFactory
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Avgjør om en journalføringshendelse er relevant før den deserialiseres. Bare journalpostId, temaGammelt, temaNytt og
+ * mottaksKanal leses, med et projeksjonsskjema laget fra skjemaet hendelsen er skrevet med. Hendelser som ikke gjelder bidrag
+ * eller er opprettet av NKS blir [FiltrertJournalfoeringHendelse], som containeren filtrerer bort og kvitterer. Resten
+ * deserialiseres som vanlig.
+ *
+ * Kan ikke hendelsen leses med projeksjonen, deserialiseres den som vanlig, slik at feilen håndteres på samme måte som før.
+ */
+class JournalfoeringHendelseDeserializer : KafkaAvroDeserializer() {
+    private val projeksjonslesere = ConcurrentHashMap<Int, GenericDatumReader<GenericRecord>>()
+
+    override fun deserialize(topic: String?, bytes: ByteArray?): Any? = filtrer(bytes) ?: super.deserialize(topic, bytes)
+
+    override fun deserialize(topic: String?, headers: Headers?, bytes: ByteArray?): Any? = filtrer(bytes) ?: super.deserialize(topic, headers, bytes)
+
+    /**
+     * Gir [FiltrertJournalfoeringHendelse] hvis hendelsen ikke er relevant, ellers null.
+     */
+    private fun filtrer(bytes: ByteArray?): FiltrertJournalfoeringHendelse? {
+        if (bytes == null || bytes.size < HODE_STORRELSE || bytes[0] != MAGIC_BYTE) return null
+        return try {
+            val leser = projeksjonslesere.computeIfAbsent(ByteBuffer.wrap(bytes, 1, 4).int) { skjemaId ->
+                val skjema = schemaRegistry.getSchemaBySubjectAndId(null, skjemaId).rawSchema() as Schema
+                GenericDatumReader(skjema, projeksjon(skjema))
+            }
+            val felter = leser.read(null, DecoderFactory.get().binaryDecoder(bytes, HODE_STORRELSE, bytes.size - HODE_STORRELSE, null))
+            val relevant = JournalpostTema.erOmhandlingAvBidrag(felter.tekst("temaGammelt"), felter.tekst("temaNytt")) &&
+                felter.tekst("mottaksKanal") != JournalpostKanal.NAV_NO_CHAT.name
+            if (relevant) null else FiltrertJournalfoeringHendelse(felter.tekst("journalpostId")?.toLongOrNull())
+        } catch (e: Exception) {
+            LOGGER.warn("Kunne ikke lese journalføringshendelse med projeksjonsskjema. Deserialiserer hele hendelsen", e)
+            null
+        }
+    }
+
+    private fun projeksjon(skjema: Schema): Schema = Schema.createRecord(
+        skjema.name,
+        skjema.doc,
+        skjema.namespace,
+        false,
+        skjema.fields.filter { it.name() in PROJEKSJON_FELTER }.map { Schema.Field(it, it.schema()) },
+    )
+
+    private fun GenericRecord.tekst(felt: String): String? = if (schema.getField(felt) != null) get(felt)?.toString() else null
+
+    companion object {
+        private const val MAGIC_BYTE: Byte = 0
+        private const val HODE_STORRELSE = 5
+        private val PROJEKSJON_FELTER = setOf("journalpostId", "temaGammelt", "temaNytt", "mottaksKanal")
+        private val LOGGER = LoggerFactory.getLogger(JournalfoeringHendelseDeserializer::class.java)
+    }
+}
+
+/**
+ * Hendelse som ikke er relevant for bidrag. Filtreres bort av containeren uten at hendelsen er deserialisert. Bare
+ * journalpostId er lest, slik at journalposten kan fjernes fra cachen.
+ */
+data class FiltrertJournalfoeringHendelse(val journalpostId: Long?)
@@ -0,0 +1,46 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import io.micrometer.core.instrument.MeterRegistry
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivConfig
+import no.nav.joarkjournalfoeringhendelser.JournalfoeringHendelseRecord
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.context.annotation.Profile
+import org.springframework.kafka.annotation.KafkaListener
+import org.springframework.kafka.support.Acknowledgment
+import org.springframework.messaging.handler.annotation.Payload
+import org.springframework.stereotype.Service
+
+/**
+ * Leser journalføringshendelser og behandler dem i JOURNALFOERING_PARALLELITET tråder, med journalpostId som nøkkel slik at
+ * hendelsene for en journalpost behandles i rekkefølge. Hver hendelse behandles av [HendelseListener.listenJournalforingHendelse].
+ * Consumeren venter med neste poll til alle hendelsene fra forrige poll er kvittert, så det er aldri mer enn
+ * JOURNALFOERING_MAKS_UBEHANDLEDE hendelser under behandling.
+ */
+@Service
+@Profile(BidragDokumentArkivConfig.PROFILE_KAFKA_TEST, BidragDokumentArkivConfig.PROFILE_LIVE)
+class JournalforingHendelseLytter(
+    hendelseListener: HendelseListener,
+    @Value("\${JOURNALFOERING_PARALLELITET}") parallelitet: Int,
+    @Value("\${KAFKA_MAX_RETRY:-1}") maxRetry: Int,
+    meterRegistry: MeterRegistry,
+) : AutoCloseable {
+    private val behandler = NokkelordnetBehandler<JournalfoeringHendelseRecord>(
+        "journalfoering",
+        parallelitet,
+        BidragDokumentArkivKafkaConfig.backOff(maxRetry),
+        meterRegistry,
+    ) { hendelseListener.listenJournalforingHendelse(it) }
+
+    @KafkaListener(
+        containerFactory = "journalfoeringListenerContainerFactory",
+        groupId = "\${NAIS_APP_NAME}",
+        topics = ["\${TOPIC_JOURNALFOERING}"],
+    )
+    fun lesJournalforingHendelse(@Payload journalfoeringHendelseRecord: JournalfoeringHendelseRecord, acknowledgment: Acknowledgment) {
+        behandler.behandle(journalfoeringHendelseRecord.journalpostId, journalfoeringHendelseRecord, acknowledgment)
+    }
+
+    override fun close() {
+        behandler.close()
+    }
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.ObjectMapper
 import no.nav.bidrag.dokument.arkiv.kafka.dto.OppgaveKafkaHendelse
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
+import tools.jackson.core.JsonParser
+import tools.jackson.core.JsonToken
 import tools.jackson.databind.json.JsonMapper
 
 @Service
@@ -11,6 +13,9 @@ class JsonMapperService(private val objectMapper: JsonMapper) {
     companion object {
         @JvmStatic
         private val LOGGER = LoggerFactory.getLogger(JsonMapperService::class.java)
+        private val RETUR_TEMAER = setOf("BID", "FAR")
+        private const val RETUR_OPPGAVETYPE = "RETUR"
+        private val PRESJEKK_FELTER = setOf("hendelsestype", "tema", "oppgavetype")
     }
 
     fun mapOppgaveHendelse(hendelse: String): OppgaveKafkaHendelse = try {
@@ -18,4 +23,58 @@ class JsonMapperService(private val objectMapper: JsonMapper) {
     } finally {
         LOGGER.debug("Leser hendelse: {}", hendelse)
     }
+
+    /**
+     * Leser bare hendelsestype, tema og oppgavetype fra hendelsen uten å binde den til [OppgaveKafkaHendelse]. Lesingen stopper
+     * så snart et av feltene ikke passer, så de fleste hendelsene på oppgave-topicet leses bare delvis.
+     *
+     * Gir samme svar som [OppgaveKafkaHendelse.erOppgaveOpprettetHendelse], [OppgaveKafkaHendelse.erTemaBIDEllerFAR] og
+     * [OppgaveKafkaHendelse.erReturOppgave] for hendelser som kan bindes.
+     */
+    fun erReturOppgaveOpprettetForBidrag(hendelse: String): Boolean {
+        val funnet = mutableSetOf<String>()
+        objectMapper.createParser(hendelse).use { parser ->
+            if (parser.nextToken() != JsonToken.START_OBJECT) return false
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                val felt = parser.currentName()
+                parser.nextToken()
+                val passer = when (felt) {
+                    "hendelse" -> lesObjekt(parser) { navn ->
+                        navn != "hendelsestype" ||
+                            (parser.string == OppgaveKafkaHendelse.Hendelse.Hendelsestype.OPPGAVE_OPPRETTET.name).also { funnet.add(navn) }
+                    }
+
+                    "oppgave" -> lesObjekt(parser) { navn -> navn != "kategorisering" || lesKategorisering(parser, funnet) }
+
+                    else -> true
+                }
+                if (!passer) return false
+                parser.skipChildren()
+            }
+        }
+        return funnet.containsAll(PRESJEKK_FELTER)
+    }
+
+    private fun lesKategorisering(parser: JsonParser, funnet: MutableSet<String>): Boolean = lesObjekt(parser) { navn ->
+        when (navn) {
+            "tema" -> (parser.string in RETUR_TEMAER).also { funnet.add(navn) }
+            "oppgavetype" -> (parser.string == RETUR_OPPGAVETYPE).also { funnet.add(navn) }
+            else -> true
+        }
+    }
+
+    /**
+     * Går gjennom feltene i objektet parseren står på, og stopper ved første felt der [passer] gir false. Parseren står på verdien
+     * til feltet når [passer] kalles, og verdier som ikke er lest hoppes over. Er verdien ikke et objekt, hoppes den over.
+     */
+    private fun lesObjekt(parser: JsonParser, passer: (String) -> Boolean): Boolean {
+        if (parser.currentToken() != JsonToken.START_OBJECT) return true
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            val navn = parser.currentName()
+            parser.nextToken()
+            if (!passer(navn)) return false
+            parser.skipChildren()
+        }
+        return true
+    }
 }
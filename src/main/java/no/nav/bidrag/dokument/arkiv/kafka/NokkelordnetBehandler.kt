@@ -0,0 +1,88 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Tags
+import no.nav.bidrag.dokument.arkiv.SECURE_LOGGER
+import org.slf4j.LoggerFactory
+import org.springframework.kafka.support.Acknowledgment
+import org.springframework.util.backoff.BackOff
+import org.springframework.util.backoff.BackOffExecution
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Behandler kafka-meldinger parallelt i [parallelitet] køer. Meldinger med samme nøkkel havner alltid i samme kø og behandles
+ * i rekkefølgen de ble lest. Hver melding kvitteres når den er ferdig behandlet. Containeren må derfor være satt opp med
+ * [BidragDokumentArkivKafkaConfig.nokkelordnetBehandling], slik at offset bare committes opp til meldingen der alle meldingene
+ * før er kvittert.
+ *
+ * Feiler behandlingen prøves den på nytt i samme kø etter [backOff], så senere meldinger med samme nøkkel venter. Når forsøkene
+ * er brukt opp logges meldingen og kvitteres, slik som i [BidragDokumentArkivKafkaConfig.defaultErrorHandler].
+ */
+class NokkelordnetBehandler<T>(
+    private val navn: String,
+    parallelitet: Int,
+    private val backOff: BackOff,
+    meterRegistry: MeterRegistry,
+    private val behandle: (T) -> Unit,
+) : AutoCloseable {
+    private val koer: List<ExecutorService> = List(parallelitet) {
+        Executors.newSingleThreadExecutor(Thread.ofVirtual().name("$navn-$it").factory())
+    }
+    private val ubehandlede = AtomicInteger()
+    private val feilet: Counter = meterRegistry.counter(NOKKELORDNET_FEILET_COUNTER_NAME, "behandler", navn)
+
+    init {
+        meterRegistry.gauge(NOKKELORDNET_UBEHANDLEDE_GAUGE_NAME, Tags.of("behandler", navn), ubehandlede)
+    }
+
+    fun behandle(nokkel: Any?, melding: T, acknowledgment: Acknowledgment) {
+        ubehandlede.incrementAndGet()
+        koer[Math.floorMod(nokkel.hashCode(), koer.size)].execute {
+            try {
+                if (behandleMedForsok(melding)) acknowledgment.acknowledge()
+            } finally {
+                ubehandlede.decrementAndGet()
+            }
+        }
+    }
+
+    /**
+     * Returnerer false hvis behandlingen ble avbrutt fordi applikasjonen stopper. Meldingen kvitteres da ikke, og leses på nytt.
+     */
+    private fun behandleMedForsok(melding: T): Boolean {
+        val forsok = backOff.start()
+        while (true) {
+            try {
+                behandle(melding)
+                return true
+            } catch (e: Exception) {
+                val ventetid = forsok.nextBackOff()
+                if (ventetid == BackOffExecution.STOP) {
+                    feilet.increment()
+                    SECURE_LOGGER.error("Behandling av melding i {} feilet etter siste forsøk. Melding som feilet: {}", navn, melding, e)
+                    return true
+                }
+                LOGGER.warn("Behandling av melding i {} feilet. Prøver igjen om {} ms", navn, ventetid, e)
+                try {
+                    Thread.sleep(ventetid)
+                } catch (_: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                    return false
+                }
+            }
+        }
+    }
+
+    override fun close() {
+        koer.forEach { it.shutdownNow() }
+    }
+
+    companion object {
+        const val NOKKELORDNET_UBEHANDLEDE_GAUGE_NAME = "kafka_nokkelordnet_ubehandlede"
+        const val NOKKELORDNET_FEILET_COUNTER_NAME = "kafka_nokkelordnet_feilet"
+        private val LOGGER = LoggerFactory.getLogger(NokkelordnetBehandler::class.java)
+    }
+}
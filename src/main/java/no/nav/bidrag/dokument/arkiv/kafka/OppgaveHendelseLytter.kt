@@ -0,0 +1,42 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivConfig
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.slf4j.LoggerFactory
+import org.springframework.context.annotation.Profile
+import org.springframework.kafka.annotation.KafkaListener
+import org.springframework.kafka.listener.BatchListenerFailedException
+import org.springframework.stereotype.Service
+
+/**
+ * Leser oppgavehendelser i batcher, slik at offset bare committes en gang per poll. Hver hendelse behandles av
+ * [HendelseListener.lesOppgaveOpprettetHendelse]. Feiler en hendelse, kastes [BatchListenerFailedException] med posisjonen
+ * til hendelsen. Feilhåndteringen committer da hendelsene før den, og prøver hendelsen på nytt før resten av batchen leses
+ * igjen, på samme måte som når hendelsene ble lest én og én.
+ */
+@Service
+@Profile(BidragDokumentArkivConfig.PROFILE_KAFKA_TEST, BidragDokumentArkivConfig.PROFILE_LIVE)
+class OppgaveHendelseLytter(private val hendelseListener: HendelseListener) {
+    @KafkaListener(
+        containerFactory = "oppgaveKafkaListenerContainerFactory",
+        groupId = "\${NAIS_APP_NAME}",
+        topics = ["\${TOPIC_OPPGAVE_HENDELSE}"],
+    )
+    fun lesOppgaveHendelser(consumerRecords: List<ConsumerRecord<String?, String?>>) {
+        consumerRecords.forEachIndexed { index, consumerRecord ->
+            if (consumerRecord.value() == null) {
+                LOGGER.warn("Oppgavehendelse på offset {} har ingen verdi og hoppes over", consumerRecord.offset())
+                return@forEachIndexed
+            }
+            try {
+                hendelseListener.lesOppgaveOpprettetHendelse(consumerRecord)
+            } catch (e: Exception) {
+                throw BatchListenerFailedException("Behandling av oppgavehendelse på offset ${consumerRecord.offset()} feilet", e, index)
+            }
+        }
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(OppgaveHendelseLytter::class.java)
+    }
+}
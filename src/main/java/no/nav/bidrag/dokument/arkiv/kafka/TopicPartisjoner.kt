@@ -0,0 +1,15 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import org.springframework.kafka.core.ConsumerFactory
+
+/**
+ * Finner partisjonene til et topic, for lyttere som tildeles alle partisjonene direkte i stedet for gjennom en consumer group.
+ * Brukes fra `@KafkaListener` som `#{@topicPartisjoner.alle('topic')}`. Slike lyttere committer ikke offset, så det blir ikke
+ * liggende igjen consumer groups etter instanser som er borte. Partisjonene finnes ved oppstart, så partisjoner som legges til
+ * senere leses først etter omstart.
+ */
+class TopicPartisjoner(private val consumerFactory: ConsumerFactory<*, *>) {
+    fun alle(topic: String): Array<String> = consumerFactory.createConsumer().use { consumer ->
+        consumer.partitionsFor(topic).map { it.partition().toString() }.toTypedArray()
+    }
+}
@@ -0,0 +1,141 @@
+package no.nav.bidrag.dokument.arkiv.kafka
+
+import io.micrometer.core.instrument.MeterRegistry
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivConfig
+import no.nav.bidrag.dokument.arkiv.kafka.dto.UtsattHendelse
+import no.nav.bidrag.dokument.arkiv.kafka.dto.UtsattHendelseType
+import no.nav.joarkjournalfoeringhendelser.JournalfoeringHendelseRecord
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.io.EncoderFactory
+import org.apache.avro.specific.SpecificDatumReader
+import org.apache.avro.specific.SpecificDatumWriter
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.context.annotation.Profile
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.stereotype.Service
+import tools.jackson.databind.json.JsonMapper
+import java.io.ByteArrayOutputStream
+import java.time.Duration
+import java.time.Instant
+import java.util.Base64
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Utsetter hendelser som ikke kan behandles ennå, uten at tråden eller partisjonen hendelsen ble lest fra venter. Hendelsen
+ * legges på topicet for utsatt behandling med tidspunktet den skal prøves igjen, og leses av
+ * [HendelseListener.lesUtsattHendelse]. Ventetiden øker for hvert forsøk, etter [UtsattHendelseType.ventetider].
+ *
+ * Hendelser med samme type og nøkkel behandles i den rekkefølgen de kom. Så lenge en hendelse venter på et nytt forsøk, legges
+ * senere hendelser med samme nøkkel bak den på topicet i stedet for å behandles, også når de leses fra topicet for utsatt
+ * behandling. Topicet har nøkkelen som kafka-nøkkel, så hendelsene leses i rekkefølgen de ble lagt dit.
+ *
+ * Hvilke hendelser som venter holdes i minnet. Utsettes en hendelse av én instans og leses av en annen, holder hver instans
+ * orden på hendelsene den selv ser. Hver ventende hendelse har en frist, som er summen av ventetidene som gjenstår pluss
+ * [VENTENDE_MARGIN], slik at en hendelse som er behandlet av en annen instans ikke holder igjen senere hendelser for alltid.
+ * Blir topicet for utsatt behandling liggende etter mer enn marginen, kan en senere hendelse derfor behandles før en tidligere.
+ *
+ * Hendelsen som utsettes er bare trygg når den er skrevet til topicet, så det ventes på sendingen før hendelsen regnes som
+ * behandlet. Svarer ikke kafka innen [sendTimeout], feiler behandlingen og hendelsen leses på nytt.
+ *
+ * Utsatte, vellykkede, oppbrukte og køede hendelser telles i [UTSATT_BEHANDLING_COUNTER_NAME].
+ */
+@Service
+@Profile(BidragDokumentArkivConfig.PROFILE_KAFKA_TEST, BidragDokumentArkivConfig.PROFILE_LIVE)
+class UtsattBehandling(
+    private val kafkaTemplate: KafkaTemplate<String, String>,
+    private val jsonMapper: JsonMapper,
+    @Value("\${TOPIC_UTSATT_BEHANDLING}") private val topic: String,
+    private val meterRegistry: MeterRegistry,
+    @Value("\${UTSATT_BEHANDLING_SEND_TIMEOUT:PT10S}") private val sendTimeout: Duration,
+) {
+    private val ventende = ConcurrentHashMap<String, Ventende>()
+
+    /**
+     * Kjører [behandle]. Feiler den med [UtsattHendelseType.utsettesVed], legges [hendelse] på topicet for et nytt forsøk.
+     * Når alle forsøkene er brukt opp kalles [vedBruktOpp] i stedet. Andre feil kastes videre.
+     *
+     * Venter en tidligere hendelse med samme type og nøkkel på et nytt forsøk, legges [hendelse] bak den på topicet uten at
+     * [behandle] kjøres. [id] er id-en til den utsatte hendelsen når den leses fra topicet for utsatt behandling.
+     */
+    fun behandle(
+        type: UtsattHendelseType,
+        nokkel: String,
+        forsok: Int,
+        hendelse: () -> String,
+        vedBruktOpp: () -> Unit = {},
+        id: String? = null,
+        behandle: () -> Unit,
+    ) {
+        val ventendeNokkel = "$type:$nokkel"
+        val foran = ventende[ventendeNokkel]?.takeIf { it.frist.isAfter(Instant.now()) }
+        if (foran != null && foran.id != id) {
+            send(UtsattHendelse(type, nokkel, hendelse(), forsok, Instant.now(), id ?: UUID.randomUUID().toString()))
+            tell(type, KOET)
+            LOGGER.info("Legger {} med nøkkel {} bak en tidligere hendelse som venter på nytt forsøk", type, nokkel)
+            return
+        }
+        try {
+            behandle()
+            ferdig(ventendeNokkel, id)
+            if (forsok > 0) tell(type, LYKTES)
+        } catch (e: Exception) {
+            if (!type.utsettesVed.isInstance(e)) throw e
+            val ventetid = type.ventetider.getOrNull(forsok)
+            if (ventetid == null) {
+                tell(type, BRUKT_OPP)
+                LOGGER.error("Utsatt behandling av {} med nøkkel {} feilet etter {} forsøk: {}", type, nokkel, forsok + 1, e.message)
+                vedBruktOpp()
+                ferdig(ventendeNokkel, id)
+                return
+            }
+            val utsatt = UtsattHendelse(type, nokkel, hendelse(), forsok + 1, Instant.now().plus(ventetid), id ?: UUID.randomUUID().toString())
+            val gjenstaendeVentetid = type.ventetider.drop(forsok + 1).fold(Duration.ZERO, Duration::plus)
+            ventende[ventendeNokkel] = Ventende(utsatt.id, utsatt.behandlesEtter.plus(gjenstaendeVentetid).plus(VENTENDE_MARGIN))
+            send(utsatt)
+            tell(type, PLANLAGT)
+            LOGGER.warn("Utsetter behandling av {} med nøkkel {} i {}: {}", type, nokkel, ventetid, e.message)
+        }
+    }
+
+    private fun send(utsatt: UtsattHendelse) {
+        kafkaTemplate.send(topic, utsatt.nokkel, jsonMapper.writeValueAsString(utsatt))?.get(sendTimeout.toMillis(), TimeUnit.MILLISECONDS)
+    }
+
+    private fun ferdig(ventendeNokkel: String, id: String?) {
+        if (id != null) ventende.computeIfPresent(ventendeNokkel) { _, foran -> foran.takeIf { it.id != id } }
+    }
+
+    private data class Ventende(val id: String, val frist: Instant)
+
+    fun les(melding: String): UtsattHendelse = jsonMapper.readValue(melding, UtsattHendelse::class.java)
+
+    private fun tell(type: UtsattHendelseType, resultat: String) {
+        meterRegistry.counter(UTSATT_BEHANDLING_COUNTER_NAME, "type", type.name, "resultat", resultat).increment()
+    }
+
+    companion object {
+        const val UTSATT_BEHANDLING_COUNTER_NAME = "utsatt_behandling"
+        const val PLANLAGT = "planlagt"
+        const val LYKTES = "lyktes"
+        const val BRUKT_OPP = "brukt_opp"
+        const val KOET = "koet"
+        val VENTENDE_MARGIN: Duration = Duration.ofMinutes(1)
+        private val LOGGER = LoggerFactory.getLogger(UtsattBehandling::class.java)
+
+        /**
+         * Journalføringshendelsen lagres som avro uten skjema-id, siden topicet for utsatt behandling ikke bruker skjemaregisteret.
+         */
+        fun skrivJournalfoeringHendelse(record: JournalfoeringHendelseRecord): String {
+            val ut = ByteArrayOutputStream()
+            val encoder = EncoderFactory.get().binaryEncoder(ut, null)
+            SpecificDatumWriter(JournalfoeringHendelseRecord::class.java).write(record, encoder)
+            encoder.flush()
+            return Base64.getEncoder().encodeToString(ut.toByteArray())
+        }
+
+        fun lesJournalfoeringHendelse(hendelse: String): JournalfoeringHendelseRecord = SpecificDatumReader(JournalfoeringHendelseRecord::class.java).read(null, DecoderFactory.get().binaryDecoder(Base64.getDecoder().decode(hendelse), null))
+    }
+}
@@ -0,0 +1,38 @@
+package no.nav.bidrag.dokument.arkiv.kafka.dto
+
+import no.nav.bidrag.dokument.arkiv.model.JournalfortJournalpostManglerJournalfortAvIdent
+import no.nav.bidrag.dokument.arkiv.model.JournalpostHarIkkeKommetIRetur
+import java.time.Duration
+import java.time.Instant
+import java.util.UUID
+import kotlin.reflect.KClass
+
+/**
+ * Hendelse som er lagt på topicet for utsatt behandling fordi den ikke kunne behandles ennå. [hendelse] er hendelsen slik
+ * [type] lagrer den, og [forsok] er antall forsøk som er gjort. [id] er den samme for alle forsøkene med samme hendelse.
+ */
+data class UtsattHendelse(
+    val type: UtsattHendelseType,
+    val nokkel: String,
+    val hendelse: String,
+    val forsok: Int,
+    val behandlesEtter: Instant,
+    val id: String = UUID.randomUUID().toString(),
+)
+
+/**
+ * Hvilke feil som gjør at en hendelse utsettes, og hvor lenge det ventes før hvert nytt forsøk.
+ */
+enum class UtsattHendelseType(val utsettesVed: KClass<out Exception>, val ventetider: List<Duration>) {
+    // Saksbehandlerident lagres på journalposten rett etter journalføringen
+    JOURNALFOERING(
+        JournalfortJournalpostManglerJournalfortAvIdent::class,
+        listOf(Duration.ofSeconds(2), Duration.ofSeconds(4)),
+    ),
+
+    // Returoppgave opprettes før journalpost retur attributter oppdateres
+    RETUR_OPPGAVE(
+        JournalpostHarIkkeKommetIRetur::class,
+        listOf(Duration.ofSeconds(1), Duration.ofSeconds(2), Duration.ofSeconds(4), Duration.ofSeconds(8)),
+    ),
+}
@@ -440,54 +440,45 @@ class AvvikService(
             journalpost.tema != null,
             AvvikDetaljException("Kan ikke trekke journalpost uten tilhørende fagområde"),
         )
-        knyttTilGenerellSak(avvikshendelseIntern, journalpost)
-        klargjorForFerdigstilling(journalpost)
+        // Generell sak, avsender og begrunnelse lagres i samme oppdatering før journalposten ferdigstilles
+        endreJournalpostService.lagreJournalpost(avvikshendelseIntern.journalpostId) {
+            +knyttTilGenerellSak(avvikshendelseIntern, journalpost)
+            +settAvsenderNavnLikBrukernavnHvisMangler(journalpost)
+            +leggTilBegrunnelsePaaTittel(avvikshendelseIntern, journalpost)
+        }
         dokarkivConsumer.ferdigstill(
             FerdigstillJournalpostRequest(
                 avvikshendelseIntern.journalpostId,
                 avvikshendelseIntern.saksbehandlersEnhet!!,
             ),
         )
-        leggTilBegrunnelsePaaTittel(avvikshendelseIntern, journalpost)
         feilregistrerSakstilknytning(avvikshendelseIntern.journalpostId)
     }
 
-    private fun klargjorForFerdigstilling(journalpost: Journalpost) {
-        settAvsenderNavnLikBrukernavnHvisMangler(journalpost)
+    private fun settAvsenderNavnLikBrukernavnHvisMangler(journalpost: Journalpost): LagreAvsenderNavnRequest? {
+        if (journalpost.harAvsenderMottaker()) return null
+        val brukerNavn = personConsumer.hentPerson(journalpost.bruker!!.id)
+            .orElseThrow { UgyldigAvvikException("Fant ikke person") }
+            .navn
+        journalpost.avsenderMottaker = AvsenderMottaker(brukerNavn, null, null)
+        return LagreAvsenderNavnRequest(
+            journalpost.hentJournalpostIdLong()!!,
+            brukerNavn!!,
+        )
     }
 
-    fun settAvsenderNavnLikBrukernavnHvisMangler(journalpost: Journalpost) {
-        if (!journalpost.harAvsenderMottaker()) {
-            val brukerNavn = personConsumer.hentPerson(journalpost.bruker!!.id)
-                .orElseThrow { UgyldigAvvikException("Fant ikke person") }
-                .navn
-            dokarkivConsumer.endre(
-                LagreAvsenderNavnRequest(
-                    journalpost.hentJournalpostIdLong()!!,
-                    brukerNavn!!,
-                ),
-            )
-            journalpost.avsenderMottaker = AvsenderMottaker(brukerNavn, null, null)
-        }
-    }
+    private fun knyttTilGenerellSak(avvikshendelseIntern: AvvikshendelseIntern, journalpost: Journalpost) = avvikshendelseIntern.toKnyttTilGenerellSakRequest(
+        journalpost.tema!!,
+        journalpost.bruker!!,
+    )
 
-    fun knyttTilGenerellSak(avvikshendelseIntern: AvvikshendelseIntern, journalpost: Journalpost) {
-        oppdater(
-            avvikshendelseIntern.toKnyttTilGenerellSakRequest(
-                journalpost.tema!!,
-                journalpost.bruker!!,
-            ),
+    private fun leggTilBegrunnelsePaaTittel(avvikshendelseIntern: AvvikshendelseIntern, journalpost: Journalpost): OppdaterJournalpostRequest? {
+        if (Strings.isEmpty(avvikshendelseIntern.beskrivelse)) return null
+        validateTrue(
+            avvikshendelseIntern.beskrivelse!!.length < 100,
+            AvvikDetaljException("Beskrivelse kan ikke være lengre enn 100 tegn"),
         )
-    }
-
-    fun leggTilBegrunnelsePaaTittel(avvikshendelseIntern: AvvikshendelseIntern, journalpost: Journalpost?) {
-        if (Strings.isNotEmpty(avvikshendelseIntern.beskrivelse)) {
-            validateTrue(
-                avvikshendelseIntern.beskrivelse!!.length < 100,
-                AvvikDetaljException("Beskrivelse kan ikke være lengre enn 100 tegn"),
-            )
-            oppdater(avvikshendelseIntern.toLeggTilBegrunnelsePaaTittelRequest(journalpost!!))
-        }
+        return avvikshendelseIntern.toLeggTilBegrunnelsePaaTittelRequest(journalpost)
     }
 
     fun feilregistrerSakstilknytning(journalpostId: Long?) {
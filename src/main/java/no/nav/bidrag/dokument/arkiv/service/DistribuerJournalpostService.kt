@@ -13,12 +13,15 @@ import no.nav.bidrag.dokument.arkiv.consumer.PersonConsumer
 import no.nav.bidrag.dokument.arkiv.dto.BestemDistribusjonKanalRequest
 import no.nav.bidrag.dokument.arkiv.dto.DistribuerJournalpostRequestInternal
 import no.nav.bidrag.dokument.arkiv.dto.DistribuertTilAdresseDo
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonSteg
 import no.nav.bidrag.dokument.arkiv.dto.JournalStatus
 import no.nav.bidrag.dokument.arkiv.dto.Journalpost
 import no.nav.bidrag.dokument.arkiv.dto.JournalpostUtsendingKanal
 import no.nav.bidrag.dokument.arkiv.dto.LagreReturDetaljForSisteReturRequest
 import no.nav.bidrag.dokument.arkiv.dto.LeggTilBeskjedPåTittel
+import no.nav.bidrag.dokument.arkiv.dto.OppdaterDokumentdatoTilIdag
 import no.nav.bidrag.dokument.arkiv.dto.OppdaterFlaggNyDistribusjonBestiltRequest
+import no.nav.bidrag.dokument.arkiv.dto.OppdaterJournalpostTilleggsopplysninger
 import no.nav.bidrag.dokument.arkiv.dto.dupliserJournalpost
 import no.nav.bidrag.dokument.arkiv.dto.fjern
 import no.nav.bidrag.dokument.arkiv.dto.med
@@ -35,12 +38,14 @@ import no.nav.bidrag.dokument.arkiv.model.ifFalse
 import no.nav.bidrag.dokument.arkiv.security.SaksbehandlerInfoManager
 import no.nav.bidrag.dokument.arkiv.service.utvidelser.tilTilleggsopplysning
 import no.nav.bidrag.dokument.arkiv.service.utvidelser.toTilleggsopplysning
+import no.nav.bidrag.dokument.arkiv.utils.utforParallelt
 import no.nav.bidrag.transport.dokument.DistribuerJournalpostResponse
 import no.nav.bidrag.transport.dokument.DistribuerTilAdresse
 import no.nav.bidrag.transport.dokument.DistribusjonInfoDto
 import no.nav.bidrag.transport.dokument.OpprettEttersendingsoppgaveResponseDto
 import no.nav.bidrag.transport.dokument.OpprettEttersendingsppgaveDto
 import no.nav.bidrag.transport.dokument.UtsendingsInfoDto
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
 import java.time.LocalDate
 import java.util.Objects
@@ -58,6 +63,9 @@ class DistribuerJournalpostService(
     val dokdistKanalConsumer: DokdistKanalConsumer,
     val innsendingService: InnsendingService,
     final val meterRegistry: MeterRegistry,
+    val dokdistOppdateringVenter: DokdistOppdateringVenter,
+    @Value("\${DISTRIBUSJON_KANAL_PARALLELITET:4}") private val kanalParallelitet: Int,
+    @Value("\${DISTRIBUSJON_KANAL_MAKS_ANTALL:500}") private val kanalMaksAntall: Int,
 ) {
     private final val journalpostService: JournalpostService
     private final val personConsumer: PersonConsumer
@@ -90,6 +98,17 @@ class DistribuerJournalpostService(
         return kanal
     }
 
+    /**
+     * Henter kanal for alle [requests] og gir svarene i samme rekkefølge. Like forespørsler hentes bare én gang, og de som ikke
+     * finnes i cachen hentes fra dokdistkanal med opptil [kanalParallelitet] samtidige kall.
+     */
+    fun hentDistribusjonKanaler(requests: List<BestemDistribusjonKanalRequest>): List<BestemKanalResponse> {
+        require(requests.size <= kanalMaksAntall) { "Kan ikke hente kanal for flere enn $kanalMaksAntall forespørsler samtidig" }
+        val kanaler = utforParallelt(requests.toSet(), kanalParallelitet) { hentDistribusjonKanal(it) }
+        LOGGER.info { "Hentet kanal for ${requests.size} forespørsler, hvorav ${kanaler.size} ulike" }
+        return requests.map { kanaler.getValue(it) }
+    }
+
     fun hentDistribusjonKanal(journalpost: Journalpost): BestemKanalResponse = hentDistribusjonKanal(
         BestemDistribusjonKanalRequest(
             journalpost.hentAvsenderMottakerId(),
@@ -175,12 +194,17 @@ class DistribuerJournalpostService(
         }
     }
 
+    /**
+     * Bestiller distribusjon av journalposten og oppdaterer den etterpå. [fremdrift] får beskjed når hvert steg starter.
+     */
     fun distribuerJournalpost(
         journalpostId: Long,
         batchId: String?,
         distribuerJournalpostRequest: DistribuerJournalpostRequestInternal,
+        fremdrift: (DistribusjonSteg) -> Unit = {},
     ): DistribuerJournalpostResponse {
         try {
+            fremdrift(DistribusjonSteg.HENTER_JOURNALPOST)
             val journalpost = hentJournalpost(journalpostId)
             journalpostService.populerMedTilknyttedeSaker(journalpost)
             if (journalpost.tilleggsopplysninger.isDistribusjonBestilt() || journalpost.journalstatus == JournalStatus.EKSPEDERT) {
@@ -206,10 +230,15 @@ class DistribuerJournalpostService(
 
             if (distribuerJournalpostRequest.erLokalUtskrift()) {
                 LOGGER.info("Journalpost $journalpostId er distribuert via lokal utskrift. Oppdaterer journalpost status")
+                fremdrift(DistribusjonSteg.OPPDATERER_JOURNALPOST)
                 oppdaterDistribusjonsInfoLokalUtskrift(journalpostId)
-                oppdaterTilleggsopplysninger(journalpostId, journalpost, erLokalUtskrift = true)
-                oppdaterDokumentdatoTilIdag(journalpostId, journalpost)
-                leggTilBeskrivelsePåTittelAtDokumentetErSendtPerPost(journalpostId)
+                // Hent journalpost på nytt for å se om tittelen allerede har fått beskjed om at dokumentet er sendt per post
+                val journalpostEtter = hentJournalpost(journalpostId)
+                endreJournalpostService.lagreJournalpost(journalpostId) {
+                    +oppdaterTilleggsopplysninger(journalpostId, journalpost, erLokalUtskrift = true)
+                    +oppdaterDokumentdatoTilIdag(journalpostId, journalpost)
+                    +leggTilBeskrivelsePåTittelAtDokumentetErSendtPerPost(journalpostId, journalpostEtter)
+                }
                 measureDistribution(journalpost, batchId, true)
                 return DistribuerJournalpostResponse("JOARK-$journalpostId", null)
             }
@@ -227,21 +256,25 @@ class DistribuerJournalpostService(
                 }
 
             // TODO: Lagre bestillingsid når bd-arkiv er koblet mot database
+            fremdrift(DistribusjonSteg.BESTILLER_DISTRIBUSJON)
             val distribuerResponse =
                 dokdistFordelingConsumer.distribuerJournalpost(journalpost, batchId, adresse)
             LOGGER.info(
                 "Bestillte distribusjon av journalpost $journalpostId med bestillingsId ${distribuerResponse.bestillingsId}, " +
                     "antall dokumenter ${journalpost.dokumenter.size} og kanal ${distribusjonKanal.distribusjonskanal}(${distribusjonKanal.regel}-${distribusjonKanal.regelBegrunnelse}).",
             )
-            // Legg til delay slik at det ikke fører til race condition når dokument skal oppdatere journalpost samtidig
-            ventFørGåVidere(3000)
+            // Vent til dokdist har oppdatert journalposten, slik at det ikke blir race condition når journalposten oppdateres her
+            fremdrift(DistribusjonSteg.VENTER_PA_DISTRIBUSJON)
+            val journalpostEtter = dokdistOppdateringVenter.ventPaOppdatering(journalpostId) { hentJournalpost(journalpostId) }
 
-            val journalpostEtter = hentJournalpost(journalpostId)
+            fremdrift(DistribusjonSteg.OPPDATERER_JOURNALPOST)
             leggTilEksisterendeTilleggsopplysninger(journalpostEtter, journalpost)
             val innsendingsid = opprettEttersendingsoppgave(journalpostEtter, distribuerJournalpostRequest)
             // Distribusjonsløpet oppdaterer journalpost og overskriver alt av tilleggsopplysninger. Hent journalpost på nytt for å unngå overskrive noe som distribusjon har lagret
-            oppdaterTilleggsopplysninger(journalpostId, journalpostEtter, adresse, bestemKanalResponse = distribusjonKanal)
-            oppdaterDokumentdatoTilIdag(journalpostId, journalpost)
+            endreJournalpostService.lagreJournalpost(journalpostId) {
+                +oppdaterTilleggsopplysninger(journalpostId, journalpostEtter, adresse, bestemKanalResponse = distribusjonKanal)
+                +oppdaterDokumentdatoTilIdag(journalpostId, journalpost)
+            }
             measureDistribution(journalpost, batchId)
             return distribuerResponse.copy(
                 ettersendingsoppgave = if (innsendingsid.isNullOrEmpty()) {
@@ -260,13 +293,6 @@ class DistribuerJournalpostService(
         }
     }
 
-    private fun ventFørGåVidere(ms: Long) {
-        try {
-            Thread.sleep(ms)
-        } catch (e: InterruptedException) {
-            LOGGER.error(e) { "Det skjedde en feil ved venting" }
-        }
-    }
     private fun opprettEttersendingsoppgave(journalpost: Journalpost, requestInternal: DistribuerJournalpostRequestInternal): String? {
         try {
             val oppgave = innsendingService.opprettEttersendingsoppgave(
@@ -295,37 +321,28 @@ class DistribuerJournalpostService(
             journalpostEtter,
         )
     }
-    private fun oppdaterDokumentdatoTilIdag(journalpostId: Long, journalpostFør: Journalpost) {
-        if (journalpostFør.hentDatoDokument() != LocalDate.now()) {
-            val journalpostEtter = hentJournalpost(journalpostId)
-            val datoDokument = journalpostFør.hentDatoDokument()?.toString()
-            LOGGER.info(
-                "Dokumentdato ($datoDokument) til journalpost $journalpostId er ikke samme som dato distribusjon ble bestilt. Oppdaterer dokumentdato til i dag",
-            )
-            endreJournalpostService.oppdaterDokumentdatoTilIdag(
-                journalpostEtter.hentJournalpostIdLong()!!,
-                journalpostEtter,
-            )
-        }
+    private fun oppdaterDokumentdatoTilIdag(journalpostId: Long, journalpostFør: Journalpost): OppdaterDokumentdatoTilIdag? {
+        if (journalpostFør.hentDatoDokument() == LocalDate.now()) return null
+        val datoDokument = journalpostFør.hentDatoDokument()?.toString()
+        LOGGER.info(
+            "Dokumentdato ($datoDokument) til journalpost $journalpostId er ikke samme som dato distribusjon ble bestilt. Oppdaterer dokumentdato til i dag",
+        )
+        return OppdaterDokumentdatoTilIdag(journalpostId, journalpostFør)
     }
 
-    private fun leggTilBeskrivelsePåTittelAtDokumentetErSendtPerPost(journalpostId: Long) {
+    private fun leggTilBeskrivelsePåTittelAtDokumentetErSendtPerPost(journalpostId: Long, journalpostEtter: Journalpost): LeggTilBeskjedPåTittel? {
         val beskrivelseJournalpostSendtPerPost = "dokumentet er sendt per post med vedlegg"
-        val journalpostEtter = hentJournalpost(journalpostId)
         val harJournalpostTittelBeskrivelse = journalpostEtter.hentTittel()
             ?.contains(beskrivelseJournalpostSendtPerPost, true) == true
         val harHoveddokumentTittelBeskrivelse = journalpostEtter.hentHoveddokument()?.tittel
             ?.contains(beskrivelseJournalpostSendtPerPost, true) == true
         val harBeskrivelse = harJournalpostTittelBeskrivelse || harHoveddokumentTittelBeskrivelse
-        if (!harBeskrivelse && !journalpostEtter.isFarskap()) {
-            endreJournalpostService.lagreJournalpost(
-                LeggTilBeskjedPåTittel(
-                    journalpostEtter.hentJournalpostIdLong()!!,
-                    journalpostEtter,
-                    "dokumentet er sendt per post med vedlegg",
-                ),
-            )
-        }
+        if (harBeskrivelse || journalpostEtter.isFarskap()) return null
+        return LeggTilBeskjedPåTittel(
+            journalpostId,
+            journalpostEtter,
+            beskrivelseJournalpostSendtPerPost,
+        )
     }
 
     private fun oppdaterTilleggsopplysninger(
@@ -334,7 +351,7 @@ class DistribuerJournalpostService(
         adresse: DistribuerTilAdresse? = null,
         erLokalUtskrift: Boolean = false,
         bestemKanalResponse: BestemKanalResponse? = null,
-    ) {
+    ): OppdaterJournalpostTilleggsopplysninger {
         erLokalUtskrift.ifFalse { adresse?.run { lagreAdresse(adresse, journalpostEtter) } }
         erLokalUtskrift.ifFalse { journalpostEtter.tilleggsopplysninger.setDistribusjonBestillt() }
         bestemKanalResponse?.distribusjonskanal?.takeIf { it == DistribusjonsKanal.DITT_NAV || it == DistribusjonsKanal.SDP }
@@ -345,10 +362,7 @@ class DistribuerJournalpostService(
                 saksbehandlerId,
             )
         }
-        endreJournalpostService.oppdaterJournalpostTilleggsopplysninger(
-            journalpostId,
-            journalpostEtter,
-        )
+        return OppdaterJournalpostTilleggsopplysninger(journalpostId, journalpostEtter)
     }
 
     private fun leggTilEksisterendeTilleggsopplysninger(journalpostEtter: Journalpost, journalpostFør: Journalpost) {
@@ -0,0 +1,140 @@
+package no.nav.bidrag.dokument.arkiv.service
+
+import mu.KotlinLogging
+import no.nav.bidrag.commons.util.KildesystemIdenfikator
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerBatchRequest
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerBatchResultat
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerJournalpostRequestInternal
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbStatus
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonSteg
+import no.nav.bidrag.dokument.arkiv.model.Discriminator
+import no.nav.bidrag.dokument.arkiv.model.ResourceByDiscriminator
+import no.nav.bidrag.dokument.arkiv.utils.Hastighetsbegrenser
+import no.nav.bidrag.dokument.arkiv.utils.kopierRequestAttributes
+import org.slf4j.MDC
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import org.springframework.web.context.request.RequestContextHolder
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+
+private val LOGGER = KotlinLogging.logger {}
+
+/**
+ * Distribuerer mange journalposter i samme batch med [DistribuerJournalpostService], med opptil [parallelitet] samtidige
+ * distribusjoner per batch. Alle batchene deler på en grense for hvor mange kall i sekundet som gjøres mot dokdistfordeling og
+ * dokarkiv, slik at flere batcher samtidig ikke overbelaster dem.
+ *
+ * Journalpostene slås opp i SAF med [JournalpostService.hentJournalposter] før distribusjonen starter, slik at journalposter som
+ * ikke finnes feiler med en gang uten å ta plass fra de andre distribusjonene.
+ *
+ * Hver journalpost distribueres med sin egen kopi av request-attributtene, slik at svarene som huskes av
+ * [no.nav.bidrag.dokument.arkiv.consumer.ForesporselMemo] ikke hoper seg opp gjennom hele batchen.
+ */
+@Service
+class DistribusjonBatchService(
+    private val distribuerJournalpostService: DistribuerJournalpostService,
+    journalpostServices: ResourceByDiscriminator<JournalpostService?>,
+    @Value("\${DISTRIBUSJON_BATCH_PARALLELITET:4}") private val parallelitet: Int,
+    @Value("\${DISTRIBUSJON_BATCH_MAKS_ANTALL:1000}") private val maksAntall: Int,
+    @Value("\${DISTRIBUSJON_BATCH_DOKDIST_PER_SEKUND:10}") dokdistPerSekund: Double,
+    @Value("\${DISTRIBUSJON_BATCH_DOKARKIV_PER_SEKUND:20}") dokarkivPerSekund: Double,
+) {
+    private val dokdistBegrenser = Hastighetsbegrenser(dokdistPerSekund)
+    private val dokarkivBegrenser = Hastighetsbegrenser(dokarkivPerSekund)
+    private val journalpostService: JournalpostService = journalpostServices.get(Discriminator.REGULAR_USER)
+
+    /**
+     * Distribuerer journalpostene i [request] og gir resultatet for hver av dem til [skriv] på tråden som kaller, i den rekkefølgen
+     * de blir ferdige. Feiler [skriv] startes ingen flere distribusjoner, men de som er startet fullføres.
+     */
+    fun distribuer(request: DistribuerBatchRequest, skriv: (DistribuerBatchResultat) -> Unit) {
+        require(request.batchId.isNotBlank()) { "BatchId må være satt" }
+        require(request.journalpostIder.isNotEmpty()) { "Batch må inneholde minst en journalpost" }
+        require(request.journalpostIder.size <= maksAntall) { "Batch kan ikke inneholde flere enn $maksAntall journalposter" }
+        LOGGER.info { "Distribuerer ${request.journalpostIder.size} journalposter med batchId ${request.batchId}" }
+
+        val ikkeFunnet = finnJournalposterSomIkkeFinnes(request.journalpostIder)
+        val avbrutt = AtomicBoolean(false)
+        var antallFeilet = 0
+        val mdc = MDC.getCopyOfContextMap()
+        Executors.newFixedThreadPool(parallelitet.coerceIn(1, request.journalpostIder.size), Thread.ofVirtual().name("distribusjon-batch-", 0).factory())
+            .use { executor ->
+                val distribusjoner = ExecutorCompletionService<DistribuerBatchResultat>(executor)
+                var antallStartet = 0
+                try {
+                    request.journalpostIder.forEach { journalpostId ->
+                        val kildesystemIdenfikator = KildesystemIdenfikator(journalpostId)
+                        if (kildesystemIdenfikator.erUkjentPrefixEllerHarIkkeTallEtterPrefix()) {
+                            antallFeilet++
+                            skriv(feilet(journalpostId, "Id har ikke riktig prefix: $journalpostId"))
+                            return@forEach
+                        }
+                        ikkeFunnet[kildesystemIdenfikator.hentJournalpostIdLong()]?.let { feilmelding ->
+                            antallFeilet++
+                            skriv(feilet(journalpostId, feilmelding))
+                            return@forEach
+                        }
+                        val requestAttributes = kopierRequestAttributes()
+                        distribusjoner.submit {
+                            if (avbrutt.get()) return@submit feilet(journalpostId, "Batchen ble avbrutt")
+                            RequestContextHolder.setRequestAttributes(requestAttributes)
+                            mdc?.let { MDC.setContextMap(it) }
+                            try {
+                                distribuer(kildesystemIdenfikator.hentJournalpostIdLong()!!, journalpostId, request.batchId)
+                            } finally {
+                                RequestContextHolder.resetRequestAttributes()
+                                MDC.clear()
+                            }
+                        }
+                        antallStartet++
+                    }
+                    repeat(antallStartet) {
+                        val resultat = distribusjoner.take().get()
+                        if (resultat.status == DistribusjonJobbStatus.FEILET) antallFeilet++
+                        skriv(resultat)
+                    }
+                } catch (e: Exception) {
+                    avbrutt.set(true)
+                    throw e
+                }
+            }
+        LOGGER.info {
+            "Distribuerte ${request.journalpostIder.size} journalposter med batchId ${request.batchId}, hvorav $antallFeilet feilet"
+        }
+    }
+
+    /**
+     * Gir feilmeldingen for hver journalpost som ikke finnes. Feiler oppslaget distribueres alle journalpostene, og hver av dem
+     * feiler i stedet når den hentes under distribusjonen.
+     */
+    private fun finnJournalposterSomIkkeFinnes(journalpostIder: List<String>): Map<Long, String> {
+        val ids = journalpostIder.map { KildesystemIdenfikator(it) }
+            .filter { !it.erUkjentPrefixEllerHarIkkeTallEtterPrefix() }
+            .mapNotNull { it.hentJournalpostIdLong() }
+        if (ids.isEmpty()) return emptyMap()
+        return try {
+            journalpostService.hentJournalposter(ids).ikkeFunnet
+        } catch (e: Exception) {
+            LOGGER.warn(e) { "Kunne ikke slå opp journalpostene i batchen på forhånd, distribuerer uten forhåndssjekk" }
+            emptyMap()
+        }
+    }
+
+    private fun distribuer(journalpostId: Long, journalpostIdMedPrefix: String, batchId: String): DistribuerBatchResultat = try {
+        val resultat = distribuerJournalpostService.distribuerJournalpost(journalpostId, batchId, DistribuerJournalpostRequestInternal()) { steg ->
+            when (steg) {
+                DistribusjonSteg.BESTILLER_DISTRIBUSJON -> dokdistBegrenser.ventPaPlass()
+                DistribusjonSteg.OPPDATERER_JOURNALPOST -> dokarkivBegrenser.ventPaPlass()
+                else -> {}
+            }
+        }
+        DistribuerBatchResultat(journalpostIdMedPrefix, DistribusjonJobbStatus.FERDIG, resultat = resultat)
+    } catch (e: Exception) {
+        LOGGER.warn(e) { "Distribusjon av journalpost $journalpostId med batchId $batchId feilet" }
+        feilet(journalpostIdMedPrefix, e.message ?: e.javaClass.simpleName)
+    }
+
+    private fun feilet(journalpostId: String, feilmelding: String) = DistribuerBatchResultat(journalpostId, DistribusjonJobbStatus.FEILET, feilmelding = feilmelding)
+}
@@ -0,0 +1,149 @@
+package no.nav.bidrag.dokument.arkiv.service
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics
+import jakarta.annotation.PreDestroy
+import mu.KotlinLogging
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerJournalpostRequestInternal
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbDto
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbStatus
+import no.nav.bidrag.dokument.arkiv.dto.validerAdresse
+import no.nav.bidrag.dokument.arkiv.model.DistribusjonKoFullException
+import no.nav.bidrag.dokument.arkiv.utils.kopierRequestAttributes
+import org.slf4j.MDC
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import org.springframework.web.context.request.RequestContextHolder
+import java.time.Duration
+import java.util.UUID
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+private val LOGGER = KotlinLogging.logger {}
+
+/**
+ * Distribuerer journalposter i bakgrunnen, slik at http-tråden ikke venter mens distribusjonen bestilles og journalposten
+ * oppdateres. Distribusjonene kjøres av [arbeidere] tråder, og opptil [koStorrelse] kan vente. Er køen full avvises
+ * bestillingen med [DistribusjonKoFullException]. Adressen og journalposten valideres før jobben legges i kø, slik at en
+ * journalpost som ikke kan distribueres avvises med en gang i stedet for å gi en jobb som feiler.
+ *
+ * Request-attributtene og MDC kopieres fra forespørselen som bestilte distribusjonen, slik at tokenet til saksbehandleren og
+ * correlationId følger med etter at forespørselen er ferdig. Statusen huskes i [levetid] etter siste endring.
+ *
+ * Lyttere lagt til med [leggTilStatuslytter] får beskjed hver gang statusen til en jobb endres, slik at de andre instansene kan
+ * lagre den med [lagreFraAnnenInstans] og svare på [hentJobb] uansett hvilken instans som tok imot bestillingen. Uten lyttere,
+ * som når applikasjonen kjører uten kafka, kjenner bare instansen som tok imot bestillingen til jobben.
+ */
+@Service
+class DistribusjonJobbService(
+    private val distribuerJournalpostService: DistribuerJournalpostService,
+    @Value("\${DISTRIBUSJON_JOBB_ARBEIDERE:4}") arbeidere: Int,
+    @Value("\${DISTRIBUSJON_JOBB_KO_STORRELSE:100}") koStorrelse: Int,
+    @Value("\${DISTRIBUSJON_JOBB_LEVETID:PT1H}") levetid: Duration,
+    meterRegistry: MeterRegistry,
+) {
+    private val jobber: Cache<String, DistribusjonJobbDto> = Caffeine.newBuilder()
+        .expireAfterWrite(levetid)
+        .build()
+    private val statuslyttere = CopyOnWriteArrayList<(String, DistribusjonJobbDto?) -> Unit>()
+    private val executor = ThreadPoolExecutor(
+        arbeidere,
+        arbeidere,
+        0,
+        TimeUnit.MILLISECONDS,
+        ArrayBlockingQueue(koStorrelse),
+        Thread.ofVirtual().name("distribusjon-", 0).factory(),
+    )
+
+    init {
+        ExecutorServiceMetrics.monitor(meterRegistry, executor, DISTRIBUSJON_JOBB_EXECUTOR_NAME)
+    }
+
+    fun bestillDistribusjon(
+        journalpostId: Long,
+        batchId: String?,
+        distribuerJournalpostRequest: DistribuerJournalpostRequestInternal,
+    ): DistribusjonJobbDto {
+        if (distribuerJournalpostRequest.hasAdresse()) validerAdresse(distribuerJournalpostRequest.getAdresse())
+        distribuerJournalpostService.kanDistribuereJournalpost(journalpostId)
+        val jobb = DistribusjonJobbDto(UUID.randomUUID().toString(), "JOARK-$journalpostId", DistribusjonJobbStatus.VENTER)
+        jobber.put(jobb.jobbId, jobb)
+        varsle(jobb.jobbId, jobb)
+        val requestAttributes = kopierRequestAttributes()
+        val mdc = MDC.getCopyOfContextMap()
+        try {
+            executor.execute {
+                RequestContextHolder.setRequestAttributes(requestAttributes)
+                mdc?.let { MDC.setContextMap(it) }
+                try {
+                    distribuer(jobb.jobbId, journalpostId, batchId, distribuerJournalpostRequest)
+                } finally {
+                    RequestContextHolder.resetRequestAttributes()
+                    MDC.clear()
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            jobber.invalidate(jobb.jobbId)
+            varsle(jobb.jobbId, null)
+            throw DistribusjonKoFullException("Det er for mange distribusjoner som venter. Prøv igjen senere")
+        }
+        LOGGER.info { "Bestilte asynkron distribusjon av journalpost $journalpostId med jobbId ${jobb.jobbId}" }
+        return jobb
+    }
+
+    fun hentJobb(jobbId: String): DistribusjonJobbDto? = jobber.getIfPresent(jobbId)
+
+    /**
+     * Lagrer statusen til en jobb som kjøres av en annen instans. Er [jobb] null, er jobben fjernet.
+     */
+    fun lagreFraAnnenInstans(jobbId: String, jobb: DistribusjonJobbDto?) {
+        if (jobb == null) jobber.invalidate(jobbId) else jobber.put(jobbId, jobb)
+    }
+
+    fun leggTilStatuslytter(lytter: (String, DistribusjonJobbDto?) -> Unit) {
+        statuslyttere.add(lytter)
+    }
+
+    @PreDestroy
+    fun stopp() {
+        executor.shutdown()
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            LOGGER.warn { "${executor.queue.size} distribusjoner ble ikke kjørt før applikasjonen stoppet" }
+        }
+    }
+
+    private fun distribuer(
+        jobbId: String,
+        journalpostId: Long,
+        batchId: String?,
+        distribuerJournalpostRequest: DistribuerJournalpostRequestInternal,
+    ) {
+        oppdater(jobbId) { it.copy(status = DistribusjonJobbStatus.KJORER) }
+        try {
+            val resultat = distribuerJournalpostService.distribuerJournalpost(journalpostId, batchId, distribuerJournalpostRequest) { steg ->
+                oppdater(jobbId) { it.copy(steg = steg) }
+            }
+            oppdater(jobbId) { it.copy(status = DistribusjonJobbStatus.FERDIG, steg = null, resultat = resultat) }
+        } catch (e: Exception) {
+            LOGGER.error(e) { "Asynkron distribusjon av journalpost $journalpostId med jobbId $jobbId feilet" }
+            oppdater(jobbId) { it.copy(status = DistribusjonJobbStatus.FEILET, feilmelding = e.message ?: e.javaClass.simpleName) }
+        }
+    }
+
+    private fun oppdater(jobbId: String, endring: (DistribusjonJobbDto) -> DistribusjonJobbDto) {
+        jobber.asMap().computeIfPresent(jobbId) { _, jobb -> endring(jobb) }?.let { varsle(jobbId, it) }
+    }
+
+    private fun varsle(jobbId: String, jobb: DistribusjonJobbDto?) {
+        statuslyttere.forEach { it(jobbId, jobb) }
+    }
+
+    companion object {
+        const val DISTRIBUSJON_JOBB_EXECUTOR_NAME = "distribusjon_jobb"
+    }
+}
@@ -0,0 +1,78 @@
+package no.nav.bidrag.dokument.arkiv.service
+
+import io.micrometer.core.instrument.MeterRegistry
+import mu.KotlinLogging
+import no.nav.bidrag.dokument.arkiv.consumer.ForesporselMemo
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
+import no.nav.bidrag.dokument.arkiv.dto.Journalpost
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.time.Duration
+
+private val LOGGER = KotlinLogging.logger {}
+
+/**
+ * Venter til dokdist har oppdatert journalposten etter at distribusjonen er bestilt, slik at oppdateringene som gjøres etterpå
+ * ikke overskriver tilleggsopplysningene dokdist lagrer. Journalposten hentes på nytt fra SAF med økende ventetid, fra
+ * [forsteVentetid] og dobbelt så lenge for hvert forsøk opp til [MAKS_VENTETID], til den har bestillingsId eller er ekspedert.
+ * Etter [frist] gås det videre med journalposten slik den er.
+ *
+ * Hvor lenge det ble ventet måles i [DISTRIBUSJON_VENTING_TIMER_NAME], med om journalposten ble oppdatert før fristen.
+ */
+@Component
+class DokdistOppdateringVenter(
+    private val journalpostCache: JournalpostCache,
+    private val meterRegistry: MeterRegistry,
+    @Value("\${DISTRIBUSJON_VENT_FRIST:PT10S}") private val frist: Duration,
+    @Value("\${DISTRIBUSJON_VENT_FORSTE_VENTETID:PT0.2S}") private val forsteVentetid: Duration,
+) {
+    /**
+     * Henter journalposten med [hentJournalpost] til den er oppdatert av dokdist eller fristen er nådd, og returnerer siste versjon.
+     */
+    fun ventPaOppdatering(journalpostId: Long, hentJournalpost: () -> Journalpost): Journalpost {
+        val start = System.nanoTime()
+        var ventetid = forsteVentetid
+        var forsok = 0
+        // Journalposten ble hentet før distribusjonen, så den må hentes forbi cachen
+        journalpostCache.fjern(journalpostId)
+        while (true) {
+            ForesporselMemo.fjernJournalpost(journalpostId)
+            journalpostCache.fjernLokalt(journalpostId)
+            val journalpost = hentJournalpost()
+            forsok++
+            val oppdatert = journalpost.tilleggsopplysninger.hentBestillingId() != null || journalpost.isStatusEkspedert()
+            val brukt = Duration.ofNanos(System.nanoTime() - start)
+            if (oppdatert || brukt + ventetid > frist || !vent(ventetid)) {
+                rapporter(journalpostId, oppdatert, brukt, forsok)
+                return journalpost
+            }
+            ventetid = minOf(ventetid.multipliedBy(2), MAKS_VENTETID)
+        }
+    }
+
+    private fun rapporter(journalpostId: Long, oppdatert: Boolean, brukt: Duration, forsok: Int) {
+        meterRegistry.timer(DISTRIBUSJON_VENTING_TIMER_NAME, "resultat", if (oppdatert) "oppdatert" else "frist").record(brukt)
+        if (oppdatert) {
+            LOGGER.info { "Journalpost $journalpostId ble oppdatert av dokdist etter ${brukt.toMillis()} ms og $forsok forsøk" }
+        } else {
+            LOGGER.warn { "Journalpost $journalpostId ble ikke oppdatert av dokdist innen ${brukt.toMillis()} ms og $forsok forsøk. Går videre" }
+        }
+    }
+
+    /**
+     * Gir false hvis tråden blir avbrutt, slik at det ikke ventes mer.
+     */
+    private fun vent(ventetid: Duration): Boolean = try {
+        Thread.sleep(ventetid)
+        true
+    } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        LOGGER.error(e) { "Det skjedde en feil ved venting" }
+        false
+    }
+
+    companion object {
+        const val DISTRIBUSJON_VENTING_TIMER_NAME = "distribuer_journalpost_venting"
+        private val MAKS_VENTETID = Duration.ofSeconds(2)
+    }
+}
@@ -1,21 +1,37 @@
 package no.nav.bidrag.dokument.arkiv.service
 
+import no.nav.bidrag.dokument.arkiv.consumer.CachetDokument
+import no.nav.bidrag.dokument.arkiv.consumer.DokumentCache
+import no.nav.bidrag.dokument.arkiv.consumer.DokumentHeadere
 import no.nav.bidrag.dokument.arkiv.consumer.SafConsumer
 import no.nav.bidrag.dokument.arkiv.dto.JournalStatus
 import no.nav.bidrag.dokument.arkiv.model.Discriminator
+import no.nav.bidrag.dokument.arkiv.model.DokumentIkkeTilgangException
+import no.nav.bidrag.dokument.arkiv.model.JournalpostIkkeFunnetException
 import no.nav.bidrag.dokument.arkiv.model.ResourceByDiscriminator
+import no.nav.bidrag.dokument.arkiv.utils.utforParallelt
 import no.nav.bidrag.transport.dokument.DokumentArkivSystemDto
 import no.nav.bidrag.transport.dokument.DokumentFormatDto
 import no.nav.bidrag.transport.dokument.DokumentMetadata
 import no.nav.bidrag.transport.dokument.DokumentStatusDto
 import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpHeaders
 import org.springframework.http.ResponseEntity
+import org.springframework.http.client.ClientHttpResponse
 import org.springframework.stereotype.Service
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
 
 @Service
 class DokumentService(
     safConsumers: ResourceByDiscriminator<SafConsumer>,
     journalpostServices: ResourceByDiscriminator<JournalpostService>,
+    private val dokumentCache: DokumentCache,
+    @Value("\${DOKUMENT_NEDLASTING_PARALLELITET:4}") private val nedlastingParallelitet: Int,
 ) {
     private val safConsumer: SafConsumer
     private val journalpostService: JournalpostService
@@ -27,9 +43,79 @@ class DokumentService(
 
     fun hentDokument(journalpostId: Long, dokumentReferanse: String?): ResponseEntity<ByteArray> {
         LOGGER.info("Henter dokument med journalpostId=$journalpostId og dokumentReferanse=$dokumentReferanse")
+        if (dokumentCache.aktiv && dokumentReferanse != null) {
+            return hentDokumentFraCache(journalpostId, dokumentReferanse) { dokument, kanal ->
+                ResponseEntity.ok()
+                    .headers { headers ->
+                        dokument.contentType?.let { headers.set(HttpHeaders.CONTENT_TYPE, it) }
+                        dokument.contentDisposition?.let { headers.set(HttpHeaders.CONTENT_DISPOSITION, it) }
+                    }
+                    .eTag(dokument.etag)
+                    .body(Channels.newInputStream(kanal).readAllBytes())
+            }
+        }
         return safConsumer.hentDokument(journalpostId, java.lang.Long.valueOf(dokumentReferanse))
     }
 
+    fun erDokumentCacheAktiv() = dokumentCache.aktiv
+
+    /**
+     * Gir dokumentet til [les] fra cachen på disk. Dokumentet lastes ned fra SAF først hvis det ikke er cachet.
+     *
+     * Cachen deles mellom saksbehandlere, så tilgangen sjekkes først mot SAF med saksbehandlerens token, slik SAF ellers ville
+     * gjort når dokumentet hentes. Sjekken er en liten spørring uten selve dokumentet.
+     */
+    fun <T> hentDokumentFraCache(journalpostId: Long, dokumentReferanse: String, les: (CachetDokument, FileChannel) -> T): T {
+        sjekkTilgangTilDokument(journalpostId, dokumentReferanse)
+        return dokumentCache.hent(journalpostId, dokumentReferanse, { ut ->
+            LOGGER.info("Laster ned dokument med journalpostId=$journalpostId og dokumentReferanse=$dokumentReferanse til cache")
+            safConsumer.hentDokument(journalpostId, dokumentReferanse.toLong(), null) { svar ->
+                svar.body.transferTo(ut)
+                DokumentHeadere(svar.headers.getFirst(HttpHeaders.CONTENT_TYPE), svar.headers.getFirst(HttpHeaders.CONTENT_DISPOSITION))
+            }
+        }, les)
+    }
+
+    private fun sjekkTilgangTilDokument(journalpostId: Long, dokumentReferanse: String) {
+        when (safConsumer.hentDokumentTilgang(journalpostId).harTilgangTilArkivvariant(dokumentReferanse)) {
+            null -> throw JournalpostIkkeFunnetException("Fant ikke dokument $dokumentReferanse i journalpost $journalpostId")
+            false -> throw DokumentIkkeTilgangException("Saksbehandler har ikke tilgang til dokument $dokumentReferanse i journalpost $journalpostId")
+            true -> {}
+        }
+    }
+
+    fun <T> hentDokument(journalpostId: Long, dokumentReferanse: String, range: String?, les: (ClientHttpResponse) -> T): T {
+        LOGGER.info("Henter dokument med journalpostId=$journalpostId og dokumentReferanse=$dokumentReferanse")
+        return safConsumer.hentDokument(journalpostId, dokumentReferanse.toLong(), range, les)
+    }
+
+    /**
+     * Laster ned dokumentene til filer i [katalog] med opptil [nedlastingParallelitet] samtidige nedlastinger. Forespørselen og MDC
+     * fra tråden som kaller gjøres tilgjengelig for nedlastingene, slik at tokenet mot SAF og correlationId følger med.
+     */
+    fun lastNedDokumenter(journalpostId: Long, dokumentReferanser: Collection<String>, katalog: Path): Map<String, Path> {
+        val referanser = dokumentReferanser.distinct()
+        return utforParallelt(referanser, nedlastingParallelitet) { dokumentReferanse ->
+            lastNedDokument(journalpostId, dokumentReferanse, katalog.resolve(dokumentReferanse))
+        }
+    }
+
+    private fun lastNedDokument(journalpostId: Long, dokumentReferanse: String, fil: Path): Path {
+        if (dokumentCache.aktiv) {
+            hentDokumentFraCache(journalpostId, dokumentReferanse) { dokument, kanal ->
+                FileChannel.open(fil, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).use { ut ->
+                    var posisjon = 0L
+                    while (posisjon < dokument.storrelse) {
+                        posisjon += kanal.transferTo(posisjon, dokument.storrelse - posisjon, ut)
+                    }
+                }
+            }
+        } else {
+            safConsumer.hentDokument(journalpostId, dokumentReferanse.toLong(), null) { svar -> Files.copy(svar.body, fil) }
+        }
+        return fil
+    }
+
     fun tilDokumentMetadata(journalStatus: JournalStatus?, dokumentReferanse: String?, journalpostId: Long?, tittel: String?) = DokumentMetadata(
         arkivsystem = DokumentArkivSystemDto.JOARK,
         dokumentreferanse = dokumentReferanse,
@@ -11,12 +11,13 @@ import no.nav.bidrag.dokument.arkiv.dto.KnyttTilAnnenSakRequest
 import no.nav.bidrag.dokument.arkiv.dto.KnyttTilSakRequest
 import no.nav.bidrag.dokument.arkiv.dto.LagreJournalfortAvIdentRequest
 import no.nav.bidrag.dokument.arkiv.dto.LagreJournalpostRequest
-import no.nav.bidrag.dokument.arkiv.dto.OppdaterDokumentdatoTilIdag
 import no.nav.bidrag.dokument.arkiv.dto.OppdaterJournalpostDistribusjonsInfoRequest
 import no.nav.bidrag.dokument.arkiv.dto.OppdaterJournalpostRequest
+import no.nav.bidrag.dokument.arkiv.dto.OppdaterJournalpostRequestBuilder
 import no.nav.bidrag.dokument.arkiv.dto.OppdaterJournalpostResponse
 import no.nav.bidrag.dokument.arkiv.dto.OppdaterJournalpostTilleggsopplysninger
 import no.nav.bidrag.dokument.arkiv.dto.Sak
+import no.nav.bidrag.dokument.arkiv.dto.oppdaterJournalpost
 import no.nav.bidrag.dokument.arkiv.kafka.HendelserProducer
 import no.nav.bidrag.dokument.arkiv.model.JournalpostIkkeFunnetException
 import no.nav.bidrag.dokument.arkiv.model.LagreSaksbehandlerIdentForJournalfortJournalpostFeilet
@@ -36,8 +37,8 @@ class EndreJournalpostService(
     fun endre(journalpostId: Long, endreJournalpostCommand: EndreJournalpostCommandIntern) {
         var journalpost = hentJournalpost(journalpostId)
         endreJournalpostCommand.sjekkGyldigEndring(journalpost)
-        lagreJournalpost(journalpostId, endreJournalpostCommand, journalpost)
-        journalfoerJournalpostNarMottaksregistrert(endreJournalpostCommand, journalpost)
+        val journalfortAvIdentLagret = lagreJournalpost(journalpostId, endreJournalpostCommand, journalpost)
+        journalfoerJournalpostNarMottaksregistrert(endreJournalpostCommand, journalpost, journalfortAvIdentLagret)
         if (journalpost.kanTilknytteSaker() || endreJournalpostCommand.skalJournalfores()) {
             journalpost = hentJournalpost(journalpostId)
             tilknyttSakerTilJournalfoertJournalpost(endreJournalpostCommand, journalpost)
@@ -62,19 +63,40 @@ class EndreJournalpostService(
         oppdaterJournalpostRequest,
     )
 
-    private fun lagreJournalpost(journalpostId: Long, endreJournalpostCommand: EndreJournalpostCommandIntern, journalpost: Journalpost) {
+    /**
+     * Lagrer endringene i [setup] med én oppdatering av journalposten. Ingenting lagres hvis det ikke er lagt til noen endringer.
+     */
+    fun lagreJournalpost(journalpostId: Long, setup: OppdaterJournalpostRequestBuilder.() -> Unit): OppdaterJournalpostResponse? = oppdaterJournalpost(journalpostId, setup)?.let { lagreJournalpost(it) }
+
+    /**
+     * Lagrer endringene, og hvem som journalfører hvis journalposten skal journalføres, i samme oppdatering.
+     * Gir true hvis hvem som journalfører ble lagret.
+     */
+    private fun lagreJournalpost(journalpostId: Long, endreJournalpostCommand: EndreJournalpostCommandIntern, journalpost: Journalpost): Boolean {
         val oppdaterJournalpostRequest =
             LagreJournalpostRequest(journalpostId, endreJournalpostCommand, journalpost)
-        lagreJournalpost(oppdaterJournalpostRequest)
+        val journalfortAvIdent =
+            if (skalJournalfores(endreJournalpostCommand, journalpost)) saksbehandlerInfoManager.hentSaksbehandlerBrukerId() else null
+        lagreJournalpost(journalpostId) {
+            +oppdaterJournalpostRequest
+            +journalfortAvIdent?.let { LagreJournalfortAvIdentRequest(journalpostId, journalpost, it) }
+        }
         if (Objects.nonNull(oppdaterJournalpostRequest.sak)) {
             journalpost.sak = Sak(oppdaterJournalpostRequest.sak!!.fagsakId)
         }
+        return journalfortAvIdent != null
     }
 
-    private fun journalfoerJournalpostNarMottaksregistrert(endreJournalpostCommand: EndreJournalpostCommandIntern, journalpost: Journalpost) {
-        if (endreJournalpostCommand.skalJournalfores() && journalpost.isStatusMottatt()) {
+    private fun skalJournalfores(endreJournalpostCommand: EndreJournalpostCommandIntern, journalpost: Journalpost) = endreJournalpostCommand.skalJournalfores() && journalpost.isStatusMottatt()
+
+    private fun journalfoerJournalpostNarMottaksregistrert(
+        endreJournalpostCommand: EndreJournalpostCommandIntern,
+        journalpost: Journalpost,
+        journalfortAvIdentLagret: Boolean,
+    ) {
+        if (skalJournalfores(endreJournalpostCommand, journalpost)) {
             val journalpostId = journalpost.hentJournalpostIdLong()
-            journalfoerJournalpost(journalpostId, endreJournalpostCommand.enhet, journalpost)
+            journalfoerJournalpost(journalpostId, endreJournalpostCommand.enhet, journalpost, journalfortAvIdentLagret)
             journalpost.journalstatus = JournalStatus.JOURNALFOERT
         }
     }
@@ -137,21 +159,17 @@ class EndreJournalpostService(
         journalpost.leggTilTilknyttetSak(saksnummer)
     }
 
-    private fun journalfoerJournalpost(journalpostId: Long?, enhet: String?, journalpost: Journalpost) {
+    private fun journalfoerJournalpost(journalpostId: Long?, enhet: String?, journalpost: Journalpost, journalfortAvIdentLagret: Boolean) {
         val journalforRequest = FerdigstillJournalpostRequest(journalpostId!!, enhet!!)
         dokarkivConsumer.ferdigstill(journalforRequest)
         LOGGER.info("Journalpost med id $journalpostId er journalført")
-        lagreSaksbehandlerIdentForJournalfortJournalpost(journalpost, null)
+        if (!journalfortAvIdentLagret) lagreSaksbehandlerIdentForJournalfortJournalpost(journalpost, null)
     }
 
     fun oppdaterJournalpostDistribusjonBestiltStatus(journalpostId: Long, journalpost: Journalpost) {
         lagreJournalpost(OppdaterJournalpostDistribusjonsInfoRequest(journalpostId, journalpost))
     }
 
-    fun oppdaterDokumentdatoTilIdag(journalpostId: Long, journalpost: Journalpost) {
-        lagreJournalpost(OppdaterDokumentdatoTilIdag(journalpostId, journalpost))
-    }
-
     fun oppdaterJournalpostTilleggsopplysninger(journalpostId: Long, journalpost: Journalpost) {
         lagreJournalpost(OppdaterJournalpostTilleggsopplysninger(journalpostId, journalpost))
     }
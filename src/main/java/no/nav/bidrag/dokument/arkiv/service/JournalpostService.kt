@@ -1,5 +1,6 @@
 package no.nav.bidrag.dokument.arkiv.service
 
+import no.nav.bidrag.dokument.arkiv.consumer.JournalposterResultat
 import no.nav.bidrag.dokument.arkiv.consumer.PersonConsumer
 import no.nav.bidrag.dokument.arkiv.consumer.SafConsumer
 import no.nav.bidrag.dokument.arkiv.dto.Bruker
@@ -9,6 +10,8 @@ import no.nav.bidrag.dokument.arkiv.dto.Journalpost
 import no.nav.bidrag.dokument.arkiv.dto.Sak
 import no.nav.bidrag.dokument.arkiv.dto.TilknyttetJournalpost
 import no.nav.bidrag.dokument.arkiv.model.kanIkkeHenteJournalMedUgyldigFagomrade
+import no.nav.bidrag.dokument.arkiv.query.DokumentoversiktFagsakQuery
+import no.nav.bidrag.dokument.arkiv.utils.utforParallelt
 import no.nav.bidrag.transport.dokument.JournalpostDto
 import no.nav.bidrag.transport.person.PersonDto
 import org.slf4j.LoggerFactory
@@ -17,9 +20,12 @@ import java.util.Optional
 class JournalpostService(
     private val safConsumer: SafConsumer,
     private val personConsumer: PersonConsumer,
+    private val personoppslagParallelitet: Int,
 ) {
     fun hentJournalpost(journalpostId: Long): Journalpost? = hentJournalpost(journalpostId, null)
 
+    fun hentJournalposter(journalpostIds: Collection<Long>): JournalposterResultat = safConsumer.hentJournalposter(journalpostIds)
+
     fun hentJournalpostMedTilknyttedeSaker(journalpostId: Long): Journalpost? = hentJournalpost(journalpostId)?.let { populerMedTilknyttedeSaker(it) }
 
     fun hentJournalpostMedFnrOgTilknyttedeSaker(journalpostId: Long, saksnummer: String?): Optional<Journalpost> = hentJournalpostMedFnr(
@@ -34,16 +40,31 @@ class JournalpostService(
     fun List<String>.inneholderBidragFagomrader() = this.isEmpty() || this.hentIkkeBidragFagomrader().isEmpty()
 
     fun List<String>.hentIkkeBidragFagomrader() = this.filter { it != "BID" && it != "FAR" }
-    fun finnJournalposter(saksnummer: String, fagomrade: List<String> = emptyList()): List<JournalpostDto> {
+    fun finnJournalposter(saksnummer: String, fagomrade: List<String> = emptyList()): List<JournalpostDto> = finnJournalSider(saksnummer, fagomrade).flatMap { it.journalposter }.toList()
+
+    /**
+     * Finner journalen til saken side for side. Hver side hentes fra SAF først når sekvensen leses videre, og
+     * [JournalSide.nesteSide] kan brukes som [peker] for å fortsette etter siden.
+     */
+    fun finnJournalSider(
+        saksnummer: String,
+        fagomrade: List<String> = emptyList(),
+        peker: String? = null,
+        sideStorrelse: Int = DokumentoversiktFagsakQuery.SIDE_STORRELSE,
+    ): Sequence<JournalSide> {
         if (!fagomrade.inneholderBidragFagomrader()) {
             kanIkkeHenteJournalMedUgyldigFagomrade(
                 fagomrade.hentIkkeBidragFagomrader().joinToString(","),
             )
         }
-        return finnJournalposterForSaksnummer(saksnummer, fagomrade)
-            .map { konverterAktoerIdTilFnr(it) }
-            .filter { !(it.tilleggsopplysninger.isEndretTema() || it.tilleggsopplysninger.isNyDistribusjonBestilt()) }
-            .map { it.tilJournalpostDto() }
+        return safConsumer.finnJournalposterSider(saksnummer, fagomrade, peker, sideStorrelse).map { side ->
+            JournalSide(
+                konverterAktoerIdTilFnr(side.journalposter)
+                    .filter { !(it.tilleggsopplysninger.isEndretTema() || it.tilleggsopplysninger.isNyDistribusjonBestilt()) }
+                    .map { it.tilJournalpostDto() },
+                side.nesteSidePeker(),
+            )
+        }
     }
 
     private fun hentJournalpost(journalpostId: Long, saksnummer: String?): Journalpost? {
@@ -103,7 +124,28 @@ class JournalpostService(
         return journalpost
     }
 
+    /**
+     * Bytter aktørid med fnr for brukerne på alle journalpostene. Hver aktørid slås opp bare én gang, med det cachede
+     * [PersonConsumer.hentPerson] og opptil [personoppslagParallelitet] samtidige kall.
+     */
+    private fun konverterAktoerIdTilFnr(journalposter: List<Journalpost>): List<Journalpost> {
+        val aktoerIder = journalposter.mapNotNull { it.bruker?.takeIf { bruker -> bruker.isAktoerId() }?.id }.distinct()
+        if (aktoerIder.isEmpty()) {
+            return journalposter
+        }
+        val personer = utforParallelt(aktoerIder, personoppslagParallelitet) { personConsumer.hentPerson(it) }
+            .mapNotNull { (aktoerId, person) -> person.orElse(null)?.let { aktoerId to it } }
+            .toMap()
+        journalposter.forEach { journalpost ->
+            val aktoerId = journalpost.bruker?.takeIf { it.isAktoerId() }?.id ?: return@forEach
+            personer[aktoerId]?.let { (brukerId): PersonDto -> journalpost.bruker = Bruker(brukerId.verdi, BrukerType.FNR.name) }
+        }
+        return journalposter
+    }
+
     companion object {
         private val LOGGER = LoggerFactory.getLogger(JournalpostService::class.java)
     }
 }
+
+data class JournalSide(val journalposter: List<JournalpostDto>, val nesteSide: String?)
@@ -36,6 +36,8 @@ import org.slf4j.LoggerFactory
 import org.springframework.http.HttpStatus
 import org.springframework.stereotype.Service
 import org.springframework.web.client.HttpClientErrorException
+import java.nio.file.Files
+import java.nio.file.Path
 import java.time.LocalDateTime
 import java.util.Base64
 
@@ -120,8 +122,13 @@ class OpprettJournalpostService(
                     )
                 },
             )
-        request = populerMedDokumenterByteData(request, originalJournalpostId)
-        return opprettJournalpost(request, knyttTilSaker, skalFerdigstilles)
+        val dokumentKatalog = Files.createTempDirectory("opprett-journalpost")
+        try {
+            request = populerMedDokumenterByteData(request, originalJournalpostId, dokumentKatalog)
+            return opprettJournalpost(request, knyttTilSaker, skalFerdigstilles)
+        } finally {
+            dokumentKatalog.toFile().deleteRecursively()
+        }
     }
 
     private fun opprettJournalpost(
@@ -204,13 +211,22 @@ class OpprettJournalpostService(
             }
     }
 
-    private fun populerMedDokumenterByteData(request: JoarkOpprettJournalpostRequest, originalJournalpostId: Long?): JoarkOpprettJournalpostRequest {
+    /**
+     * Laster ned dokumentene fra originaljournalposten parallelt til filer i [dokumentKatalog]. Filene base64-kodes først
+     * når requesten sendes til dokarkiv.
+     */
+    private fun populerMedDokumenterByteData(
+        request: JoarkOpprettJournalpostRequest,
+        originalJournalpostId: Long?,
+        dokumentKatalog: Path,
+    ): JoarkOpprettJournalpostRequest {
         if (originalJournalpostId != null) {
+            val skalHentes = request.dokumenter.filter { it.dokumentvarianter.isEmpty() && Strings.isNotEmpty(it.dokumentInfoId) }
+            val dokumentFiler = dokumentService.lastNedDokumenter(originalJournalpostId, skalHentes.map { it.dokumentInfoId!! }, dokumentKatalog)
             return request.copy(
                 dokumenter = request.dokumenter.map {
-                    if (it.dokumentvarianter.isEmpty() && Strings.isNotEmpty(it.dokumentInfoId)) {
-                        val dokument = hentDokument(originalJournalpostId, it.dokumentInfoId!!)
-                        it.copy(dokumentvarianter = listOf(opprettDokumentVariant(null, dokument)))
+                    if (it in skalHentes) {
+                        it.copy(dokumentvarianter = listOf(opprettDokumentVariant(null, dokumentFiler.getValue(it.dokumentInfoId!!))))
                     } else {
                         it
                     }
@@ -344,6 +360,4 @@ class OpprettJournalpostService(
             },
         )
     }
-
-    private fun hentDokument(journalpostId: Long, dokumentId: String): ByteArray = dokumentService.hentDokument(journalpostId, dokumentId).body!!
 }
@@ -33,6 +33,13 @@ class HendelseCorrelationAspect {
         RequestContextHolder.setRequestAttributes(KafkaRequestScopeAttributes())
     }
 
+    @Before(value = "execution(* no.nav.bidrag.dokument.arkiv.kafka.HendelseListener.lesUtsattHendelse(..)) && args(hendelse, ..)")
+    fun addCorrelationIdToThreadUtsattHendelse(joinPoint: JoinPoint, hendelse: ConsumerRecord<String, String>) {
+        val correlationId = CorrelationId.generateTimestamped("utsattHendelse_" + hendelse.key())
+        MDC.put(CORRELATION_ID, correlationId.get())
+        RequestContextHolder.setRequestAttributes(KafkaRequestScopeAttributes())
+    }
+
     @After(value = "execution(* no.nav.bidrag.dokument.arkiv.kafka.HendelseListener.*(..))")
     fun clearCorrelationIdFromBehandleHendelseService(joinPoint: JoinPoint) {
         MDC.clear()
@@ -367,3 +367,46 @@ class BrevkodeToDistribusjonstypeMapper {
         initBrevkodemap()
     }
 }
+
+/**
+ * Status for en distribusjon som er bestilt asynkront. [resultat] settes når distribusjonen er [DistribusjonJobbStatus.FERDIG],
+ * og [feilmelding] når den har [DistribusjonJobbStatus.FEILET].
+ */
+data class DistribusjonJobbDto(
+    val jobbId: String,
+    val journalpostId: String,
+    val status: DistribusjonJobbStatus,
+    val steg: DistribusjonSteg? = null,
+    val resultat: DistribuerJournalpostResponse? = null,
+    val feilmelding: String? = null,
+)
+
+enum class DistribusjonJobbStatus {
+    VENTER,
+    KJORER,
+    FERDIG,
+    FEILET,
+}
+
+enum class DistribusjonSteg {
+    HENTER_JOURNALPOST,
+    BESTILLER_DISTRIBUSJON,
+    VENTER_PA_DISTRIBUSJON,
+    OPPDATERER_JOURNALPOST,
+}
+
+data class DistribuerBatchRequest(
+    val batchId: String,
+    val journalpostIder: List<String>,
+)
+
+/**
+ * Resultatet av distribusjonen av en av journalpostene i en [DistribuerBatchRequest]. [status] er enten
+ * [DistribusjonJobbStatus.FERDIG] med [resultat] eller [DistribusjonJobbStatus.FEILET] med [feilmelding].
+ */
+data class DistribuerBatchResultat(
+    val journalpostId: String,
+    val status: DistribusjonJobbStatus,
+    val resultat: DistribuerJournalpostResponse? = null,
+    val feilmelding: String? = null,
+)
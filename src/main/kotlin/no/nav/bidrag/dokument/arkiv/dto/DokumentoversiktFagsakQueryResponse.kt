@@ -15,4 +15,12 @@ data class DokumentoversiktFagsak(
 
 data class DokumentoversiktFagsakListe(
     var journalposter: List<Journalpost> = emptyList(),
+    var sideInfo: SideInfo? = null,
+) {
+    fun nesteSidePeker(): String? = sideInfo?.takeIf { it.finnesNesteSide }?.sluttpeker
+}
+
+data class SideInfo(
+    var sluttpeker: String? = null,
+    var finnesNesteSide: Boolean = false,
 )
@@ -1029,6 +1029,23 @@ data class Dokument(var tittel: String? = null, var dokumentInfoId: String? = nu
     )
 }
 
+/**
+ * Dokumentene i en journalpost og om saksbehandleren som spør kan åpne variantene av dem.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+data class DokumentTilgang(val dokumenter: List<DokumentTilgangDokument> = emptyList()) {
+    /**
+     * Gir null når dokumentet ikke finnes i journalposten.
+     */
+    fun harTilgangTilArkivvariant(dokumentInfoId: String): Boolean? = dokumenter.find { it.dokumentInfoId == dokumentInfoId }
+        ?.dokumentvarianter
+        ?.any { it.variantformat == "ARKIV" && it.saksbehandlerHarTilgang }
+}
+
+data class DokumentTilgangDokument(val dokumentInfoId: String? = null, val dokumentvarianter: List<DokumentTilgangVariant> = emptyList())
+
+data class DokumentTilgangVariant(val variantformat: String? = null, val saksbehandlerHarTilgang: Boolean = false)
+
 data class DatoType(var dato: String? = null, var datotype: String? = null) {
     fun somDato(): LocalDate {
         val datoStreng = dato?.substring(0, 10)
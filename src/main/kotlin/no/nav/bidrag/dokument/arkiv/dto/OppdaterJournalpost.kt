@@ -310,6 +310,71 @@ sealed class OppdaterJournalpostRequest(private var journalpostId: Long? = -1) {
     data class GenerellSak(override var sakstype: Sakstype? = Sakstype.GENERELL_SAK) : Sak()
 }
 
+/**
+ * Endringene fra flere [OppdaterJournalpostRequest] slått sammen til én oppdatering av journalposten. Felter som settes av en
+ * senere endring overskriver det en tidligere endring har satt, og dokumentene slås sammen per dokumentInfoId.
+ */
+data class SammenslattOppdaterJournalpostRequest(private var journalpostId: Long) : OppdaterJournalpostRequest(journalpostId) {
+    internal fun leggTil(endring: OppdaterJournalpostRequest) {
+        sak = endring.sak ?: sak
+        tittel = endring.tittel ?: tittel
+        journalfoerendeEnhet = endring.journalfoerendeEnhet ?: journalfoerendeEnhet
+        datoRetur = endring.datoRetur ?: datoRetur
+        datoDokument = endring.datoDokument ?: datoDokument
+        tilleggsopplysninger = endring.tilleggsopplysninger ?: tilleggsopplysninger
+        tema = endring.tema ?: tema
+        datoMottatt = endring.datoMottatt ?: datoMottatt
+        bruker = endring.bruker ?: bruker
+        avsenderMottaker = endring.avsenderMottaker ?: avsenderMottaker
+        dokumenter = slaSammenDokumenter(endring.dokumenter)
+    }
+
+    private fun slaSammenDokumenter(nyeDokumenter: List<Dokument>): List<Dokument> {
+        val sammenslatt = dokumenter.associateByTo(LinkedHashMap()) { it.dokumentInfoId }
+        nyeDokumenter.forEach { nytt ->
+            val eksisterende = sammenslatt[nytt.dokumentInfoId]
+            sammenslatt[nytt.dokumentInfoId] = eksisterende?.copy(
+                tittel = nytt.tittel ?: eksisterende.tittel,
+                brevkode = nytt.brevkode ?: eksisterende.brevkode,
+            ) ?: nytt
+        }
+        return sammenslatt.values.toList()
+    }
+}
+
+@DslMarker
+annotation class OppdaterJournalpostRequestBuilderDsl
+
+@OppdaterJournalpostRequestBuilderDsl
+class OppdaterJournalpostRequestBuilder(private val journalpostId: Long) {
+    private val endringer: MutableList<OppdaterJournalpostRequest> = mutableListOf()
+
+    @OppdaterJournalpostRequestBuilderDsl
+    operator fun OppdaterJournalpostRequest?.unaryPlus() {
+        if (this == null) return
+        require(hentJournalpostId() == journalpostId) {
+            "Kan ikke slå sammen endring av journalpost ${hentJournalpostId()} med endring av journalpost $journalpostId"
+        }
+        endringer.add(this)
+    }
+
+    internal fun build(): OppdaterJournalpostRequest? = if (endringer.isEmpty()) {
+        null
+    } else {
+        SammenslattOppdaterJournalpostRequest(journalpostId).also { request -> endringer.forEach { request.leggTil(it) } }
+    }
+}
+
+/**
+ * Slår sammen endringene som legges til med unaryPlus i [setup] til én oppdatering, eller null hvis ingen endringer ble lagt til.
+ */
+@OppdaterJournalpostRequestBuilderDsl
+fun oppdaterJournalpost(journalpostId: Long, setup: OppdaterJournalpostRequestBuilder.() -> Unit): OppdaterJournalpostRequest? {
+    val oppdaterJournalpostBuilder = OppdaterJournalpostRequestBuilder(journalpostId)
+    oppdaterJournalpostBuilder.setup()
+    return oppdaterJournalpostBuilder.build()
+}
+
 data class OppdaterJournalpostResponse(var journalpostId: Long? = null)
 
 data class FerdigstillJournalpostRequest(
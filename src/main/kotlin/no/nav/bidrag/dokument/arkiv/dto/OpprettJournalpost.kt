@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties
 import com.fasterxml.jackson.annotation.JsonInclude
 import no.nav.bidrag.transport.dokument.OpprettJournalpostRequest
 import org.apache.commons.lang3.Validate
+import java.nio.file.Path
 
 typealias DokumentId = String
 typealias DokumentByte = Map<DokumentId, ByteArray>
@@ -64,9 +65,15 @@ data class JoarkOpprettJournalpostRequest(
     data class DokumentVariant(
         val filtype: String? = null,
         val variantformat: String? = null,
-        val fysiskDokument: ByteArray,
+        val fysiskDokument: ByteArray? = null,
         val filnavn: String? = null,
-    )
+        @JsonIgnore
+        val fysiskDokumentFil: Path? = null,
+    ) {
+        init {
+            Validate.isTrue(fysiskDokument != null || fysiskDokumentFil != null, "Dokumentvariant må ha fysiskDokument eller fysiskDokumentFil")
+        }
+    }
 }
 
 @DslMarker
@@ -222,6 +229,13 @@ fun opprettDokumentVariant(filnavn: String? = null, dokumentByte: ByteArray): Jo
     filnavn = if (filnavn != null) "$filnavn.pdf" else null,
 )
 
+fun opprettDokumentVariant(filnavn: String? = null, dokumentFil: Path): JoarkOpprettJournalpostRequest.DokumentVariant = JoarkOpprettJournalpostRequest.DokumentVariant(
+    variantformat = "ARKIV",
+    filtype = "PDFA",
+    fysiskDokumentFil = dokumentFil,
+    filnavn = if (filnavn != null) "$filnavn.pdf" else null,
+)
+
 data class JoarkOpprettJournalpostResponse(
     var journalpostId: Long? = null,
     val journalstatus: String? = null,
@@ -18,11 +18,16 @@ open class TekniskFeilException(message: String, throwable: Throwable) : HttpSta
 }
 
 class JournalIkkeFunnetException(message: String) : RuntimeException(message)
+class JournalStromAvbruttException(message: String, throwable: Throwable) : RuntimeException(message, throwable)
 class JournalpostDataException(message: String) : RuntimeException(message)
 class JournalpostHendelseException(message: String, throwable: Throwable) : RuntimeException(message, throwable)
 
 class JournalpostIkkeFunnetException(message: String) : RuntimeException(message)
 
+class DokumentIkkeTilgangException(message: String) : HttpStatusException(message) {
+    override val status: HttpStatus get() = HttpStatus.FORBIDDEN
+}
+
 class SafException(message: String, override val status: HttpStatus) : HttpStatusException(message)
 class PersonException(message: String) : RuntimeException(message)
 class ResourceDiscriminatorException(message: String) : RuntimeException(message)
@@ -38,6 +43,9 @@ class KnyttTilSakManglerTemaException(message: String) : RuntimeException(messag
 class UgyldigDistribusjonException(message: String) : FunksjonellFeilException(message)
 class DistribusjonFeiletFunksjoneltException(message: String) : FunksjonellFeilException(message)
 class DistribusjonFeiletTekniskException(message: String, throwable: Throwable) : TekniskFeilException(message, throwable)
+class DistribusjonKoFullException(message: String) : HttpStatusException(message) {
+    override val status: HttpStatus get() = HttpStatus.SERVICE_UNAVAILABLE
+}
 
 class OppdaterJournalpostFeiletFunksjoneltException(message: String) : FunksjonellFeilException(message)
 
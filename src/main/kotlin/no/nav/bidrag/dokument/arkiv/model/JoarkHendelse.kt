@@ -21,8 +21,6 @@ enum class JoarkHendelseType(val hendelsesType: String) {
     }
 }
 class JournalpostTema internal constructor(journalfoeringHendelseRecord: JournalfoeringHendelseRecord) {
-    val BEHANDLINGSTEMA_BIDRAG = "BID"
-    val BEHANDLINGSTEMA_FAR = "FAR"
     private val gammelt: String
     private val nytt: String
 
@@ -31,5 +29,11 @@ class JournalpostTema internal constructor(journalfoeringHendelseRecord: Journal
         nytt = journalfoeringHendelseRecord.temaNytt ?: ""
     }
 
-    fun erOmhandlingAvBidrag(): Boolean = BEHANDLINGSTEMA_BIDRAG == gammelt || BEHANDLINGSTEMA_BIDRAG == nytt || BEHANDLINGSTEMA_FAR == gammelt || BEHANDLINGSTEMA_FAR == nytt
+    fun erOmhandlingAvBidrag(): Boolean = erOmhandlingAvBidrag(gammelt, nytt)
+
+    companion object {
+        private val BEHANDLINGSTEMAER = setOf("BID", "FAR")
+
+        fun erOmhandlingAvBidrag(temaGammelt: String?, temaNytt: String?): Boolean = temaGammelt in BEHANDLINGSTEMAER || temaNytt in BEHANDLINGSTEMAER
+    }
 }
@@ -0,0 +1,10 @@
+package no.nav.bidrag.dokument.arkiv.query
+
+/**
+ * Henter bare dokumentene i journalposten og om saksbehandleren kan åpne variantene, uten resten av journalposten.
+ */
+data class DokumentTilgangQuery(val journalpostId: Long) : GraphQuery() {
+    override fun getQuery(): String = this.graphqlQuery("dokumentTilgang")
+
+    override fun getVariables(): HashMap<String, Any> = hashMapOf("journalpostId" to journalpostId.toString())
+}
@@ -1,49 +1,21 @@
 package no.nav.bidrag.dokument.arkiv.query
 
-data class DokumentoversiktFagsakQuery(val saksnummer: String, val tema: List<String>) : GraphQuery() {
-    private val query = """
-        query dokumentoversiktFagsak(${"$"}fagsakId: String!, ${"$"}tema: [Tema]){
-            dokumentoversiktFagsak(fagsak: {fagsakId: ${"$"}fagsakId, fagsaksystem: "BISYS"}, tema:${"$"}tema, 
-            foerste: 500, journalstatuser: [FEILREGISTRERT, MOTTATT, JOURNALFOERT, FERDIGSTILT, EKSPEDERT, RESERVERT]) {
-              journalposter {
-                avsenderMottaker {
-                  navn
-                }
-                bruker {
-                  id
-                  type
-                }
-                dokumenter {
-                  dokumentInfoId
-                  brevkode
-                  tittel
-                }
-                kanal
-                journalforendeEnhet
-                journalfortAvNavn
-                journalpostId
-                journalposttype
-                journalstatus
-                antallRetur
-                tilleggsopplysninger {
-                    nokkel
-                    verdi
-                } 
-                relevanteDatoer {
-                  dato
-                  datotype
-                }
-                sak {
-                  fagsakId
-                }
-                tema
-                tittel
-              }
-            }
-        }
-    """.trimIndent()
+data class DokumentoversiktFagsakQuery(
+    val saksnummer: String,
+    val tema: List<String>,
+    val foerste: Int = SIDE_STORRELSE,
+    val etter: String? = null,
+) : GraphQuery() {
 
-    override fun getQuery(): String = query
+    override fun getQuery(): String = this.graphqlQuery("dokumentoversiktFagsak")
 
-    override fun getVariables(): HashMap<String, Any> = hashMapOf("fagsakId" to saksnummer, "tema" to tema)
+    override fun getVariables(): HashMap<String, Any> {
+        val variables = hashMapOf<String, Any>("fagsakId" to saksnummer, "tema" to tema, "foerste" to foerste)
+        etter?.let { variables["etter"] = it }
+        return variables
+    }
+
+    companion object {
+        const val SIDE_STORRELSE = 500
+    }
 }
@@ -0,0 +1,27 @@
+package no.nav.bidrag.dokument.arkiv.query
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Spørringsdokumentene under `resources/graphql`. Hvert dokument leses og minifiseres bare en gang,
+ * slik at det kun er variablene som bygges per kall.
+ */
+object GraphQueryDokumenter {
+    private val dokumenter = ConcurrentHashMap<String, String>()
+    private val WHITESPACE = Regex("\\s+")
+    private val WHITESPACE_RUNDT_SKILLETEGN = Regex("\\s*([{}()\\[\\],])\\s*")
+
+    fun hent(navn: String): String = dokumenter.computeIfAbsent(navn) { minifiser(lesDokument(it)) }
+
+    internal fun minifiser(dokument: String): String = dokument
+        .lineSequence()
+        .map { it.substringBefore("#") }
+        .joinToString(" ")
+        .replace(WHITESPACE, " ")
+        .replace(WHITESPACE_RUNDT_SKILLETEGN, "$1")
+        .trim()
+
+    private fun lesDokument(navn: String): String = GraphQueryDokumenter::class.java.getResource("/graphql/$navn.graphql")
+        ?.readText()
+        ?: throw IllegalStateException("Fant ikke graphql-dokument $navn")
+}
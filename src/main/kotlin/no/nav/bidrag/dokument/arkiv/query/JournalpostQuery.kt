@@ -5,4 +5,16 @@ data class JournalpostQuery(val journalpostId: Long) : GraphQuery() {
     override fun getQuery(): String = this.graphqlQuery("journalpost")
 
     override fun getVariables(): HashMap<String, Any> = hashMapOf("journalpostId" to journalpostId.toString())
+
+    companion object {
+        /**
+         * Feltutvalget til journalpost-spørringen (alt mellom klammene etter `journalpost(journalpostId: ...)`).
+         * Brukes for å sette sammen flere journalpost-oppslag i en spørring.
+         */
+        val journalpostUtvalg: String by lazy {
+            val query = GraphQueryDokumenter.hent("journalpost")
+            val start = query.indexOf('{', query.indexOf("journalpost(journalpostId"))
+            query.substring(start, query.lastIndexOf('}')).trim()
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package no.nav.bidrag.dokument.arkiv.query
+
+/**
+ * Henter flere journalposter i en spørring. Hver journalpost hentes med eget alias (jp0, jp1, ...)
+ * og samme feltutvalg som [JournalpostQuery].
+ */
+data class JournalposterQuery(val journalpostIds: List<Long>) : GraphQuery() {
+
+    override fun getQuery(): String {
+        val journalpostUtvalg = JournalpostQuery.journalpostUtvalg
+        val variabler = journalpostIds.indices.joinToString(",") { "\$${alias(it)}: String!" }
+        val utvalg = journalpostIds.indices.joinToString(" ") {
+            "${alias(it)}:journalpost(journalpostId: \$${alias(it)})$journalpostUtvalg"
+        }
+        return "query journalposter($variabler){$utvalg}"
+    }
+
+    override fun getVariables(): HashMap<String, Any> = journalpostIds
+        .withIndex()
+        .associateTo(HashMap()) { (index, journalpostId) -> alias(index) to journalpostId.toString() }
+
+    companion object {
+        fun alias(index: Int) = "jp$index"
+    }
+}
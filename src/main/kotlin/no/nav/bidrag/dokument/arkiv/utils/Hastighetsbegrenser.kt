@@ -0,0 +1,43 @@
+package no.nav.bidrag.dokument.arkiv.utils
+
+import java.time.Duration
+
+/**
+ * Token bucket som slipper gjennom [perSekund] kall i sekundet, og opptil [perSekund] på en gang etter at det har vært stille.
+ * Kallene som må vente reserverer sin plass under lås og venter utenfor, slik at de slippes gjennom i den rekkefølgen de kom.
+ * [klokke] og [vent] kan byttes ut i tester.
+ */
+class Hastighetsbegrenser(
+    private val perSekund: Double,
+    private val klokke: () -> Long = System::nanoTime,
+    private val vent: (Duration) -> Unit = Thread::sleep,
+) {
+    private val kapasitet = maxOf(perSekund, 1.0)
+    private var tokens = kapasitet
+    private var sistFylt = klokke()
+
+    init {
+        require(perSekund > 0) { "Hastighetsbegrenser må tillate flere enn 0 kall i sekundet" }
+    }
+
+    /**
+     * Venter til det er plass til et nytt kall.
+     */
+    fun ventPaPlass() {
+        val ventetid = reserver()
+        if (!ventetid.isZero) vent(ventetid)
+    }
+
+    @Synchronized
+    private fun reserver(): Duration {
+        val na = klokke()
+        tokens = minOf(kapasitet, tokens + (na - sistFylt) / NANOS_PER_SEKUND * perSekund)
+        sistFylt = na
+        tokens -= 1
+        return if (tokens >= 0) Duration.ZERO else Duration.ofNanos((-tokens / perSekund * NANOS_PER_SEKUND).toLong())
+    }
+
+    companion object {
+        private const val NANOS_PER_SEKUND = 1_000_000_000.0
+    }
+}
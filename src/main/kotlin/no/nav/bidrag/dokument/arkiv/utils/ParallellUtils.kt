@@ -0,0 +1,54 @@
+package no.nav.bidrag.dokument.arkiv.utils
+
+import no.nav.bidrag.dokument.arkiv.aop.KafkaRequestScopeAttributes
+import org.slf4j.MDC
+import org.springframework.web.context.request.RequestAttributes
+import org.springframework.web.context.request.RequestContextHolder
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+/**
+ * Utfører [utfor] for hver av [nokler] på virtuelle tråder med opptil [parallelitet] samtidige kall, og venter til alle er ferdige.
+ * Forespørselen og MDC fra tråden som kaller gjøres tilgjengelig for kallene, slik at tokenet mot andre tjenester og correlationId
+ * følger med. Feiler et av kallene kastes feilen videre.
+ */
+fun <K, V> utforParallelt(nokler: Collection<K>, parallelitet: Int, utfor: (K) -> V): Map<K, V> {
+    if (nokler.isEmpty()) return emptyMap()
+    val requestAttributes = RequestContextHolder.getRequestAttributes()
+    val mdc = MDC.getCopyOfContextMap()
+    Executors.newFixedThreadPool(parallelitet.coerceIn(1, nokler.size), Thread.ofVirtual().factory()).use { executor ->
+        val kall = nokler.associateWith { nokkel ->
+            executor.submit<V> {
+                RequestContextHolder.setRequestAttributes(requestAttributes)
+                mdc?.let { MDC.setContextMap(it) }
+                try {
+                    utfor(nokkel)
+                } finally {
+                    RequestContextHolder.resetRequestAttributes()
+                    MDC.clear()
+                }
+            }
+        }
+        return kall.mapValues { (_, resultat) ->
+            try {
+                resultat.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+    }
+}
+
+/**
+ * Kopierer request-attributtene til tråden som kaller til en egen instans, slik at de kan brukes av andre tråder etter at
+ * forespørselen er ferdig og gjenbrukt av servletcontaineren.
+ */
+fun kopierRequestAttributes(): RequestAttributes {
+    val kopi = KafkaRequestScopeAttributes()
+    RequestContextHolder.getRequestAttributes()?.let { attributter ->
+        attributter.getAttributeNames(RequestAttributes.SCOPE_REQUEST).forEach { navn ->
+            attributter.getAttribute(navn, RequestAttributes.SCOPE_REQUEST)?.let { kopi.setAttribute(navn, it, RequestAttributes.SCOPE_REQUEST) }
+        }
+    }
+    return kopi
+}
@@ -0,0 +1,124 @@
+package no.nav.bidrag.dokument.arkiv
+
+import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import io.kotest.matchers.longs.shouldBeGreaterThan
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import no.nav.bidrag.dokument.arkiv.dto.SaksbehandlerInfoResponse
+import no.nav.bidrag.domene.ident.Personident
+import no.nav.bidrag.transport.person.PersonDto
+import org.awaitility.kotlin.await
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.springframework.boot.convert.ApplicationConversionService
+import org.springframework.cache.CacheManager
+import org.springframework.cache.caffeine.CaffeineCache
+import org.springframework.core.env.MapPropertySource
+import org.springframework.core.env.StandardEnvironment
+import java.time.Duration
+import java.util.Optional
+import java.util.concurrent.Executors
+
+@DisplayName("CacheConfig")
+internal class CacheConfigTest {
+    private val meterRegistry = SimpleMeterRegistry()
+    private val executor = Executors.newVirtualThreadPerTaskExecutor()
+
+    @Test
+    fun `skal opprette de samme cachene med vekt fra konfigurasjonen`() {
+        val cacheManager = CacheConfig().cacheManager(environment(mapOf("PERSON_CACHE_MAKS_VEKT" to "1KB")), meterRegistry, executor)
+
+        cacheManager.cacheNames shouldContainExactlyInAnyOrder listOf(
+            CacheConfig.PERSON_CACHE,
+            CacheConfig.PERSON_ADRESSE_CACHE,
+            CacheConfig.GEOGRAFISK_ENHET_CACHE,
+            CacheConfig.GEOGRAFISK_ENHET_WITH_TEMA_CACHE,
+            CacheConfig.SAKSBEHANDLERINFO_CACHE,
+            CacheConfig.DISTRIBUSJON_KANAL_CACHE,
+        )
+        cacheManager.getCache("UKJENT_CACHE") shouldBe null
+        personCache(cacheManager).policy().eviction().get().maximum shouldBe 1024
+        meterRegistry.find("cache.size").tag("cache", CacheConfig.PERSON_CACHE).gauge() shouldNotBe null
+    }
+
+    @Test
+    fun `skal begrense cachen etter vekten av verdiene`() {
+        val cacheManager = CacheConfig().cacheManager(environment(mapOf("PERSON_CACHE_MAKS_VEKT" to "4KB")), meterRegistry, executor)
+        val cache = cacheManager.getCache(CacheConfig.PERSON_CACHE)!!
+
+        (1..100).forEach { cache.put("aktør$it", Optional.of(PersonDto(Personident("1234567890$it"), navn = "Navn Navnesen", aktørId = "aktør$it"))) }
+        personCache(cacheManager).cleanUp()
+
+        (personCache(cacheManager).policy().eviction().get().weightedSize().asLong <= 4 * 1024) shouldBe true
+        (personCache(cacheManager).estimatedSize() < 100) shouldBe true
+    }
+
+    @Test
+    fun `skal gi større vekt til større verdier`() {
+        val liten = CacheConfig.vekt(SaksbehandlerInfoResponse("Z123456", "Navn"))
+        val stor = CacheConfig.vekt(SaksbehandlerInfoResponse("Z123456", "Navn".repeat(100)))
+
+        (stor > liten) shouldBe true
+        CacheConfig.vekt(Optional.empty<PersonDto>()) shouldBe CacheConfig.vekt(null)
+    }
+
+    @Test
+    fun `skal anslå vekt av lister og sykliske verdier uten å serialisere dem`() {
+        val personer = (1..10).map { PersonDto(Personident("1234567890$it"), navn = "Navn Navnesen") }
+        val node = Node().apply { neste = this }
+
+        (CacheConfig.vekt(personer) > 10 * CacheConfig.vekt(null)) shouldBe true
+        (CacheConfig.vekt(node) > 0) shouldBe true
+    }
+
+    class Node {
+        var neste: Node? = null
+    }
+
+    @Test
+    fun `skal gi gammel verdi og hente ny i bakgrunnen etter oppfrisking`() {
+        val cacheManager = CacheConfig().cacheManager(environment(mapOf("SAKSBEHANDLERINFO_CACHE_OPPFRISKING" to "1ms")), meterRegistry, executor)
+        val cache = cacheManager.getCache(CacheConfig.SAKSBEHANDLERINFO_CACHE)!!
+        val oppslag = Oppslag()
+        val nokkel = OppfriskbarNokkel.GENERATOR.generate(oppslag, Oppslag::class.java.getMethod("hent", String::class.java), "Z123456")
+        cache.put(nokkel, "gammel")
+        oppslag.svar = "ny"
+        Thread.sleep(10)
+
+        cache.get(nokkel)?.get() shouldBe "gammel"
+        await.atMost(Duration.ofSeconds(5)).until { cache.get(nokkel)?.get() == "ny" }
+        meterRegistry.find(CacheConfig.CACHE_OPPFRISKING_TIMER_NAME).tag("cache", CacheConfig.SAKSBEHANDLERINFO_CACHE).timer()!!.count() shouldBeGreaterThan 0
+    }
+
+    @Test
+    fun `skal beholde gammel verdi når oppfrisking feiler`() {
+        val cacheManager = CacheConfig().cacheManager(environment(mapOf("SAKSBEHANDLERINFO_CACHE_OPPFRISKING" to "1ms")), meterRegistry, executor)
+        val cache = cacheManager.getCache(CacheConfig.SAKSBEHANDLERINFO_CACHE)!!
+        val oppslag = Oppslag()
+        val nokkel = OppfriskbarNokkel.GENERATOR.generate(oppslag, Oppslag::class.java.getMethod("hent", String::class.java), "Z123456")
+        cache.put(nokkel, "gammel")
+        oppslag.feil = true
+        Thread.sleep(10)
+
+        cache.get(nokkel)?.get() shouldBe "gammel"
+        val feil = meterRegistry.find(CacheConfig.CACHE_OPPFRISKING_FEIL_COUNTER_NAME).tag("cache", CacheConfig.SAKSBEHANDLERINFO_CACHE).counter()!!
+        await.atMost(Duration.ofSeconds(5)).until { feil.count() > 0 }
+        cache.get(nokkel)?.get() shouldBe "gammel"
+    }
+
+    class Oppslag {
+        @Volatile var svar = "gammel"
+
+        @Volatile var feil = false
+
+        fun hent(ident: String): String = if (feil) throw IllegalStateException("Feil ved henting av $ident") else svar
+    }
+
+    private fun personCache(cacheManager: CacheManager) = (cacheManager.getCache(CacheConfig.PERSON_CACHE) as CaffeineCache).nativeCache
+
+    private fun environment(properties: Map<String, Any>) = StandardEnvironment().apply {
+        conversionService = ApplicationConversionService()
+        propertySources.addFirst(MapPropertySource("test", properties))
+    }
+}
@@ -0,0 +1,136 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import com.github.tomakehurst.wiremock.WireMockServer
+import com.github.tomakehurst.wiremock.client.WireMock.aResponse
+import com.github.tomakehurst.wiremock.client.WireMock.equalTo
+import com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath
+import com.github.tomakehurst.wiremock.client.WireMock.post
+import com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor
+import com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration
+import io.kotest.matchers.ints.shouldBeLessThan
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.dto.JoarkJournalpostType
+import no.nav.bidrag.dokument.arkiv.dto.JoarkOpprettJournalpostRequest
+import no.nav.bidrag.dokument.arkiv.dto.opprettDokumentVariant
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.http.StreamingHttpOutputMessage
+import org.springframework.http.client.ClientHttpRequest
+import org.springframework.http.client.ClientHttpRequestFactory
+import org.springframework.http.client.ClientHttpResponse
+import org.springframework.http.client.SimpleClientHttpRequestFactory
+import org.springframework.web.client.RestTemplate
+import org.springframework.web.util.DefaultUriBuilderFactory
+import tools.jackson.module.kotlin.jacksonMapperBuilder
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.Base64
+
+@DisplayName("DokarkivConsumer")
+class DokarkivConsumerTest {
+    private val wireMockServer = WireMockServer(WireMockConfiguration.options().dynamicPort())
+    private val tellendeRequestFactory = TellendeRequestFactory(SimpleClientHttpRequestFactory())
+    private val bodyTilInterceptor = mutableListOf<Int>()
+    private lateinit var dokarkivConsumer: DokarkivConsumer
+
+    @TempDir
+    lateinit var katalog: Path
+
+    @BeforeEach
+    fun startWiremock() {
+        wireMockServer.start()
+        val restTemplate = RestTemplate(tellendeRequestFactory)
+        restTemplate.uriTemplateHandler = DefaultUriBuilderFactory(wireMockServer.baseUrl())
+        dokarkivConsumer = DokarkivConsumer(restTemplate, jacksonMapperBuilder().build())
+        // Som i BidragDokumentArkivConfig legges tokeninterceptoren til etter at consumeren er opprettet
+        restTemplate.interceptors.add { request, body, execution ->
+            bodyTilInterceptor.add(body.size)
+            request.headers.setBearerAuth("token")
+            execution.execute(request, body)
+        }
+    }
+
+    @AfterEach
+    fun stopWiremock() {
+        wireMockServer.stop()
+    }
+
+    @Test
+    fun `skal sende dokumenter fra fil uten å bufre requesten i minnet`() {
+        val dokumentStorrelse = 5 * 1024 * 1024
+        val innhold = ByteArray(dokumentStorrelse) { (it % 251).toByte() }
+        val fil = Files.write(katalog.resolve("dokument"), innhold)
+        wireMockServer.stubFor(
+            post(urlPathEqualTo(DokarkivConsumer.URL_JOURNALPOSTAPI_V1)).willReturn(
+                aResponse().withHeader(HttpHeaders.CONTENT_TYPE, "application/json").withBody("""{"journalpostId": 123, "journalstatus": "ENDELIG"}"""),
+            ),
+        )
+
+        val respons = dokarkivConsumer.opprett(opprettRequest(opprettDokumentVariant(null, fil)), false)
+
+        respons.journalpostId shouldBe 123L
+        bodyTilInterceptor shouldBe listOf(0)
+        tellendeRequestFactory.bufret shouldBe false
+        (tellendeRequestFactory.antallBytes > dokumentStorrelse.toLong() * 4 / 3) shouldBe true
+        tellendeRequestFactory.storsteSkriving shouldBeLessThan dokumentStorrelse
+        wireMockServer.verify(
+            postRequestedFor(urlPathEqualTo(DokarkivConsumer.URL_JOURNALPOSTAPI_V1))
+                .withHeader(HttpHeaders.AUTHORIZATION, equalTo("Bearer token"))
+                .withRequestBody(
+                    matchingJsonPath(
+                        "$.dokumenter[0].dokumentvarianter[0].fysiskDokument",
+                        equalTo(Base64.getEncoder().encodeToString(innhold)),
+                    ),
+                ),
+        )
+    }
+
+    private fun opprettRequest(variant: JoarkOpprettJournalpostRequest.DokumentVariant) = JoarkOpprettJournalpostRequest(
+        tittel = "Tittel på hoveddokument",
+        journalpostType = JoarkJournalpostType.UTGAAENDE,
+        tema = "BID",
+        dokumenter = listOf(JoarkOpprettJournalpostRequest.Dokument(tittel = "Dokument", dokumentvarianter = listOf(variant))),
+    )
+
+    /**
+     * Teller hvordan bodyen skrives til http-forbindelsen. En bufret body skrives med én skriving, eller hentes med getBody.
+     */
+    private class TellendeRequestFactory(private val requestFactory: ClientHttpRequestFactory) : ClientHttpRequestFactory {
+        var bufret = false
+        var antallBytes = 0L
+        var storsteSkriving = 0
+
+        override fun createRequest(uri: URI, httpMethod: HttpMethod): ClientHttpRequest {
+            val request = requestFactory.createRequest(uri, httpMethod)
+            return object : ClientHttpRequest by request, StreamingHttpOutputMessage {
+                override fun getBody(): OutputStream {
+                    bufret = true
+                    return request.body
+                }
+
+                override fun setBody(body: StreamingHttpOutputMessage.Body) {
+                    (request as StreamingHttpOutputMessage).setBody { ut -> body.writeTo(tell(ut)) }
+                }
+
+                override fun execute(): ClientHttpResponse = request.execute()
+            }
+        }
+
+        private fun tell(ut: OutputStream) = object : FilterOutputStream(ut) {
+            override fun write(b: ByteArray, off: Int, len: Int) {
+                antallBytes += len
+                storsteSkriving = maxOf(storsteSkriving, len)
+                out.write(b, off, len)
+            }
+        }
+    }
+}
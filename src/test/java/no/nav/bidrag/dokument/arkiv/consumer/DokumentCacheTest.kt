@@ -0,0 +1,103 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.OutputStream
+import java.nio.channels.Channels
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicInteger
+
+@DisplayName("DokumentCache")
+class DokumentCacheTest {
+    @TempDir
+    lateinit var katalog: Path
+
+    private val antallNedlastinger = AtomicInteger()
+
+    @Test
+    fun `skal laste ned dokument en gang og lese det fra disk etterpå`() {
+        val dokumentCache = DokumentCache(true, katalog, 1024 * 1024, SimpleMeterRegistry())
+
+        val forste = dokumentCache.hent(1L, "1", lastNed("dokument 1".toByteArray())) { _, kanal -> Channels.newInputStream(kanal).readAllBytes() }
+        val andre = dokumentCache.hent(1L, "1", lastNed("annet innhold".toByteArray())) { _, kanal -> Channels.newInputStream(kanal).readAllBytes() }
+
+        String(forste) shouldBe "dokument 1"
+        String(andre) shouldBe "dokument 1"
+        antallNedlastinger.get() shouldBe 1
+    }
+
+    @Test
+    fun `skal ikke dele dokument med samme referanse mellom journalposter`() {
+        val dokumentCache = DokumentCache(true, katalog, 1024 * 1024, SimpleMeterRegistry())
+
+        val forste = dokumentCache.hent(1L, "1", lastNed("dokument 1".toByteArray())) { _, kanal -> Channels.newInputStream(kanal).readAllBytes() }
+        val andre = dokumentCache.hent(2L, "1", lastNed("annet innhold".toByteArray())) { _, kanal -> Channels.newInputStream(kanal).readAllBytes() }
+
+        String(forste) shouldBe "dokument 1"
+        String(andre) shouldBe "annet innhold"
+        antallNedlastinger.get() shouldBe 2
+    }
+
+    @Test
+    fun `skal bruke sha-256 av innholdet som filnavn og ETag`() {
+        val dokumentCache = DokumentCache(true, katalog, 1024 * 1024, SimpleMeterRegistry())
+
+        val dokument1 = dokumentCache.hent(1L, "1", lastNed("samme innhold".toByteArray())) { dokument, _ -> dokument }
+        val dokument2 = dokumentCache.hent(1L, "2", lastNed("samme innhold".toByteArray())) { dokument, _ -> dokument }
+        val dokument3 = dokumentCache.hent(1L, "3", lastNed("annet innhold".toByteArray())) { dokument, _ -> dokument }
+
+        dokument1.etag shouldBe "\"${dokument1.fil.fileName}\""
+        dokument1.fil shouldBe dokument2.fil
+        dokument1.etag shouldBe dokument2.etag
+        dokument1.etag shouldNotBe dokument3.etag
+        dokument1.contentType shouldBe "application/pdf"
+        dokument1.storrelse shouldBe "samme innhold".length.toLong()
+    }
+
+    @Test
+    fun `skal fjerne dokumenter fra disk når cachen blir for stor`() {
+        val dokumentCache = DokumentCache(true, katalog, 10 * 1024, SimpleMeterRegistry())
+
+        (1..20).forEach { dokumentreferanse ->
+            dokumentCache.hent(1L, dokumentreferanse.toString(), lastNed(ByteArray(1024) { dokumentreferanse.toByte() })) { _, _ -> }
+        }
+
+        val storrelsePaDisk = Files.list(katalog.resolve(DokumentCache.KATALOGNAVN)).use { filer -> filer.mapToLong { Files.size(it) }.sum() }
+        (storrelsePaDisk <= 10 * 1024) shouldBe true
+    }
+
+    @Test
+    fun `skal laste ned på nytt hvis filen er slettet`() {
+        val dokumentCache = DokumentCache(true, katalog, 1024 * 1024, SimpleMeterRegistry())
+        val dokument = dokumentCache.hent(1L, "1", lastNed("dokument 1".toByteArray())) { dokument, _ -> dokument }
+        Files.delete(dokument.fil)
+
+        val innhold = dokumentCache.hent(1L, "1", lastNed("dokument 1".toByteArray())) { _, kanal -> Channels.newInputStream(kanal).readAllBytes() }
+
+        String(innhold) shouldBe "dokument 1"
+        antallNedlastinger.get() shouldBe 2
+    }
+
+    @Test
+    fun `skal bare tømme sin egen underkatalog ved oppstart`() {
+        val annenFil = Files.writeString(katalog.resolve("annen-fil"), "skal ikke slettes")
+        val cacheKatalog = Files.createDirectories(katalog.resolve(DokumentCache.KATALOGNAVN))
+        Files.writeString(cacheKatalog.resolve("gammel-fil"), "fra forrige oppstart")
+
+        DokumentCache(true, katalog, 1024 * 1024, SimpleMeterRegistry())
+
+        Files.readString(annenFil) shouldBe "skal ikke slettes"
+        Files.list(cacheKatalog).use { it.count() } shouldBe 0
+    }
+
+    private fun lastNed(innhold: ByteArray): (OutputStream) -> DokumentHeadere = { ut ->
+        antallNedlastinger.incrementAndGet()
+        ut.write(innhold)
+        DokumentHeadere("application/pdf", "inline; filename=dokument.pdf")
+    }
+}
@@ -0,0 +1,52 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.aop.KafkaRequestScopeAttributes
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.springframework.web.context.request.RequestContextHolder
+import java.util.concurrent.atomic.AtomicInteger
+
+@DisplayName("ForesporselMemo")
+class ForesporselMemoTest {
+    private val antallKall = AtomicInteger()
+
+    @AfterEach
+    fun ryddOpp() {
+        RequestContextHolder.resetRequestAttributes()
+    }
+
+    @Test
+    fun `skal hente verdien en gang per forespørsel`() {
+        RequestContextHolder.setRequestAttributes(KafkaRequestScopeAttributes())
+        hentJournalpost(1L) shouldBe 1
+        hentJournalpost(1L) shouldBe 1
+        hentJournalpost(2L) shouldBe 2
+
+        RequestContextHolder.setRequestAttributes(KafkaRequestScopeAttributes())
+        hentJournalpost(1L) shouldBe 3
+    }
+
+    @Test
+    fun `skal hente journalposten på nytt etter at den er fjernet`() {
+        RequestContextHolder.setRequestAttributes(KafkaRequestScopeAttributes())
+        hentJournalpost(1L) shouldBe 1
+        hentJournalpost(2L) shouldBe 2
+        ForesporselMemo.hent(listOf("hentPerson", "123")) { antallKall.incrementAndGet() } shouldBe 3
+
+        ForesporselMemo.fjernJournalpost(1L)
+
+        hentJournalpost(1L) shouldBe 4
+        hentJournalpost(2L) shouldBe 2
+        ForesporselMemo.hent(listOf("hentPerson", "123")) { antallKall.incrementAndGet() } shouldBe 3
+    }
+
+    @Test
+    fun `skal hente verdien hver gang uten forespørsel`() {
+        hentJournalpost(1L) shouldBe 1
+        hentJournalpost(1L) shouldBe 2
+    }
+
+    private fun hentJournalpost(journalpostId: Long) = ForesporselMemo.hentForJournalpost(journalpostId, listOf("hentJournalpost")) { antallKall.incrementAndGet() }
+}
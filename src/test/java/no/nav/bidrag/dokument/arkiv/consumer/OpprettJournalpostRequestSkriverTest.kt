@@ -0,0 +1,81 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import io.kotest.matchers.longs.shouldBeLessThan
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.dto.JoarkJournalpostType
+import no.nav.bidrag.dokument.arkiv.dto.JoarkOpprettJournalpostRequest
+import no.nav.bidrag.dokument.arkiv.dto.opprettDokumentVariant
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.slf4j.LoggerFactory
+import tools.jackson.module.kotlin.jacksonMapperBuilder
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.lang.management.ManagementFactory
+import java.nio.file.Files
+import java.nio.file.Path
+
+@DisplayName("OpprettJournalpostRequestSkriver")
+class OpprettJournalpostRequestSkriverTest {
+    private val jsonMapper = jacksonMapperBuilder().build()
+    private val skriver = OpprettJournalpostRequestSkriver(jsonMapper)
+
+    @TempDir
+    lateinit var katalog: Path
+
+    @Test
+    fun `skal skrive samme json for dokumenter på fil som for dokumenter i minnet`() {
+        val innhold = listOf("Innhold på dokumentet".toByteArray(), "Innhold på dokumentet vedlegg".toByteArray())
+        val filer = innhold.mapIndexed { i, dokument -> Files.write(katalog.resolve("dokument$i"), dokument) }
+
+        val iMinnet = opprettRequest(innhold.map { opprettDokumentVariant(null, it) })
+        val paFil = opprettRequest(filer.map { opprettDokumentVariant(null, it) })
+        val ut = ByteArrayOutputStream()
+        skriver.skriv(paFil, ut)
+
+        ut.toString(Charsets.UTF_8) shouldBe jsonMapper.writeValueAsString(iMinnet)
+    }
+
+    @Test
+    fun `skal base64-kode dokumentene fra fil uten å lese dem inn i minnet`() {
+        val dokumentStorrelse = 10 * 1024 * 1024
+        val filer = (1..10).map { i -> Files.write(katalog.resolve("dokument$i"), ByteArray(dokumentStorrelse) { i.toByte() }) }
+        val request = opprettRequest(filer.map { opprettDokumentVariant(null, it) })
+
+        val memoryMXBean = ManagementFactory.getMemoryMXBean()
+        System.gc()
+        val heapFor = memoryMXBean.heapMemoryUsage.used
+        var heapMaks = heapFor
+        var antallBytes = 0L
+        val ut = object : OutputStream() {
+            override fun write(b: Int) {
+                antallBytes++
+            }
+
+            override fun write(b: ByteArray, off: Int, len: Int) {
+                antallBytes += len
+                heapMaks = maxOf(heapMaks, memoryMXBean.heapMemoryUsage.used)
+            }
+        }
+        skriver.skriv(request, ut)
+
+        val okningIHeap = heapMaks - heapFor
+        LOGGER.info("Skrev ${antallBytes / 1024 / 1024}MB json for 10 dokumenter på 10MB, økning i heap ${okningIHeap / 1024 / 1024}MB")
+        (antallBytes > 10L * dokumentStorrelse * 4 / 3) shouldBe true
+        okningIHeap shouldBeLessThan 10L * dokumentStorrelse / 2
+    }
+
+    private fun opprettRequest(varianter: List<JoarkOpprettJournalpostRequest.DokumentVariant>) = JoarkOpprettJournalpostRequest(
+        tittel = "Tittel på hoveddokument",
+        journalpostType = JoarkJournalpostType.UTGAAENDE,
+        tema = "BID",
+        dokumenter = varianter.mapIndexed { i, variant ->
+            JoarkOpprettJournalpostRequest.Dokument(tittel = "Dokument $i", dokumentvarianter = listOf(variant))
+        },
+    )
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(OpprettJournalpostRequestSkriverTest::class.java)
+    }
+}
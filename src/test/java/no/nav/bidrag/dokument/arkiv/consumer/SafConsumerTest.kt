@@ -0,0 +1,216 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import com.github.tomakehurst.wiremock.WireMockServer
+import com.github.tomakehurst.wiremock.client.WireMock.aResponse
+import com.github.tomakehurst.wiremock.client.WireMock.containing
+import com.github.tomakehurst.wiremock.client.WireMock.post
+import com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor
+import com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration
+import com.github.tomakehurst.wiremock.extension.ResponseTransformerV2
+import com.github.tomakehurst.wiremock.http.Response
+import com.github.tomakehurst.wiremock.stubbing.ServeEvent
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.maps.shouldContainKey
+import io.kotest.matchers.maps.shouldHaveSize
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import no.nav.bidrag.dokument.arkiv.model.Discriminator
+import no.nav.bidrag.dokument.arkiv.model.SafException
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import org.springframework.http.HttpStatus
+import org.springframework.web.client.RestTemplate
+import org.springframework.web.util.DefaultUriBuilderFactory
+import tools.jackson.module.kotlin.jacksonMapperBuilder
+import java.time.Duration
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.system.measureTimeMillis
+
+@DisplayName("SafConsumer")
+class SafConsumerTest {
+    private val wireMockServer = WireMockServer(WireMockConfiguration.options().dynamicPort().extensions(JournalposterSvar()))
+    private lateinit var safConsumer: SafConsumer
+
+    @BeforeEach
+    fun startWiremock() {
+        wireMockServer.start()
+        val restTemplate = RestTemplate()
+        restTemplate.uriTemplateHandler = DefaultUriBuilderFactory(wireMockServer.baseUrl() + "/saf")
+        safConsumer = SafConsumer(restTemplate, SingleFlight("saf", SimpleMeterRegistry()), jacksonMapperBuilder().build(), 20)
+    }
+
+    @AfterEach
+    fun stopWiremock() {
+        wireMockServer.stop()
+    }
+
+    @Test
+    fun `skal hente journalposter i bolker med aliaser`() {
+        stubJournalposter()
+
+        val resultat = safConsumer.hentJournalposter((1L..50L).toList())
+
+        resultat.journalposter shouldHaveSize 50
+        resultat.ikkeFunnet shouldHaveSize 0
+        resultat.journalposter[37]!!.journalpostId shouldBe "37"
+        wireMockServer.verify(3, postRequestedFor(urlEqualTo("/saf/graphql")).withRequestBody(containing("query journalposter")))
+    }
+
+    @Test
+    fun `skal rapportere journalposter som ikke finnes uten å feile resten`() {
+        stubJournalposter(ikkeFunnet = setOf(2L))
+
+        val resultat = safConsumer.hentJournalposter(listOf(1L, 2L, 3L))
+
+        resultat.journalposter.keys shouldBe setOf(1L, 3L)
+        resultat.ikkeFunnet shouldContainKey 2L
+        resultat.ikkeFunnet[2L] shouldBe "Fant ikke journalpost"
+    }
+
+    @Test
+    fun `skal feile hele oppslaget ved andre feil enn not_found`() {
+        wireMockServer.stubFor(
+            post(urlEqualTo("/saf/graphql")).willReturn(
+                aResponse().withHeader("Content-Type", "application/json").withBody(
+                    """
+                    {
+                      "errors": [{"message": "Ingen tilgang", "path": ["jp0"], "extensions": {"code": "forbidden"}}],
+                      "data": {"jp0": null}
+                    }
+                    """.trimIndent(),
+                ),
+            ),
+        )
+
+        val exception = shouldThrow<SafException> { safConsumer.hentJournalposter(listOf(1L)) }
+
+        exception.status shouldBe HttpStatus.FORBIDDEN
+    }
+
+    @Test
+    fun `skal bruke færre kall enn enkeltoppslag ved henting av mange journalposter`() {
+        stubJournalposter(forsinkelseMs = 20)
+        val journalpostIds = (1L..100L).toList()
+
+        val tidEnkeltoppslag = measureTimeMillis { journalpostIds.forEach { safConsumer.hentJournalpost(it) } }
+        val tidBatch = measureTimeMillis { safConsumer.hentJournalposter(journalpostIds) }
+
+        LOGGER.info("Hentet ${journalpostIds.size} journalposter: enkeltoppslag ${tidEnkeltoppslag}ms, batch ${tidBatch}ms")
+        wireMockServer.verify(100, postRequestedFor(urlEqualTo("/saf/graphql")).withRequestBody(containing("query journalpost(")))
+        wireMockServer.verify(5, postRequestedFor(urlEqualTo("/saf/graphql")).withRequestBody(containing("query journalposter")))
+    }
+
+    @Test
+    fun `skal hente journalpost fra cache til den fjernes`() {
+        stubJournalposter()
+        val meterRegistry = SimpleMeterRegistry()
+        val journalpostCache = JournalpostCache(true, 100, Duration.ofMinutes(5), meterRegistry)
+        safConsumer.settDiscriminator(Discriminator.SERVICE_USER)
+        safConsumer.leggTilJournalpostCache(journalpostCache)
+
+        val journalpost = safConsumer.hentJournalpost(1L)
+        journalpost.tittel = "Endret lokalt"
+        val journalpostFraCache = safConsumer.hentJournalpost(1L)
+        journalpostCache.fjern(1L)
+        safConsumer.hentJournalpost(1L)
+
+        journalpostFraCache.tittel shouldNotBe "Endret lokalt"
+        wireMockServer.verify(2, postRequestedFor(urlEqualTo("/saf/graphql")).withRequestBody(containing("query journalpost(")))
+        meterRegistry.get("cache.gets").tag("cache", JournalpostCache.JOURNALPOST_CACHE).tag("result", "hit").functionCounter().count() shouldBe 1.0
+        meterRegistry.get("cache.gets").tag("cache", JournalpostCache.JOURNALPOST_CACHE).tag("result", "miss").functionCounter().count() shouldBe 2.0
+    }
+
+    @Test
+    fun `skal ikke cache oppslag med saksbehandlerens token`() {
+        stubJournalposter()
+        val journalpostCache = JournalpostCache(true, 100, Duration.ofMinutes(5), SimpleMeterRegistry())
+        val safConsumerServiceUser = SafConsumer(
+            RestTemplate().apply { uriTemplateHandler = DefaultUriBuilderFactory(wireMockServer.baseUrl() + "/saf") },
+            SingleFlight("saf", SimpleMeterRegistry()),
+            jacksonMapperBuilder().build(),
+        )
+        safConsumerServiceUser.settDiscriminator(Discriminator.SERVICE_USER)
+        safConsumerServiceUser.leggTilJournalpostCache(journalpostCache)
+
+        safConsumer.hentJournalpost(1L)
+        safConsumer.hentJournalpost(1L)
+        safConsumerServiceUser.hentJournalpost(1L)
+        safConsumerServiceUser.hentJournalpost(1L)
+
+        wireMockServer.verify(3, postRequestedFor(urlEqualTo("/saf/graphql")).withRequestBody(containing("query journalpost(")))
+    }
+
+    @Test
+    fun `skal ikke kunne bruke journalpostcachen med saksbehandlerens token`() {
+        shouldThrow<IllegalArgumentException> {
+            safConsumer.leggTilJournalpostCache(JournalpostCache(true, 100, Duration.ofMinutes(5), SimpleMeterRegistry()))
+        }
+    }
+
+    @Test
+    fun `skal ikke slå sammen samtidige kall med saksbehandlerens token`() {
+        stubJournalposter(forsinkelseMs = 200)
+
+        Executors.newFixedThreadPool(2).use { executor ->
+            (1..2).map { executor.submit { safConsumer.hentJournalpost(1L) } }.forEach { it.get(5, TimeUnit.SECONDS) }
+        }
+
+        wireMockServer.verify(2, postRequestedFor(urlEqualTo("/saf/graphql")).withRequestBody(containing("query journalpost(")))
+    }
+
+    private fun stubJournalposter(ikkeFunnet: Set<Long> = emptySet(), forsinkelseMs: Int = 0) {
+        wireMockServer.stubFor(
+            post(urlEqualTo("/saf/graphql")).willReturn(
+                aResponse()
+                    .withHeader("Content-Type", "application/json")
+                    .withFixedDelay(forsinkelseMs)
+                    .withTransformers(JournalposterSvar.NAVN)
+                    .withTransformerParameter(JournalposterSvar.IKKE_FUNNET, ikkeFunnet.map { it.toString() }),
+            ),
+        )
+    }
+
+    /**
+     * Svarer med en journalpost per variabel i spørringen, slik at både enkeltoppslag og aliaserte oppslag kan stubbes likt.
+     */
+    private class JournalposterSvar : ResponseTransformerV2 {
+        override fun transform(response: Response, serveEvent: ServeEvent): Response {
+            val variabler = VARIABEL_REGEX.findAll(serveEvent.request.bodyAsString.substringAfter("\"variables\""))
+                .map { it.groupValues[1] to it.groupValues[2] }
+                .toList()
+            val ikkeFunnet = serveEvent.transformerParameters.getList(IKKE_FUNNET).map { it.toString() }.toSet()
+            val data = variabler.joinToString(",") { (alias, journalpostId) ->
+                val navn = if (alias == "journalpostId") "journalpost" else alias
+                if (ikkeFunnet.contains(journalpostId)) "\"$navn\": null" else "\"$navn\": ${journalpostJson(journalpostId)}"
+            }
+            val errors = variabler.filter { ikkeFunnet.contains(it.second) }.joinToString(",") { (alias, _) ->
+                val navn = if (alias == "journalpostId") "journalpost" else alias
+                """{"message": "Fant ikke journalpost", "path": ["$navn"], "extensions": {"code": "not_found"}}"""
+            }
+            val body = if (errors.isEmpty()) "{\"data\": {$data}}" else "{\"errors\": [$errors], \"data\": {$data}}"
+            return Response.Builder.like(response).but().body(body).build()
+        }
+
+        override fun getName() = NAVN
+
+        override fun applyGlobally() = false
+
+        private fun journalpostJson(journalpostId: String) = """{"journalpostId": "$journalpostId", "tittel": "Journalpost $journalpostId", "tema": "BID", "journalstatus": "JOURNALFOERT"}"""
+
+        companion object {
+            const val NAVN = "journalposter-svar"
+            const val IKKE_FUNNET = "ikkeFunnet"
+            private val VARIABEL_REGEX = Regex("\"(jp\\d+|journalpostId)\"\\s*:\\s*\"(\\d+)\"")
+        }
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(SafConsumerTest::class.java)
+    }
+}
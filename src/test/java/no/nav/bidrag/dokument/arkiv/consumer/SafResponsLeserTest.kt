@@ -0,0 +1,95 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import com.netflix.graphql.dgs.client.GraphQLResponse
+import io.kotest.matchers.collections.shouldHaveSize
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.dto.Journalpost
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import org.springframework.core.io.ClassPathResource
+import tools.jackson.module.kotlin.jacksonMapperBuilder
+import java.lang.management.ManagementFactory
+
+@DisplayName("SafResponsLeser")
+class SafResponsLeserTest {
+    private val jsonMapper = jacksonMapperBuilder().build()
+    private val safResponsLeser = SafResponsLeser(jsonMapper)
+
+    @Test
+    fun `skal binde journalpost direkte fra data`() {
+        val respons = safResponsLeser.les<Journalpost>(
+            ClassPathResource("__files/json/journalpostSafResponse.json").inputStream,
+            listOf("journalpost"),
+            safResponsLeser.type(Journalpost::class.java),
+        )
+
+        respons.feil shouldHaveSize 0
+        respons.data!!.journalpostId shouldBe "201028011"
+    }
+
+    @Test
+    fun `skal lese feilkode fra errors`() {
+        val respons = safResponsLeser.les<Journalpost>(
+            ClassPathResource("__files/json/journalpostSafNotFoundResponse.json").inputStream,
+            listOf("journalpost"),
+            safResponsLeser.type(Journalpost::class.java),
+        )
+
+        respons.data shouldBe null
+        respons.feil shouldHaveSize 1
+        respons.feil[0].code shouldBe "not_found"
+        respons.feil[0].path shouldBe listOf("journalpost")
+    }
+
+    @Test
+    fun `skal binde aliaserte felter under data`() {
+        val respons = safResponsLeser.lesFelter<Journalpost>(
+            """{"data": {"jp0": {"journalpostId": "1"}, "jp1": null}}""".byteInputStream(),
+            safResponsLeser.type(Journalpost::class.java),
+        )
+
+        respons.data["jp0"]!!.journalpostId shouldBe "1"
+        respons.data["jp1"] shouldBe null
+    }
+
+    @Test
+    fun `skal måle allokering ved lesing av dokumentoversikt med 500 journalposter`() {
+        val body = dokumentoversiktMedJournalposter(500)
+        val sti = listOf("dokumentoversiktFagsak", "journalposter")
+        val listeType = safResponsLeser.listeType(Journalpost::class.java)
+
+        repeat(5) {
+            GraphQLResponse(body).extractValueAsObject(sti.joinToString("."), Array<Journalpost>::class.java)
+            safResponsLeser.les<List<Journalpost>>(body.byteInputStream(), sti, listeType)
+        }
+        val allokertTre = allokerteBytes {
+            GraphQLResponse(body).extractValueAsObject(sti.joinToString("."), Array<Journalpost>::class.java)
+        }
+        var journalposter: List<Journalpost>? = null
+        val allokertStrom = allokerteBytes { journalposter = safResponsLeser.les<List<Journalpost>>(body.byteInputStream(), sti, listeType).data }
+
+        LOGGER.info("Allokert ved lesing av 500 journalposter: JsonPath-tre ${allokertTre / 1024}KiB, strømmende ${allokertStrom / 1024}KiB")
+        journalposter!! shouldHaveSize 500
+    }
+
+    private fun dokumentoversiktMedJournalposter(antall: Int): String {
+        val journalpost = jsonMapper.readTree(ClassPathResource("__files/json/journalpostSafResponse.json").inputStream)
+            .path("data")
+            .path("journalpost")
+        val journalposter = (1..antall).joinToString(",") { jsonMapper.writeValueAsString(journalpost) }
+        return """{"data": {"dokumentoversiktFagsak": {"journalposter": [$journalposter]}}}"""
+    }
+
+    private fun allokerteBytes(block: () -> Unit): Long {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().threadId()
+        val start = threadMXBean.getThreadAllocatedBytes(threadId)
+        block()
+        return threadMXBean.getThreadAllocatedBytes(threadId) - start
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(SafResponsLeserTest::class.java)
+    }
+}
@@ -0,0 +1,75 @@
+package no.nav.bidrag.dokument.arkiv.consumer
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@DisplayName("SingleFlight")
+class SingleFlightTest {
+    private val meterRegistry = SimpleMeterRegistry()
+    private val singleFlight = SingleFlight("test", meterRegistry)
+    private val executor = Executors.newFixedThreadPool(ANTALL_TRADER)
+
+    @Test
+    fun `skal utføre samtidige like kall en gang og dele resultatet`() {
+        val antallKall = AtomicInteger()
+        val slipp = CountDownLatch(1)
+
+        val resultater = kallSamtidig { singleFlight.utfor(listOf("hentJournalpost", 1L)) { antallKall.incrementAndGet().also { slipp.await() } } }
+        slipp.countDown()
+
+        resultater.map { it.get(5, TimeUnit.SECONDS) }.toSet() shouldBe setOf(1)
+        antallKall.get() shouldBe 1
+        meterRegistry.get(SingleFlight.COALESCED_CALLS_COUNTER_NAME).tag("consumer", "test").counter().count() shouldBe (ANTALL_TRADER - 1).toDouble()
+    }
+
+    @Test
+    fun `skal dele exception med alle som venter`() {
+        val feil = IllegalStateException("SAF er nede")
+        val slipp = CountDownLatch(1)
+
+        val resultater = kallSamtidig { singleFlight.utfor<Int>(listOf("hentJournalpost", 1L)) { slipp.await().let { throw feil } } }
+        slipp.countDown()
+
+        resultater.forEach { resultat ->
+            val exception = shouldThrow<ExecutionException> { resultat.get(5, TimeUnit.SECONDS) }
+            exception.cause shouldBeSameInstanceAs feil
+        }
+    }
+
+    @Test
+    fun `skal utføre nytt kall når forrige er ferdig`() {
+        val antallKall = AtomicInteger()
+
+        singleFlight.utfor(listOf("hentPerson", "123")) { antallKall.incrementAndGet() }
+        singleFlight.utfor(listOf("hentPerson", "123")) { antallKall.incrementAndGet() }
+
+        antallKall.get() shouldBe 2
+    }
+
+    private fun <T> kallSamtidig(kall: () -> T): List<Future<T>> {
+        val klare = CountDownLatch(ANTALL_TRADER)
+        val resultater = (1..ANTALL_TRADER).map {
+            executor.submit<T> {
+                klare.countDown()
+                kall()
+            }
+        }
+        klare.await(5, TimeUnit.SECONDS)
+        Thread.sleep(100)
+        return resultater
+    }
+
+    companion object {
+        private const val ANTALL_TRADER = 8
+    }
+}
@@ -705,9 +705,8 @@ class AvvikControllerTest : AbstractControllerTest() {
                     .isEqualTo(HttpStatus.OK)
             },
             { stubs.verifyStub.dokarkivFeilregistrerKalt(journalpostIdFraJson) },
-            { stubs.verifyStub.dokarkivOppdaterKalt(journalpostIdFraJson, "Personnavn") },
-            { stubs.verifyStub.dokarkivOppdaterKalt(journalpostIdFraJson, "GENERELL_SAK") },
-            { stubs.verifyStub.dokarkivOppdaterKalt(journalpostIdFraJson, "GENERELL_SAK") },
+            { stubs.verifyStub.dokarkivOppdaterKalt(1, journalpostIdFraJson) },
+            { stubs.verifyStub.dokarkivOppdaterKalt(journalpostIdFraJson, "Personnavn", "GENERELL_SAK", "(En begrunnelse)") },
             {
                 stubs.verifyStub.dokarkivOppdaterKalt(
                     journalpostIdFraJson,
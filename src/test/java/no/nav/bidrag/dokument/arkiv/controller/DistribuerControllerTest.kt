@@ -7,9 +7,14 @@ import no.nav.bidrag.dokument.arkiv.consumer.BestemKanalResponse
 import no.nav.bidrag.dokument.arkiv.consumer.DistribusjonsKanal
 import no.nav.bidrag.dokument.arkiv.consumer.dto.VedleggDto
 import no.nav.bidrag.dokument.arkiv.dto.AvsenderMottaker
+import no.nav.bidrag.dokument.arkiv.dto.BestemDistribusjonKanalRequest
 import no.nav.bidrag.dokument.arkiv.dto.DOKDIST_BESTILLING_ID
 import no.nav.bidrag.dokument.arkiv.dto.DatoType
 import no.nav.bidrag.dokument.arkiv.dto.DigitalpostSendt
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerBatchRequest
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerBatchResultat
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbDto
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbStatus
 import no.nav.bidrag.dokument.arkiv.dto.DistribusjonsInfo
 import no.nav.bidrag.dokument.arkiv.dto.DistribusjonsTidspunkt
 import no.nav.bidrag.dokument.arkiv.dto.DistribusjonsType
@@ -57,6 +62,7 @@ import org.springframework.http.HttpEntity
 import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpMethod
 import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
 import java.io.IOException
 import java.time.LocalDateTime
 import java.time.OffsetDateTime
@@ -180,6 +186,212 @@ internal class DistribuerControllerTest : AbstractControllerTest() {
         }
     }
 
+    @Test
+    fun `skal bare hente journalpost og distribusjonskanal på nytt etter at journalposten er endret`() {
+        val headersMedEnhet = HttpHeaders()
+        headersMedEnhet.add(EnhetFilter.X_ENHET_HEADER, "1234")
+        val tilleggsopplysninger = TilleggsOpplysninger()
+        tilleggsopplysninger.setJournalfortAvIdent("Z99999")
+        val tilleggsopplysningerEtterDist = TilleggsOpplysninger()
+        tilleggsopplysningerEtterDist.add(mapOf("nokkel" to DOKDIST_BESTILLING_ID, "verdi" to "TEST_BEST_ID"))
+        stubs.mockSafResponseHentJournalpost(
+            opprettUtgaendeSafResponse(
+                tilleggsopplysninger = tilleggsopplysninger,
+                relevanteDatoer = listOf(DatoType(LocalDateTime.now().toString(), "DATO_DOKUMENT")),
+            ),
+            null,
+            "ETTER_DIST",
+        )
+        stubs.mockSafResponseHentJournalpost(
+            opprettUtgaendeSafResponse(
+                tilleggsopplysninger = tilleggsopplysningerEtterDist,
+                relevanteDatoer = listOf(DatoType(LocalDateTime.now().toString(), "DATO_DOKUMENT")),
+            ),
+            "ETTER_DIST",
+        )
+        stubs.mockDokdistFordelingRequest(HttpStatus.OK, "TEST_BEST_ID")
+        stubs.mockDokarkivOppdaterRequest(JOURNALPOST_ID)
+        stubs.mockSafResponseTilknyttedeJournalposter(
+            listOf(TilknyttetJournalpost(JOURNALPOST_ID, JournalStatus.FERDIGSTILT, Sak("5276661"))),
+        )
+
+        val response = httpHeaderTestRestTemplate.postForEntity<JournalpostDto>(
+            initUrl() + "/journal/distribuer/JOARK-" + JOURNALPOST_ID,
+            HttpEntity(DistribuerJournalpostRequest(adresse = createDistribuerTilAdresse()), headersMedEnhet),
+        )
+
+        assertSoftly {
+            response.statusCode shouldBe HttpStatus.OK
+            // En gang før og en gang etter at dokdist har bestilt distribusjonen og oppdatert journalposten
+            stubs.verifyStub.harSafKallEtterHentJournalpost(2)
+            stubs.verifyStub.dokdistKanalKalt(1)
+        }
+    }
+
+    @Test
+    fun `skal distribuere journalpost asynkront og hente status for distribusjonen`() {
+        val tilleggsopplysninger = TilleggsOpplysninger()
+        tilleggsopplysninger.setJournalfortAvIdent("Z99999")
+        val journalpost = opprettUtgaendeSafResponse(
+            tilleggsopplysninger = tilleggsopplysninger,
+            relevanteDatoer = listOf(DatoType(LocalDateTime.now().toString(), "DATO_DOKUMENT")),
+        )
+        stubs.mockSafResponseHentJournalpost(journalpost)
+        stubs.mockSafResponseHentJournalposter(listOf(journalpost, null))
+        stubs.mockDokdistFordelingRequest(HttpStatus.OK, "TEST_BEST_ID")
+        stubs.mockDokarkivOppdaterRequest(JOURNALPOST_ID)
+        stubs.mockSafResponseTilknyttedeJournalposter(
+            listOf(TilknyttetJournalpost(JOURNALPOST_ID, JournalStatus.FERDIGSTILT, Sak("5276661"))),
+        )
+
+        val response = httpHeaderTestRestTemplate.postForEntity<DistribusjonJobbDto>(
+            initUrl() + "/journal/distribuer/JOARK-" + JOURNALPOST_ID + "?async=true",
+            HttpEntity(DistribuerJournalpostRequest(adresse = createDistribuerTilAdresse()), headerMedEnhet),
+        )
+
+        response.statusCode shouldBe HttpStatus.ACCEPTED
+        val jobbId = response.body!!.jobbId
+        response.headers.location.toString() shouldBe initUrl() + "/journal/distribuer/jobb/" + jobbId
+        val jobb = ventPaDistribusjon(jobbId)
+        assertSoftly {
+            jobb.status shouldBe DistribusjonJobbStatus.FERDIG
+            jobb.journalpostId shouldBe "JOARK-$JOURNALPOST_ID"
+            jobb.resultat?.bestillingsId shouldBe "TEST_BEST_ID"
+            stubs.verifyStub.dokdistFordelingKalt(DistribusjonsType.VEDTAK.name)
+            // Tokenet til saksbehandleren følger med til tråden som distribuerer
+            stubs.verifyStub.dokarkivOppdaterKalt(
+                JOURNALPOST_ID,
+                "{\"nokkel\":\"distribuertAvIdent\",\"verdi\":\"aud-localhost\"}",
+            )
+        }
+    }
+
+    @Test
+    fun `skal avvise asynkron distribusjon med ugyldig adresse før den legges i kø`() {
+        val response = httpHeaderTestRestTemplate.postForEntity<DistribusjonJobbDto>(
+            initUrl() + "/journal/distribuer/JOARK-" + JOURNALPOST_ID + "?async=true",
+            HttpEntity(DistribuerJournalpostRequest(adresse = createDistribuerTilAdresse().copy(land = "NOR")), headerMedEnhet),
+        )
+
+        response.statusCode shouldBe HttpStatus.BAD_REQUEST
+        stubs.verifyStub.harSafKallEtterHentJournalpost(0)
+    }
+
+    @Test
+    fun `skal avvise asynkron distribusjon av journalpost som allerede er distribuert før den legges i kø`() {
+        val tilleggsopplysninger = TilleggsOpplysninger()
+        tilleggsopplysninger.setDistribusjonBestillt()
+        stubs.mockSafResponseHentJournalpost(opprettUtgaendeSafResponse(tilleggsopplysninger = tilleggsopplysninger))
+
+        val response = httpHeaderTestRestTemplate.postForEntity<DistribusjonJobbDto>(
+            initUrl() + "/journal/distribuer/JOARK-" + JOURNALPOST_ID + "?async=true",
+            HttpEntity(DistribuerJournalpostRequest(adresse = createDistribuerTilAdresse()), headerMedEnhet),
+        )
+
+        response.statusCode shouldBe HttpStatus.BAD_REQUEST
+        stubs.verifyStub.dokdistFordelingKalt(0)
+    }
+
+    @Test
+    fun `skal gi 404 for ukjent distribusjon`() {
+        val response = httpHeaderTestRestTemplate.getForEntity<DistribusjonJobbDto>(
+            initUrl() + "/journal/distribuer/jobb/ukjent",
+        )
+
+        response.statusCode shouldBe HttpStatus.NOT_FOUND
+    }
+
+    @Test
+    fun `skal distribuere batch og skrive resultatet for hver journalpost`() {
+        val tilleggsopplysninger = TilleggsOpplysninger()
+        tilleggsopplysninger.setJournalfortAvIdent("Z99999")
+        val journalpost = opprettUtgaendeSafResponse(
+            tilleggsopplysninger = tilleggsopplysninger,
+            relevanteDatoer = listOf(DatoType(LocalDateTime.now().toString(), "DATO_DOKUMENT")),
+        )
+        stubs.mockSafResponseHentJournalpost(journalpost)
+        stubs.mockSafResponseHentJournalposter(listOf(journalpost, null))
+        stubs.mockDokdistFordelingRequest(HttpStatus.OK, "TEST_BEST_ID")
+        stubs.mockDokarkivOppdaterRequest(JOURNALPOST_ID)
+        stubs.mockSafResponseTilknyttedeJournalposter(
+            listOf(TilknyttetJournalpost(JOURNALPOST_ID, JournalStatus.FERDIGSTILT, Sak("5276661"))),
+        )
+
+        val response = httpHeaderTestRestTemplate.postForEntity<String>(
+            initUrl() + "/journal/distribuer/batch",
+            HttpEntity(DistribuerBatchRequest("BATCH_1", listOf("JOARK-$JOURNALPOST_ID", "JOARK-999", "UGYLDIG")), headerMedEnhet),
+        )
+
+        val resultater = response.body!!.lines().filter { it.isNotBlank() }
+            .map { objectMapper.readValue(it, DistribuerBatchResultat::class.java) }
+            .associateBy { it.journalpostId }
+        assertSoftly {
+            response.statusCode shouldBe HttpStatus.OK
+            response.headers.contentType?.isCompatibleWith(MediaType.APPLICATION_NDJSON) shouldBe true
+            resultater.size shouldBe 3
+            resultater["JOARK-$JOURNALPOST_ID"]?.status shouldBe DistribusjonJobbStatus.FERDIG
+            resultater["JOARK-$JOURNALPOST_ID"]?.resultat?.bestillingsId shouldBe "TEST_BEST_ID"
+            resultater["JOARK-999"]?.status shouldBe DistribusjonJobbStatus.FEILET
+            resultater["JOARK-999"]?.feilmelding shouldBe "Fant ikke journalpost"
+            resultater["UGYLDIG"]?.status shouldBe DistribusjonJobbStatus.FEILET
+            // Journalposten som ikke finnes avvises før distribusjonen, så dokdist kalles bare for den ene
+            stubs.verifyStub.dokdistFordelingKalt(1)
+            stubs.verifyStub.dokdistFordelingKalt("\"batchId\":\"BATCH_1\"")
+            // Tokenet til saksbehandleren følger med til trådene som distribuerer
+            stubs.verifyStub.dokarkivOppdaterKalt(
+                JOURNALPOST_ID,
+                "{\"nokkel\":\"distribuertAvIdent\",\"verdi\":\"aud-localhost\"}",
+            )
+        }
+    }
+
+    @Test
+    fun `skal avvise tom batch`() {
+        val response = httpHeaderTestRestTemplate.postForEntity<String>(
+            initUrl() + "/journal/distribuer/batch",
+            HttpEntity(DistribuerBatchRequest("BATCH_1", emptyList()), headerMedEnhet),
+        )
+
+        response.statusCode shouldBe HttpStatus.BAD_REQUEST
+        stubs.verifyStub.harSafKallEtterHentJournalpost(0)
+    }
+
+    @Test
+    fun `skal hente kanal for flere mottakere i samme rekkefølge og bare en gang for like forespørsler`() {
+        stubs.mockBestmDistribusjonskanal(BestemKanalResponse("", "", DistribusjonsKanal.SDP), brukerId = "11111111111")
+        stubs.mockBestmDistribusjonskanal(BestemKanalResponse("", "", DistribusjonsKanal.PRINT), brukerId = "22222222222")
+        val requests = listOf(
+            BestemDistribusjonKanalRequest(mottakerId = null, gjelderId = "11111111111"),
+            BestemDistribusjonKanalRequest(mottakerId = null, gjelderId = "22222222222"),
+            BestemDistribusjonKanalRequest(mottakerId = null, gjelderId = "11111111111"),
+        )
+
+        val response = httpHeaderTestRestTemplate.postForEntity<Array<BestemKanalResponse>>(
+            initUrl() + "/journal/distribuer/kanal/batch",
+            HttpEntity(requests, headerMedEnhet),
+        )
+
+        assertSoftly {
+            response.statusCode shouldBe HttpStatus.OK
+            response.body!!.map { it.distribusjonskanal } shouldBe listOf(
+                DistribusjonsKanal.SDP,
+                DistribusjonsKanal.PRINT,
+                DistribusjonsKanal.SDP,
+            )
+            stubs.verifyStub.dokdistKanalKalt(2)
+        }
+    }
+
+    private fun ventPaDistribusjon(jobbId: String): DistribusjonJobbDto {
+        val frist = System.currentTimeMillis() + 30_000
+        while (true) {
+            val jobb = httpHeaderTestRestTemplate.getForEntity<DistribusjonJobbDto>(initUrl() + "/journal/distribuer/jobb/" + jobbId).body!!
+            if (jobb.status == DistribusjonJobbStatus.FERDIG || jobb.status == DistribusjonJobbStatus.FEILET) return jobb
+            if (System.currentTimeMillis() > frist) throw AssertionError("Distribusjon $jobbId ble ikke ferdig, status ${jobb.status}")
+            Thread.sleep(100)
+        }
+    }
+
     @Test
     fun `skal distribuere journalpost med ettersending`() {
         // given
@@ -1078,13 +1290,12 @@ internal class DistribuerControllerTest : AbstractControllerTest() {
                 request.adresse!!.adresselinje1,
                 request.adresse!!.land,
             )
+            stubs.verifyStub.dokarkivOppdaterKalt(1, JOURNALPOST_ID)
+            stubs.verifyStub.harSafKallEtterHentJournalpost(2)
             stubs.verifyStub.dokarkivOppdaterKalt(
                 JOURNALPOST_ID,
-                "datoDokument",
-            )
-            stubs.verifyStub.dokarkivOppdaterKalt(
-                JOURNALPOST_ID,
-                "{\"dokumenter\":[],\"tilleggsopplysninger\":[" +
+                "{\"datoDokument\":\"",
+                "\"dokumenter\":[],\"tilleggsopplysninger\":[" +
                     "{\"nokkel\":\"dokdistBestillingsId\",\"verdi\":\"asdsadasdsadasdasd\"}," +
                     "{\"nokkel\":\"journalfortAvIdent\",\"verdi\":\"Z99999\"}," +
                     "{\"nokkel\":\"distAdresse0\",\"verdi\":\"{\\\"adresselinje1\\\":\\\"Adresselinje1\\\",\\\"adresselinje2\\\":\\\"Adresselinje2\\\",\\\"adresselinje3\\\":\\\"Adresselinje3\\\",\\\"la\"}," +
@@ -1438,13 +1649,12 @@ internal class DistribuerControllerTest : AbstractControllerTest() {
                 "{\"settStatusEkspedert\":true,\"utsendingsKanal\":\"L\"}",
             )
 
+            stubs.verifyStub.dokarkivOppdaterKalt(1, journalpostId)
+            stubs.verifyStub.harSafKallEtterHentJournalpost(2)
             stubs.verifyStub.dokarkivOppdaterKalt(
                 journalpostId,
-                "{\"dokumenter\":[{\"dokumentInfoId\":\"$DOKUMENT_1_ID\",\"tittel\":\"Tittel på dokument 1 (dokumentet er sendt per post med vedlegg)\"}]}",
-            )
-            stubs.verifyStub.dokarkivOppdaterKalt(
-                journalpostId,
-                "{\"dokumenter\":[],\"tilleggsopplysninger\":[{\"nokkel\":\"journalfortAvIdent\",\"verdi\":\"Z99999\"},{\"nokkel\":\"distribuertAvIdent\",\"verdi\":\"aud-localhost\"}]}",
+                "{\"dokumenter\":[{\"dokumentInfoId\":\"$DOKUMENT_1_ID\",\"tittel\":\"Tittel på dokument 1 (dokumentet er sendt per post med vedlegg)\"}]," +
+                    "\"tilleggsopplysninger\":[{\"nokkel\":\"journalfortAvIdent\",\"verdi\":\"Z99999\"},{\"nokkel\":\"distribuertAvIdent\",\"verdi\":\"aud-localhost\"}]}",
             )
         }
     }
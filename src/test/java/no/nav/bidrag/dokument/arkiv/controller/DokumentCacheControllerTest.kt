@@ -0,0 +1,61 @@
+package no.nav.bidrag.dokument.arkiv.controller
+
+import io.kotest.assertions.assertSoftly
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivTest
+import no.nav.bidrag.dokument.arkiv.stubs.DOKUMENT_1_ID
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.springframework.boot.resttestclient.getForEntity
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.http.HttpStatus
+
+@SpringBootTest(
+    classes = [BidragDokumentArkivTest::class],
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = ["DOKUMENT_CACHE_AKTIV=true", "DOKUMENT_CACHE_KATALOG=\${java.io.tmpdir}/dokumentcache-test"],
+)
+@DisplayName("DokumentController med dokumentcache")
+internal class DokumentCacheControllerTest : AbstractControllerTest() {
+
+    @Test
+    fun `skal sjekke tilgangen hos SAF hver gang dokumentet hentes fra cachen`() {
+        stubs.mockSafHentDokumentPdfResponse(ByteArray(1024) { it.toByte() })
+        stubs.mockSafDokumentTilgang(DOKUMENT_1_ID, true)
+
+        val forste = httpHeaderTestRestTemplate.getForEntity<ByteArray>(initUrl() + "/dokument/JOARK-301028011/$DOKUMENT_1_ID")
+        val andre = httpHeaderTestRestTemplate.getForEntity<ByteArray>(initUrl() + "/dokument/JOARK-301028011/$DOKUMENT_1_ID")
+
+        assertSoftly {
+            forste.statusCode shouldBe HttpStatus.OK
+            andre.statusCode shouldBe HttpStatus.OK
+            andre.body shouldBe forste.body
+            stubs.verifyStub.safHentDokumentKalt(1)
+            stubs.verifyStub.harSafKallEtterDokumentTilgang(2)
+        }
+    }
+
+    @Test
+    fun `skal ikke gi ut dokument fra cachen når saksbehandler ikke har tilgang`() {
+        stubs.mockSafHentDokumentPdfResponse(ByteArray(1024) { it.toByte() })
+        stubs.mockSafDokumentTilgang(DOKUMENT_1_ID, true)
+        httpHeaderTestRestTemplate.getForEntity<ByteArray>(initUrl() + "/dokument/JOARK-301028012/$DOKUMENT_1_ID").statusCode shouldBe HttpStatus.OK
+
+        stubs.mockSafDokumentTilgang(DOKUMENT_1_ID, false)
+        val response = httpHeaderTestRestTemplate.getForEntity<ByteArray>(initUrl() + "/dokument/JOARK-301028012/$DOKUMENT_1_ID")
+
+        response.statusCode shouldBe HttpStatus.FORBIDDEN
+        stubs.verifyStub.safHentDokumentKalt(1)
+    }
+
+    @Test
+    fun `skal gi 404 når dokumentet ikke finnes i journalposten`() {
+        stubs.mockSafHentDokumentPdfResponse(ByteArray(1024))
+        stubs.mockSafDokumentTilgang("999", true)
+
+        val response = httpHeaderTestRestTemplate.getForEntity<ByteArray>(initUrl() + "/dokument/JOARK-301028013/$DOKUMENT_1_ID")
+
+        response.statusCode shouldBe HttpStatus.NOT_FOUND
+        stubs.verifyStub.safHentDokumentKalt(0)
+    }
+}
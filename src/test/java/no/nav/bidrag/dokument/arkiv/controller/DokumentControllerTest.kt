@@ -1,5 +1,6 @@
 package no.nav.bidrag.dokument.arkiv.controller
 
+import io.kotest.matchers.longs.shouldBeLessThan
 import io.kotest.matchers.shouldBe
 import no.nav.bidrag.dokument.arkiv.dto.Dokument
 import no.nav.bidrag.dokument.arkiv.dto.JournalStatus
@@ -15,10 +16,19 @@ import no.nav.bidrag.transport.dokument.DokumentFormatDto
 import no.nav.bidrag.transport.dokument.DokumentMetadata
 import no.nav.bidrag.transport.dokument.DokumentStatusDto
 import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
 import org.springframework.boot.resttestclient.getForEntity
 import org.springframework.core.ParameterizedTypeReference
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpMethod
 import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.web.client.ResponseExtractor
+import java.lang.management.ManagementFactory
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 class DokumentControllerTest : AbstractControllerTest() {
 
@@ -182,4 +192,92 @@ class DokumentControllerTest : AbstractControllerTest() {
         dokumentmetadata2.format shouldBe DokumentFormatDto.PDF
         dokumentmetadata2.status shouldBe DokumentStatusDto.FERDIGSTILT
     }
+
+    @Test
+    fun `skal videresende headere fra SAF når dokument hentes`() {
+        val dokument = ByteArray(1024) { it.toByte() }
+        stubs.mockSafHentDokumentPdfResponse(dokument)
+
+        val response = httpHeaderTestRestTemplate.getForEntity<ByteArray>(initUrl() + "/dokument/JOARK-201028011/$DOKUMENT_1_ID")
+
+        response.statusCode shouldBe HttpStatus.OK
+        response.body shouldBe dokument
+        response.headers.contentType shouldBe MediaType.APPLICATION_PDF
+        response.headers.contentLength shouldBe 1024
+        response.headers.getFirst(HttpHeaders.CONTENT_DISPOSITION) shouldBe "inline; filename=dokument.pdf"
+        response.headers.getFirst(HttpHeaders.ACCEPT_RANGES) shouldBe "bytes"
+    }
+
+    @Test
+    fun `skal hente del av dokument med Range`() {
+        val dokument = ByteArray(1024) { it.toByte() }
+        stubs.mockSafHentDokumentRangeResponse(dokument, 100, 199)
+        val headers = HttpHeaders()
+        headers.set(HttpHeaders.RANGE, "bytes=100-199")
+
+        val response = httpHeaderTestRestTemplate.exchange(
+            initUrl() + "/dokument/JOARK-201028011/$DOKUMENT_1_ID",
+            HttpMethod.GET,
+            HttpEntity<Void>(headers),
+            ByteArray::class.java,
+        )
+
+        response.statusCode shouldBe HttpStatus.PARTIAL_CONTENT
+        response.body shouldBe dokument.copyOfRange(100, 200)
+        response.headers.getFirst(HttpHeaders.CONTENT_RANGE) shouldBe "bytes 100-199/1024"
+    }
+
+    @Test
+    fun `skal svare på HEAD med headere uten innhold`() {
+        stubs.mockSafHentDokumentPdfResponse(ByteArray(1024))
+
+        val headers = httpHeaderTestRestTemplate.headForHeaders(initUrl() + "/dokument/JOARK-201028011/$DOKUMENT_1_ID")
+
+        headers.contentType shouldBe MediaType.APPLICATION_PDF
+        headers.contentLength shouldBe 1024
+    }
+
+    @Test
+    fun `skal strømme store dokumenter uten å lese dem inn i minnet`() {
+        val dokumentStorrelse = 20 * 1024 * 1024
+        val antallNedlastinger = 50
+        stubs.mockSafHentDokumentPdfResponse(ByteArray(dokumentStorrelse))
+
+        val memoryMXBean = ManagementFactory.getMemoryMXBean()
+        System.gc()
+        val heapFor = memoryMXBean.heapMemoryUsage.used
+        val heapMaks = AtomicLong(heapFor)
+        val executor = Executors.newFixedThreadPool(antallNedlastinger)
+        val nedlastinger = (1..antallNedlastinger).map {
+            executor.submit<Long> {
+                httpHeaderTestRestTemplate.execute(
+                    initUrl() + "/dokument/JOARK-201028011/$DOKUMENT_1_ID",
+                    HttpMethod.GET,
+                    null,
+                    ResponseExtractor { response ->
+                        val buffer = ByteArray(64 * 1024)
+                        var antallBytes = 0L
+                        var lest = response.body.read(buffer)
+                        while (lest >= 0) {
+                            antallBytes += lest
+                            heapMaks.accumulateAndGet(memoryMXBean.heapMemoryUsage.used, ::maxOf)
+                            lest = response.body.read(buffer)
+                        }
+                        antallBytes
+                    },
+                )
+            }
+        }
+        val antallBytes = nedlastinger.sumOf { it.get(2, TimeUnit.MINUTES) }
+        executor.shutdown()
+
+        val okningIHeap = heapMaks.get() - heapFor
+        LOGGER.info("Lastet ned ${antallBytes / 1024 / 1024}MB i $antallNedlastinger parallelle kall, økning i heap ${okningIHeap / 1024 / 1024}MB")
+        antallBytes shouldBe dokumentStorrelse.toLong() * antallNedlastinger
+        okningIHeap shouldBeLessThan antallBytes / 4
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(DokumentControllerTest::class.java)
+    }
 }
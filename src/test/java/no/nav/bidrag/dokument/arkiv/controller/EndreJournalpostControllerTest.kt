@@ -194,6 +194,14 @@ class EndreJournalpostControllerTest : AbstractControllerTest() {
                     "\"dokumenter\":[{\"dokumentInfoId\":\"1\",\"tittel\":\"In a galazy far far away\",\"brevkode\":\"BLABLA\"}]",
                 )
             },
+            { stubs.verifyStub.dokarkivOppdaterKalt(1, journalpostId) },
+            {
+                stubs.verifyStub.dokarkivOppdaterKalt(
+                    journalpostId,
+                    "\"fagsakId\":\"$sak\"",
+                    "{\"nokkel\":\"journalfortAvIdent\",\"verdi\":\"aud-localhost\"}",
+                )
+            },
             { stubs.verifyStub.dokarkivFerdigstillKalt(journalpostId) },
         )
     }
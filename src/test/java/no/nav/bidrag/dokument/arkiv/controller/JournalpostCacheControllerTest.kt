@@ -0,0 +1,66 @@
+package no.nav.bidrag.dokument.arkiv.controller
+
+import io.kotest.assertions.assertSoftly
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivTest
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
+import no.nav.bidrag.dokument.arkiv.consumer.SafConsumer
+import no.nav.bidrag.dokument.arkiv.model.Discriminator
+import no.nav.bidrag.dokument.arkiv.model.ResourceByDiscriminator
+import no.nav.bidrag.transport.dokument.JournalpostResponse
+import no.nav.bidrag.transport.person.PersonDto
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.resttestclient.getForEntity
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.http.HttpStatus
+
+@SpringBootTest(
+    classes = [BidragDokumentArkivTest::class],
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = ["JOURNALPOST_CACHE_AKTIV=true"],
+)
+@DisplayName("JournalpostController med journalpostcache")
+internal class JournalpostCacheControllerTest : AbstractControllerTest() {
+    @Autowired
+    lateinit var journalpostCache: JournalpostCache
+
+    @Autowired
+    lateinit var safConsumers: ResourceByDiscriminator<SafConsumer>
+
+    private val journalpostIdFraJson = 201028011L
+
+    @BeforeEach
+    fun tomCache() {
+        journalpostCache.fjernLokalt(journalpostIdFraJson)
+    }
+
+    @Test
+    fun `skal hente journalpost fra SAF for hver forespørsel fra saksbehandler selv om cachen er aktiv`() {
+        stubs.mockSafResponseHentJournalpost(responseJournalpostJson, HttpStatus.OK)
+        stubs.mockSafResponseTilknyttedeJournalposter(HttpStatus.OK)
+        stubs.mockPersonResponse(PersonDto(PERSON_IDENT, aktørId = AKTOR_IDENT), HttpStatus.OK)
+
+        val forsteRespons = httpHeaderTestRestTemplate.getForEntity<JournalpostResponse>(initUrl() + "/journal/JOARK-$journalpostIdFraJson")
+        val andreRespons = httpHeaderTestRestTemplate.getForEntity<JournalpostResponse>(initUrl() + "/journal/JOARK-$journalpostIdFraJson")
+
+        assertSoftly {
+            forsteRespons.statusCode shouldBe HttpStatus.OK
+            andreRespons.statusCode shouldBe HttpStatus.OK
+            stubs.verifyStub.harSafKallEtterHentJournalpost(2)
+        }
+    }
+
+    @Test
+    fun `skal hente journalpost fra cachen for servicebrukeren`() {
+        stubs.mockSafResponseHentJournalpost(responseJournalpostJson, HttpStatus.OK)
+        val safConsumer = safConsumers.get(Discriminator.SERVICE_USER)
+
+        safConsumer.hentJournalpost(journalpostIdFraJson)
+        safConsumer.hentJournalpost(journalpostIdFraJson)
+
+        stubs.verifyStub.harSafKallEtterHentJournalpost(1)
+    }
+}
@@ -1,16 +1,20 @@
 package no.nav.bidrag.dokument.arkiv.controller
 
 import io.kotest.assertions.assertSoftly
+import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.shouldBe
 import no.nav.bidrag.dokument.arkiv.dto.AvsenderMottaker
+import no.nav.bidrag.dokument.arkiv.dto.Bruker
 import no.nav.bidrag.dokument.arkiv.dto.JournalStatus
 import no.nav.bidrag.dokument.arkiv.dto.JournalstatusDto
 import no.nav.bidrag.dokument.arkiv.dto.Sak
 import no.nav.bidrag.dokument.arkiv.dto.TilleggsOpplysninger
 import no.nav.bidrag.dokument.arkiv.stubs.AVSENDER_ID
 import no.nav.bidrag.dokument.arkiv.stubs.AVSENDER_NAVN
+import no.nav.bidrag.dokument.arkiv.stubs.BRUKER_FNR
 import no.nav.bidrag.dokument.arkiv.stubs.DOKUMENT_1_TITTEL
 import no.nav.bidrag.dokument.arkiv.stubs.opprettSafResponse
+import no.nav.bidrag.domene.ident.Personident
 import no.nav.bidrag.transport.dokument.AvsenderMottakerDto
 import no.nav.bidrag.transport.dokument.AvsenderMottakerDtoIdType
 import no.nav.bidrag.transport.dokument.JournalpostDto
@@ -20,10 +24,17 @@ import no.nav.bidrag.transport.person.PersonDto
 import org.assertj.core.api.Assertions
 import org.junit.jupiter.api.DisplayName
 import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
 import org.springframework.boot.resttestclient.getForEntity
 import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
 import org.springframework.http.HttpStatus
+import org.springframework.web.client.ResourceAccessException
+import org.springframework.web.client.ResponseExtractor
+import tools.jackson.core.JsonToken
 import java.io.IOException
+import java.io.PushbackInputStream
+import java.lang.management.ManagementFactory
 import java.time.LocalDate
 
 internal class JournalpostControllerTest : AbstractControllerTest() {
@@ -470,4 +481,144 @@ internal class JournalpostControllerTest : AbstractControllerTest() {
             { stubs.verifyStub.harSafEnKallEtterDokumentOversiktFagsak() },
         )
     }
+
+    @Test
+    fun `skal hente hele journalen side for side og strømme journalpostene`() {
+        val sider = (0 until 10).map { side ->
+            (0 until 500).map { opprettSafResponse(journalpostId = (side * 500 + it).toString(), bruker = Bruker(BRUKER_FNR, "FNR")) }
+        }
+        stubs.mockSafResponseDokumentOversiktFagsakSider(sider)
+
+        val memoryMXBean = ManagementFactory.getMemoryMXBean()
+        System.gc()
+        val heapFor = memoryMXBean.heapMemoryUsage.used
+        var heapMaks = heapFor
+        val start = System.nanoTime()
+        var tidTilForsteByte = 0L
+        val journalposter = httpHeaderTestRestTemplate.execute(
+            initUrl() + "/sak/5276661/journal?fagomrade=BID",
+            HttpMethod.GET,
+            null,
+            ResponseExtractor { response ->
+                response.statusCode shouldBe HttpStatus.OK
+                val input = PushbackInputStream(response.body)
+                input.unread(input.read())
+                tidTilForsteByte = System.nanoTime() - start
+                objectMapper.createParser(input).use { parser ->
+                    var antall = 0
+                    parser.nextToken()
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parser.skipChildren()
+                        antall++
+                        if (antall % 500 == 0) heapMaks = maxOf(heapMaks, memoryMXBean.heapMemoryUsage.used)
+                    }
+                    antall
+                }
+            },
+        )
+        val totalTid = System.nanoTime() - start
+
+        LOGGER.info(
+            "Strømmet $journalposter journalposter: tid til første byte ${tidTilForsteByte / 1_000_000}ms, total ${totalTid / 1_000_000}ms, " +
+                "økning i heap ${(heapMaks - heapFor) / 1024 / 1024}MB",
+        )
+        journalposter shouldBe 5000
+        stubs.verifyStub.harSafKallEtterDokumentOversiktFagsak(10)
+    }
+
+    @Test
+    fun `skal hente en side av journalen med limit og cursor`() {
+        val sider = (0 until 3).map { side ->
+            (0 until 2).map { opprettSafResponse(journalpostId = (side * 2 + it).toString(), bruker = Bruker(BRUKER_FNR, "FNR")) }
+        }
+        stubs.mockSafResponseDokumentOversiktFagsakSider(sider)
+
+        val forsteSide = httpHeaderTestRestTemplate.getForEntity<List<JournalpostDto>>(initUrl() + "/sak/5276661/journal?fagomrade=BID&limit=2")
+        val andreSide = httpHeaderTestRestTemplate.getForEntity<List<JournalpostDto>>(
+            initUrl() + "/sak/5276661/journal?fagomrade=BID&limit=2&cursor=" + forsteSide.headers.getFirst(JournalpostController.NESTE_SIDE_HEADER),
+        )
+
+        assertSoftly {
+            forsteSide.statusCode shouldBe HttpStatus.OK
+            forsteSide.body!!.map { it.journalpostId } shouldBe listOf("JOARK-0", "JOARK-1")
+            forsteSide.headers.getFirst(JournalpostController.NESTE_SIDE_HEADER) shouldBe "side-1"
+            andreSide.body!!.map { it.journalpostId } shouldBe listOf("JOARK-2", "JOARK-3")
+            andreSide.headers.getFirst(JournalpostController.NESTE_SIDE_HEADER) shouldBe "side-2"
+        }
+        stubs.verifyStub.harSafKallEtterDokumentOversiktFagsak(2)
+    }
+
+    @Test
+    fun `skal fylle opp limit med neste side når journalposter filtreres bort`() {
+        val tilleggsopplysninger = TilleggsOpplysninger()
+        tilleggsopplysninger.setEndretTemaFlagg()
+        val sider = listOf(
+            listOf(
+                opprettSafResponse(journalpostId = "0", bruker = Bruker(BRUKER_FNR, "FNR")),
+                opprettSafResponse(journalpostId = "1", bruker = Bruker(BRUKER_FNR, "FNR"), tilleggsopplysninger = tilleggsopplysninger),
+                opprettSafResponse(journalpostId = "2", bruker = Bruker(BRUKER_FNR, "FNR")),
+            ),
+            listOf(opprettSafResponse(journalpostId = "3", bruker = Bruker(BRUKER_FNR, "FNR"))),
+            listOf(opprettSafResponse(journalpostId = "4", bruker = Bruker(BRUKER_FNR, "FNR"))),
+        )
+        stubs.mockSafResponseDokumentOversiktFagsakSider(sider)
+
+        val response = httpHeaderTestRestTemplate.getForEntity<List<JournalpostDto>>(initUrl() + "/sak/5276661/journal?fagomrade=BID&limit=3")
+
+        assertSoftly {
+            response.statusCode shouldBe HttpStatus.OK
+            response.body!!.map { it.journalpostId } shouldBe listOf("JOARK-0", "JOARK-2", "JOARK-3")
+            response.headers.getFirst(JournalpostController.NESTE_SIDE_HEADER) shouldBe "side-2"
+            // Andre side hentes bare med plass til journalposten som mangler
+            stubs.verifyStub.harSafKallEtterDokumentOversiktFagsak(1, "\"foerste\":1")
+        }
+    }
+
+    @Test
+    fun `skal bryte forbindelsen når en senere side av journalen feiler`() {
+        val sider = (0 until 2).map { side ->
+            (0 until 2).map { opprettSafResponse(journalpostId = (side * 2 + it).toString(), bruker = Bruker(BRUKER_FNR, "FNR")) }
+        }
+        stubs.mockSafResponseDokumentOversiktFagsakSider(sider)
+        stubs.mockSafResponseDokumentOversiktFagsakFeil("side-1", HttpStatus.INTERNAL_SERVER_ERROR)
+
+        // Svaret leses uten å tolkes som json, slik at testen bare består når forbindelsen brytes og ikke når svaret er avkortet
+        shouldThrow<ResourceAccessException> {
+            httpHeaderTestRestTemplate.execute(
+                initUrl() + "/sak/5276661/journal?fagomrade=BID",
+                HttpMethod.GET,
+                null,
+                ResponseExtractor { response ->
+                    response.statusCode shouldBe HttpStatus.OK
+                    response.body.readAllBytes()
+                },
+            )
+        }
+    }
+
+    @Test
+    fun `skal slå opp hver aktørid en gang parallelt for en sak med 500 journalposter`() {
+        val personer = (1..3).map { PersonDto(Personident("1234567890$it"), aktørId = "99999999999$it") }
+        stubs.mockSafResponseDokumentOversiktFagsakSider(listOf(opprettJournalposterMedAktoerId(500, personer)))
+        stubs.mockPersonResponseMedForsinkelse(personer, 500)
+
+        val start = System.nanoTime()
+        val journalposter = httpHeaderTestRestTemplate.getForEntity<List<JournalpostDto>>(initUrl() + "/sak/5276661/journal?fagomrade=BID")
+        LOGGER.info("Hentet journal med 500 journalposter og parallelle oppslag av personer på ${(System.nanoTime() - start) / 1_000_000}ms")
+
+        assertSoftly {
+            journalposter.statusCode shouldBe HttpStatus.OK
+            journalposter.body!!.size shouldBe 500
+            journalposter.body!!.map { it.gjelderAktor?.ident }.toSet() shouldBe personer.map { it.ident.verdi }.toSet()
+        }
+        stubs.verifyStub.bidragPersonEnkeltKalt(3)
+    }
+
+    private fun opprettJournalposterMedAktoerId(antall: Int, personer: List<PersonDto>) = (0 until antall).map {
+        opprettSafResponse(journalpostId = it.toString(), bruker = Bruker(personer[it % personer.size].aktørId, "AKTOERID"))
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(JournalpostControllerTest::class.java)
+    }
 }
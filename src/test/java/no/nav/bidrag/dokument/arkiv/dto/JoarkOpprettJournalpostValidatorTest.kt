@@ -75,6 +75,13 @@ class JoarkOpprettJournalpostValidatorTest {
         result.message shouldBe "Dokument \"Tittel på hoveddokument\" må minst ha en dokumentvariant"
     }
 
+    @Test
+    fun `Validering skal feile hvis dokumentvariant verken har fysiskDokument eller fil`() {
+        val result = shouldThrow<IllegalArgumentException> { JoarkOpprettJournalpostRequest.DokumentVariant(filtype = "PDFA", variantformat = "ARKIV") }
+
+        result.message shouldBe "Dokumentvariant må ha fysiskDokument eller fysiskDokumentFil"
+    }
+
     @Test
     fun `Validering skal feile hvis journalførendeenhet mangler på journalpost som skal journalføres`() {
         val request = createJoarkOpprettJournalpostRequest().copy(sak = null)
@@ -0,0 +1,68 @@
+package no.nav.bidrag.dokument.arkiv.dto
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.nulls.shouldNotBeNull
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.stubs.DOKUMENT_1_ID
+import no.nav.bidrag.dokument.arkiv.stubs.DOKUMENT_1_TITTEL
+import no.nav.bidrag.dokument.arkiv.stubs.JOURNALPOST_ID
+import no.nav.bidrag.dokument.arkiv.stubs.createEndreJournalpostCommand
+import no.nav.bidrag.dokument.arkiv.stubs.opprettUtgaendeSafResponse
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+
+@DisplayName("OppdaterJournalpostTest")
+internal class OppdaterJournalpostTest {
+
+    @Test
+    fun `skal slå sammen tilleggsopplysninger, dokumentdato og tittel til én oppdatering`() {
+        val journalpost = opprettUtgaendeSafResponse()
+        journalpost.tilleggsopplysninger.setDistribuertAvIdent("Z99999")
+
+        val request = oppdaterJournalpost(JOURNALPOST_ID) {
+            +OppdaterJournalpostTilleggsopplysninger(JOURNALPOST_ID, journalpost)
+            +OppdaterDokumentdatoTilIdag(JOURNALPOST_ID, journalpost)
+            +LeggTilBeskjedPåTittel(JOURNALPOST_ID, journalpost, "sendt per post")
+        }
+
+        request.shouldNotBeNull()
+        request.hentJournalpostId() shouldBe JOURNALPOST_ID
+        request.tilleggsopplysninger shouldBe journalpost.tilleggsopplysninger
+        request.datoDokument.shouldNotBeNull()
+        request.dokumenter shouldBe listOf(OppdaterJournalpostRequest.Dokument(DOKUMENT_1_ID, "$DOKUMENT_1_TITTEL (sendt per post)"))
+    }
+
+    @Test
+    fun `skal slå sammen endringer av samme dokument`() {
+        val journalpost = opprettUtgaendeSafResponse(dokumenter = listOf(Dokument(dokumentInfoId = "1", tittel = "Tittel")))
+        val endreJournalpostCommand = createEndreJournalpostCommand().copy(skalJournalfores = false)
+
+        val request = oppdaterJournalpost(JOURNALPOST_ID) {
+            +LagreJournalpostRequest(JOURNALPOST_ID, EndreJournalpostCommandIntern(endreJournalpostCommand, ""), journalpost)
+            +LeggTilBeskjedPåTittel(JOURNALPOST_ID, journalpost, "sendt per post")
+            +LagreAvsenderNavnRequest(JOURNALPOST_ID, "Avsender")
+        }
+
+        request.shouldNotBeNull()
+        request.dokumenter shouldBe listOf(OppdaterJournalpostRequest.Dokument("1", "Tittel (sendt per post)", "BLABLA"))
+        request.avsenderMottaker shouldBe OppdaterJournalpostRequest.AvsenderMottaker("Avsender")
+    }
+
+    @Test
+    fun `skal ikke gi oppdatering hvis ingen endringer er lagt til`() {
+        val request = oppdaterJournalpost(JOURNALPOST_ID) {
+            +null
+        }
+
+        request shouldBe null
+    }
+
+    @Test
+    fun `skal feile hvis endringen gjelder en annen journalpost`() {
+        shouldThrow<IllegalArgumentException> {
+            oppdaterJournalpost(JOURNALPOST_ID) {
+                +LagreAvsenderNavnRequest(JOURNALPOST_ID + 1, "Avsender")
+            }
+        }
+    }
+}
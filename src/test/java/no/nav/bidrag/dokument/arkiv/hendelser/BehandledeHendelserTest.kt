@@ -0,0 +1,72 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.matchers.shouldBe
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import no.nav.bidrag.dokument.arkiv.kafka.BehandledeHendelser
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+@DisplayName("BehandledeHendelser")
+class BehandledeHendelserTest {
+    @TempDir
+    lateinit var katalog: Path
+
+    @Test
+    fun `skal huske behandlede hendelser`() {
+        val behandledeHendelser = BehandledeHendelser(true, 10, null, SimpleMeterRegistry())
+
+        behandledeHendelser.registrer("1")
+
+        behandledeHendelser.erBehandlet("1") shouldBe true
+        behandledeHendelser.erBehandlet("2") shouldBe false
+        behandledeHendelser.erBehandlet(null) shouldBe false
+    }
+
+    @Test
+    fun `skal ikke huske hendelser når den ikke er aktiv`() {
+        val behandledeHendelser = BehandledeHendelser(false, 10, null, SimpleMeterRegistry())
+
+        behandledeHendelser.registrer("1")
+
+        behandledeHendelser.erBehandlet("1") shouldBe false
+    }
+
+    @Test
+    fun `skal glemme de eldste hendelsene først`() {
+        val behandledeHendelser = BehandledeHendelser(true, 10, null, SimpleMeterRegistry())
+
+        (1..100).forEach { behandledeHendelser.registrer(it.toString()) }
+
+        (1..100).filter { behandledeHendelser.erBehandlet(it.toString()) } shouldBe (91..100).toList()
+    }
+
+    @Test
+    fun `skal huske hendelser fra fil etter omstart`() {
+        val fil = katalog.resolve("hendelser").resolve("behandlede")
+        BehandledeHendelser(true, 10, fil, SimpleMeterRegistry()).use { behandledeHendelser ->
+            behandledeHendelser.registrer("1")
+            behandledeHendelser.registrer("2")
+        }
+
+        BehandledeHendelser(true, 10, fil, SimpleMeterRegistry()).use { behandledeHendelser ->
+            behandledeHendelser.erBehandlet("1") shouldBe true
+            behandledeHendelser.erBehandlet("2") shouldBe true
+            behandledeHendelser.erBehandlet("3") shouldBe false
+        }
+    }
+
+    @Test
+    fun `skal skrive filen på nytt når den blir for lang`() {
+        val fil = katalog.resolve("behandlede")
+        BehandledeHendelser(true, 10, fil, SimpleMeterRegistry()).use { behandledeHendelser ->
+            (1..100).forEach { behandledeHendelser.registrer(it.toString()) }
+            behandledeHendelser.erBehandlet("100") shouldBe true
+        }
+
+        (Files.readAllLines(fil).size <= 20) shouldBe true
+        BehandledeHendelser(true, 10, fil, SimpleMeterRegistry()).use { it.erBehandlet("100") shouldBe true }
+    }
+}
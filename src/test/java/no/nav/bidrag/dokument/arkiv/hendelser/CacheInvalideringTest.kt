@@ -0,0 +1,97 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.matchers.shouldBe
+import io.micrometer.core.instrument.MeterRegistry
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivTest
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
+import no.nav.bidrag.dokument.arkiv.kafka.CacheInvalidering
+import no.nav.bidrag.dokument.arkiv.kafka.CacheInvalideringMelding
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.awaitility.kotlin.await
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.kafka.core.KafkaTemplate
+import tools.jackson.databind.util.TokenBuffer
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+
+@SpringBootTest(classes = [BidragDokumentArkivTest::class], properties = ["JOURNALPOST_CACHE_AKTIV=true"])
+@DisplayName("CacheInvalidering")
+internal class CacheInvalideringTest : BaseKafkaHendelseTest() {
+    @Autowired
+    lateinit var journalpostCache: JournalpostCache
+
+    @Autowired
+    lateinit var kafkaTemplate: KafkaTemplate<String, String>
+
+    @Autowired
+    lateinit var meterRegistry: MeterRegistry
+
+    @Value("\${TOPIC_CACHE_INVALIDERING}")
+    lateinit var topicCacheInvalidering: String
+
+    private val antallHentinger = AtomicInteger()
+
+    @Test
+    fun `skal publisere invalidering når journalpost fjernes fra cachen`() {
+        journalpostCache.fjern(123L)
+
+        val consumer = configureConsumer(topicCacheInvalidering)
+        try {
+            // Nøklene er tekst, selv om konsumenten fra BaseKafkaHendelseTest er typet med Int
+            var record: ConsumerRecord<*, *>? = null
+            await.atMost(Duration.ofSeconds(10)).until {
+                record = consumer.poll(Duration.ofMillis(500)).map { it as ConsumerRecord<*, *> }
+                    .find { it.key() == "${JournalpostCache.JOURNALPOST_CACHE}:123" } ?: record
+                record != null
+            }
+            val melding = objectMapper.readValue(record!!.value() as String, CacheInvalideringMelding::class.java)
+            melding.cache shouldBe JournalpostCache.JOURNALPOST_CACHE
+            melding.nokkel shouldBe "123"
+        } finally {
+            consumer.close()
+        }
+    }
+
+    @Test
+    fun `skal fjerne journalpost fra cachen når en annen instans har endret den`() {
+        hent(456L)
+        hent(456L)
+        antallHentinger.get() shouldBe 1
+
+        val forsinkelserFor = antallForsinkelser()
+        kafkaTemplate.send(
+            topicCacheInvalidering,
+            "${JournalpostCache.JOURNALPOST_CACHE}:456",
+            objectMapper.writeValueAsString(CacheInvalideringMelding(JournalpostCache.JOURNALPOST_CACHE, "456", "annen-instans")),
+        )
+        await.atMost(Duration.ofSeconds(10)).until { antallForsinkelser() > forsinkelserFor }
+        hent(456L)
+
+        antallHentinger.get() shouldBe 2
+    }
+
+    @Test
+    fun `skal ikke fjerne journalpost igjen når invalideringen kommer fra samme instans`() {
+        hent(789L)
+        val forsinkelserFor = antallForsinkelser()
+        journalpostCache.fjern(789L)
+        hent(789L)
+        antallHentinger.get() shouldBe 2
+
+        await.atMost(Duration.ofSeconds(10)).until { antallForsinkelser() > forsinkelserFor }
+        hent(789L)
+
+        antallHentinger.get() shouldBe 2
+    }
+
+    private fun hent(journalpostId: Long) = journalpostCache.hent(journalpostId) {
+        antallHentinger.incrementAndGet()
+        TokenBuffer.forGeneration()
+    }
+
+    private fun antallForsinkelser() = meterRegistry.find(CacheInvalidering.CACHE_INVALIDERING_FORSINKELSE_TIMER_NAME).timer()?.count() ?: 0
+}
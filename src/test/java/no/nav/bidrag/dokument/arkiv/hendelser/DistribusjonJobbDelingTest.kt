@@ -0,0 +1,95 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.BidragDokumentArkivTest
+import no.nav.bidrag.dokument.arkiv.dto.DistribuerJournalpostRequestInternal
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbDto
+import no.nav.bidrag.dokument.arkiv.dto.DistribusjonJobbStatus
+import no.nav.bidrag.dokument.arkiv.kafka.DistribusjonJobbMelding
+import no.nav.bidrag.dokument.arkiv.service.DistribuerJournalpostService
+import no.nav.bidrag.dokument.arkiv.service.DistribusjonJobbService
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.clients.producer.ProducerRecord
+import org.awaitility.kotlin.await
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.test.context.bean.override.mockito.MockitoBean
+import java.time.Duration
+
+@SpringBootTest(classes = [BidragDokumentArkivTest::class])
+@DisplayName("DistribusjonJobbDeling")
+internal class DistribusjonJobbDelingTest : BaseKafkaHendelseTest() {
+    @Autowired
+    lateinit var distribusjonJobbService: DistribusjonJobbService
+
+    // Journalposten valideres før jobben bestilles, og testene her gjelder bare delingen av statusen
+    @MockitoBean
+    lateinit var distribuerJournalpostService: DistribuerJournalpostService
+
+    @Autowired
+    lateinit var kafkaTemplate: KafkaTemplate<String, String>
+
+    @Value("\${TOPIC_DISTRIBUSJON_JOBB}")
+    lateinit var topicDistribusjonJobb: String
+
+    @Test
+    fun `skal dele statusen når en jobb endres`() {
+        val jobb = distribusjonJobbService.bestillDistribusjon(123L, null, DistribuerJournalpostRequestInternal())
+
+        val consumer = configureConsumer(topicDistribusjonJobb)
+        try {
+            var record: ConsumerRecord<*, *>? = null
+            await.atMost(Duration.ofSeconds(10)).until {
+                record = consumer.poll(Duration.ofMillis(500)).map { it as ConsumerRecord<*, *> }
+                    .find { it.key() == jobb.jobbId } ?: record
+                record != null
+            }
+            val melding = objectMapper.readValue(record!!.value() as String, DistribusjonJobbMelding::class.java)
+            melding.jobb.jobbId shouldBe jobb.jobbId
+            melding.jobb.journalpostId shouldBe "JOARK-123"
+        } finally {
+            consumer.close()
+        }
+    }
+
+    @Test
+    fun `skal kunne hente status for jobb som kjøres av en annen instans`() {
+        val jobb = DistribusjonJobbDto("jobb-fra-annen-instans", "JOARK-456", DistribusjonJobbStatus.KJORER)
+
+        send(jobb.jobbId, DistribusjonJobbMelding(jobb, "annen-instans"))
+
+        await.atMost(Duration.ofSeconds(10)).until { distribusjonJobbService.hentJobb(jobb.jobbId) == jobb }
+    }
+
+    @Test
+    fun `skal fjerne jobb når en annen instans har fjernet den`() {
+        val jobb = DistribusjonJobbDto("fjernet-jobb", "JOARK-789", DistribusjonJobbStatus.VENTER)
+        send(jobb.jobbId, DistribusjonJobbMelding(jobb, "annen-instans"))
+        await.atMost(Duration.ofSeconds(10)).until { distribusjonJobbService.hentJobb(jobb.jobbId) != null }
+
+        send(jobb.jobbId, null)
+
+        await.atMost(Duration.ofSeconds(10)).until { distribusjonJobbService.hentJobb(jobb.jobbId) == null }
+    }
+
+    @Test
+    fun `skal hoppe over status som er eldre enn levetiden til jobbene`() {
+        val gammel = DistribusjonJobbDto("gammel-jobb", "JOARK-1", DistribusjonJobbStatus.FERDIG)
+        val ny = DistribusjonJobbDto("ny-jobb", "JOARK-2", DistribusjonJobbStatus.FERDIG)
+
+        send(gammel.jobbId, DistribusjonJobbMelding(gammel, "annen-instans"), System.currentTimeMillis() - Duration.ofHours(2).toMillis())
+        send(ny.jobbId, DistribusjonJobbMelding(ny, "annen-instans"))
+
+        await.atMost(Duration.ofSeconds(10)).until { distribusjonJobbService.hentJobb(ny.jobbId) != null }
+        distribusjonJobbService.hentJobb(gammel.jobbId) shouldBe null
+    }
+
+    private fun send(jobbId: String, melding: DistribusjonJobbMelding?, tidspunkt: Long? = null) {
+        val verdi = melding?.let { objectMapper.writeValueAsString(it) }
+        kafkaTemplate.send(ProducerRecord(topicDistribusjonJobb, null, tidspunkt, jobbId, verdi)).get()
+    }
+}
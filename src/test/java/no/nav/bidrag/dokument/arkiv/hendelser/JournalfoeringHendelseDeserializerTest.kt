@@ -0,0 +1,144 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.confluent.kafka.serializers.KafkaAvroDeserializer
+import io.confluent.kafka.serializers.KafkaAvroDeserializerConfig
+import io.confluent.kafka.serializers.KafkaAvroSerializer
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
+import no.nav.bidrag.dokument.arkiv.dto.JournalpostKanal
+import no.nav.bidrag.dokument.arkiv.kafka.BidragDokumentArkivKafkaConfig
+import no.nav.bidrag.dokument.arkiv.kafka.FiltrertJournalfoeringHendelse
+import no.nav.bidrag.dokument.arkiv.kafka.JournalfoeringHendelseDeserializer
+import no.nav.joarkjournalfoeringhendelser.JournalfoeringHendelseRecord
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.serialization.Deserializer
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import tools.jackson.databind.util.TokenBuffer
+import java.time.Duration
+
+/**
+ * Tester at [JournalfoeringHendelseDeserializer] bare deserialiserer hendelser som gjelder bidrag, og måler tiden mot
+ * [KafkaAvroDeserializer] på et topic der [ANDEL_IRRELEVANTE_PROSENT] % av hendelsene ikke gjelder bidrag. Tiden logges bare,
+ * siden den avhenger av maskinen.
+ */
+@DisplayName("JournalfoeringHendelseDeserializer")
+internal class JournalfoeringHendelseDeserializerTest {
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(JournalfoeringHendelseDeserializerTest::class.java)
+        private const val TOPIC = "aapen-dok-journalfoering"
+        private const val ANTALL_HENDELSER = 20_000
+        private const val ANDEL_IRRELEVANTE_PROSENT = 95
+        private const val RUNDER = 5
+    }
+
+    private val konfigurasjon = mapOf(
+        KafkaAvroDeserializerConfig.SCHEMA_REGISTRY_URL_CONFIG to "mock://journalfoering-filtrering",
+        KafkaAvroDeserializerConfig.SPECIFIC_AVRO_READER_CONFIG to "true",
+    )
+    private val serializer = KafkaAvroSerializer().also { it.configure(konfigurasjon, false) }
+
+    @Test
+    fun `skal deserialisere hendelse som gjelder bidrag`() {
+        val deserializer = deserializer(JournalfoeringHendelseDeserializer())
+
+        val hendelse = deserializer.deserialize(TOPIC, serialiser(createHendelseRecord(1)))
+
+        hendelse.shouldBeInstanceOf<JournalfoeringHendelseRecord>()
+        hendelse.journalpostId shouldBe 1
+    }
+
+    @Test
+    fun `skal deserialisere hendelse der tema er endret fra bidrag`() {
+        val deserializer = deserializer(JournalfoeringHendelseDeserializer())
+        val record = createHendelseRecord(1)
+        record.temaNytt = "AAP"
+
+        deserializer.deserialize(TOPIC, serialiser(record)).shouldBeInstanceOf<JournalfoeringHendelseRecord>()
+    }
+
+    @Test
+    fun `skal filtrere bort hendelse som ikke gjelder bidrag`() {
+        val deserializer = deserializer(JournalfoeringHendelseDeserializer())
+        val record = createHendelseRecord(1)
+        record.temaNytt = "AAP"
+        record.temaGammelt = "AAP"
+
+        deserializer.deserialize(TOPIC, serialiser(record)) shouldBe FiltrertJournalfoeringHendelse(1)
+    }
+
+    @Test
+    fun `skal filtrere bort hendelse opprettet av NKS`() {
+        val deserializer = deserializer(JournalfoeringHendelseDeserializer())
+        val record = createHendelseRecord(1)
+        record.mottaksKanal = JournalpostKanal.NAV_NO_CHAT.name
+
+        deserializer.deserialize(TOPIC, serialiser(record)) shouldBe FiltrertJournalfoeringHendelse(1)
+    }
+
+    @Test
+    fun `skal fjerne journalposten fra den lokale cachen uten å invalidere de andre instansene når hendelsen filtreres bort`() {
+        val journalpostCache = JournalpostCache(true, 10, Duration.ofMinutes(1), SimpleMeterRegistry())
+        val invaliderte = mutableListOf<Long>()
+        journalpostCache.leggTilInvalideringslytter { invaliderte.add(it) }
+        var hentet = 0
+        journalpostCache.hent(1) {
+            hentet++
+            TokenBuffer.forGeneration()
+        }
+        val filter = BidragDokumentArkivKafkaConfig.journalfoeringFilter(journalpostCache, SimpleMeterRegistry())
+
+        filter.filter(ConsumerRecord<Any, Any>(TOPIC, 0, 0, "1", FiltrertJournalfoeringHendelse(1))) shouldBe true
+        filter.filter(ConsumerRecord<Any, Any>(TOPIC, 0, 1, "2", createHendelseRecord(2))) shouldBe false
+
+        invaliderte shouldBe emptyList()
+        journalpostCache.hent(1) {
+            hentet++
+            TokenBuffer.forGeneration()
+        }
+        hentet shouldBe 2
+    }
+
+    @Test
+    fun `skal filtrere bort de fleste hendelsene og logge tiden mot KafkaAvroDeserializer`() {
+        val hendelser = (0 until ANTALL_HENDELSER).map { i ->
+            val record = createHendelseRecord(i.toLong())
+            if (i % 100 < ANDEL_IRRELEVANTE_PROSENT) {
+                record.temaNytt = "AAP"
+                record.temaGammelt = "AAP"
+            }
+            serialiser(record)
+        }
+        val filtrerende = deserializer(JournalfoeringHendelseDeserializer())
+        val vanlig = deserializer(KafkaAvroDeserializer())
+
+        val filtrert = hendelser.count { filtrerende.deserialize(TOPIC, it) is FiltrertJournalfoeringHendelse }
+        filtrert shouldBe ANTALL_HENDELSER * ANDEL_IRRELEVANTE_PROSENT / 100
+
+        val tidVanlig = (1..RUNDER).minOf { tidBrukt(vanlig, hendelser) }
+        val tidFiltrerende = (1..RUNDER).minOf { tidBrukt(filtrerende, hendelser) }
+        LOGGER.info(
+            "{} hendelser der {} % ikke gjelder bidrag: {} ms med KafkaAvroDeserializer, {} ms med JournalfoeringHendelseDeserializer",
+            ANTALL_HENDELSER,
+            ANDEL_IRRELEVANTE_PROSENT,
+            tidVanlig / 1_000_000,
+            tidFiltrerende / 1_000_000,
+        )
+    }
+
+    private fun tidBrukt(deserializer: Deserializer<Any?>, hendelser: List<ByteArray>): Long {
+        val start = System.nanoTime()
+        hendelser.forEach { deserializer.deserialize(TOPIC, it) }
+        return System.nanoTime() - start
+    }
+
+    private fun deserializer(deserializer: KafkaAvroDeserializer): Deserializer<Any?> {
+        deserializer.configure(konfigurasjon, false)
+        return deserializer
+    }
+
+    private fun serialiser(record: JournalfoeringHendelseRecord): ByteArray = serializer.serialize(TOPIC, record)
+}
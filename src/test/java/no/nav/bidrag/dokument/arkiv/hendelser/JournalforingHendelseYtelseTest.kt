@@ -0,0 +1,153 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.matchers.shouldBe
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import no.nav.bidrag.dokument.arkiv.kafka.BidragDokumentArkivKafkaConfig
+import no.nav.bidrag.dokument.arkiv.kafka.NokkelordnetBehandler
+import org.apache.kafka.clients.admin.NewTopic
+import org.apache.kafka.clients.consumer.ConsumerConfig
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.clients.producer.KafkaProducer
+import org.apache.kafka.clients.producer.ProducerConfig
+import org.apache.kafka.clients.producer.ProducerRecord
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.apache.kafka.common.serialization.StringSerializer
+import org.awaitility.kotlin.await
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory
+import org.springframework.kafka.listener.AcknowledgingMessageListener
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer
+import org.springframework.kafka.listener.ContainerProperties
+import org.springframework.kafka.listener.MessageListener
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker
+import org.springframework.util.backoff.FixedBackOff
+import java.time.Duration
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Måler hvor mange journalføringshendelser som behandles per sekund når hvert oppslag mot SAF tar [SAF_RUNDETUR_MS], med
+ * én tråd per partisjon og AckMode.RECORD som før, og med [NokkelordnetBehandler] og én consumer.
+ * Tallene logges bare. Testen sjekker at alle hendelsene behandles i rekkefølge per journalpost, siden tiden avhenger av maskinen.
+ */
+@DisplayName("Ytelse for journalføringshendelser")
+internal class JournalforingHendelseYtelseTest {
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(JournalforingHendelseYtelseTest::class.java)
+        private const val ANTALL_JOURNALPOSTER = 40
+        private const val HENDELSER_PER_JOURNALPOST = 2
+        private const val ANTALL_HENDELSER = ANTALL_JOURNALPOSTER * HENDELSER_PER_JOURNALPOST
+        private const val SAF_RUNDETUR_MS = 20L
+        private const val PARALLELITET = 8
+        private lateinit var broker: EmbeddedKafkaKraftBroker
+
+        @JvmStatic
+        @BeforeAll
+        fun startBroker() {
+            broker = EmbeddedKafkaKraftBroker(1, 1)
+            broker.afterPropertiesSet()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun stoppBroker() {
+            broker.destroy()
+        }
+    }
+
+    @Test
+    fun `skal behandle alle hendelser i rekkefølge per journalpost og logge hendelser per sekund`() {
+        val resultater = listOf(1, 2, 4).associateWith { partisjoner ->
+            Pair(hendelserPerSekund(partisjoner, nokkelordnet = false), hendelserPerSekund(partisjoner, nokkelordnet = true))
+        }
+
+        resultater.forEach { (partisjoner, resultat) ->
+            LOGGER.info(
+                "{} partisjoner: {} hendelser/s med en tråd per partisjon, {} hendelser/s nøkkelordnet med {} tråder",
+                partisjoner,
+                resultat.first.toInt(),
+                resultat.second.toInt(),
+                PARALLELITET,
+            )
+        }
+    }
+
+    private fun hendelserPerSekund(partisjoner: Int, nokkelordnet: Boolean): Double {
+        val topic = "ytelse-$partisjoner-${if (nokkelordnet) "nokkelordnet" else "sekvensiell"}"
+        broker.addTopics(NewTopic(topic, partisjoner, 1))
+        produserHendelser(topic)
+
+        val behandlet = ConcurrentHashMap<String, MutableList<String>>()
+        val ferdig = CountDownLatch(ANTALL_HENDELSER)
+        val start = AtomicLong()
+        val slutt = AtomicLong()
+        val behandle: (ConsumerRecord<String, String>) -> Unit = { record ->
+            start.compareAndSet(0, System.nanoTime())
+            Thread.sleep(SAF_RUNDETUR_MS)
+            behandlet.computeIfAbsent(record.key()) { Collections.synchronizedList(mutableListOf()) }.add(record.value())
+            slutt.set(System.nanoTime())
+            ferdig.countDown()
+        }
+        val behandler = NokkelordnetBehandler("ytelse", PARALLELITET, FixedBackOff(0, 0), SimpleMeterRegistry(), behandle)
+
+        val containerProperties = ContainerProperties(topic)
+        containerProperties.groupId = topic
+        if (nokkelordnet) {
+            BidragDokumentArkivKafkaConfig.nokkelordnetBehandling(containerProperties, 100)
+            containerProperties.messageListener =
+                AcknowledgingMessageListener<String, String> { record, acknowledgment -> behandler.behandle(record.key(), record, acknowledgment!!) }
+        } else {
+            containerProperties.ackMode = ContainerProperties.AckMode.RECORD
+            containerProperties.messageListener = MessageListener<String, String> { behandle(it) }
+        }
+        val container = ConcurrentMessageListenerContainer(consumerFactory(), containerProperties)
+        container.setConcurrency(if (nokkelordnet) 1 else partisjoner)
+        container.start()
+        try {
+            ferdig.await(60, TimeUnit.SECONDS) shouldBe true
+            behandlet.values.forEach { hendelser -> hendelser shouldBe hendelser.sortedBy { it.substringAfterLast("-").toInt() } }
+            await.atMost(Duration.ofSeconds(10)).until { committet(topic) == ANTALL_HENDELSER.toLong() }
+        } finally {
+            container.stop()
+            behandler.close()
+        }
+        return ANTALL_HENDELSER * 1_000_000_000.0 / (slutt.get() - start.get())
+    }
+
+    private fun produserHendelser(topic: String) {
+        val props = mapOf<String, Any>(
+            ProducerConfig.BOOTSTRAP_SERVERS_CONFIG to broker.brokersAsString,
+            ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG to StringSerializer::class.java,
+            ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG to StringSerializer::class.java,
+        )
+        KafkaProducer<String, String>(props).use { producer ->
+            (0 until HENDELSER_PER_JOURNALPOST).forEach { hendelse ->
+                (0 until ANTALL_JOURNALPOSTER).forEach { journalpost ->
+                    producer.send(ProducerRecord(topic, "${1000 + journalpost}", "${1000 + journalpost}-$hendelse"))
+                }
+            }
+            producer.flush()
+        }
+    }
+
+    private fun consumerFactory() = DefaultKafkaConsumerFactory<String, String>(
+        mapOf<String, Any>(
+            ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG to broker.brokersAsString,
+            ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG to StringDeserializer::class.java,
+            ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG to StringDeserializer::class.java,
+            ConsumerConfig.AUTO_OFFSET_RESET_CONFIG to "earliest",
+            ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG to false,
+        ),
+    )
+
+    private fun committet(gruppe: String): Long = broker.doWithAdminFunction { admin ->
+        admin.listConsumerGroupOffsets(gruppe).partitionsToOffsetAndMetadata().get().values.sumOf { it?.offset() ?: 0L }
+    }
+}
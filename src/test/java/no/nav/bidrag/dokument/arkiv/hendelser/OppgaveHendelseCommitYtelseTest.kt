@@ -0,0 +1,180 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.kafka.BidragDokumentArkivKafkaConfig
+import no.nav.bidrag.dokument.arkiv.kafka.JsonMapperService
+import org.apache.kafka.clients.admin.NewTopic
+import org.apache.kafka.clients.consumer.ConsumerConfig
+import org.apache.kafka.clients.consumer.ConsumerInterceptor
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.clients.consumer.ConsumerRecords
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+import org.apache.kafka.clients.producer.KafkaProducer
+import org.apache.kafka.clients.producer.ProducerConfig
+import org.apache.kafka.clients.producer.ProducerRecord
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.serialization.LongDeserializer
+import org.apache.kafka.common.serialization.LongSerializer
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.apache.kafka.common.serialization.StringSerializer
+import org.awaitility.kotlin.await
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory
+import org.springframework.kafka.listener.BatchMessageListener
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer
+import org.springframework.kafka.listener.ContainerProperties
+import org.springframework.kafka.listener.DefaultErrorHandler
+import org.springframework.kafka.listener.MessageListener
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker
+import org.springframework.util.backoff.FixedBackOff
+import tools.jackson.module.kotlin.jacksonMapperBuilder
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Måler hvor mange commits som trengs for [ANTALL_HENDELSER] oppgavehendelser med AckMode.RECORD som før, og med
+ * batch-lytteren fra [BidragDokumentArkivKafkaConfig.oppgaveKafkaListenerContainerFactory].
+ */
+@DisplayName("Ytelse for commit av oppgavehendelser")
+internal class OppgaveHendelseCommitYtelseTest {
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(OppgaveHendelseCommitYtelseTest::class.java)
+        private const val ANTALL_HENDELSER = 10_000
+        private lateinit var broker: EmbeddedKafkaKraftBroker
+
+        @JvmStatic
+        @BeforeAll
+        fun startBroker() {
+            broker = EmbeddedKafkaKraftBroker(1, 1)
+            broker.afterPropertiesSet()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun stoppBroker() {
+            broker.destroy()
+        }
+    }
+
+    private val jsonMapperService = JsonMapperService(jacksonMapperBuilder().build())
+
+    @Test
+    fun `skal committe sjeldnere med batch-lytter`() {
+        val (commitsPerHendelse, hendelserPerSekundPerHendelse) = les(batch = false)
+        val (commitsBatch, hendelserPerSekundBatch) = les(batch = true)
+
+        LOGGER.info(
+            "{} oppgavehendelser: {} commits og {} hendelser/s med AckMode.RECORD, {} commits og {} hendelser/s med batch-lytter",
+            ANTALL_HENDELSER,
+            commitsPerHendelse,
+            hendelserPerSekundPerHendelse.toInt(),
+            commitsBatch,
+            hendelserPerSekundBatch.toInt(),
+        )
+        (commitsPerHendelse >= ANTALL_HENDELSER) shouldBe true
+        (commitsBatch * 10 < commitsPerHendelse) shouldBe true
+    }
+
+    private fun les(batch: Boolean): Pair<Int, Double> {
+        val topic = "oppgave-${if (batch) "batch" else "record"}"
+        broker.addTopics(NewTopic(topic, 1, 1))
+        produserHendelser(topic)
+
+        val behandlet = AtomicInteger()
+        val behandle: (ConsumerRecord<Long, String>) -> Unit = {
+            jsonMapperService.erReturOppgaveOpprettetForBidrag(it.value()!!)
+            behandlet.incrementAndGet()
+        }
+        val container = if (batch) {
+            val factory = BidragDokumentArkivKafkaConfig().oppgaveKafkaListenerContainerFactory(
+                consumerFactory(topic),
+                DefaultErrorHandler(FixedBackOff(0, 0)),
+            )
+            factory.createContainer(topic).also { container ->
+                container.setupMessageListener(BatchMessageListener<Long, String> { records -> records.forEach(behandle) })
+            }
+        } else {
+            val containerProperties = ContainerProperties(topic)
+            containerProperties.ackMode = ContainerProperties.AckMode.RECORD
+            containerProperties.messageListener = MessageListener<Long, String> { behandle(it) }
+            ConcurrentMessageListenerContainer(consumerFactory(topic), containerProperties)
+        }
+
+        val start = System.nanoTime()
+        container.start()
+        try {
+            await.atMost(Duration.ofSeconds(60)).until { committet(topic) == ANTALL_HENDELSER.toLong() }
+            val tid = System.nanoTime() - start
+            behandlet.get() shouldBe ANTALL_HENDELSER
+            return Pair(CommitTeller.antall(topic), ANTALL_HENDELSER * 1_000_000_000.0 / tid)
+        } finally {
+            container.stop()
+        }
+    }
+
+    private fun produserHendelser(topic: String) {
+        val props = mapOf<String, Any>(
+            ProducerConfig.BOOTSTRAP_SERVERS_CONFIG to broker.brokersAsString,
+            ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG to LongSerializer::class.java,
+            ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG to StringSerializer::class.java,
+        )
+        KafkaProducer<Long, String>(props).use { producer ->
+            (0 until ANTALL_HENDELSER).forEach { i ->
+                val tema = if (i % 50 == 0) "BID" else "AAP"
+                val hendelse = """
+                    {"hendelse":{"hendelsestype":"OPPGAVE_OPPRETTET","tidspunkt":"2024-01-01T12:00:00"},
+                    "utfortAv":{"navIdent":"Z994977","enhetsnr":"4806"},
+                    "oppgave":{"oppgaveId":$i,"versjon":1,"kategorisering":{"tema":"$tema","oppgavetype":"RETUR"}}}
+                """.trimIndent()
+                producer.send(ProducerRecord(topic, i.toLong(), hendelse))
+            }
+            producer.flush()
+        }
+    }
+
+    private fun consumerFactory(gruppe: String) = DefaultKafkaConsumerFactory<Long, String>(
+        mapOf<String, Any>(
+            ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG to broker.brokersAsString,
+            ConsumerConfig.GROUP_ID_CONFIG to gruppe,
+            ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG to LongDeserializer::class.java,
+            ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG to StringDeserializer::class.java,
+            ConsumerConfig.AUTO_OFFSET_RESET_CONFIG to "earliest",
+            ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG to false,
+            ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG to CommitTeller::class.java.name,
+        ),
+    )
+
+    private fun committet(gruppe: String): Long = broker.doWithAdminFunction { admin ->
+        admin.listConsumerGroupOffsets(gruppe).partitionsToOffsetAndMetadata().get().values.sumOf { it?.offset() ?: 0L }
+    }
+
+    /**
+     * Teller commits per consumer group.
+     */
+    class CommitTeller : ConsumerInterceptor<Long, String> {
+        private var gruppe = ""
+
+        override fun configure(configs: MutableMap<String, *>) {
+            gruppe = configs[ConsumerConfig.GROUP_ID_CONFIG].toString()
+        }
+
+        override fun onConsume(records: ConsumerRecords<Long, String>): ConsumerRecords<Long, String> = records
+
+        override fun onCommit(offsets: MutableMap<TopicPartition, OffsetAndMetadata>) {
+            COMMITS.computeIfAbsent(gruppe) { AtomicInteger() }.incrementAndGet()
+        }
+
+        override fun close() {}
+
+        companion object {
+            private val COMMITS = ConcurrentHashMap<String, AtomicInteger>()
+
+            fun antall(gruppe: String): Int = COMMITS[gruppe]?.get() ?: 0
+        }
+    }
+}
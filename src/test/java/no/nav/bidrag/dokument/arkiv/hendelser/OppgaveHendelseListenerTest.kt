@@ -14,6 +14,7 @@ import no.nav.bidrag.dokument.arkiv.dto.TilleggsOpplysninger
 import no.nav.bidrag.dokument.arkiv.dto.UtsendingsInfo
 import no.nav.bidrag.dokument.arkiv.kafka.HendelseListener
 import no.nav.bidrag.dokument.arkiv.kafka.dto.OppgaveKafkaHendelse
+import no.nav.bidrag.dokument.arkiv.kafka.dto.UtsattHendelse
 import no.nav.bidrag.dokument.arkiv.model.OppgaveStatus
 import no.nav.bidrag.dokument.arkiv.model.Oppgavestatuskategori
 import no.nav.bidrag.dokument.arkiv.stubs.BRUKER_AKTOER_ID
@@ -25,16 +26,22 @@ import org.apache.kafka.clients.consumer.ConsumerRecord
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers
 import org.mockito.Mockito
+import org.mockito.Mockito.verify
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.http.HttpStatus
 import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.kafka.support.Acknowledgment
 import org.springframework.test.context.ActiveProfiles
 import org.springframework.test.context.bean.override.mockito.MockitoBean
 import org.wiremock.spring.ConfigureWireMock
 import org.wiremock.spring.EnableWireMock
 import tools.jackson.databind.json.JsonMapper
+import java.time.Instant
 import java.time.LocalDate
 import java.time.LocalDateTime
 
@@ -56,6 +63,9 @@ class OppgaveHendelseListenerTest {
 
     val stubs: Stubs = Stubs()
 
+    @Value("\${TOPIC_UTSATT_BEHANDLING}")
+    lateinit var topicUtsattBehandling: String
+
     @AfterEach
     fun cleanupMocks() {
         WireMock.reset()
@@ -263,6 +273,10 @@ class OppgaveHendelseListenerTest {
                 objectMapper.writeValueAsString(oppgaveData.toHendelse()),
             )
         hendelseListener.lesOppgaveOpprettetHendelse(consumerRecord)
+        stubs.verifyStub.harSafKallEtterHentJournalpost(1)
+        stubs.verifyStub.dokarkivOppdaterIkkeKalt(journalpostId)
+
+        lesUtsattHendelse()
 
         Assertions.assertAll(
             {
@@ -445,6 +459,29 @@ class OppgaveHendelseListenerTest {
         )
     }
 
+    /**
+     * Leser hendelsen som ble lagt på topicet for utsatt behandling, som om ventetiden var ute.
+     */
+    private fun lesUtsattHendelse() {
+        val utsattCaptor = ArgumentCaptor.forClass(String::class.java)
+        verify(kafkaTemplateMock).send(
+            ArgumentMatchers.eq(topicUtsattBehandling),
+            ArgumentMatchers.anyString(),
+            utsattCaptor.capture(),
+        )
+        val utsattHendelse = objectMapper.readValue(utsattCaptor.value, UtsattHendelse::class.java)
+        hendelseListener.lesUtsattHendelse(
+            ConsumerRecord(
+                topicUtsattBehandling,
+                0,
+                0L,
+                utsattHendelse.nokkel,
+                objectMapper.writeValueAsString(utsattHendelse.copy(behandlesEtter = Instant.now())),
+            ),
+            Mockito.mock(Acknowledgment::class.java),
+        )
+    }
+
     fun createOppgaveData(
         id: Long = 1,
         versjon: Int = 1,
@@ -0,0 +1,119 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.kafka.BidragDokumentArkivKafkaConfig
+import no.nav.bidrag.dokument.arkiv.kafka.HendelseListener
+import no.nav.bidrag.dokument.arkiv.kafka.OppgaveHendelseLytter
+import org.apache.kafka.clients.admin.NewTopic
+import org.apache.kafka.clients.consumer.ConsumerConfig
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.clients.producer.KafkaProducer
+import org.apache.kafka.clients.producer.ProducerConfig
+import org.apache.kafka.clients.producer.ProducerRecord
+import org.apache.kafka.common.serialization.LongDeserializer
+import org.apache.kafka.common.serialization.LongSerializer
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.apache.kafka.common.serialization.StringSerializer
+import org.awaitility.kotlin.await
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory
+import org.springframework.kafka.listener.BatchMessageListener
+import org.springframework.kafka.listener.DefaultErrorHandler
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker
+import org.springframework.util.backoff.FixedBackOff
+import java.time.Duration
+import java.util.Collections
+
+@DisplayName("OppgaveHendelseLytter")
+internal class OppgaveHendelseLytterTest {
+    companion object {
+        private const val TOPIC = "oppgave-feil"
+        private const val ANTALL_HENDELSER = 5
+        private const val FEILENDE_OFFSET = 2L
+        private const val ANTALL_RETRY = 2L
+        private lateinit var broker: EmbeddedKafkaKraftBroker
+
+        @JvmStatic
+        @BeforeAll
+        fun startBroker() {
+            broker = EmbeddedKafkaKraftBroker(1, 1)
+            broker.afterPropertiesSet()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun stoppBroker() {
+            broker.destroy()
+        }
+    }
+
+    private val behandlet = Collections.synchronizedList(mutableListOf<Long>())
+    private val committetVedForsok = Collections.synchronizedList(mutableListOf<Long>())
+    private val gjenopprettet = Collections.synchronizedList(mutableListOf<Long>())
+    private val hendelseListener = Mockito.mock(HendelseListener::class.java) { invocation ->
+        val offset = invocation.getArgument<ConsumerRecord<String?, String?>>(0).offset()
+        behandlet.add(offset)
+        if (offset == FEILENDE_OFFSET) {
+            committetVedForsok.add(committet())
+            throw IllegalStateException("Behandling av oppgavehendelse feilet")
+        }
+        null
+    }
+
+    @Test
+    fun `skal committe hendelsene før den som feiler og prøve den på nytt uten å behandle resten av batchen flere ganger`() {
+        broker.addTopics(NewTopic(TOPIC, 1, 1))
+        produserHendelser()
+
+        val lytter = OppgaveHendelseLytter(hendelseListener)
+        val errorHandler = DefaultErrorHandler({ record, _ -> gjenopprettet.add(record.offset()) }, FixedBackOff(0, ANTALL_RETRY))
+        val container = BidragDokumentArkivKafkaConfig().oppgaveKafkaListenerContainerFactory(consumerFactory(), errorHandler)
+            .createContainer(TOPIC)
+        @Suppress("UNCHECKED_CAST")
+        container.setupMessageListener(
+            BatchMessageListener<Long, String> { records -> lytter.lesOppgaveHendelser(records as List<ConsumerRecord<String?, String?>>) },
+        )
+
+        container.start()
+        try {
+            await.atMost(Duration.ofSeconds(30)).until { committet() == ANTALL_HENDELSER.toLong() }
+        } finally {
+            container.stop()
+        }
+
+        behandlet.groupingBy { it }.eachCount() shouldBe mapOf(0L to 1, 1L to 1, 2L to 3, 3L to 1, 4L to 1)
+        committetVedForsok.drop(1) shouldBe listOf(FEILENDE_OFFSET, FEILENDE_OFFSET)
+        gjenopprettet shouldBe listOf(FEILENDE_OFFSET)
+    }
+
+    private fun produserHendelser() {
+        val props = mapOf<String, Any>(
+            ProducerConfig.BOOTSTRAP_SERVERS_CONFIG to broker.brokersAsString,
+            ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG to LongSerializer::class.java,
+            ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG to StringSerializer::class.java,
+        )
+        KafkaProducer<Long, String>(props).use { producer ->
+            (0 until ANTALL_HENDELSER).forEach { i -> producer.send(ProducerRecord(TOPIC, i.toLong(), """{"oppgaveId":$i}""")) }
+            producer.flush()
+        }
+    }
+
+    private fun consumerFactory() = DefaultKafkaConsumerFactory<Long, String>(
+        mapOf<String, Any>(
+            ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG to broker.brokersAsString,
+            ConsumerConfig.GROUP_ID_CONFIG to TOPIC,
+            ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG to LongDeserializer::class.java,
+            ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG to StringDeserializer::class.java,
+            ConsumerConfig.AUTO_OFFSET_RESET_CONFIG to "earliest",
+            ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG to false,
+        ),
+    )
+
+    private fun committet(): Long = broker.doWithAdminFunction { admin ->
+        admin.listConsumerGroupOffsets(TOPIC).partitionsToOffsetAndMetadata().get().values.sumOf { it?.offset() ?: 0L }
+    }
+}
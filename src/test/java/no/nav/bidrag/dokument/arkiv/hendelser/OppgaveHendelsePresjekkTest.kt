@@ -0,0 +1,130 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.matchers.shouldBe
+import no.nav.bidrag.dokument.arkiv.kafka.JsonMapperService
+import no.nav.bidrag.dokument.arkiv.kafka.dto.OppgaveKafkaHendelse
+import no.nav.bidrag.dokument.arkiv.kafka.dto.OppgaveKafkaHendelse.Hendelse.Hendelsestype
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import tools.jackson.module.kotlin.jacksonMapperBuilder
+import java.time.LocalDate
+import java.time.LocalDateTime
+
+/**
+ * Tester at [JsonMapperService.erReturOppgaveOpprettetForBidrag] gir samme svar som filtreringen etter full binding, og måler
+ * tiden mot full binding av alle hendelsene på et oppgave-topic der bare [ANDEL_RETUR_PROSENT] % er retur-oppgaver for bidrag.
+ * Tiden logges bare, siden den avhenger av maskinen.
+ */
+@DisplayName("Presjekk av oppgavehendelser")
+internal class OppgaveHendelsePresjekkTest {
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(OppgaveHendelsePresjekkTest::class.java)
+        private const val ANTALL_HENDELSER = 20_000
+        private const val ANDEL_RETUR_PROSENT = 2
+        private const val RUNDER = 5
+        private val TEMAER = listOf("BID", "FAR", "AAP", "SYK", "DAG")
+        private val OPPGAVETYPER = listOf("RETUR", "JFR", "BEH_SAK", "VUR")
+    }
+
+    private val jsonMapper = jacksonMapperBuilder().build()
+    private val jsonMapperService = JsonMapperService(jsonMapper)
+
+    @Test
+    fun `skal godta opprettet retur-oppgave for bidrag og farskap`() {
+        jsonMapperService.erReturOppgaveOpprettetForBidrag(hendelse("BID", "RETUR", Hendelsestype.OPPGAVE_OPPRETTET)) shouldBe true
+        jsonMapperService.erReturOppgaveOpprettetForBidrag(hendelse("FAR", "RETUR", Hendelsestype.OPPGAVE_OPPRETTET)) shouldBe true
+    }
+
+    @Test
+    fun `skal gi samme svar som full binding`() {
+        TEMAER.forEach { tema ->
+            OPPGAVETYPER.forEach { oppgavetype ->
+                Hendelsestype.entries.forEach { hendelsestype ->
+                    val hendelse = hendelse(tema, oppgavetype, hendelsestype)
+                    val oppgaveHendelse = jsonMapperService.mapOppgaveHendelse(hendelse)
+
+                    jsonMapperService.erReturOppgaveOpprettetForBidrag(hendelse) shouldBe
+                        (oppgaveHendelse.erTemaBIDEllerFAR() && oppgaveHendelse.erReturOppgave() && oppgaveHendelse.erOppgaveOpprettetHendelse)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `skal lese feltene uavhengig av rekkefølge`() {
+        val hendelse = """
+            {
+              "oppgave": {"bruker": {"ident": "123", "identType": "FOLKEREGISTERIDENT"}, "kategorisering": {"oppgavetype": "RETUR", "tema": "BID"}, "oppgaveId": 1, "versjon": 1},
+              "utfortAv": null,
+              "hendelse": {"tidspunkt": "2024-01-01T12:00:00", "hendelsestype": "OPPGAVE_OPPRETTET"}
+            }
+        """.trimIndent()
+
+        jsonMapperService.erReturOppgaveOpprettetForBidrag(hendelse) shouldBe true
+    }
+
+    @Test
+    fun `skal ikke godta hendelse uten kategorisering`() {
+        val hendelse = """{"hendelse": {"hendelsestype": "OPPGAVE_OPPRETTET"}, "oppgave": {"oppgaveId": 1, "kategorisering": null}}"""
+
+        jsonMapperService.erReturOppgaveOpprettetForBidrag(hendelse) shouldBe false
+    }
+
+    @Test
+    fun `skal finne de samme retur-oppgavene som full binding og logge tiden`() {
+        val hendelser = (0 until ANTALL_HENDELSER).map { i ->
+            if (i % 100 < ANDEL_RETUR_PROSENT) {
+                hendelse("BID", "RETUR", Hendelsestype.OPPGAVE_OPPRETTET)
+            } else {
+                hendelse(TEMAER[2 + i % 3], OPPGAVETYPER[i % OPPGAVETYPER.size], Hendelsestype.entries[i % Hendelsestype.entries.size])
+            }
+        }
+
+        val fullBinding: (String) -> Boolean = {
+            val hendelse = jsonMapperService.mapOppgaveHendelse(it)
+            hendelse.erTemaBIDEllerFAR() && hendelse.erReturOppgave() && hendelse.erOppgaveOpprettetHendelse
+        }
+        val presjekk: (String) -> Boolean = {
+            jsonMapperService.erReturOppgaveOpprettetForBidrag(it) && fullBinding(it)
+        }
+        hendelser.count(presjekk) shouldBe ANTALL_HENDELSER * ANDEL_RETUR_PROSENT / 100
+        hendelser.count(fullBinding) shouldBe ANTALL_HENDELSER * ANDEL_RETUR_PROSENT / 100
+
+        val tidFullBinding = (1..RUNDER).minOf { tidBrukt(hendelser, fullBinding) }
+        val tidPresjekk = (1..RUNDER).minOf { tidBrukt(hendelser, presjekk) }
+        LOGGER.info(
+            "{} oppgavehendelser der {} % er retur-oppgaver for bidrag: {} ms med full binding, {} ms med presjekk",
+            ANTALL_HENDELSER,
+            ANDEL_RETUR_PROSENT,
+            tidFullBinding / 1_000_000,
+            tidPresjekk / 1_000_000,
+        )
+    }
+
+    private fun tidBrukt(hendelser: List<String>, behandle: (String) -> Boolean): Long {
+        val start = System.nanoTime()
+        hendelser.forEach { behandle(it) }
+        return System.nanoTime() - start
+    }
+
+    private fun hendelse(tema: String, oppgavetype: String, hendelsestype: Hendelsestype): String = jsonMapper.writeValueAsString(
+        OppgaveKafkaHendelse(
+            hendelse = OppgaveKafkaHendelse.Hendelse(hendelsestype, LocalDateTime.parse("2024-01-01T12:00:00")),
+            utfortAv = OppgaveKafkaHendelse.UtfortAv("Z994977", "4806"),
+            oppgave = OppgaveKafkaHendelse.Oppgave(
+                oppgaveId = 1,
+                versjon = 1,
+                tilordning = OppgaveKafkaHendelse.Tilordning("4806", 100, "Z994977"),
+                kategorisering = OppgaveKafkaHendelse.Kategorisering(
+                    tema = tema,
+                    oppgavetype = oppgavetype,
+                    behandlingstema = "ab0322",
+                    prioritet = OppgaveKafkaHendelse.Kategorisering.Prioritet.NORMAL,
+                ),
+                behandlingsperiode = OppgaveKafkaHendelse.Behandlingsperiode(LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-15")),
+                bruker = OppgaveKafkaHendelse.Bruker("12345678910", OppgaveKafkaHendelse.Bruker.IdentType.FOLKEREGISTERIDENT),
+            ),
+        ),
+    )
+}
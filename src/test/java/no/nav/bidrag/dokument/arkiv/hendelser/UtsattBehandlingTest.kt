@@ -0,0 +1,169 @@
+package no.nav.bidrag.dokument.arkiv.hendelser
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import no.nav.bidrag.dokument.arkiv.kafka.UtsattBehandling
+import no.nav.bidrag.dokument.arkiv.kafka.dto.UtsattHendelse
+import no.nav.bidrag.dokument.arkiv.kafka.dto.UtsattHendelseType
+import no.nav.bidrag.dokument.arkiv.model.JournalfortJournalpostManglerJournalfortAvIdent
+import no.nav.bidrag.dokument.arkiv.model.JournalpostHarIkkeKommetIRetur
+import no.nav.bidrag.dokument.arkiv.model.JournalpostIkkeFunnetException
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers
+import org.mockito.Mockito
+import org.mockito.Mockito.verify
+import org.springframework.kafka.core.KafkaTemplate
+import tools.jackson.module.kotlin.jacksonMapperBuilder
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeoutException
+
+@DisplayName("UtsattBehandling")
+internal class UtsattBehandlingTest {
+    companion object {
+        private const val TOPIC = "utsatt-behandling"
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private val kafkaTemplate = Mockito.mock(KafkaTemplate::class.java) as KafkaTemplate<String, String>
+    private val meterRegistry = SimpleMeterRegistry()
+    private val utsattBehandling = UtsattBehandling(kafkaTemplate, jacksonMapperBuilder().build(), TOPIC, meterRegistry, Duration.ofMillis(100))
+
+    @Test
+    fun `skal utsette hendelse med økende ventetid`() {
+        var id: String? = null
+        val ventetider = (0 until 2).map { forsok ->
+            val start = Instant.now()
+            utsattBehandling.behandle(UtsattHendelseType.RETUR_OPPGAVE, "1", forsok, { "hendelse" }, id = id) {
+                throw JournalpostHarIkkeKommetIRetur("Journalpost 1 har ikke kommet i retur")
+            }
+            val utsattHendelse = sisteUtsatteHendelse()
+            if (id != null) utsattHendelse.id shouldBe id
+            id = utsattHendelse.id
+            utsattHendelse.forsok shouldBe forsok + 1
+            utsattHendelse.hendelse shouldBe "hendelse"
+            Duration.between(start, utsattHendelse.behandlesEtter)
+        }
+
+        (ventetider[0] >= Duration.ofSeconds(1)) shouldBe true
+        (ventetider[1] > ventetider[0]) shouldBe true
+        antall(UtsattBehandling.PLANLAGT) shouldBe 2.0
+    }
+
+    @Test
+    fun `skal telle vellykket forsøk etter utsettelse`() {
+        utsattBehandling.behandle(UtsattHendelseType.RETUR_OPPGAVE, "1", 2, { "hendelse" }) {}
+
+        antall(UtsattBehandling.LYKTES) shouldBe 1.0
+        Mockito.verifyNoInteractions(kafkaTemplate)
+    }
+
+    @Test
+    fun `skal ikke telle hendelse som lykkes første gang`() {
+        utsattBehandling.behandle(UtsattHendelseType.RETUR_OPPGAVE, "1", 0, { "hendelse" }) {}
+
+        antall(UtsattBehandling.LYKTES) shouldBe 0.0
+    }
+
+    @Test
+    fun `skal kalle vedBruktOpp når alle forsøkene er brukt opp`() {
+        var bruktOpp = false
+
+        utsattBehandling.behandle(
+            UtsattHendelseType.JOURNALFOERING,
+            "1",
+            UtsattHendelseType.JOURNALFOERING.ventetider.size,
+            { "hendelse" },
+            vedBruktOpp = { bruktOpp = true },
+        ) { throw JournalfortJournalpostManglerJournalfortAvIdent("Journalført journalpost mangler journaført av ident") }
+
+        bruktOpp shouldBe true
+        antall(UtsattBehandling.BRUKT_OPP) shouldBe 1.0
+        Mockito.verifyNoInteractions(kafkaTemplate)
+    }
+
+    @Test
+    fun `skal kaste andre feil videre`() {
+        shouldThrow<JournalpostIkkeFunnetException> {
+            utsattBehandling.behandle(UtsattHendelseType.RETUR_OPPGAVE, "1", 0, { "hendelse" }) {
+                throw JournalpostIkkeFunnetException("Fant ikke journalpost")
+            }
+        }
+        Mockito.verifyNoInteractions(kafkaTemplate)
+    }
+
+    @Test
+    fun `skal feile når kafka ikke bekrefter den utsatte hendelsen innen fristen`() {
+        Mockito.`when`(kafkaTemplate.send(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+            .thenReturn(CompletableFuture())
+
+        shouldThrow<TimeoutException> { utsettJournalfoering("1") }
+        antall(UtsattBehandling.PLANLAGT) shouldBe 0.0
+    }
+
+    @Test
+    fun `skal legge senere hendelse med samme nøkkel bak hendelsen som venter`() {
+        utsettJournalfoering("1")
+        val ventende = sisteUtsatteHendelse()
+        var behandlet = false
+
+        utsattBehandling.behandle(UtsattHendelseType.JOURNALFOERING, "1", 0, { "senere hendelse" }) { behandlet = true }
+
+        behandlet shouldBe false
+        val koet = sisteUtsatteHendelse()
+        koet.hendelse shouldBe "senere hendelse"
+        koet.forsok shouldBe 0
+        (koet.id != ventende.id) shouldBe true
+        antall(UtsattBehandling.KOET) shouldBe 1.0
+    }
+
+    @Test
+    fun `skal behandle hendelsen som venter og deretter hendelsene som ble lagt bak den`() {
+        utsettJournalfoering("1")
+        val ventende = sisteUtsatteHendelse()
+        utsattBehandling.behandle(UtsattHendelseType.JOURNALFOERING, "1", 0, { "senere hendelse" }) {}
+        val koet = sisteUtsatteHendelse()
+        val behandlet = mutableListOf<String>()
+
+        utsattBehandling.behandle(UtsattHendelseType.JOURNALFOERING, "1", koet.forsok, { koet.hendelse }, id = koet.id) { behandlet.add(koet.hendelse) }
+        utsattBehandling.behandle(UtsattHendelseType.JOURNALFOERING, "1", ventende.forsok, { ventende.hendelse }, id = ventende.id) { behandlet.add(ventende.hendelse) }
+        utsattBehandling.behandle(UtsattHendelseType.JOURNALFOERING, "1", koet.forsok, { koet.hendelse }, id = koet.id) { behandlet.add(koet.hendelse) }
+
+        behandlet shouldBe listOf("hendelse", "senere hendelse")
+        antall(UtsattBehandling.KOET) shouldBe 2.0
+    }
+
+    @Test
+    fun `skal ikke holde igjen hendelser med en annen nøkkel`() {
+        utsettJournalfoering("1")
+        var behandlet = false
+
+        utsattBehandling.behandle(UtsattHendelseType.JOURNALFOERING, "2", 0, { "hendelse" }) { behandlet = true }
+
+        behandlet shouldBe true
+        antall(UtsattBehandling.KOET) shouldBe 0.0
+    }
+
+    @Test
+    fun `skal lese journalføringshendelse som ble skrevet`() {
+        val record = createHendelseRecord(123)
+
+        UtsattBehandling.lesJournalfoeringHendelse(UtsattBehandling.skrivJournalfoeringHendelse(record)) shouldBe record
+    }
+
+    private fun utsettJournalfoering(nokkel: String) = utsattBehandling.behandle(UtsattHendelseType.JOURNALFOERING, nokkel, 0, { "hendelse" }) {
+        throw JournalfortJournalpostManglerJournalfortAvIdent("Journalført journalpost mangler journaført av ident")
+    }
+
+    private fun sisteUtsatteHendelse(): UtsattHendelse {
+        val melding = ArgumentCaptor.forClass(String::class.java)
+        verify(kafkaTemplate, Mockito.atLeastOnce()).send(ArgumentMatchers.eq(TOPIC), ArgumentMatchers.eq("1"), melding.capture())
+        return utsattBehandling.les(melding.value)
+    }
+
+    private fun antall(resultat: String): Double = meterRegistry.find(UtsattBehandling.UTSATT_BEHANDLING_COUNTER_NAME).tag("resultat", resultat).counters().sumOf { it.count() }
+}
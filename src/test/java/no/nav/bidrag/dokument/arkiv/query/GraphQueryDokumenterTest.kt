@@ -0,0 +1,69 @@
+package no.nav.bidrag.dokument.arkiv.query
+
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.string.shouldContain
+import io.kotest.matchers.string.shouldNotContain
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import org.apache.commons.lang3.StringUtils
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import kotlin.system.measureNanoTime
+
+@DisplayName("GraphQueryDokumenter")
+class GraphQueryDokumenterTest {
+
+    @Test
+    fun `skal minifisere spørringsdokument`() {
+        val query = GraphQueryDokumenter.minifiser(
+            """
+            query journalpost(${'$'}journalpostId: String!) {
+                journalpost(journalpostId: ${'$'}journalpostId) {
+                    # kommentar
+                    tittel
+                    sak {
+                        fagsakId
+                    }
+                }
+            }
+            """.trimIndent(),
+        )
+
+        query shouldBe "query journalpost(\$journalpostId: String!){journalpost(journalpostId: \$journalpostId){tittel sak{fagsakId}}}"
+    }
+
+    @Test
+    fun `skal lese spørringsdokument bare en gang`() {
+        val query = DokumentoversiktFagsakQuery("666", listOf("BID")).getQuery()
+
+        DokumentoversiktFagsakQuery("777", listOf("FAR")).getQuery() shouldBeSameInstanceAs query
+        query shouldContain "query dokumentoversiktFagsak("
+        query shouldNotContain "\n"
+    }
+
+    @Test
+    fun `skal bygge aliasert journalposter-spørring fra journalpost-dokumentet`() {
+        val query = JournalposterQuery(listOf(1L, 2L)).getQuery()
+
+        query shouldContain "jp0:journalpost(journalpostId: \$jp0){"
+        query shouldContain "jp1:journalpost(journalpostId: \$jp1){"
+        query shouldNotContain "query journalpost("
+    }
+
+    @Test
+    fun `skal måle kostnad per kall for spørringsdokument`() {
+        val antallKall = 10_000
+        val tidPerKallGammel = measureNanoTime {
+            repeat(antallKall) {
+                StringUtils.normalizeSpace(javaClass.getResource("/graphql/journalpost.graphql")!!.readText().replace("\n", ""))
+            }
+        } / antallKall
+        val tidPerKallNy = measureNanoTime { repeat(antallKall) { JournalpostQuery(it.toLong()).getQuery() } } / antallKall
+
+        LOGGER.info("Spørringsdokument per kall: lest fra ressurs ${tidPerKallGammel}ns, fra register ${tidPerKallNy}ns")
+    }
+
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(GraphQueryDokumenterTest::class.java)
+    }
+}
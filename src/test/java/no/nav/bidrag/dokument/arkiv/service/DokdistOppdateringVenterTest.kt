@@ -0,0 +1,83 @@
+package no.nav.bidrag.dokument.arkiv.service
+
+import io.kotest.matchers.shouldBe
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import no.nav.bidrag.dokument.arkiv.consumer.JournalpostCache
+import no.nav.bidrag.dokument.arkiv.dto.DOKDIST_BESTILLING_ID
+import no.nav.bidrag.dokument.arkiv.dto.JournalStatus
+import no.nav.bidrag.dokument.arkiv.dto.Journalpost
+import no.nav.bidrag.dokument.arkiv.dto.TilleggsOpplysninger
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import java.time.Duration
+
+@DisplayName("DokdistOppdateringVenter")
+class DokdistOppdateringVenterTest {
+    private val meterRegistry = SimpleMeterRegistry()
+    private val venter = DokdistOppdateringVenter(
+        JournalpostCache(false, 10, Duration.ofMinutes(5), meterRegistry),
+        meterRegistry,
+        Duration.ofSeconds(2),
+        Duration.ofMillis(10),
+    )
+
+    @Test
+    fun `skal gå videre så snart journalposten har bestillingsId`() {
+        var antallHentinger = 0
+
+        val journalpost = venter.ventPaOppdatering(1) {
+            antallHentinger++
+            if (antallHentinger < 3) Journalpost() else Journalpost(tilleggsopplysninger = medBestillingId())
+        }
+
+        journalpost.tilleggsopplysninger.hentBestillingId() shouldBe "BESTILLING_ID"
+        antallHentinger shouldBe 3
+        antall("oppdatert") shouldBe 1
+    }
+
+    @Test
+    fun `skal gå videre når journalposten er ekspedert`() {
+        var antallHentinger = 0
+
+        venter.ventPaOppdatering(1) {
+            antallHentinger++
+            Journalpost(journalstatus = JournalStatus.EKSPEDERT)
+        }
+
+        antallHentinger shouldBe 1
+    }
+
+    @Test
+    fun `skal gå videre med siste journalpost når fristen er nådd`() {
+        val venterMedKortFrist = DokdistOppdateringVenter(
+            JournalpostCache(false, 10, Duration.ofMinutes(5), meterRegistry),
+            meterRegistry,
+            Duration.ofMillis(100),
+            Duration.ofMillis(10),
+        )
+        var antallHentinger = 0
+        val start = System.nanoTime()
+
+        val journalpost = venterMedKortFrist.ventPaOppdatering(1) {
+            antallHentinger++
+            Journalpost(journalfortAvNavn = antallHentinger.toString())
+        }
+
+        (Duration.ofNanos(System.nanoTime() - start) < Duration.ofSeconds(1)) shouldBe true
+        journalpost.journalfortAvNavn shouldBe antallHentinger.toString()
+        // Ventetiden dobles: 10, 20 og 40 ms før fristen på 100 ms, så det hentes høyst fire ganger
+        (antallHentinger in 2..4) shouldBe true
+        antall("frist") shouldBe 1
+    }
+
+    private fun medBestillingId(): TilleggsOpplysninger {
+        val tilleggsopplysninger = TilleggsOpplysninger()
+        tilleggsopplysninger.add(mapOf("nokkel" to DOKDIST_BESTILLING_ID, "verdi" to "BESTILLING_ID"))
+        return tilleggsopplysninger
+    }
+
+    private fun antall(resultat: String): Long = meterRegistry.find(DokdistOppdateringVenter.DISTRIBUSJON_VENTING_TIMER_NAME)
+        .tag("resultat", resultat)
+        .timers()
+        .sumOf { it.count() }
+}
@@ -26,6 +26,7 @@ import no.nav.bidrag.dokument.arkiv.dto.OppgaveData
 import no.nav.bidrag.dokument.arkiv.dto.OppgaveSokResponse
 import no.nav.bidrag.dokument.arkiv.dto.SaksbehandlerInfoResponse
 import no.nav.bidrag.dokument.arkiv.dto.TilknyttetJournalpost
+import no.nav.bidrag.dokument.arkiv.query.JournalposterQuery
 import no.nav.bidrag.domene.enums.adresse.Adressetype
 import no.nav.bidrag.domene.land.Landkode2
 import no.nav.bidrag.domene.land.Landkode3
@@ -172,10 +173,12 @@ class Stubs {
         )
     }
 
-    fun mockBestmDistribusjonskanal(response: BestemKanalResponse, status: HttpStatus = HttpStatus.OK) {
+    fun mockBestmDistribusjonskanal(response: BestemKanalResponse, status: HttpStatus = HttpStatus.OK, brukerId: String? = null) {
         try {
+            val request = WireMock.post(WireMock.urlMatching("/dokdistkanal/rest/bestemDistribusjonskanal"))
+            brukerId?.let { request.withRequestBody(ContainsPattern("\"brukerId\":\"$it\"")) }
             WireMock.stubFor(
-                WireMock.post(WireMock.urlMatching("/dokdistkanal/rest/bestemDistribusjonskanal"))
+                request
                     .willReturn(
                         aClosedJsonResponse()
                             .withStatus(status.value())
@@ -221,6 +224,51 @@ class Stubs {
         )
     }
 
+    fun mockSafDokumentTilgang(dokumentInfoId: String, saksbehandlerHarTilgang: Boolean) {
+        WireMock.stubFor(
+            WireMock.post(WireMock.urlEqualTo("/saf/graphql"))
+                .withRequestBody(ContainsPattern("query dokumentTilgang"))
+                .willReturn(
+                    aClosedJsonResponse()
+                        .withStatus(HttpStatus.OK.value())
+                        .withBody(
+                            """
+                            {"data": {"journalpost": {"dokumenter": [{"dokumentInfoId": "$dokumentInfoId", "dokumentvarianter": [
+                              {"variantformat": "ARKIV", "saksbehandlerHarTilgang": $saksbehandlerHarTilgang}
+                            ]}]}}}
+                            """.trimIndent(),
+                        ),
+                ),
+        )
+    }
+
+    fun mockSafHentDokumentPdfResponse(dokument: ByteArray) {
+        WireMock.stubFor(
+            WireMock.get(WireMock.urlMatching("/saf/rest/hentdokument/.*")).willReturn(
+                WireMock.aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withHeader(HttpHeaders.CONTENT_TYPE, "application/pdf")
+                    .withHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=dokument.pdf")
+                    .withHeader(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .withBody(dokument),
+            ),
+        )
+    }
+
+    fun mockSafHentDokumentRangeResponse(dokument: ByteArray, fra: Int, til: Int) {
+        WireMock.stubFor(
+            WireMock.get(WireMock.urlMatching("/saf/rest/hentdokument/.*"))
+                .withHeader(HttpHeaders.RANGE, WireMock.equalTo("bytes=$fra-$til"))
+                .willReturn(
+                    WireMock.aResponse()
+                        .withStatus(HttpStatus.PARTIAL_CONTENT.value())
+                        .withHeader(HttpHeaders.CONTENT_TYPE, "application/pdf")
+                        .withHeader(HttpHeaders.CONTENT_RANGE, "bytes $fra-$til/${dokument.size}")
+                        .withBody(dokument.copyOfRange(fra, til + 1)),
+                ),
+        )
+    }
+
     @Throws(JsonProcessingException::class)
     fun mockBidragDokumentHentDokumentResponse(dokumentref: String = "(.*)", response: ByteArray = DOKUMENT_FIL.toByteArray()) {
         WireMock.stubFor(
@@ -389,6 +437,28 @@ class Stubs {
         }
     }
 
+    /**
+     * Svarer på oppslag av flere journalposter i samme spørring. Journalposter som er null gir not_found fra SAF.
+     */
+    fun mockSafResponseHentJournalposter(journalposter: List<Journalpost?>) {
+        val data = journalposter.withIndex().joinToString(",") { (index, journalpost) ->
+            "\"${JournalposterQuery.alias(index)}\": ${objectMapper.writeValueAsString(journalpost)}"
+        }
+        val errors = journalposter.withIndex().filter { it.value == null }.joinToString(",") { (index, _) ->
+            "{\"message\": \"Fant ikke journalpost\", \"path\": [\"${JournalposterQuery.alias(index)}\"], \"extensions\": {\"code\": \"not_found\"}}"
+        }
+        WireMock.stubFor(
+            WireMock.post(WireMock.urlEqualTo("/saf/graphql"))
+                .withRequestBody(ContainsPattern("query journalposter"))
+                .willReturn(
+                    aClosedJsonResponse()
+                        .withHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                        .withStatus(HttpStatus.OK.value())
+                        .withBody("{\"errors\": [$errors], \"data\": {$data}}"),
+                ),
+        )
+    }
+
     @JvmOverloads
     fun mockSafResponseHentJournalpost(journalpost: Journalpost?, scenarioState: String? = null, nextScenario: String? = null) {
         try {
@@ -482,6 +552,34 @@ class Stubs {
         }
     }
 
+    fun mockSafResponseDokumentOversiktFagsakSider(sider: List<List<Journalpost>>) {
+        sider.forEachIndexed { index, journalposter ->
+            val request = WireMock.post(WireMock.urlEqualTo("/saf/graphql"))
+                .withRequestBody(ContainsPattern("query dokumentoversiktFagsak"))
+            WireMock.stubFor(
+                (if (index == 0) request.atPriority(2) else request.withRequestBody(ContainsPattern("\"etter\":\"side-$index\"")).atPriority(1))
+                    .willReturn(
+                        aClosedJsonResponse()
+                            .withStatus(HttpStatus.OK.value())
+                            .withBody(
+                                "{\"data\":{\"dokumentoversiktFagsak\":{\"journalposter\": %s, \"sideInfo\": {\"sluttpeker\": \"side-%s\", \"finnesNesteSide\": %s}}}}"
+                                    .format(objectMapper.writeValueAsString(journalposter), index + 1, index < sider.size - 1),
+                            ),
+                    ),
+            )
+        }
+    }
+
+    fun mockSafResponseDokumentOversiktFagsakFeil(etter: String, status: HttpStatus) {
+        WireMock.stubFor(
+            WireMock.post(WireMock.urlEqualTo("/saf/graphql"))
+                .withRequestBody(ContainsPattern("query dokumentoversiktFagsak"))
+                .withRequestBody(ContainsPattern("\"etter\":\"$etter\""))
+                .atPriority(1)
+                .willReturn(aClosedJsonResponse().withStatus(status.value())),
+        )
+    }
+
     fun mockSokOppgave() {
         try {
             WireMock.stubFor(
@@ -586,6 +684,22 @@ class Stubs {
         }
     }
 
+    fun mockPersonResponseMedForsinkelse(personer: List<PersonDto>, forsinkelseMs: Int) {
+        personer.forEach { person ->
+            WireMock.stubFor(
+                WireMock.post(WireMock.urlMatching("/person/.*/informasjon"))
+                    .withRequestBody(ContainsPattern(person.aktørId!!))
+                    .atPriority(1)
+                    .willReturn(
+                        aClosedJsonResponse()
+                            .withStatus(HttpStatus.OK.value())
+                            .withFixedDelay(forsinkelseMs)
+                            .withBody(ObjectMapper().writeValueAsString(person)),
+                    ),
+            )
+        }
+    }
+
     class VerifyStub {
         fun hentEttersendingKalt(times: Int, vararg contains: String?) {
             val requestPattern =
@@ -752,6 +866,13 @@ class Stubs {
             WireMock.verify(requestPattern)
         }
 
+        fun safHentDokumentKalt(antall: Int) {
+            WireMock.verify(
+                WireMock.exactly(antall),
+                WireMock.getRequestedFor(WireMock.urlMatching("/saf/rest/hentdokument/.*")),
+            )
+        }
+
         fun safHentDokumentKalt(journalpostId: Long?, dokumentId: Long?) {
             val requestPattern =
                 WireMock.getRequestedFor(
@@ -785,6 +906,13 @@ class Stubs {
             )
         }
 
+        fun bidragPersonEnkeltKalt(antall: Int) {
+            WireMock.verify(
+                WireMock.exactly(antall),
+                WireMock.postRequestedFor(WireMock.urlMatching("/person/.*/informasjon")),
+            )
+        }
+
         fun bidragPersonIkkeKalt() {
             WireMock.verify(
                 0,
@@ -803,6 +931,20 @@ class Stubs {
             WireMock.verify(requestPattern)
         }
 
+        fun dokdistFordelingKalt(antall: Int) {
+            WireMock.verify(
+                WireMock.exactly(antall),
+                WireMock.postRequestedFor(WireMock.urlMatching("/dokdistfordeling/.*")),
+            )
+        }
+
+        fun dokdistKanalKalt(antall: Int) {
+            WireMock.verify(
+                WireMock.exactly(antall),
+                WireMock.postRequestedFor(WireMock.urlMatching("/dokdistkanal/rest/bestemDistribusjonskanal")),
+            )
+        }
+
         fun dokdistFordelingIkkeKalt() {
             WireMock.verify(
                 0,
@@ -810,6 +952,17 @@ class Stubs {
             )
         }
 
+        fun dokarkivOppdaterKalt(times: Int, journalpostId: Long, vararg contains: String?) {
+            val requestPattern =
+                WireMock.putRequestedFor(WireMock.urlEqualTo("/dokarkiv" + DokarkivConsumer.URL_JOURNALPOSTAPI_V1 + '/' + journalpostId))
+            Arrays.stream(contains).forEach { contain: String? ->
+                requestPattern.withRequestBody(
+                    ContainsPattern(contain),
+                )
+            }
+            WireMock.verify(WireMock.exactly(times), requestPattern)
+        }
+
         fun dokarkivFerdigstillKalt(times: Int, journalpostId: Long, vararg contains: String?) {
             val requestPattern =
                 WireMock.patchRequestedFor(
@@ -899,6 +1052,14 @@ class Stubs {
             )
         }
 
+        fun harSafKallEtterDokumentTilgang(antall: Int) {
+            WireMock.verify(
+                WireMock.exactly(antall),
+                WireMock.postRequestedFor(WireMock.urlEqualTo("/saf/graphql"))
+                    .withRequestBody(ContainsPattern("query dokumentTilgang")),
+            )
+        }
+
         fun harSafKallEtterHentJournalpost(antall: Int?) {
             WireMock.verify(
                 antall!!,
@@ -914,6 +1075,13 @@ class Stubs {
             )
         }
 
+        fun harSafKallEtterDokumentOversiktFagsak(antall: Int, vararg contains: String) {
+            val requestPattern = WireMock.postRequestedFor(WireMock.urlEqualTo("/saf/graphql"))
+                .withRequestBody(ContainsPattern("query dokumentoversiktFagsak"))
+            contains.forEach { requestPattern.withRequestBody(ContainsPattern(it)) }
+            WireMock.verify(WireMock.exactly(antall), requestPattern)
+        }
+
         fun harEnSafKallEtterTilknyttedeJournalposter() {
             harEnSafKallEtterTilknyttedeJournalposter(1)
         }
@@ -0,0 +1,81 @@
+package no.nav.bidrag.dokument.arkiv.utils
+
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.DisplayName
+import org.junit.jupiter.api.Test
+import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.roundToLong
+
+/**
+ * Testene bruker en egen klokke som flyttes fram når hastighetsbegrenseren venter, slik at ventetiden ikke avhenger av maskinen.
+ * Tiden det tar på en ekte klokke logges bare.
+ */
+@DisplayName("Hastighetsbegrenser")
+class HastighetsbegrenserTest {
+    companion object {
+        private val LOGGER = LoggerFactory.getLogger(HastighetsbegrenserTest::class.java)
+    }
+
+    private val klokke = AtomicLong()
+    private val ventetider = mutableListOf<Duration>()
+    private fun hastighetsbegrenser(perSekund: Double) = Hastighetsbegrenser(perSekund, klokke::get) { ventetid ->
+        synchronized(ventetider) { ventetider.add(ventetid) }
+    }
+
+    private fun ventetiderMs() = ventetider.map { (it.toNanos() / 1_000_000.0).roundToLong() }
+
+    @Test
+    fun `skal slippe gjennom en hel bøtte uten å vente`() {
+        val hastighetsbegrenser = hastighetsbegrenser(20.0)
+
+        repeat(20) { hastighetsbegrenser.ventPaPlass() }
+
+        ventetider shouldBe emptyList()
+    }
+
+    @Test
+    fun `skal vente når bøtta er tom`() {
+        val hastighetsbegrenser = hastighetsbegrenser(20.0)
+        repeat(20) { hastighetsbegrenser.ventPaPlass() }
+
+        repeat(5) { hastighetsbegrenser.ventPaPlass() }
+
+        // Med 20 i sekundet må hvert kall vente 50 ms lenger enn det forrige
+        ventetiderMs() shouldBe (1..5L).map { 50 * it }
+    }
+
+    @Test
+    fun `skal fylle bøtta etter hvert som tiden går`() {
+        val hastighetsbegrenser = hastighetsbegrenser(20.0)
+        repeat(20) { hastighetsbegrenser.ventPaPlass() }
+
+        klokke.addAndGet(Duration.ofMillis(100).toNanos())
+        repeat(2) { hastighetsbegrenser.ventPaPlass() }
+        hastighetsbegrenser.ventPaPlass()
+
+        ventetiderMs() shouldBe listOf(50L)
+    }
+
+    @Test
+    fun `skal fordele ventetiden mellom trådene`() {
+        val hastighetsbegrenser = hastighetsbegrenser(50.0)
+        repeat(50) { hastighetsbegrenser.ventPaPlass() }
+
+        (1..4).map { Thread.ofVirtual().start { repeat(10) { hastighetsbegrenser.ventPaPlass() } } }.forEach { it.join() }
+
+        // 40 plasser med 50 i sekundet gir ventetider fra 20 ms til 800 ms, én for hver plass
+        ventetiderMs().sorted() shouldBe (1..40L).map { 20 * it }
+    }
+
+    @Test
+    fun `skal logge tiden med ekte klokke`() {
+        val hastighetsbegrenser = Hastighetsbegrenser(50.0)
+        repeat(50) { hastighetsbegrenser.ventPaPlass() }
+
+        val start = System.nanoTime()
+        (1..4).map { Thread.ofVirtual().start { repeat(10) { hastighetsbegrenser.ventPaPlass() } } }.forEach { it.join() }
+        LOGGER.info("4 tråder tok 10 plasser hver med 50 i sekundet på {} ms", (System.nanoTime() - start) / 1_000_000)
+    }
+}